@@ -76,6 +76,12 @@ public abstract class Attribute {
    */
   public static final String LATENCY = "latency";
   
+  /**
+   * For a {@link com.orbitz.monitoring.api.monitor.TransactionMonitor} timed with
+   * {@link System#nanoTime()}, the duration of the transaction in nanoseconds
+   */
+  public static final String LATENCY_NANOS = "latencyNanos";
+  
   /**
    * If the {@link Monitor monitor} failed because of a {@link Throwable}, the {@link Throwable}
    * that caused the failure.
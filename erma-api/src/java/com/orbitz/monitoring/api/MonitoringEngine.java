@@ -1,6 +1,10 @@
 package com.orbitz.monitoring.api;
 
+import com.orbitz.monitoring.api.engine.InvocationStatistics;
+import com.orbitz.monitoring.api.engine.LifecyclePhase;
 import com.orbitz.monitoring.api.engine.MapBasedInheritableStrategy;
+import com.orbitz.monitoring.api.engine.OverheadGovernor;
+import com.orbitz.monitoring.api.engine.ProcessorInstrumentation;
 import com.orbitz.monitoring.api.monitor.AttributeHolder;
 import com.orbitz.monitoring.api.monitor.AttributeMap;
 
@@ -33,25 +37,29 @@ class MonitoringEngine {
   
   private static final MonitoringEngine instance = new MonitoringEngine();
   
-  private static final ProcessClosure MONITOR_CREATED_CLOSURE = new ProcessClosure() {
+  private static final ProcessClosure MONITOR_CREATED_CLOSURE =
+      new ProcessClosure(LifecyclePhase.CREATED) {
     public void processWithProcessor(final Monitor monitor, final MonitorProcessor processor) {
       processor.monitorCreated(monitor);
     }
   };
   
-  private static final ProcessClosure MONITOR_STARTED_CLOSURE = new ProcessClosure() {
+  private static final ProcessClosure MONITOR_STARTED_CLOSURE =
+      new ProcessClosure(LifecyclePhase.STARTED) {
     public void processWithProcessor(final Monitor monitor, final MonitorProcessor processor) {
       processor.monitorStarted(monitor);
     }
   };
   
-  private static final ProcessClosure PROCESS_CLOSURE = new ProcessClosure() {
+  private static final ProcessClosure PROCESS_CLOSURE =
+      new ProcessClosure(LifecyclePhase.PROCESS) {
     public void processWithProcessor(final Monitor monitor, final MonitorProcessor processor) {
       processor.process(monitor);
     }
   };
   
-  private boolean monitoringEnabled = true;
+  private volatile boolean monitoringEnabled = true;
+  private volatile boolean nanoTimingEnabled;
   private boolean running;
   
   private MonitorProcessorFactory processorFactory;
@@ -60,15 +68,19 @@ class MonitoringEngine {
   
   private final AttributeMap globalAttributes;
   
-  private final Map<String, Object> monitorLevels;
+  // copied on write, so levels can be looked up without locking
+  private volatile Map<String, MonitoringLevel> monitorLevels;
   private final Map monitorProcessorLevels;
   
   private Runnable startupRunnable;
   
+  private volatile ProcessorInstrumentation instrumentation;
+  private volatile OverheadGovernor overheadGovernor;
+  
   protected MonitoringEngine() {
     monitorProcessorLevels = new HashMap();
     
-    monitorLevels = new TreeMap(Collections.reverseOrder());
+    monitorLevels = newMonitorLevels();
     
     globalAttributes = new AttributeMap();
     
@@ -131,7 +143,9 @@ class MonitoringEngine {
       log.info("MonitoringEngine shutting down");
       globalAttributes.clear();
       monitorProcessorLevels.clear();
-      monitorLevels.clear();
+      synchronized (this) {
+        monitorLevels = newMonitorLevels();
+      }
       running = false;
       processorFactory.shutdown();
       inheritableStrategy.shutdown();
@@ -214,7 +228,14 @@ class MonitoringEngine {
       return;
     }
     
-    handleMonitor(monitor, MONITOR_CREATED_CLOSURE);
+    final OverheadGovernor governor = overheadGovernor;
+    if ((governor != null) && governor.shouldSample()) {
+      final long cpuStart = governor.currentThreadCpuTime();
+      handleMonitor(monitor, MONITOR_CREATED_CLOSURE);
+      governor.record(monitor, governor.currentThreadCpuTime() - cpuStart);
+    } else {
+      handleMonitor(monitor, MONITOR_CREATED_CLOSURE);
+    }
   }
   
   /**
@@ -228,7 +249,14 @@ class MonitoringEngine {
       return;
     }
     
-    handleMonitor(monitor, MONITOR_STARTED_CLOSURE);
+    final OverheadGovernor governor = overheadGovernor;
+    if ((governor != null) && governor.shouldSample()) {
+      final long cpuStart = governor.currentThreadCpuTime();
+      handleMonitor(monitor, MONITOR_STARTED_CLOSURE);
+      governor.record(monitor, governor.currentThreadCpuTime() - cpuStart);
+    } else {
+      handleMonitor(monitor, MONITOR_STARTED_CLOSURE);
+    }
   }
   
   /**
@@ -242,9 +270,16 @@ class MonitoringEngine {
       return;
     }
     
-    inheritableStrategy.processMonitorForCompositeMonitor(monitor);
-    
-    handleMonitor(monitor, PROCESS_CLOSURE);
+    final OverheadGovernor governor = overheadGovernor;
+    if ((governor != null) && governor.shouldSample()) {
+      final long cpuStart = governor.currentThreadCpuTime();
+      inheritableStrategy.processMonitorForCompositeMonitor(monitor);
+      handleMonitor(monitor, PROCESS_CLOSURE);
+      governor.record(monitor, governor.currentThreadCpuTime() - cpuStart);
+    } else {
+      inheritableStrategy.processMonitorForCompositeMonitor(monitor);
+      handleMonitor(monitor, PROCESS_CLOSURE);
+    }
   }
   
   /**
@@ -482,12 +517,17 @@ class MonitoringEngine {
    * <p>
    * This method catchs Throwable to ensure that the client code is not affected by errors in the
    * monitoring framework. Throwables thrown from processors are also caught separately to ensure
-   * that one failing processor does not affect other working processors.
+   * that one failing processor does not affect other working processors. When instrumentation is
+   * enabled, each processor call and the phase as a whole are also timed and counted.
    * 
    * @param monitor the monitor to handle
    * @param closure the work we should perform across each processor
    */
   private void handleMonitor(final Monitor monitor, final ProcessClosure closure) {
+    // read once, so a call is timed either completely or not at all
+    final ProcessorInstrumentation instrumentation = this.instrumentation;
+    final long phaseStart = (instrumentation == null) ? 0 : System.nanoTime();
+    boolean phaseFailed = false;
     try {
       final MonitorProcessor[] processors = processorFactory.getProcessorsForMonitor(monitor);
       
@@ -496,16 +536,29 @@ class MonitoringEngine {
       }
       
       for (int i = 0; i < processors.length; i++) {
+        final long start = (instrumentation == null) ? 0 : System.nanoTime();
+        boolean failed = false;
         try {
           closure.processWithProcessor(monitor, processors[i]);
         } catch (final Throwable t) {
+          failed = true;
           log.warn(
               "Throwable caught while processing " + monitor + "; application is unaffected: ", t);
         }
+        if (instrumentation != null) {
+          instrumentation.getProcessorStatistics(processors[i])[closure.phase.ordinal()]
+              .record(System.nanoTime() - start, failed);
+          phaseFailed |= failed;
+        }
       }
     } catch (final Throwable t) {
+      phaseFailed = true;
       log.warn("Throwable caught while processing " + monitor + "; application is unaffected: ", t);
     }
+    if (instrumentation != null) {
+      instrumentation.getPhaseStatistics(closure.phase).record(System.nanoTime() - phaseStart,
+          phaseFailed);
+    }
   }
   
   private void inheritGlobals(final Monitor monitor) {
@@ -576,10 +629,74 @@ class MonitoringEngine {
     this.inheritableStrategy = inheritableStrategy;
   }
   
+  /**
+   * Gets whether monitoring has been switched on, regardless of whether the engine is running.
+   * Monitors created while this is false skip their lifecycle entirely.
+   * @return false if monitoring was switched off with {@link #setMonitoringEnabled(boolean)}
+   */
+  public boolean isMonitoringEnabled() {
+    return monitoringEnabled;
+  }
+  
   public void setMonitoringEnabled(final boolean monitoringEnabled) {
     this.monitoringEnabled = monitoringEnabled;
   }
   
+  /**
+   * Gets whether transaction monitors are timed with {@link System#nanoTime()}
+   * 
+   * @return true if transaction latency is measured in nanoseconds
+   */
+  public boolean isNanoTimingEnabled() {
+    return nanoTimingEnabled;
+  }
+  
+  /**
+   * Sets whether transaction monitors are timed with {@link System#nanoTime()}. When enabled,
+   * {@link com.orbitz.monitoring.api.monitor.TransactionMonitor} records
+   * {@link Attribute#LATENCY_NANOS} and derives {@link Attribute#LATENCY} from it, so latency is
+   * not affected by changes to the system clock, and creates its start and end time {@link Date
+   * dates} only when they are read. Off by default. Applies to monitors created after the change.
+   * 
+   * @param nanoTimingEnabled true to time transactions with the monotonic clock
+   */
+  public void setNanoTimingEnabled(final boolean nanoTimingEnabled) {
+    this.nanoTimingEnabled = nanoTimingEnabled;
+  }
+  
+  /**
+   * Gets whether the time each processor takes, and how often it fails, is being recorded
+   * 
+   * @return true if processor calls are instrumented
+   */
+  public boolean isInstrumentationEnabled() {
+    return instrumentation != null;
+  }
+  
+  /**
+   * Starts or stops recording the count, latency and failures of processor calls in each
+   * lifecycle phase. Instrumentation is off by default; while it is off, calling processors costs
+   * nothing extra. Turning it off discards what has been recorded.
+   * 
+   * @param instrumentationEnabled true to record processor calls
+   */
+  public void setInstrumentationEnabled(final boolean instrumentationEnabled) {
+    if (instrumentationEnabled && (instrumentation == null)) {
+      instrumentation = new ProcessorInstrumentation();
+    } else if (!instrumentationEnabled) {
+      instrumentation = null;
+    }
+  }
+  
+  /**
+   * Gets the processor call statistics recorded since instrumentation was enabled
+   * 
+   * @return the statistics, or null if instrumentation is not enabled
+   */
+  public ProcessorInstrumentation getInstrumentation() {
+    return instrumentation;
+  }
+  
   public void addProcessorLevel(final String name, final MonitoringLevel level) {
     if (name == null) {
       throw new NullPointerException("null processor name");
@@ -592,7 +709,8 @@ class MonitoringEngine {
     return monitorProcessorLevels.toString();
   }
   
-  public void addMonitorLevel(final String nameStartsWith, final MonitoringLevel level) {
+  public synchronized void addMonitorLevel(final String nameStartsWith,
+      final MonitoringLevel level) {
     if (nameStartsWith == null) {
       throw new NullPointerException("null monitor name");
     }
@@ -600,7 +718,37 @@ class MonitoringEngine {
       throw new RuntimeException("Attempt to exceed max cache size for override levels");
     }
     
-    monitorLevels.put(nameStartsWith, level);
+    final Map<String, MonitoringLevel> levels = newMonitorLevels();
+    levels.putAll(monitorLevels);
+    levels.put(nameStartsWith, level);
+    monitorLevels = levels;
+  }
+  
+  /**
+   * Removes a level override added by {@link #addMonitorLevel(String, MonitoringLevel)}
+   * 
+   * @param nameStartsWith the name or prefix the override was added for
+   * @return the level that was removed, or null if there was no override for exactly that prefix
+   */
+  public synchronized MonitoringLevel removeMonitorLevel(final String nameStartsWith) {
+    if (!monitorLevels.containsKey(nameStartsWith)) {
+      return null;
+    }
+    final Map<String, MonitoringLevel> levels = newMonitorLevels();
+    levels.putAll(monitorLevels);
+    final MonitoringLevel removed = levels.remove(nameStartsWith);
+    monitorLevels = levels;
+    return removed;
+  }
+  
+  /**
+   * Gets the level override added for exactly a name or prefix
+   * 
+   * @param nameStartsWith the name or prefix
+   * @return the override, or null if none was added for it
+   */
+  public MonitoringLevel getMonitorLevel(final String nameStartsWith) {
+    return monitorLevels.get(nameStartsWith);
   }
   
   public String getOverrideMonitorLevelsListing() {
@@ -628,10 +776,14 @@ class MonitoringEngine {
    */
   public MonitoringLevel getOverrideLevelForMonitor(final Monitor monitor) {
     String keyToUse = null;
+    final Map<String, MonitoringLevel> levels = monitorLevels;
+    if (levels.isEmpty()) {
+      return null;
+    }
     final String name = monitor.getAsString(Attribute.NAME);
 
     if (name != null) {
-      for (String key : monitorLevels.keySet()) {
+      for (String key : levels.keySet()) {
         if (name.startsWith(key)) {
           keyToUse = key;
           break;
@@ -639,7 +791,49 @@ class MonitoringEngine {
       }
     }
     
-    return (keyToUse != null ? (MonitoringLevel)monitorLevels.get(keyToUse) : null);
+    return (keyToUse != null ? levels.get(keyToUse) : null);
+  }
+  
+  /**
+   * Gets the level a monitor is processed at: the {@link #getOverrideLevelForMonitor(Monitor)
+   * override} for its name if there is one, otherwise its own level, lowered to DEBUG if it is an
+   * INFO monitor whose name the {@link #getOverheadGovernor() overhead governor} is throttling
+   * 
+   * @param monitor the monitor
+   * @param level the level the monitor was created with
+   * @return the level to use
+   */
+  public MonitoringLevel getLevelForMonitor(final Monitor monitor, final MonitoringLevel level) {
+    final MonitoringLevel overrideLevel = getOverrideLevelForMonitor(monitor);
+    if (overrideLevel != null) {
+      return overrideLevel;
+    }
+    final OverheadGovernor governor = overheadGovernor;
+    if ((governor != null) && (level == MonitoringLevel.INFO)
+        && governor.isThrottled(monitor)) {
+      return MonitoringLevel.DEBUG;
+    }
+    return level;
+  }
+  
+  /**
+   * Gets the governor that sheds monitoring load when the engine's overhead is too high
+   * 
+   * @return the governor, or null if there is none
+   */
+  public OverheadGovernor getOverheadGovernor() {
+    return overheadGovernor;
+  }
+  
+  /**
+   * Sets the governor that samples the CPU time spent in the engine and sheds load when it is too
+   * high. The governor decides what to do when its {@link OverheadGovernor#evaluate()} method is
+   * called, which is left to the caller to schedule.
+   * 
+   * @param overheadGovernor the governor, or null for none
+   */
+  public void setOverheadGovernor(final OverheadGovernor overheadGovernor) {
+    this.overheadGovernor = overheadGovernor;
   }
   
   public void setInheritable(final CompositeMonitor compositeMonitor, final String key,
@@ -649,8 +843,19 @@ class MonitoringEngine {
     }
   }
   
-  private static interface ProcessClosure {
-    public void processWithProcessor(Monitor monitor, MonitorProcessor processor);
+  private static Map<String, MonitoringLevel> newMonitorLevels() {
+    // longest prefixes first, so the most specific override wins
+    return new TreeMap<String, MonitoringLevel>(Collections.<String>reverseOrder());
+  }
+  
+  private abstract static class ProcessClosure {
+    private final LifecyclePhase phase;
+    
+    ProcessClosure(final LifecyclePhase phase) {
+      this.phase = phase;
+    }
+    
+    public abstract void processWithProcessor(Monitor monitor, MonitorProcessor processor);
   }
   
 }
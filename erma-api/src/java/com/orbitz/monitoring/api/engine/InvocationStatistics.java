@@ -0,0 +1,163 @@
+package com.orbitz.monitoring.api.engine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts invocations, the time they took, the ones that failed and a histogram of their latency.
+ * Every thread adds to one of several stripes, chosen by its id, so threads running on different
+ * cores rarely write to the same cache line; reads sum the stripes. Readings taken while
+ * invocations are being recorded may be off by the invocations in flight.
+ * <p>
+ * Latencies are bucketed by powers of two from 1 microsecond: bucket 0 holds invocations under
+ * 1us, bucket <i>n</i> those under 2<sup><i>n</i></sup>us, and the last bucket everything slower.
+ */
+public class InvocationStatistics {
+  /** The number of latency buckets */
+  public static final int BUCKETS = 22;
+
+  private static final int COUNT = 0;
+  private static final int NANOS = 1;
+  private static final int ERRORS = 2;
+  private static final int FIRST_BUCKET = 3;
+  // each stripe is padded to a whole number of cache lines
+  private static final int STRIPE_LENGTH = 32;
+  private static final int MAX_STRIPES = 16;
+
+  private static final int STRIPES = stripes();
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIPE_LENGTH);
+
+  /**
+   * Records one invocation
+   * @param nanos how long it took
+   * @param failed true if it threw
+   */
+  public void record(long nanos, boolean failed) {
+    int base = ((int)Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_LENGTH;
+    cells.incrementAndGet(base + COUNT);
+    cells.addAndGet(base + NANOS, nanos);
+    if (failed) {
+      cells.incrementAndGet(base + ERRORS);
+    }
+    cells.incrementAndGet(base + FIRST_BUCKET + bucket(nanos));
+  }
+
+  /**
+   * @return the number of invocations
+   */
+  public long getCount() {
+    return sum(COUNT);
+  }
+
+  /**
+   * @return the total time spent in invocations
+   */
+  public long getTotalNanos() {
+    return sum(NANOS);
+  }
+
+  /**
+   * @return the number of invocations that threw
+   */
+  public long getErrors() {
+    return sum(ERRORS);
+  }
+
+  /**
+   * @return the mean time an invocation took, in nanoseconds
+   */
+  public double getMeanNanos() {
+    long count = getCount();
+    return (count == 0) ? 0 : (double)getTotalNanos() / count;
+  }
+
+  /**
+   * @return the number of invocations in each latency bucket
+   */
+  public long[] getBucketCounts() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = sum(FIRST_BUCKET + i);
+    }
+    return counts;
+  }
+
+  /**
+   * Estimates a latency percentile
+   * @param percentile the percentile, from 0 to 100
+   * @return the upper bound of the bucket the percentile falls in, in nanoseconds, or
+   *         {@link Long#MAX_VALUE} if it falls in the last bucket
+   */
+  public long getPercentileNanos(double percentile) {
+    long[] counts = getBucketCounts();
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return getBucketUpperBoundNanos(i);
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Sets all counts back to zero
+   */
+  public void reset() {
+    for (int i = 0; i < cells.length(); i++) {
+      cells.set(i, 0);
+    }
+  }
+
+  /**
+   * @param bucket a bucket index
+   * @return the exclusive upper bound of the bucket's latencies, in nanoseconds, or
+   *         {@link Long#MAX_VALUE} for the last bucket
+   */
+  public static long getBucketUpperBoundNanos(int bucket) {
+    return (bucket >= BUCKETS - 1) ? Long.MAX_VALUE : 1000L << bucket;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d errors=%d mean=%.1fus p50<%s p99<%s", getCount(), getErrors(),
+        getMeanNanos() / 1000, describe(getPercentileNanos(50)), describe(getPercentileNanos(99)));
+  }
+
+  private static String describe(long nanos) {
+    return (nanos == Long.MAX_VALUE) ? "inf" : (nanos / 1000) + "us";
+  }
+
+  private static int bucket(long nanos) {
+    long micros = nanos / 1000;
+    if (micros <= 0) {
+      return 0;
+    }
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+  }
+
+  private long sum(int offset) {
+    long sum = 0;
+    for (int i = offset; i < cells.length(); i += STRIPE_LENGTH) {
+      sum += cells.get(i);
+    }
+    return sum;
+  }
+
+  private static int stripes() {
+    int stripes = 1;
+    int processors = Runtime.getRuntime().availableProcessors();
+    while ((stripes < processors) && (stripes < MAX_STRIPES)) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+}
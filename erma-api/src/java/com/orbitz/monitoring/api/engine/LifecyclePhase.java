@@ -0,0 +1,15 @@
+package com.orbitz.monitoring.api.engine;
+
+import com.orbitz.monitoring.api.MonitorProcessor;
+
+/**
+ * The points in a monitor's lifetime at which the engine calls its processors
+ */
+public enum LifecyclePhase {
+  /** {@link MonitorProcessor#monitorCreated(com.orbitz.monitoring.api.Monitor)} */
+  CREATED,
+  /** {@link MonitorProcessor#monitorStarted(com.orbitz.monitoring.api.Monitor)} */
+  STARTED,
+  /** {@link MonitorProcessor#process(com.orbitz.monitoring.api.Monitor)} */
+  PROCESS
+}
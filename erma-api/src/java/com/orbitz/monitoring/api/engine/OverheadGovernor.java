@@ -0,0 +1,335 @@
+package com.orbitz.monitoring.api.engine;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.MonitoringLevel;
+
+import org.apache.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sheds monitoring load when the engine uses too much of the application's CPU. One in every
+ * {@link #getSampleInterval() sampleInterval} lifecycle calls each thread makes into
+ * {@link MonitoringEngine} is timed with the thread's CPU clock and charged to the monitor's name.
+ * Each time {@link #evaluate()} is called, the sampled time, scaled up, is compared to the CPU used
+ * by the process since the last evaluation.
+ * <p>
+ * While the engine's share is above {@link #getTargetOverhead() targetOverhead}, the names that
+ * cost the most are throttled: the engine reports INFO monitors of exactly those names as
+ * {@link MonitoringLevel#DEBUG}, so process groups at INFO and above stop handing them to
+ * processors. Throttled names are kept here rather than as
+ * {@link MonitoringEngine#addMonitorLevel(String, MonitoringLevel) level overrides}, which match
+ * by prefix, so other names starting with a throttled one are not affected. ESSENTIAL monitors are
+ * never demoted, and an operator's level override takes precedence over throttling. Once the share
+ * falls below {@link #getRelaxOverhead() relaxOverhead}, the most recently throttled name is
+ * restored at each evaluation.
+ * <p>
+ * The process CPU time is read from the VM's com.sun.management.OperatingSystemMXBean; on VMs
+ * without one the governor is not {@link #isSupported() supported} and does nothing.
+ */
+public class OverheadGovernor {
+  private static final Logger log = Logger.getLogger(OverheadGovernor.class);
+
+  private static final int MAX_TRACKED_NAMES = 1024;
+
+  private static final Method getProcessCpuTime = processCpuTimeMethod();
+
+  private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  private final boolean supported;
+
+  private int sampleMask = 63;
+  private double targetOverhead = 0.05;
+  private double relaxOverhead = 0.025;
+  private int maxShedNames = 16;
+
+  // counted per thread, so deciding whether to sample never contends across threads
+  private final ThreadLocal<int[]> calls = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+  private final AtomicLong sampledCpu = new AtomicLong();
+  private final ConcurrentMap<String, AtomicLong> cpuByName =
+      new ConcurrentHashMap<String, AtomicLong>();
+
+  private final LinkedList<String> shed = new LinkedList<String>();
+  private final ConcurrentMap<String, Boolean> throttled =
+      new ConcurrentHashMap<String, Boolean>();
+  private long lastProcessCpu = -1;
+  private volatile double overhead;
+
+  /**
+   * Creates a governor; it takes effect once passed to
+   * {@link MonitoringEngine#setOverheadGovernor(OverheadGovernor)}
+   */
+  public OverheadGovernor() {
+    boolean supported = threadBean.isCurrentThreadCpuTimeSupported()
+        && (getProcessCpuTime != null);
+    if (supported && !threadBean.isThreadCpuTimeEnabled()) {
+      try {
+        threadBean.setThreadCpuTimeEnabled(true);
+      } catch (UnsupportedOperationException e) {
+        supported = false;
+      }
+    }
+    this.supported = supported;
+  }
+
+  /**
+   * Called by the engine on every lifecycle call
+   * @return true if this call should be timed; each thread times one in every
+   *         {@link #getSampleInterval() sampleInterval} of its own calls
+   */
+  public boolean shouldSample() {
+    if (!supported) {
+      return false;
+    }
+    int[] count = calls.get();
+    return (++count[0] & sampleMask) == 0;
+  }
+
+  /**
+   * Called by the engine to find the level of INFO monitors
+   * @param monitor a monitor
+   * @return true if monitors of exactly its name are being throttled to DEBUG
+   */
+  public boolean isThrottled(Monitor monitor) {
+    if (throttled.isEmpty() || !monitor.hasAttribute(Attribute.NAME)) {
+      return false;
+    }
+    String name = monitor.getAsString(Attribute.NAME);
+    return (name != null) && throttled.containsKey(name);
+  }
+
+  /**
+   * @return the calling thread's CPU time, in nanoseconds
+   */
+  public long currentThreadCpuTime() {
+    return threadBean.getCurrentThreadCpuTime();
+  }
+
+  /**
+   * Charges the CPU time of a sampled call to its monitor
+   * @param monitor the monitor
+   * @param cpuNanos the CPU time the engine spent on it
+   */
+  public void record(Monitor monitor, long cpuNanos) {
+    if (cpuNanos <= 0) {
+      return;
+    }
+    sampledCpu.addAndGet(cpuNanos);
+    if (monitor.getLevel() != MonitoringLevel.INFO) {
+      return;
+    }
+    String name = monitor.getAsString(Attribute.NAME);
+    if (name == null) {
+      return;
+    }
+    AtomicLong cpu = cpuByName.get(name);
+    if (cpu == null) {
+      if (cpuByName.size() >= MAX_TRACKED_NAMES) {
+        return;
+      }
+      cpu = new AtomicLong();
+      AtomicLong existing = cpuByName.putIfAbsent(name, cpu);
+      if (existing != null) {
+        cpu = existing;
+      }
+    }
+    cpu.addAndGet(cpuNanos);
+  }
+
+  /**
+   * Measures the engine's share of CPU since the last evaluation and demotes or restores monitor
+   * names accordingly. Meant to be called every few seconds.
+   */
+  public synchronized void evaluate() {
+    if (!supported) {
+      return;
+    }
+    long processCpu = processCpuTime();
+    long engineCpu = sampledCpu.getAndSet(0) * (sampleMask + 1);
+    List<NameCost> names = drainNames();
+    if ((lastProcessCpu < 0) || (processCpu < 0)) {
+      lastProcessCpu = processCpu;
+      return;
+    }
+    long elapsedCpu = processCpu - lastProcessCpu;
+    lastProcessCpu = processCpu;
+    if (elapsedCpu <= 0) {
+      return;
+    }
+    overhead = Math.min(1, (double)engineCpu / elapsedCpu);
+
+    if (overhead > targetOverhead) {
+      // demote the costliest names until the estimated excess is covered
+      long excess = engineCpu - (long)(targetOverhead * elapsedCpu);
+      long covered = 0;
+      for (NameCost cost : names) {
+        if ((covered >= excess) || (shed.size() >= maxShedNames)) {
+          break;
+        }
+        String name = cost.name;
+        if (throttled.containsKey(name)) {
+          continue;
+        }
+        throttled.put(name, Boolean.TRUE);
+        shed.addLast(name);
+        covered += cost.cpu * (sampleMask + 1);
+        log.warn(String.format("Monitoring overhead is %.1f%%; demoted %s to DEBUG",
+            overhead * 100, name));
+      }
+    } else if ((overhead < relaxOverhead) && !shed.isEmpty()) {
+      String name = shed.removeLast();
+      throttled.remove(name);
+      log.info(String.format("Monitoring overhead is %.1f%%; restored %s", overhead * 100, name));
+    }
+  }
+
+  /**
+   * Restores every demoted name
+   */
+  public synchronized void restoreAll() {
+    shed.clear();
+    throttled.clear();
+  }
+
+  /**
+   * @return the engine's share of CPU time at the last evaluation, from 0 to 1
+   */
+  public double getOverhead() {
+    return overhead;
+  }
+
+  /**
+   * @return the names currently demoted, oldest first
+   */
+  public synchronized List<String> getShedNames() {
+    return new ArrayList<String>(shed);
+  }
+
+  /**
+   * @return true if this JVM can measure thread CPU time, without which the governor does nothing
+   */
+  public boolean isSupported() {
+    return supported;
+  }
+
+  public int getSampleInterval() {
+    return sampleMask + 1;
+  }
+
+  /**
+   * @param sampleInterval one in this many calls is timed; rounded up to a power of two
+   */
+  public void setSampleInterval(int sampleInterval) {
+    int interval = 1;
+    while (interval < sampleInterval) {
+      interval <<= 1;
+    }
+    sampleMask = interval - 1;
+  }
+
+  public double getTargetOverhead() {
+    return targetOverhead;
+  }
+
+  /**
+   * @param targetOverhead the share of CPU, from 0 to 1, above which names are demoted
+   */
+  public void setTargetOverhead(double targetOverhead) {
+    this.targetOverhead = targetOverhead;
+  }
+
+  public double getRelaxOverhead() {
+    return relaxOverhead;
+  }
+
+  /**
+   * @param relaxOverhead the share of CPU, from 0 to 1, below which demoted names are restored;
+   *        should be lower than the target so names are not demoted and restored in turn
+   */
+  public void setRelaxOverhead(double relaxOverhead) {
+    this.relaxOverhead = relaxOverhead;
+  }
+
+  public int getMaxShedNames() {
+    return maxShedNames;
+  }
+
+  /**
+   * @param maxShedNames the most names demoted at once
+   */
+  public void setMaxShedNames(int maxShedNames) {
+    this.maxShedNames = maxShedNames;
+  }
+
+  /**
+   * Hook for tests
+   * @return the CPU time used so far by the process, in nanoseconds, or -1 if it is not known
+   */
+  protected long processCpuTime() {
+    try {
+      return ((Long)getProcessCpuTime.invoke(ManagementFactory.getOperatingSystemMXBean()))
+          .longValue();
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  // found by reflection, so the governor still loads on VMs without com.sun.management
+  private static Method processCpuTimeMethod() {
+    try {
+      OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+      Class<?> type = Class.forName("com.sun.management.OperatingSystemMXBean");
+      if (!type.isInstance(osBean)) {
+        return null;
+      }
+      return type.getMethod("getProcessCpuTime");
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private List<NameCost> drainNames() {
+    List<NameCost> names = new ArrayList<NameCost>();
+    for (Map.Entry<String, AtomicLong> entry : cpuByName.entrySet()) {
+      names.add(new NameCost(entry.getKey(), entry.getValue().get()));
+    }
+    cpuByName.clear();
+    Collections.sort(names, new Comparator<NameCost>() {
+      public int compare(NameCost a, NameCost b) {
+        return (a.cpu < b.cpu) ? 1 : ((a.cpu == b.cpu) ? 0 : -1);
+      }
+    });
+    return names;
+  }
+
+  /**
+   * The sampled CPU time charged to a monitor name
+   */
+  private static final class NameCost {
+    private final String name;
+    private final long cpu;
+
+    NameCost(String name, long cpu) {
+      this.name = name;
+      this.cpu = cpu;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.orbitz.monitoring.api.engine;
+
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The invocation statistics {@link MonitoringEngine} keeps when instrumentation is enabled: one
+ * set for each processor in each {@link LifecyclePhase}, and one for each phase as a whole, which
+ * covers choosing the processors as well as calling them. Processors are told apart by identity,
+ * so two processors with the same name, or that are equal, keep separate statistics.
+ */
+public class ProcessorInstrumentation {
+  private static final LifecyclePhase[] PHASES = LifecyclePhase.values();
+
+  private final InvocationStatistics[] phases = newStatistics();
+  // copy on write: processors are few and only added the first time each is called
+  private volatile Map<MonitorProcessor, InvocationStatistics[]> processors =
+      new IdentityHashMap<MonitorProcessor, InvocationStatistics[]>();
+
+  /**
+   * @param phase a lifecycle phase
+   * @return the statistics of the phase as a whole
+   */
+  public InvocationStatistics getPhaseStatistics(LifecyclePhase phase) {
+    return phases[phase.ordinal()];
+  }
+
+  /**
+   * Gets the statistics of a processor, creating them if it has not been called yet
+   * @param processor the processor
+   * @return its statistics, indexed by {@link LifecyclePhase#ordinal()}
+   */
+  public InvocationStatistics[] getProcessorStatistics(MonitorProcessor processor) {
+    InvocationStatistics[] statistics = processors.get(processor);
+    return (statistics == null) ? addProcessor(processor) : statistics;
+  }
+
+  private synchronized InvocationStatistics[] addProcessor(MonitorProcessor processor) {
+    InvocationStatistics[] statistics = processors.get(processor);
+    if (statistics == null) {
+      Map<MonitorProcessor, InvocationStatistics[]> copy =
+          new IdentityHashMap<MonitorProcessor, InvocationStatistics[]>(processors);
+      statistics = newStatistics();
+      copy.put(processor, statistics);
+      processors = copy;
+    }
+    return statistics;
+  }
+
+  /**
+   * @param phase a lifecycle phase
+   * @return the statistics of every processor called in the phase, keyed by processor name; a
+   *         name shared by several processors is followed by "@" and the identity hash code of
+   *         each after the first
+   */
+  public Map<String, InvocationStatistics> getProcessorStatistics(LifecyclePhase phase) {
+    Map<String, InvocationStatistics> statistics =
+        new LinkedHashMap<String, InvocationStatistics>();
+    for (Map.Entry<MonitorProcessor, InvocationStatistics[]> entry : processors.entrySet()) {
+      InvocationStatistics phaseStatistics = entry.getValue()[phase.ordinal()];
+      if (phaseStatistics.getCount() > 0) {
+        String name = nameOf(entry.getKey());
+        if (statistics.containsKey(name)) {
+          name = identityOf(entry.getKey());
+        }
+        statistics.put(name, phaseStatistics);
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * Sets every count back to zero and forgets the processors seen so far
+   */
+  public synchronized void reset() {
+    for (int i = 0; i < phases.length; i++) {
+      phases[i].reset();
+    }
+    processors = new IdentityHashMap<MonitorProcessor, InvocationStatistics[]>();
+  }
+
+  /**
+   * @return one line for each phase, and for each processor in each phase it was called in
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < PHASES.length; i++) {
+      builder.append(PHASES[i]).append(": ").append(phases[i]).append("\n");
+      for (Map.Entry<String, InvocationStatistics> entry
+          : getProcessorStatistics(PHASES[i]).entrySet()) {
+        builder.append("  ").append(entry.getKey()).append(": ").append(entry.getValue())
+            .append("\n");
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String nameOf(MonitorProcessor processor) {
+    String name = processor.getName();
+    return (name == null) ? identityOf(processor) : name;
+  }
+
+  private static String identityOf(MonitorProcessor processor) {
+    String name = processor.getName();
+    return ((name == null) ? processor.getClass().getName() : name) + "@"
+        + Integer.toHexString(System.identityHashCode(processor));
+  }
+
+  private static InvocationStatistics[] newStatistics() {
+    InvocationStatistics[] statistics = new InvocationStatistics[PHASES.length];
+    for (int i = 0; i < statistics.length; i++) {
+      statistics[i] = new InvocationStatistics();
+    }
+    return statistics;
+  }
+}
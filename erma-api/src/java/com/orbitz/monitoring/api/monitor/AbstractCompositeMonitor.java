@@ -41,7 +41,7 @@ public abstract class AbstractCompositeMonitor extends AbstractMonitor implement
     SERIALIZABLE = Collections.unmodifiableSet(set);
   }
   
-  private final List<Monitor> _childMonitors = new LinkedList<Monitor>();
+  private List<Monitor> _childMonitors;
   
   /**
    * Create a new composite monitor with the provided name.
@@ -90,7 +90,9 @@ public abstract class AbstractCompositeMonitor extends AbstractMonitor implement
   @Override
   protected void init(String name, Map<String, Object> inheritedAttributes) {
     super.init(name, inheritedAttributes);
-    MonitoringEngine.getInstance().compositeMonitorStarted(this);
+    if (!isInert()) {
+      MonitoringEngine.getInstance().compositeMonitorStarted(this);
+    }
   }
 
 /**
@@ -99,7 +101,7 @@ public abstract class AbstractCompositeMonitor extends AbstractMonitor implement
    * @param monitor the child monitor
    */
   public void addChildMonitor(final Monitor monitor) {
-    _childMonitors.add(monitor);
+    getChildMonitors().add(monitor);
   }
   
   /**
@@ -107,6 +109,9 @@ public abstract class AbstractCompositeMonitor extends AbstractMonitor implement
    * @return the child monitors
    */
   public Collection<Monitor> getChildMonitors() {
+    if (_childMonitors == null) {
+      _childMonitors = new LinkedList<Monitor>();
+    }
     return _childMonitors;
   }
   
@@ -183,9 +188,10 @@ public abstract class AbstractCompositeMonitor extends AbstractMonitor implement
    */
   @Override
   public SerializableMonitor getSerializableMomento() {
+    final Collection<Monitor> childMonitors = getChildMonitors();
     final List<SerializableMonitor> childMomentos = new ArrayList<SerializableMonitor>(
-        _childMonitors.size());
-    for (final Monitor monitor : _childMonitors) {
+        childMonitors.size());
+    for (final Monitor monitor : childMonitors) {
       childMomentos.add(monitor.getSerializableMomento());
     }
     final MonitoringEngine engine = MonitoringEngine.getInstance();
@@ -226,7 +232,9 @@ public abstract class AbstractCompositeMonitor extends AbstractMonitor implement
    */
   @Override
   protected void process() {
-    MonitoringEngine.getInstance().compositeMonitorCompleted(this);
+    if (!isInert()) {
+      MonitoringEngine.getInstance().compositeMonitorCompleted(this);
+    }
     super.process();
   }
   
@@ -37,6 +37,9 @@ public abstract class AbstractMonitor implements Monitor {
   protected MonitoringLevel monitoringLevel = MonitoringLevel.INFO;
   
   private boolean processed;
+  private boolean inert;
+  // the name of an inert monitor, as given; it is only sanitized when read
+  private String inertName;
   
   /**
    * Initializes the attribute map and global attributes. Subclasses will need to call init(String)
@@ -248,9 +251,7 @@ public abstract class AbstractMonitor implements Monitor {
   }
   
   public final MonitoringLevel getLevel() {
-    final MonitoringLevel overrideLevel = MonitoringEngine.getInstance()
-        .getOverrideLevelForMonitor(this);
-    return (overrideLevel != null ? overrideLevel : monitoringLevel);
+    return MonitoringEngine.getInstance().getLevelForMonitor(this, monitoringLevel);
   }
   
   public boolean hasAttribute(final String key) {
@@ -289,21 +290,23 @@ public abstract class AbstractMonitor implements Monitor {
    * @param name the name of the monitor
    * @param inheritedAttributes the collection of inherited attributes
    */
-  protected void init(String name, final Map<String, Object> inheritedAttributes) {
-    MonitoringEngine.getInstance().initMonitor(this);
-    if (name != null) {
-      for (int i = 0; i < name.length(); i++) {
-        if (invalidCharSet.contains(Character.valueOf(name.charAt(i)))) {
-          name = CharSetUtils.delete(name, invalidCharacters);
-          break;
-        }
-      }
+  protected void init(final String name, final Map<String, Object> inheritedAttributes) {
+    final MonitoringEngine engine = MonitoringEngine.getInstance();
+    if (!engine.isMonitoringEnabled()) {
+      // monitoring was switched off, so nothing will ever see this monitor; it still answers for
+      // its name, as callers such as level overrides expect every monitor to have one, but keeps
+      // it in a field so no attribute map is created
+      inert = true;
+      inertName = name;
+      attributes.setInertMonitor(this);
+      return;
     }
-    set(Attribute.NAME, name);
+    engine.initMonitor(this);
+    set(Attribute.NAME, sanitize(name));
     
     setInheritedAttributes(inheritedAttributes);
     
-    MonitoringEngine.getInstance().monitorCreated(this);
+    engine.monitorCreated(this);
   }
   
   /**
@@ -328,7 +331,9 @@ public abstract class AbstractMonitor implements Monitor {
    * Used to invoke the monitor lifecycle method MonitoringEngine.process on this monitor.
    */
   protected void process() {
-    if (processed) {
+    if (inert) {
+      processed = true;
+    } else if (processed) {
       log.error("This monitor has already been processed: " + this);
     } else {
       MonitoringEngine.getInstance().process(this);
@@ -336,6 +341,37 @@ public abstract class AbstractMonitor implements Monitor {
     }
   }
   
+  /**
+   * Determines whether this monitor was created while monitoring was switched off with
+   * {@link MonitoringEngine#setMonitoringEnabled(boolean)}. Such a monitor is named but does not
+   * inherit attributes and is never processed, even if monitoring is switched back on before it
+   * completes; attributes set on it are still kept.
+   * @return true if the monitor was created while monitoring was disabled
+   */
+  protected boolean isInert() {
+    return inert;
+  }
+  
+  /**
+   * Determines whether this inert monitor supplies a value for a key that was never set on it.
+   * Subclasses that keep more state in fields while inert override this and
+   * {@link #getInertAttribute(String)}.
+   * @param key the key of the attribute
+   * @return true for {@link Attribute#NAME}
+   */
+  protected boolean hasInertAttribute(final String key) {
+    return Attribute.NAME.equals(key);
+  }
+  
+  /**
+   * Gets the value this inert monitor supplies for a key that was never set on it
+   * @param key a key for which {@link #hasInertAttribute(String)} is true
+   * @return the value
+   */
+  protected Object getInertAttribute(final String key) {
+    return sanitize(inertName);
+  }
+  
   /**
    * Creates a new {@link AttributeMap}
    * @return a new attribute map
@@ -352,6 +388,18 @@ public abstract class AbstractMonitor implements Monitor {
     return attributes;
   }
   
+  // removes the characters monitor names may not contain
+  private static String sanitize(final String name) {
+    if (name != null) {
+      for (int i = 0; i < name.length(); i++) {
+        if (invalidCharSet.contains(Character.valueOf(name.charAt(i)))) {
+          return CharSetUtils.delete(name, invalidCharacters);
+        }
+      }
+    }
+    return name;
+  }
+  
   private static Set<Character> buildInvalidCharSet() {
     final Set<Character> set = new HashSet<Character>();
     final char[] invalidArr = invalidCharacters.toCharArray();
@@ -41,7 +41,7 @@ public class AttributeHolder implements Serializable, Cloneable {
    * @see com.orbitz.monitoring.api.Monitor#getSerializableMomento()
    */
   public AttributeHolder serializable() {
-    serializable = (value != null) && Serializable.class.isAssignableFrom(value.getClass());
+    serializable = isValueSerializable();
     // failing silently if set(foo,bar).serializable() is not serializable
     return this;
   }
@@ -86,8 +86,18 @@ public class AttributeHolder implements Serializable, Cloneable {
     return value;
   }
   
+  /**
+   * Determines whether the held value implements {@link Serializable}. Subclasses that create
+   * their value on demand can override this to answer without creating it.
+   * @return true if the value can be serialized
+   */
+  protected boolean isValueSerializable() {
+    return (value != null) && Serializable.class.isAssignableFrom(value.getClass());
+  }
+  
   @Override
   public String toString() {
+    final Object value = getValue();
     return (value != null) ? value.toString() : "null";
   }
   
@@ -101,7 +111,8 @@ public class AttributeHolder implements Serializable, Cloneable {
   public boolean equals(final Object o) {
     if (o instanceof AttributeHolder) {
       AttributeHolder that = (AttributeHolder)o;
-      return Objects.equal(this.value, that.value) && Objects.equal(this.locked, that.locked)
+      return Objects.equal(this.getValue(), that.getValue())
+          && Objects.equal(this.locked, that.locked)
           && Objects.equal(this.serializable, that.serializable);
     }
     return false;
@@ -109,6 +120,7 @@ public class AttributeHolder implements Serializable, Cloneable {
   
   @Override
   public int hashCode() {
+    final Object value = getValue();
     return (value == null) ? "null".hashCode() : value.hashCode();
   }
   
@@ -33,14 +33,18 @@ public class AttributeMap implements Serializable {
   private static final Pattern ATTRIBUTE_NAME_PATTERN = Pattern.compile("[a-zA-Z_]+[a-zA-Z_0-9]*");
   private static final long serialVersionUID = 2L;
   
-  private final ConcurrentHashMap<String, AttributeHolder> attributes;
-  private final transient Logger logger = Logger.getLogger(AttributeMap.class);
+  private static final Logger logger = Logger.getLogger(AttributeMap.class);
+  
+  // created on first write, so monitors nobody sets attributes on stay cheap; null means empty
+  private volatile ConcurrentHashMap<String, AttributeHolder> attributes;
+  
+  // the inert monitor that supplies values it never stores, or null
+  private transient AbstractMonitor inertMonitor;
   
   /**
    * Creates an empty attribute map
    */
   public AttributeMap() {
-    attributes = new ConcurrentHashMap<String, AttributeHolder>();
   }
   
   /**
@@ -59,7 +63,10 @@ public class AttributeMap implements Serializable {
    * Removes all entries from this map
    */
   public void clear() {
-    attributes.clear();
+    final Map<String, AttributeHolder> current = attributes;
+    if (current != null) {
+      current.clear();
+    }
   }
   
   /**
@@ -113,7 +120,7 @@ public class AttributeMap implements Serializable {
   @SuppressWarnings({"unchecked", "rawtypes"})
   public Map<String, CompositeAttributeHolder> findCompositeAttributes() {
     return (Map)Maps
-        .filterValues(attributes, Predicates.instanceOf(CompositeAttributeHolder.class));
+        .filterValues(getAttributes(), Predicates.instanceOf(CompositeAttributeHolder.class));
   }
   
   /**
@@ -123,10 +130,15 @@ public class AttributeMap implements Serializable {
    * @throws AttributeUndefinedException if the key doesn't exist
    */
   public Object get(final String key) {
-    if (this.hasAttribute(key)) {
-      AttributeHolder attribute = attributes.get(key);
+    final Map<String, AttributeHolder> current = attributes;
+    if ((current != null) && current.containsKey(key)) {
+      AttributeHolder attribute = current.get(key);
       return (attribute == null) ? attribute : attribute.getValue();
     }
+    final AbstractMonitor monitor = inertMonitor;
+    if ((monitor != null) && monitor.hasInertAttribute(key)) {
+      return monitor.getInertAttribute(key);
+    }
     throw new AttributeUndefinedException(key);
   }
   
@@ -136,7 +148,7 @@ public class AttributeMap implements Serializable {
    */
   @SuppressWarnings("unchecked")
   public <V> Map<String, V> getAll() {
-    return Maps.transformValues(attributes, new Function<AttributeHolder, V>() {
+    return Maps.transformValues(getAttributes(), new Function<AttributeHolder, V>() {
       public V apply(final AttributeHolder attribute) {
         return (V)attribute.getValue();
       }
@@ -149,7 +161,9 @@ public class AttributeMap implements Serializable {
    * @return the new map
    */
   public Map<String, AttributeHolder> getAllAttributeHolders() {
-    return new HashMap<String, AttributeHolder>(attributes);
+    final Map<String, AttributeHolder> current = attributes;
+    return (current == null) ? new HashMap<String, AttributeHolder>()
+        : new HashMap<String, AttributeHolder>(current);
   }
   
   /**
@@ -159,7 +173,11 @@ public class AttributeMap implements Serializable {
    */
   public <V> Map<String, V> getAllSerializable() {
     final Map<String, V> allSerializable = new HashMap<String, V>();
-    for (Entry<String, AttributeHolder> entry : attributes.entrySet()) {
+    final Map<String, AttributeHolder> current = attributes;
+    if (current == null) {
+      return allSerializable;
+    }
+    for (Entry<String, AttributeHolder> entry : current.entrySet()) {
       final AttributeHolder attributeHolder = entry.getValue();
       if (attributeHolder.isSerializable()) {
         @SuppressWarnings("unchecked")
@@ -569,7 +587,17 @@ public class AttributeMap implements Serializable {
    * @return the map
    */
   public ConcurrentHashMap<String, AttributeHolder> getAttributes() {
-    return attributes;
+    ConcurrentHashMap<String, AttributeHolder> current = attributes;
+    if (current == null) {
+      synchronized (this) {
+        current = attributes;
+        if (current == null) {
+          current = new ConcurrentHashMap<String, AttributeHolder>();
+          attributes = current;
+        }
+      }
+    }
+    return current;
   }
   
   /**
@@ -594,7 +622,23 @@ public class AttributeMap implements Serializable {
    * @return true if it exists, false otherwise
    */
   public boolean hasAttribute(final String key) {
-    return attributes.containsKey(key);
+    final Map<String, AttributeHolder> current = attributes;
+    if ((current != null) && current.containsKey(key)) {
+      return true;
+    }
+    final AbstractMonitor monitor = inertMonitor;
+    return (monitor != null) && monitor.hasInertAttribute(key);
+  }
+  
+  /**
+   * Makes this map read the attributes an inert monitor keeps in its own fields, so the monitor
+   * needs no entries for them. They are found by {@link #get(String)} and
+   * {@link #hasAttribute(String)}, and so by the typed getters, but are not listed by
+   * {@link #getAll()} and are not serialized.
+   * @param monitor the inert monitor that owns this map
+   */
+  void setInertMonitor(final AbstractMonitor monitor) {
+    inertMonitor = monitor;
   }
   
   /**
@@ -615,6 +659,7 @@ public class AttributeMap implements Serializable {
    */
   protected AttributeHolder internalSetAttribute(final String key, final Object value) {
     verifyValidKeyName(key);
+    final Map<String, AttributeHolder> attributes = getAttributes();
     AttributeHolder attributeHolder = attributes.get(key);
     if (attributeHolder == null) {
       attributeHolder = createHolderForValue(value);
@@ -632,6 +677,23 @@ public class AttributeMap implements Serializable {
     return attributeHolder;
   }
   
+  /**
+   * Puts a holder built by the caller, unless the key is already held by a locked holder
+   * @param key the key of the holder
+   * @param attributeHolder the holder to put
+   * @return the holder put, or the locked holder that was kept
+   */
+  AttributeHolder setAttributeHolder(final String key, final AttributeHolder attributeHolder) {
+    verifyValidKeyName(key);
+    final Map<String, AttributeHolder> attributes = getAttributes();
+    final AttributeHolder existing = attributes.get(key);
+    if ((existing != null) && existing.isLocked()) {
+      return existing;
+    }
+    attributes.put(key, attributeHolder);
+    return attributeHolder;
+  }
+  
   /**
    * Sets a value. See {@link #internalSetAttribute(String, Object)} for information about whether
    * the value will be set and how it will be set.
@@ -793,7 +855,10 @@ public class AttributeMap implements Serializable {
    * @param key the key to remove
    */
   public void unset(final String key) {
-    attributes.remove(key);
+    final Map<String, AttributeHolder> current = attributes;
+    if (current != null) {
+      current.remove(key);
+    }
   }
   
   private void verifyValidKeyName(final String key) {
@@ -0,0 +1,35 @@
+package com.orbitz.monitoring.api.monitor;
+
+import java.util.Date;
+
+/**
+ * Holds a point in time as milliseconds since the epoch and creates the {@link Date} only when
+ * the value is first asked for, so monitors whose timestamps are never read don't allocate them.
+ */
+class TimestampAttributeHolder extends CompositeAttributeHolder {
+  private static final long serialVersionUID = 1L;
+  
+  private final long millis;
+  private transient Date date;
+  
+  /**
+   * @param millis the time, in milliseconds since the epoch
+   */
+  TimestampAttributeHolder(final long millis) {
+    super(null);
+    this.millis = millis;
+  }
+  
+  @Override
+  public Object getValue() {
+    if (date == null) {
+      date = new Date(millis);
+    }
+    return date;
+  }
+  
+  @Override
+  protected boolean isValueSerializable() {
+    return true;
+  }
+}
@@ -12,6 +12,15 @@ import java.util.Map;
  * to prevent instrumentation errors from showing failing transactions as
  * successful, TransactionMonitors assume that a transaction failed unless
  * success is called.
+ * <p>
+ * When {@link MonitoringEngine#setNanoTimingEnabled(boolean) nano timing} is enabled, the
+ * transaction is timed with {@link System#nanoTime()} and also reports
+ * {@link Attribute#LATENCY_NANOS}; its start and end times are only turned into Dates when read.
+ * <p>
+ * A transaction created while monitoring is switched off is {@link #isInert() inert}: it keeps its
+ * outcome and its start and end times in fields rather than attributes, but still answers for
+ * {@link Attribute#FAILED}, {@link Attribute#START_TIME} and, once done,
+ * {@link Attribute#END_TIME} and {@link Attribute#LATENCY}.
  *
  * @author Doug Barth
  */
@@ -47,6 +56,13 @@ public class TransactionMonitor extends AbstractCompositeMonitor {
    */
   protected static final String BUSINESS_FAILURE = Attribute.BUSINESS_FAILURE;
 
+  private boolean nanoTimed;
+  private long startMillis;
+  private long startNanos;
+  // kept instead of attributes while inert; endMillis is -1 until done
+  private boolean inertFailed = true;
+  private long endMillis = -1;
+
   /**
    * Creates a new transaction monitor with the provided
    * name. The monitor is marked as failed by default. Also,
@@ -156,6 +172,10 @@ public class TransactionMonitor extends AbstractCompositeMonitor {
    * Marks this transaction as having succeeded.
    */
   public void succeeded() {
+    if (isInert()) {
+      inertFailed = false;
+      return;
+    }
     set(Attribute.FAILED, false);
   }
 
@@ -163,6 +183,10 @@ public class TransactionMonitor extends AbstractCompositeMonitor {
    * Marks this transaction as having failed.
    */
   public void failed() {
+    if (isInert()) {
+      inertFailed = true;
+      return;
+    }
     set(Attribute.FAILED, true);
   }
 
@@ -172,6 +196,10 @@ public class TransactionMonitor extends AbstractCompositeMonitor {
    * @param e the Throwable that caused the failure
    */
   public void failedDueTo(Throwable e) {
+    if (isInert()) {
+      inertFailed = true;
+      return;
+    }
     set(Attribute.FAILURE_THROWABLE, e).serializable();
     failed();
   }
@@ -180,15 +208,54 @@ public class TransactionMonitor extends AbstractCompositeMonitor {
    * Stops the stop watch for this monitor. Delegates to AbstractMonitor.process().
    */
   public void done() {
-    Date endTime = new Date();
-    set(Attribute.END_TIME, endTime).serializable().lock();
+    if (isInert()) {
+      endMillis = System.currentTimeMillis();
+      process();
+      return;
+    }
+    if (nanoTimed) {
+      long latencyNanos = System.nanoTime() - startNanos;
+      long latency = latencyNanos / 1000000;
+      getAttributes().setAttributeHolder(Attribute.END_TIME,
+          new TimestampAttributeHolder(startMillis + latency).serializable().lock());
+      set(Attribute.LATENCY_NANOS, latencyNanos).serializable().lock();
+      set(Attribute.LATENCY, latency).serializable().lock();
+    } else {
+      Date endTime = new Date();
+      set(Attribute.END_TIME, endTime).serializable().lock();
 
-    Date startTime = (Date) get(Attribute.START_TIME);
-    set(Attribute.LATENCY, endTime.getTime() - startTime.getTime()).serializable().lock();
+      Date startTime = (Date) get(Attribute.START_TIME);
+      set(Attribute.LATENCY, endTime.getTime() - startTime.getTime()).serializable().lock();
+    }
 
     process();
   }
 
+  @Override
+  protected boolean hasInertAttribute(String key) {
+    if (Attribute.FAILED.equals(key) || Attribute.START_TIME.equals(key)) {
+      return true;
+    }
+    if (Attribute.END_TIME.equals(key) || Attribute.LATENCY.equals(key)) {
+      return endMillis >= 0;
+    }
+    return super.hasInertAttribute(key);
+  }
+
+  @Override
+  protected Object getInertAttribute(String key) {
+    if (Attribute.FAILED.equals(key)) {
+      return Boolean.valueOf(inertFailed);
+    } else if (Attribute.START_TIME.equals(key)) {
+      return new Date(startMillis);
+    } else if (Attribute.END_TIME.equals(key)) {
+      return new Date(endMillis);
+    } else if (Attribute.LATENCY.equals(key)) {
+      return Long.valueOf(endMillis - startMillis);
+    }
+    return super.getInertAttribute(key);
+  }
+
   // format the class and method into a name
   private static String formatName(Class klass, String method) {
     return klass.getName() + "." + method;
@@ -196,8 +263,20 @@ public class TransactionMonitor extends AbstractCompositeMonitor {
 
   // mark the monitor as failed and start the stop watch
   private void startTransactionMonitor() {
+    if (isInert()) {
+      startMillis = System.currentTimeMillis();
+      return;
+    }
     set(FAILED, true).serializable();
-    set(START_TIME, new Date()).serializable().lock();
+    if (MonitoringEngine.getInstance().isNanoTimingEnabled()) {
+      nanoTimed = true;
+      startMillis = System.currentTimeMillis();
+      getAttributes().setAttributeHolder(START_TIME,
+          new TimestampAttributeHolder(startMillis).serializable().lock());
+      startNanos = System.nanoTime();
+    } else {
+      set(START_TIME, new Date()).serializable().lock();
+    }
 
     MonitoringEngine.getInstance().monitorStarted(this);
   }
@@ -2,6 +2,7 @@ package com.orbitz.monitoring.api.monitor.serializable;
 
 import com.orbitz.monitoring.api.CompositeMonitor;
 import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
 import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
 
 import java.util.Collection;
@@ -33,6 +34,12 @@ public class SerializableCompositeMonitor extends SerializableMonitor implements
     _childMomentos = childMomentos;
   }
   
+  public SerializableCompositeMonitor(final Map attributes, final List childMomentos,
+      final MonitoringLevel monitoringLevel) {
+    super(attributes, monitoringLevel);
+    _childMomentos = childMomentos;
+  }
+  
   public void addChildMonitor(final Monitor monitor) {
     throw new UnsupportedOperationException("Adding child monitors not allowed");
   }
@@ -206,7 +206,6 @@ public class SerializableMonitor implements Monitor, Serializable {
   }
 
   public MonitoringLevel getLevel() {
-    MonitoringLevel overrideLevel = MonitoringEngine.getInstance().getOverrideLevelForMonitor(this);
-    return (overrideLevel != null ? overrideLevel : _monitoringLevel);
+    return MonitoringEngine.getInstance().getLevelForMonitor(this, _monitoringLevel);
   }
 }
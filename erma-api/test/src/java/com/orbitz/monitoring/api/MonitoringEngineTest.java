@@ -1,5 +1,8 @@
 package com.orbitz.monitoring.api;
 
+import com.orbitz.monitoring.api.engine.InvocationStatistics;
+import com.orbitz.monitoring.api.engine.LifecyclePhase;
+import com.orbitz.monitoring.api.engine.ProcessorInstrumentation;
 import com.orbitz.monitoring.api.engine.StackBasedInheritableStrategy;
 import com.orbitz.monitoring.api.monitor.AttributeHolder;
 import com.orbitz.monitoring.api.monitor.EventMonitor;
@@ -218,6 +221,53 @@ public class MonitoringEngineTest extends TestCase {
         }
     }
 
+    public void testInstrumentation() {
+        MockMonitorProcessor otherProcessor = new MockMonitorProcessor();
+        otherProcessor.setName("other");
+        _factory = new MockMonitorProcessorFactory(
+                new MonitorProcessor[]{_processor, otherProcessor});
+        _engine.setProcessorFactory(_factory);
+        _processor.setName("failing");
+        _processor.setThrowThrowableDuringProcessing(true);
+        _engine.startup();
+
+        Monitor monitor = new SerializableMonitor(new HashMap());
+        _engine.process(monitor);
+        assertNull("Not instrumented by default", _engine.getInstrumentation());
+
+        _engine.setInstrumentationEnabled(true);
+        try {
+            _engine.monitorCreated(monitor);
+            _engine.process(monitor);
+            _engine.process(monitor);
+
+            ProcessorInstrumentation instrumentation = _engine.getInstrumentation();
+            InvocationStatistics process =
+                    instrumentation.getPhaseStatistics(LifecyclePhase.PROCESS);
+            assertEquals(2, process.getCount());
+            assertEquals(2, process.getErrors());
+            assertEquals(1, instrumentation.getPhaseStatistics(LifecyclePhase.CREATED).getCount());
+            assertEquals(0, instrumentation.getPhaseStatistics(LifecyclePhase.STARTED).getCount());
+
+            Map processors = instrumentation.getProcessorStatistics(LifecyclePhase.PROCESS);
+            InvocationStatistics failing = (InvocationStatistics)processors.get("failing");
+            assertEquals(2, failing.getCount());
+            assertEquals(2, failing.getErrors());
+            InvocationStatistics other = (InvocationStatistics)processors.get("other");
+            assertEquals(2, other.getCount());
+            assertEquals(0, other.getErrors());
+            assertTrue(other.getTotalNanos() >= 0);
+            assertTrue(instrumentation.toString().indexOf("other") >= 0);
+
+            instrumentation.reset();
+            assertEquals(0, process.getCount());
+            assertTrue(instrumentation.getProcessorStatistics(LifecyclePhase.PROCESS).isEmpty());
+        } finally {
+            _engine.setInstrumentationEnabled(false);
+        }
+        assertNull(_engine.getInstrumentation());
+    }
+
     public void testProcessingWithoutStartupDoesntThrowException() {
         try {
             TransactionMonitor txn = new TransactionMonitor("test");
@@ -0,0 +1,68 @@
+package com.orbitz.monitoring.api.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link InvocationStatistics}
+ */
+public class InvocationStatisticsTest {
+  /**
+   * Latencies land in power-of-two microsecond buckets
+   */
+  @Test
+  public void testBuckets() {
+    InvocationStatistics statistics = new InvocationStatistics();
+    statistics.record(500, false);
+    statistics.record(1500, false);
+    statistics.record(3000, true);
+    statistics.record(Long.MAX_VALUE / 2, false);
+
+    long[] buckets = statistics.getBucketCounts();
+    assertEquals(1, buckets[0]);
+    assertEquals(1, buckets[1]);
+    assertEquals(1, buckets[2]);
+    assertEquals(1, buckets[InvocationStatistics.BUCKETS - 1]);
+    assertEquals(4, statistics.getCount());
+    assertEquals(1, statistics.getErrors());
+    assertEquals(1000, statistics.getPercentileNanos(25));
+    assertEquals(4000, statistics.getPercentileNanos(75));
+    assertEquals(Long.MAX_VALUE, statistics.getPercentileNanos(100));
+
+    statistics.reset();
+    assertEquals(0, statistics.getCount());
+    assertEquals(0, statistics.getPercentileNanos(50));
+  }
+
+  /**
+   * Counts from many threads are all kept
+   * @throws Exception if a thread is interrupted
+   */
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final InvocationStatistics statistics = new InvocationStatistics();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            statistics.record(10, (j % 10) == 0);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(80000, statistics.getCount());
+    assertEquals(8000, statistics.getErrors());
+    assertEquals(800000, statistics.getTotalNanos());
+  }
+}
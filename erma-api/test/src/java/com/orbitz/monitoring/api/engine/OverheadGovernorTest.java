@@ -0,0 +1,167 @@
+package com.orbitz.monitoring.api.engine;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableMonitor;
+import com.orbitz.monitoring.test.MockDecomposer;
+import com.orbitz.monitoring.test.MockMonitorProcessor;
+import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests {@link OverheadGovernor}
+ */
+public class OverheadGovernorTest extends TestCase {
+    private MonitoringEngine engine;
+    private FakeClockGovernor governor;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        engine = MonitoringEngine.getInstance();
+        engine.setProcessorFactory(new MockMonitorProcessorFactory(new MockMonitorProcessor()));
+        engine.setDecomposer(new MockDecomposer());
+        engine.setInheritableStrategy(new StackBasedInheritableStrategy());
+        engine.restart();
+        engine.setMonitoringEnabled(true);
+
+        governor = new FakeClockGovernor();
+        engine.setOverheadGovernor(governor);
+        governor.setSampleInterval(1);
+        governor.evaluate();
+    }
+
+    protected void tearDown() throws Exception {
+        engine.setOverheadGovernor(null);
+        engine.shutdown();
+        super.tearDown();
+    }
+
+    public void testDemotesCostliestNamesAndRelaxes() {
+        if (!governor.isSupported()) {
+            return;
+        }
+        engine.addMonitorLevel("operator", MonitoringLevel.INFO);
+
+        governor.record(monitor("noisy", MonitoringLevel.INFO), 12000);
+        governor.record(monitor("quiet", MonitoringLevel.INFO), 100);
+        governor.record(monitor("operator", MonitoringLevel.INFO), 1000);
+        governor.record(monitor("essential", MonitoringLevel.ESSENTIAL), 1000);
+        governor.processCpu += 200000;
+        governor.evaluate();
+
+        assertEquals(0.0705, governor.getOverhead(), 0.0001);
+        assertEquals(Collections.singletonList("noisy"), governor.getShedNames());
+        assertEquals(MonitoringLevel.DEBUG, monitor("noisy", MonitoringLevel.INFO).getLevel());
+        assertEquals(MonitoringLevel.INFO, engine.getMonitorLevel("operator"));
+        assertNull(engine.getMonitorLevel("noisy"));
+
+        // still over target: the next costliest name goes too
+        governor.record(monitor("quiet", MonitoringLevel.INFO), 20000);
+        governor.processCpu += 200000;
+        governor.evaluate();
+        assertEquals(Arrays.asList("noisy", "quiet"), governor.getShedNames());
+
+        // between the relax level and the target nothing changes
+        governor.record(monitor("other", MonitoringLevel.INFO), 6000);
+        governor.processCpu += 200000;
+        governor.evaluate();
+        assertEquals(2, governor.getShedNames().size());
+
+        governor.processCpu += 200000;
+        governor.evaluate();
+        assertEquals(Collections.singletonList("noisy"), governor.getShedNames());
+        assertEquals(MonitoringLevel.INFO, monitor("quiet", MonitoringLevel.INFO).getLevel());
+
+        governor.restoreAll();
+        assertEquals(MonitoringLevel.INFO, monitor("noisy", MonitoringLevel.INFO).getLevel());
+    }
+
+    public void testThrottlesOnlyExactInfoNames() {
+        if (!governor.isSupported()) {
+            return;
+        }
+        governor.record(monitor("foo", MonitoringLevel.INFO), 20000);
+        governor.processCpu += 200000;
+        governor.evaluate();
+        assertEquals(Collections.singletonList("foo"), governor.getShedNames());
+
+        assertEquals(MonitoringLevel.DEBUG, monitor("foo", MonitoringLevel.INFO).getLevel());
+        assertEquals(MonitoringLevel.ESSENTIAL,
+                monitor("foo", MonitoringLevel.ESSENTIAL).getLevel());
+        assertEquals(MonitoringLevel.INFO, monitor("foo.bar", MonitoringLevel.INFO).getLevel());
+        assertEquals(MonitoringLevel.INFO, monitor("foobar", MonitoringLevel.INFO).getLevel());
+        assertEquals("{}", engine.getOverrideMonitorLevelsListing());
+
+        // an operator's override wins over throttling
+        engine.addMonitorLevel("foo", MonitoringLevel.INFO);
+        assertEquals(MonitoringLevel.INFO, monitor("foo", MonitoringLevel.INFO).getLevel());
+        engine.removeMonitorLevel("foo");
+    }
+
+    public void testEngineSamplesCalls() {
+        if (!governor.isSupported()) {
+            return;
+        }
+        for (int i = 0; i < 10; i++) {
+            engine.process(monitor("sampled", MonitoringLevel.INFO));
+        }
+        assertEquals(10, governor.recorded);
+
+        governor.setSampleInterval(4);
+        assertEquals(4, governor.getSampleInterval());
+        governor.recorded = 0;
+        for (int i = 0; i < 16; i++) {
+            engine.monitorCreated(monitor("sampled", MonitoringLevel.INFO));
+        }
+        assertEquals(4, governor.recorded);
+    }
+
+    public void testCountsCallsPerThread() throws Exception {
+        if (!governor.isSupported()) {
+            return;
+        }
+        governor.setSampleInterval(4);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(governor.shouldSample());
+        }
+        final boolean[] sampled = new boolean[4];
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < sampled.length; i++) {
+                    sampled[i] = governor.shouldSample();
+                }
+            }
+        };
+        other.start();
+        other.join();
+        assertTrue(Arrays.equals(new boolean[] {false, false, false, true}, sampled));
+        assertTrue(governor.shouldSample());
+    }
+
+    private static Monitor monitor(String name, MonitoringLevel level) {
+        return new SerializableMonitor(Collections.singletonMap(Attribute.NAME, name), level);
+    }
+
+    private static class FakeClockGovernor extends OverheadGovernor {
+        private long processCpu;
+        private int recorded;
+
+        @Override
+        public void record(Monitor monitor, long cpuNanos) {
+            recorded++;
+            super.record(monitor, cpuNanos);
+        }
+
+        @Override
+        protected long processCpuTime() {
+            return processCpu;
+        }
+    }
+}
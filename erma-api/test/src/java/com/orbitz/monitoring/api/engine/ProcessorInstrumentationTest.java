@@ -0,0 +1,45 @@
+package com.orbitz.monitoring.api.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.orbitz.monitoring.test.MockMonitorProcessor;
+
+/**
+ * Tests {@link ProcessorInstrumentation}
+ */
+public class ProcessorInstrumentationTest {
+  /**
+   * Processors that share a name keep and report separate statistics
+   */
+  @Test
+  public void testSameNameProcessors() {
+    ProcessorInstrumentation instrumentation = new ProcessorInstrumentation();
+    MockMonitorProcessor first = new MockMonitorProcessor("logger");
+    MockMonitorProcessor second = new MockMonitorProcessor("logger");
+    int process = LifecyclePhase.PROCESS.ordinal();
+
+    InvocationStatistics[] firstStatistics = instrumentation.getProcessorStatistics(first);
+    assertSame(firstStatistics, instrumentation.getProcessorStatistics(first));
+    assertNotSame(firstStatistics, instrumentation.getProcessorStatistics(second));
+    firstStatistics[process].record(1000, false);
+    instrumentation.getProcessorStatistics(second)[process].record(1000, true);
+    instrumentation.getProcessorStatistics(second)[process].record(1000, true);
+
+    Map<String, InvocationStatistics> statistics =
+        instrumentation.getProcessorStatistics(LifecyclePhase.PROCESS);
+    assertEquals(2, statistics.size());
+    long count = 0;
+    for (Map.Entry<String, InvocationStatistics> entry : statistics.entrySet()) {
+      assertTrue(entry.getKey(), entry.getKey().startsWith("logger"));
+      count += entry.getValue().getCount();
+    }
+    assertEquals(3, count);
+  }
+}
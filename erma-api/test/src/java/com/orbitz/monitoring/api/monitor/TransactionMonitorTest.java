@@ -1,10 +1,14 @@
 package com.orbitz.monitoring.api.monitor;
 
+import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.MonitoringLevel;
 import com.orbitz.monitoring.api.engine.StackBasedInheritableStrategy;
 import com.orbitz.monitoring.test.CompositeMonitorTestBase;
 import com.orbitz.monitoring.test.MockMonitorProcessor;
+import java.lang.reflect.Field;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -161,6 +165,84 @@ public class TransactionMonitorTest extends CompositeMonitorTestBase {
     getMockProcessor(txn).assertExpectedProcessObject(txn);
   }
   
+  public void testMonitoringDisabled() throws Exception {
+    MonitoringEngine engine = MonitoringEngine.getInstance();
+    TransactionMonitor parent = new TransactionMonitor("parent");
+    MockMonitorProcessor processor = getMockProcessor(parent);
+    processor.clear();
+
+    engine.setMonitoringEnabled(false);
+    TransactionMonitor txn;
+    try {
+      txn = new TransactionMonitor("disabled|Txn");
+    } finally {
+      engine.setMonitoringEnabled(true);
+    }
+    assertEquals("disabledTxn", txn.getAsString(Monitor.NAME));
+    assertTrue("For failed", txn.getAsBoolean(Attribute.FAILED));
+    assertTrue("For start time", txn.get(Attribute.START_TIME) instanceof Date);
+    assertFalse("For latency before done", txn.hasAttribute(Attribute.LATENCY));
+
+    // a level override looks the name up
+    engine.addMonitorLevel("disabled", MonitoringLevel.DEBUG);
+    try {
+      assertEquals(MonitoringLevel.DEBUG, txn.getLevel());
+    } finally {
+      engine.removeMonitorLevel("disabled");
+    }
+    assertNull("For the attribute map", attributeMapOf(txn));
+
+    txn.succeeded();
+    txn.done();
+    assertFalse("For failed", txn.getAsBoolean(Attribute.FAILED));
+    assertTrue("For latency", txn.getAsLong(Attribute.LATENCY) >= 0);
+    assertEquals(txn.getAsLong(Attribute.LATENCY),
+        ((Date)txn.get(Attribute.END_TIME)).getTime()
+        - ((Date)txn.get(Attribute.START_TIME)).getTime());
+    assertNull("For the attribute map", attributeMapOf(txn));
+
+    txn.set("key", "value");
+    assertEquals("value", txn.getAsString("key"));
+    processor.assertNoUnexpectedCalls();
+
+    parent.done();
+    processor.assertExpectedProcessObject(parent);
+    assertTrue("For parent's children", parent.getChildMonitors().isEmpty());
+  }
+
+  // the map an AttributeMap creates on its first write
+  private static Object attributeMapOf(AbstractMonitor monitor) throws Exception {
+    Field field = AttributeMap.class.getDeclaredField("attributes");
+    field.setAccessible(true);
+    return field.get(monitor.getAttributes());
+  }
+
+  public void testNanoTiming() throws Exception {
+    MonitoringEngine engine = MonitoringEngine.getInstance();
+    engine.setNanoTimingEnabled(true);
+    TransactionMonitor txn;
+    try {
+      txn = new TransactionMonitor("nanoTxn");
+    } finally {
+      engine.setNanoTimingEnabled(false);
+    }
+    assertConstructionInvariants(txn);
+    Thread.sleep(5);
+    txn.succeeded();
+    txn.done();
+    assertTransactionFinishedInvariants(txn);
+
+    long latencyNanos = txn.getAsLong(Attribute.LATENCY_NANOS);
+    assertTrue("For latencyNanos", latencyNanos >= 5000000);
+    assertEquals(latencyNanos / 1000000, txn.getAsLong(TransactionMonitor.LATENCY));
+    Date start = (Date) txn.get(TransactionMonitor.START_TIME);
+    Date end = (Date) txn.get(TransactionMonitor.END_TIME);
+    assertSame("Dates are created once", start, txn.get(TransactionMonitor.START_TIME));
+    assertEquals(txn.getAsLong(TransactionMonitor.LATENCY), end.getTime() - start.getTime());
+    assertTrue("For end time serializable",
+        txn.getSerializableMomento().hasAttribute(TransactionMonitor.END_TIME));
+  }
+
   public void testInheritableAttributes() {
     ExecutorService executor = Executors.newFixedThreadPool(3);
     
@@ -0,0 +1,135 @@
+package com.orbitz.monitoring.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableMonitor;
+
+/**
+ * Tests {@link MonitorReplayer} and {@link LatencyHistogram}
+ */
+public class MonitorReplayerTest {
+  /**
+   * A capture can be read back and replayed for several iterations
+   * @throws Exception if the capture cannot be written or read
+   */
+  @Test
+  public void testReplayCapture() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MonitorReplayer.writeMonitors(monitors(3), out);
+    List<Monitor> monitors =
+        MonitorReplayer.readMonitors(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(3, monitors.size());
+
+    MockMonitorProcessor processor = new MockMonitorProcessor();
+    processor.setName("mock");
+    MonitorReplayer replayer = new MonitorReplayer(new MockMonitorProcessorFactory(processor));
+    replayer.setWarmupIterations(1);
+    replayer.setIterations(2);
+    ReplayReport report = replayer.replay(monitors);
+
+    assertEquals(6, report.getMonitors());
+    assertEquals(6, report.getLatency().getCount());
+    assertEquals(1, report.getProcessors().size());
+    ReplayReport.ProcessorStats stats = report.getProcessors().get(0);
+    assertEquals("mock", stats.getName());
+    assertEquals(6, stats.getCalls());
+    assertEquals(0, stats.getErrors());
+
+    Set<Object> names = new HashSet<Object>();
+    Monitor[] processed = processor.extractProcessObjects();
+    for (int i = 0; i < processed.length; i++) {
+      names.add(processed[i].get(Monitor.NAME));
+    }
+    assertEquals(new HashSet<Object>(Arrays.asList("m0", "m1", "m2")), names);
+    assertTrue(report.toString().contains("mock"));
+  }
+
+  /**
+   * A processor that throws is counted and does not stop the others
+   */
+  @Test
+  public void testFailuresCounted() {
+    MockMonitorProcessor failing = new MockMonitorProcessor();
+    failing.setThrowThrowableDuringProcessing(true);
+    MockMonitorProcessor working = new MockMonitorProcessor();
+    working.setName("working");
+    MonitorReplayer replayer = new MonitorReplayer(
+        new MockMonitorProcessorFactory(new MonitorProcessor[] {failing, working}));
+    ReplayReport report = replayer.replay(monitors(4));
+
+    ReplayReport.ProcessorStats failingStats = report.getProcessors().get(0);
+    assertEquals(MockMonitorProcessor.class.getName(), failingStats.getName());
+    assertEquals(4, failingStats.getErrors());
+    assertEquals(4, report.getProcessors().get(1).getCalls());
+    assertEquals(0, report.getProcessors().get(1).getErrors());
+  }
+
+  /**
+   * A target rate spreads the monitors out
+   */
+  @Test
+  public void testTargetRate() {
+    MonitorReplayer replayer = new MonitorReplayer(
+        new MockMonitorProcessorFactory(new MockMonitorProcessor()));
+    replayer.setTargetRate(1000);
+    ReplayReport report = replayer.replay(monitors(21));
+
+    assertEquals(21, report.getMonitors());
+    assertTrue(report.getElapsedNanos() >= 20 * 1000 * 1000);
+    assertTrue(report.getThroughput() <= 1100);
+  }
+
+  /**
+   * Percentiles come back within the resolution of their bucket
+   */
+  @Test
+  public void testHistogramPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(10000, histogram.getCount());
+    assertEquals(1000, histogram.getMin());
+    assertEquals(10000000, histogram.getMax());
+    assertWithin(5000000, histogram.getPercentile(50));
+    assertWithin(9900000, histogram.getPercentile(99));
+    assertEquals(10000000, histogram.getPercentile(100));
+    assertEquals(0, new LatencyHistogram().getPercentile(50));
+
+    LatencyHistogram small = new LatencyHistogram();
+    small.record(3);
+    small.record(7);
+    histogram.add(small);
+    assertEquals(3, histogram.getMin());
+    assertEquals(7, histogram.getPercentile(0.015));
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " is not near " + expected,
+        Math.abs(actual - expected) <= expected * 0.04);
+  }
+
+  private static List<Monitor> monitors(int count) {
+    List<Monitor> monitors = new ArrayList<Monitor>();
+    for (int i = 0; i < count; i++) {
+      monitors.add(new SerializableMonitor(Collections.singletonMap(Monitor.NAME, "m" + i),
+          MonitoringLevel.INFO));
+    }
+    return monitors;
+  }
+}
@@ -4,28 +4,46 @@ import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.mappers.MonitorAttributeMapper;
 import com.orbitz.monitoring.api.mappers.ObjectAttributeMapper;
 
+import com.google.common.collect.MapMaker;
+
 import org.apache.log4j.Logger;
 
+import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * By default, this class maps {@link String}, {@link Number}, {@link java.util.Date}, 
  * {@link Boolean}, {@link Collection}, {@link Map} and {@link java.lang.reflect.Array}. The mapper 
- * also accepts custom {@link ObjectAttributeMapper}. Currently does not support nested 
- * {@link Collection}, {@link Map} and {@link java.lang.reflect.Array}.
+ * also accepts custom {@link ObjectAttributeMapper}. Nested {@link Collection}, {@link Map} and
+ * {@link java.lang.reflect.Array} values are mapped recursively; a container that holds itself,
+ * directly or through others, is mapped as {@link #CYCLE} where it repeats.
+ * <p>
+ * Mappers are configured by canonical class name, but are resolved per {@link Class}: the first
+ * lookup for a class walks its superclasses and then its interfaces, and the result (including
+ * the absence of a mapper) is cached so subsequent lookups are a single map read. The cache holds
+ * its classes weakly, so classes from an undeployed application can still be unloaded.
  *
  * @author hbouabdallah
  */
 public class MonitorAttributeMapperImpl implements MonitorAttributeMapper {
 
   protected static final String NO_MAPPER = "<Unable to find Mapper for [%s]>";
+  protected static final String CYCLE = "<Cycle>";
   private static final Logger log     = Logger.getLogger(MonitorAttributeMapperImpl.class);
 
   private Map<String, ObjectAttributeMapper> mappers;
+  private final ConcurrentMap<Class<?>, ResolvedMapper> resolvedMappers =
+      new MapMaker().weakKeys().makeMap();
 
   public MonitorAttributeMapperImpl(Map<String, ObjectAttributeMapper> mappers) {
 
@@ -54,7 +72,6 @@ public class MonitorAttributeMapperImpl implements MonitorAttributeMapper {
    * @param attrName
    * @param attrObj
    */
-  @SuppressWarnings("unchecked")
   public Map<String, Object> map(Monitor monitor) {
 
     // step one: check if monitor or monitor internal map are null
@@ -68,44 +85,70 @@ public class MonitorAttributeMapperImpl implements MonitorAttributeMapper {
     Map<String, Object> mappedMap = new HashMap<String, Object>();
 
     for (Map.Entry<String, Object> entry : monitorMap.entrySet()) {
-      String attrName = entry.getKey();
-      Object attrObj  = entry.getValue();
+      mappedMap.put(entry.getKey(), mapValue(entry.getValue()));
+    }
 
-      Object mappedObject = null;
+    return mappedMap;
+  }
 
-      if (null == attrObj) {
-        mappedObject = null;
+  /**
+   * Maps a single attribute value, descending into {@link Collection}, {@link Map} and arrays
+   * @param attrObj
+   * @return the mapped value
+   */
+  public Object mapValue(Object attrObj) {
+    return mapValue(attrObj, null);
+  }
 
-      } else if (attrObj instanceof Collection) {
-        mappedObject = handleCollection((Collection<Object>)attrObj);
+  /**
+   * @param attrObj
+   * @param mapping the containers being mapped around this value, or null at the top
+   */
+  @SuppressWarnings("unchecked")
+  private Object mapValue(Object attrObj, IdentityHashMap<Object, Object> mapping) {
 
-      } else if (attrObj instanceof Map) {
-        mappedObject = handleMap((Map<Object, Object>)attrObj);
+    if (null == attrObj) {
+      return null;
 
-      } else if (attrObj.getClass().isArray()) {
-        mappedObject = handleArray((Object[]) attrObj);
+    } else if (!(attrObj instanceof Collection) && !(attrObj instanceof Map)
+        && !attrObj.getClass().isArray()) {
+      return handleObject(attrObj);
+    }
 
-      } else {
-        mappedObject = handleObject(attrObj);
-      }
+    // created on the first container only, as most attributes are not containers
+    if (null == mapping) {
+      mapping = new IdentityHashMap<Object, Object>();
+    } else if (mapping.containsKey(attrObj)) {
+      return CYCLE;
+    }
 
-      mappedMap.put(attrName, mappedObject);
+    mapping.put(attrObj, attrObj);
+    try {
+      if (attrObj instanceof Collection) {
+        return handleCollection((Collection<Object>)attrObj, mapping);
 
-    }
+      } else if (attrObj instanceof Map) {
+        return handleMap((Map<Object, Object>)attrObj, mapping);
+      }
 
-    return mappedMap;
+      return handleArray(attrObj, mapping);
+    } finally {
+      mapping.remove(attrObj);
+    }
   }
 
   /**
    * Maps array using Spring injected mapper(s)
    * @param attrArray
+   * @param mapping
    * @return
    */
-  private Object handleArray(Object[] attrArray) {
-    Collection<Object> mappedColl = new ArrayList<Object>();
+  private Object handleArray(Object attrArray, IdentityHashMap<Object, Object> mapping) {
+    int length = Array.getLength(attrArray);
+    Collection<Object> mappedColl = new ArrayList<Object>(length);
 
-    for (Object obj : attrArray) {
-      mappedColl.add(handleObject(obj));
+    for (int i = 0; i < length; i++) {
+      mappedColl.add(mapValue(Array.get(attrArray, i), mapping));
     }
 
     return mappedColl;
@@ -114,13 +157,15 @@ public class MonitorAttributeMapperImpl implements MonitorAttributeMapper {
   /**
    * Maps {@link Collection} using Spring injected mapper(s)
    * @param attrColl
+   * @param mapping
    */
-  private Object handleCollection(Collection<Object> attrColl) {
+  private Object handleCollection(Collection<Object> attrColl,
+      IdentityHashMap<Object, Object> mapping) {
 
-    Collection<Object> mappedColl = new ArrayList<Object>();
+    Collection<Object> mappedColl = new ArrayList<Object>(attrColl.size());
 
     for (Object obj : attrColl) {
-      mappedColl.add(handleObject(obj));
+      mappedColl.add(mapValue(obj, mapping));
     }
 
     return mappedColl;
@@ -130,37 +175,23 @@ public class MonitorAttributeMapperImpl implements MonitorAttributeMapper {
    * Maps {@link Object} using Spring injected mapper(s)
    * @param attrObj
    */
-  @SuppressWarnings("unchecked")
   private Object handleObject(Object attrObj) {
 
-    if (null == attrObj) {
-      return null;
-    }
-
-    if ((attrObj instanceof Map)
-        || (attrObj instanceof Collection)
-        || (attrObj.getClass().isArray())) {
-      String msg = String.format("Cannot map the following object [%s] with class [%s]", 
-          attrObj, attrObj.getClass());
-      throw new IllegalArgumentException(msg);
-    }
-
-    String attrClassName     = attrObj.getClass().getCanonicalName();
-    ObjectAttributeMapper mapper = mappers.get(attrClassName);
+    ResolvedMapper resolved = resolveMapper(attrObj.getClass());
 
-    if (null == mapper) {
-      return String.format(NO_MAPPER, attrClassName);
+    if (null == resolved.mapper) {
+      return resolved.unmapped;
     }
 
-    return mapper.map(attrObj);
+    return resolved.mapper.map(attrObj);
   }
 
   /**
    * Maps {@link Map} using Spring injected mapper(s)
-   * @param map
    * @param attrMap
+   * @param mapping
    */
-  private Object handleMap(Map<Object, Object> attrMap) {
+  private Object handleMap(Map<Object, Object> attrMap, IdentityHashMap<Object, Object> mapping) {
 
     Map<String, Object> mappedMap = new HashMap<String, Object>();
 
@@ -168,9 +199,86 @@ public class MonitorAttributeMapperImpl implements MonitorAttributeMapper {
       String key = String.valueOf(entry.getKey());
       Object obj = entry.getValue();
 
-      mappedMap.put(key, handleObject(obj));
+      mappedMap.put(key, mapValue(obj, mapping));
     }
 
     return mappedMap;
   }
+
+  /**
+   * Returns the cached mapper resolution for a class, resolving it on first use
+   * @param type
+   */
+  private ResolvedMapper resolveMapper(Class<?> type) {
+    ResolvedMapper resolved = resolvedMappers.get(type);
+
+    if (null == resolved) {
+      ResolvedMapper candidate = new ResolvedMapper(nameOf(type), findMapper(type));
+      resolved = resolvedMappers.putIfAbsent(type, candidate);
+
+      if (null == resolved) {
+        resolved = candidate;
+        if (log.isDebugEnabled()) {
+          log.debug("Resolved mapper for " + type.getName() + ": " + resolved.mapper);
+        }
+      }
+    }
+
+    return resolved;
+  }
+
+  /**
+   * Finds the configured mapper for a class by checking the class itself, then each superclass,
+   * then all implemented interfaces breadth first. A name explicitly configured with a null
+   * mapper stops the search.
+   * @param type
+   * @return the mapper, or null if none applies
+   */
+  private ObjectAttributeMapper findMapper(Class<?> type) {
+    for (Class<?> c = type; null != c; c = c.getSuperclass()) {
+      String name = c.getCanonicalName();
+      if ((null != name) && mappers.containsKey(name)) {
+        return mappers.get(name);
+      }
+    }
+
+    Set<Class<?>> visited = new HashSet<Class<?>>();
+    LinkedList<Class<?>> queue = new LinkedList<Class<?>>();
+
+    for (Class<?> c = type; null != c; c = c.getSuperclass()) {
+      queue.addAll(Arrays.asList(c.getInterfaces()));
+    }
+
+    while (!queue.isEmpty()) {
+      Class<?> iface = queue.removeFirst();
+      if (visited.add(iface)) {
+        String name = iface.getCanonicalName();
+        if ((null != name) && mappers.containsKey(name)) {
+          return mappers.get(name);
+        }
+        queue.addAll(Arrays.asList(iface.getInterfaces()));
+      }
+    }
+
+    return null;
+  }
+
+  private static String nameOf(Class<?> type) {
+    String name = type.getCanonicalName();
+    return (null == name) ? type.getName() : name;
+  }
+
+  /**
+   * The outcome of resolving a class against the configured mappers. It holds only the class
+   * name, so a cached entry does not keep its class loaded.
+   */
+  private static final class ResolvedMapper {
+    private final ObjectAttributeMapper mapper;
+    private final String unmapped;
+
+    private ResolvedMapper(String typeName, ObjectAttributeMapper mapper) {
+      this.mapper = mapper;
+      this.unmapped = String.format(NO_MAPPER, typeName);
+    }
+  }
 }
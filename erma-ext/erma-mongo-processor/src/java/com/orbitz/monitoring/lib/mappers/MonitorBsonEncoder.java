@@ -0,0 +1,309 @@
+package com.orbitz.monitoring.lib.mappers;
+
+import com.orbitz.monitoring.api.Monitor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Encodes the attributes of a {@link Monitor} directly into BSON, without first copying them into
+ * intermediate maps. The document is written into a byte buffer owned by the encoder and reused
+ * across calls, and attribute names are cached as pre-encoded C-strings.
+ * <p>
+ * {@link String}, {@link Character}, {@link Boolean}, {@link Date}, {@link Collection},
+ * {@link Map}, arrays and the primitive wrappers are written natively. Any other value is passed
+ * through {@link MonitorAttributeMapperImpl#mapValue(Object)} and the result is encoded. As with
+ * the mapper, a container that holds itself is written as a string where it repeats.
+ * <p>
+ * Instances are not thread safe; use one encoder per writer thread.
+ */
+public class MonitorBsonEncoder {
+
+  private static final byte TYPE_DOUBLE   = 0x01;
+  private static final byte TYPE_STRING   = 0x02;
+  private static final byte TYPE_DOCUMENT = 0x03;
+  private static final byte TYPE_ARRAY    = 0x04;
+  private static final byte TYPE_BOOLEAN  = 0x08;
+  private static final byte TYPE_DATE     = 0x09;
+  private static final byte TYPE_NULL     = 0x0A;
+  private static final byte TYPE_INT32    = 0x10;
+  private static final byte TYPE_INT64    = 0x12;
+
+  private static final int DEFAULT_BUFFER_SIZE = 1024;
+  private static final int MAX_CACHED_KEYS     = 2048;
+
+  private final MonitorAttributeMapperImpl mapper;
+  private final Map<String, byte[]> keyCache = new HashMap<String, byte[]>();
+  // the containers being written around the current element
+  private final IdentityHashMap<Object, Object> writing = new IdentityHashMap<Object, Object>();
+
+  private byte[] buffer;
+  private int position;
+
+  public MonitorBsonEncoder(MonitorAttributeMapperImpl mapper) {
+    this.mapper = mapper;
+    this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+  }
+
+  /**
+   * Encodes the monitor's attributes as a BSON document, replacing whatever the buffer held
+   * @param monitor the monitor to encode
+   * @return the length of the encoded document
+   */
+  public int encode(Monitor monitor) {
+    if (null == monitor) {
+      throw new IllegalArgumentException("Monitor cannot be null");
+    }
+
+    position = 0;
+    Map<String, Object> attributes = monitor.getAll();
+    writeDocument(attributes);
+
+    return position;
+  }
+
+  /**
+   * Gets the buffer holding the most recently encoded document. The buffer is reused, so its
+   * contents are only valid until the next call to {@link #encode(Monitor)}.
+   * @return the buffer; the document occupies the first {@link #size()} bytes
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * @return the length of the most recently encoded document
+   */
+  public int size() {
+    return position;
+  }
+
+  /**
+   * @return a copy of the most recently encoded document
+   */
+  public byte[] toByteArray() {
+    byte[] copy = new byte[position];
+    System.arraycopy(buffer, 0, copy, 0, position);
+    return copy;
+  }
+
+  /**
+   * Writes the most recently encoded document to a stream
+   * @param out the stream
+   * @throws IOException if the stream fails
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buffer, 0, position);
+  }
+
+  private void writeDocument(Map<?, ?> map) {
+    int start = reserveLength();
+
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      writeElement(String.valueOf(entry.getKey()), entry.getValue());
+    }
+
+    endDocument(start);
+  }
+
+  private void writeArray(Collection<?> collection) {
+    int start = reserveLength();
+    int index = 0;
+
+    for (Object element : collection) {
+      writeElement(Integer.toString(index++), element);
+    }
+
+    endDocument(start);
+  }
+
+  private void writeArray(Object array) {
+    int start = reserveLength();
+    int length = Array.getLength(array);
+
+    for (int i = 0; i < length; i++) {
+      writeElement(Integer.toString(i), Array.get(array, i));
+    }
+
+    endDocument(start);
+  }
+
+  private void writeElement(String key, Object value) {
+    if (null == value) {
+      writeHeader(TYPE_NULL, key);
+
+    } else if (value instanceof String) {
+      writeHeader(TYPE_STRING, key);
+      writeString((String) value);
+
+    } else if ((value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+      writeHeader(TYPE_INT32, key);
+      writeInt(((Number) value).intValue());
+
+    } else if (value instanceof Long) {
+      writeHeader(TYPE_INT64, key);
+      writeLong(((Long) value).longValue());
+
+    } else if ((value instanceof Double) || (value instanceof Float)) {
+      writeHeader(TYPE_DOUBLE, key);
+      writeLong(Double.doubleToRawLongBits(((Number) value).doubleValue()));
+
+    } else if (value instanceof Boolean) {
+      writeHeader(TYPE_BOOLEAN, key);
+      writeByte(((Boolean) value).booleanValue() ? 1 : 0);
+
+    } else if (value instanceof Date) {
+      writeHeader(TYPE_DATE, key);
+      writeLong(((Date) value).getTime());
+
+    } else if (value instanceof Character) {
+      writeHeader(TYPE_STRING, key);
+      writeString(value.toString());
+
+    } else if ((value instanceof Map) || (value instanceof Collection)
+        || value.getClass().isArray()) {
+      writeContainer(key, value);
+
+    } else {
+      Object mapped = mapper.mapValue(value);
+      if ((null != mapped) && (mapped.getClass() == value.getClass())) {
+        // an identity mapping of a type BSON has no native form for
+        writeHeader(TYPE_STRING, key);
+        writeString(mapped.toString());
+      } else {
+        writeElement(key, mapped);
+      }
+    }
+  }
+
+  private void writeContainer(String key, Object value) {
+    if (writing.containsKey(value)) {
+      writeHeader(TYPE_STRING, key);
+      writeString(MonitorAttributeMapperImpl.CYCLE);
+      return;
+    }
+
+    writing.put(value, value);
+    try {
+      if (value instanceof Map) {
+        writeHeader(TYPE_DOCUMENT, key);
+        writeDocument((Map<?, ?>) value);
+      } else if (value instanceof Collection) {
+        writeHeader(TYPE_ARRAY, key);
+        writeArray((Collection<?>) value);
+      } else {
+        writeHeader(TYPE_ARRAY, key);
+        writeArray(value);
+      }
+    } finally {
+      writing.remove(value);
+    }
+  }
+
+  private void writeHeader(byte type, String key) {
+    writeByte(type);
+    byte[] cstring = keyCache.get(key);
+
+    if (null == cstring) {
+      int start = position;
+      writeUtf8(key);
+      writeByte(0);
+
+      if (keyCache.size() < MAX_CACHED_KEYS) {
+        cstring = new byte[position - start];
+        System.arraycopy(buffer, start, cstring, 0, cstring.length);
+        keyCache.put(key, cstring);
+      }
+      return;
+    }
+
+    ensureCapacity(cstring.length);
+    System.arraycopy(cstring, 0, buffer, position, cstring.length);
+    position += cstring.length;
+  }
+
+  private void writeString(String value) {
+    int start = reserveLength();
+    writeUtf8(value);
+    writeByte(0);
+    putInt(start, position - start - 4);
+  }
+
+  private void writeUtf8(String value) {
+    int length = value.length();
+    ensureCapacity(length * 3);
+
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xC0 | (c >> 6));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && (i + 1 < length)
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        buffer[position++] = (byte) (0xE0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private int reserveLength() {
+    int start = position;
+    writeInt(0);
+    return start;
+  }
+
+  private void endDocument(int start) {
+    writeByte(0);
+    putInt(start, position - start);
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(1);
+    buffer[position++] = (byte) value;
+  }
+
+  private void writeInt(int value) {
+    ensureCapacity(4);
+    putInt(position, value);
+    position += 4;
+  }
+
+  private void writeLong(long value) {
+    ensureCapacity(8);
+    for (int i = 0; i < 8; i++) {
+      buffer[position++] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  private void putInt(int offset, int value) {
+    buffer[offset]     = (byte) value;
+    buffer[offset + 1] = (byte) (value >>> 8);
+    buffer[offset + 2] = (byte) (value >>> 16);
+    buffer[offset + 3] = (byte) (value >>> 24);
+  }
+
+  private void ensureCapacity(int additional) {
+    int required = position + additional;
+    if (required > buffer.length) {
+      byte[] grown = new byte[Math.max(required, buffer.length * 2)];
+      System.arraycopy(buffer, 0, grown, 0, position);
+      buffer = grown;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.orbitz.monitoring.lib.mappers;
+
+import com.orbitz.monitoring.api.Monitor;
+
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+import org.bson.BSONObject;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link DBObject} view over the attributes of a {@link Monitor}. Values are mapped through
+ * {@link MonitorAttributeMapperImpl#mapValue(Object)} as the driver reads them, so the monitor is
+ * encoded straight into the driver's output buffer rather than being copied into a
+ * {@link java.util.HashMap} and a {@link com.mongodb.BasicDBObject} first.
+ * <p>
+ * Fields added through {@link #put(String, Object)}, such as the <code>_id</code> assigned by the
+ * driver on insert, are held alongside the view and never written back to the monitor.
+ */
+public class MonitorDBObject implements DBObject {
+
+  private static final Object REMOVED = new Object();
+
+  private final Map<String, Object> attributes;
+  private final MonitorAttributeMapperImpl mapper;
+  private final Map<String, Object> overrides = new LinkedHashMap<String, Object>(4);
+
+  private boolean partialObject;
+
+  public MonitorDBObject(Monitor monitor, MonitorAttributeMapperImpl mapper) {
+    if (null == monitor) {
+      throw new IllegalArgumentException("Monitor cannot be null");
+    }
+    this.attributes = monitor.getAll();
+    this.mapper = mapper;
+  }
+
+  public Object get(String key) {
+    if (overrides.containsKey(key)) {
+      Object value = overrides.get(key);
+      return (REMOVED == value) ? null : value;
+    }
+    return mapper.mapValue(attributes.get(key));
+  }
+
+  public Object put(String key, Object value) {
+    Object previous = get(key);
+    overrides.put(key, value);
+    return previous;
+  }
+
+  @SuppressWarnings("unchecked")
+  public void putAll(Map map) {
+    for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) map).entrySet()) {
+      put(String.valueOf(entry.getKey()), entry.getValue());
+    }
+  }
+
+  public void putAll(BSONObject bsonObject) {
+    for (String key : bsonObject.keySet()) {
+      put(key, bsonObject.get(key));
+    }
+  }
+
+  public Object removeField(String key) {
+    Object previous = get(key);
+    overrides.put(key, REMOVED);
+    return previous;
+  }
+
+  public boolean containsKey(String key) {
+    return containsField(key);
+  }
+
+  public boolean containsField(String key) {
+    return keySet().contains(key);
+  }
+
+  public Set<String> keySet() {
+    if (overrides.isEmpty()) {
+      return attributes.keySet();
+    }
+
+    Set<String> keys = new LinkedHashSet<String>(attributes.keySet());
+    for (Map.Entry<String, Object> entry : overrides.entrySet()) {
+      if (REMOVED == entry.getValue()) {
+        keys.remove(entry.getKey());
+      } else {
+        keys.add(entry.getKey());
+      }
+    }
+    return keys;
+  }
+
+  public Map toMap() {
+    Map<String, Object> map = new HashMap<String, Object>();
+    for (String key : keySet()) {
+      map.put(key, get(key));
+    }
+    return map;
+  }
+
+  public void markAsPartialObject() {
+    partialObject = true;
+  }
+
+  public boolean isPartialObject() {
+    return partialObject;
+  }
+
+  @Override
+  public String toString() {
+    return JSON.serialize(this);
+  }
+}
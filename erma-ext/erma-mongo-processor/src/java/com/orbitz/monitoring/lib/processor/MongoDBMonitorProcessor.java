@@ -4,6 +4,10 @@ import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.mappers.MonitorAttributeMapper;
 import com.orbitz.monitoring.lib.mappers.MonitorAttributeMapperImpl;
+import com.orbitz.monitoring.lib.mappers.MonitorBsonEncoder;
+import com.orbitz.monitoring.lib.mappers.MonitorDBObject;
+import com.orbitz.monitoring.lib.spill.SpillLog;
+import com.orbitz.monitoring.lib.spill.SpillReplayer;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
@@ -13,9 +17,18 @@ import com.mongodb.Mongo;
 import com.mongodb.MongoException;
 
 import org.apache.log4j.Logger;
+import org.bson.BSONDecoder;
+import org.bson.BSONEncoder;
+import org.bson.BSONObject;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -27,6 +40,13 @@ import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Uses the mongo-java-driver to persist ERMA monitors to MongoDB
+ * <p>
+ * When a spill file is configured, monitors rejected because the queue is full or because Mongo
+ * could not be reached are written to a local {@link SpillLog} instead of being dropped, and are
+ * replayed in the background once Mongo accepts inserts again. Spilling is done on a thread of its
+ * own, fed by a queue of {@link #setSpillQueueSize(int) spillQueueSize} monitors, so a rejected
+ * monitor costs the calling thread no more than a queue offer; monitors that find the spill queue
+ * full as well are dropped.
  *
  * @author Greg Opaczewski
  */
@@ -44,6 +64,8 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
   private AtomicLong totalRejected = new AtomicLong(0);
   private AtomicLong totalReceived = new AtomicLong(0);
   private AtomicLong totalSampled  = new AtomicLong(0);
+  private AtomicLong totalSpilled  = new AtomicLong(0);
+  private AtomicLong totalSpillDropped = new AtomicLong(0);
 
   private ExecutorService executor;
   private BlockingQueue enqueueBuffer;
@@ -60,6 +82,16 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
   /* used to construct Mongo db client */
   private MongoFactory mongoFactory;
 
+  /* optional local overflow for monitors that could not be inserted */
+  private String spillFile;
+  private int spillCapacity = 64 * 1024 * 1024;
+  private long spillReplayIntervalMillis = 5000;
+  private int spillQueueSize = 1024;
+  private ThreadPoolExecutor spillExecutor;
+  private SpillLog spillLog;
+  private SpillReplayer spillReplayer;
+  private MonitorBsonEncoder spillEncoder;
+
 
   /**
    * Construct a new processor that inserts monitor instances into the named
@@ -90,33 +122,7 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
 
     // keep all the work in the background thread(s) so as not to add to latency
     // of the business txn executing in the calling thread
-    executor.execute(new Runnable() {
-      public void run() {
-        try {
-          DBObject dbObject = new BasicDBObject(mapper.map(monitor));
-          String ns     = namespaceProvider.getNamespaceFor(monitor);
-
-          DBCollection collection = db.getCollection(ns);
-          collection.insert(dbObject);
-
-        } catch (MongoException e) {
-          logger.debug("Mongo client threw exception while attempting to insert : " + monitor, e);
-        } catch (Throwable t) {
-          boolean logged = false;
-          StackTraceElement[] stackTrace = t.getStackTrace();
-          if (stackTrace != null && stackTrace.length > 0) {
-            StackTraceElement top = stackTrace[0];
-            if (top.getClassName() != null && top.getClassName().equals("org.bson.BSONEncoder")) {
-              logger.info(String.format("Encoder exception caught: %s", monitor), t);
-              logged = true;
-            }
-          }
-          if (!logged) {
-            logger.debug("Caught throwable processing : + " + monitor, t);
-          }
-        }
-      }
-    });
+    executor.execute(new InsertTask(monitor));
   }
 
   @Override
@@ -149,7 +155,12 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
       mongo = mongoFactory.getMongo(host, port);
       db = mongo.getDB(database);
 
+      if (namespaceProvider instanceof ManagedNamespaceProvider) {
+        ((ManagedNamespaceProvider) namespaceProvider).startup(db);
+      }
+
       initialized = true;
+      startSpilling();
 
     } catch (UnknownHostException e) {
       handleStartupException(e);
@@ -161,6 +172,28 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
   @Override
   public void shutdown() {
     executor.shutdown();
+
+    if (namespaceProvider instanceof ManagedNamespaceProvider) {
+      ((ManagedNamespaceProvider) namespaceProvider).shutdown();
+    }
+
+    if (spillExecutor != null) {
+      spillExecutor.shutdown();
+      try {
+        spillExecutor.awaitTermination(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      spillExecutor = null;
+    }
+    if (spillReplayer != null) {
+      spillReplayer.shutdown();
+      spillReplayer = null;
+    }
+    if (spillLog != null) {
+      spillLog.close();
+      spillLog = null;
+    }
   }
 
   public void setBufferSize(int bufferSize) {
@@ -204,6 +237,9 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
       public void rejectedExecution(Runnable runnable,
           ThreadPoolExecutor threadPoolExecutor) {
         incrementCounter(totalRejected);
+        if (runnable instanceof InsertTask) {
+          enqueueSpill(((InsertTask) runnable).monitor);
+        }
         boolean shouldLog = false;
         long currentTime = System.currentTimeMillis();
 
@@ -225,6 +261,119 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
         rejectedExecutionHandler);
   }
 
+  /**
+   * Opens the spill log and starts its replayer, if a spill file has been configured. Failure to
+   * open the log only disables spilling.
+   */
+  private void startSpilling() {
+    if ((spillFile == null) || (spillLog != null)) {
+      return;
+    }
+    try {
+      spillLog = new SpillLog(new File(spillFile), spillCapacity);
+    } catch (IOException e) {
+      logger.warn("Failed to open spill log " + spillFile + ", overflow will be dropped", e);
+      return;
+    }
+
+    if (mapper.getClass() == MonitorAttributeMapperImpl.class) {
+      spillEncoder = new MonitorBsonEncoder((MonitorAttributeMapperImpl) mapper);
+    }
+
+    // a single spill thread, so the encoder and the log are only ever used from it
+    spillExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(spillQueueSize), new RejectedExecutionHandler() {
+          public void rejectedExecution(Runnable runnable, ThreadPoolExecutor threadPoolExecutor) {
+            incrementCounter(totalSpillDropped);
+          }
+        });
+
+    spillReplayer = new SpillReplayer(spillLog, new MongoSpillSink());
+    spillReplayer.setIntervalMillis(spillReplayIntervalMillis);
+    spillReplayer.startup();
+  }
+
+  /**
+   * Hands a monitor that could not be inserted to the spill thread. Called from request threads
+   * when the insert queue is full, so it must not block or touch the network.
+   * @param monitor the monitor to spill
+   */
+  private void enqueueSpill(final Monitor monitor) {
+    ExecutorService currentSpillExecutor = spillExecutor;
+    if (currentSpillExecutor != null) {
+      currentSpillExecutor.execute(new Runnable() {
+        public void run() {
+          spill(monitor);
+        }
+      });
+    }
+  }
+
+  /**
+   * Writes a monitor that could not be inserted to the spill log, on the spill thread. A spill
+   * record is the collection name, as written by {@link DataOutputStream#writeUTF(String)},
+   * followed by the BSON document.
+   * @param monitor the monitor to spill
+   */
+  private void spill(Monitor monitor) {
+    SpillLog currentSpillLog = spillLog;
+    if (currentSpillLog == null) {
+      return;
+    }
+
+    try {
+      String ns = namespaceProvider.getNamespaceFor(monitor);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      DataOutputStream out = new DataOutputStream(bytes);
+
+      out.writeUTF(ns);
+      if (spillEncoder != null) {
+        spillEncoder.encode(monitor);
+        spillEncoder.writeTo(out);
+      } else {
+        out.write(new BSONEncoder().encode(toDBObject(monitor)));
+      }
+
+      if (currentSpillLog.append(bytes.toByteArray())) {
+        incrementCounter(totalSpilled);
+      }
+    } catch (Throwable t) {
+      logger.debug("Failed to spill : " + monitor, t);
+    }
+  }
+
+  /**
+   * Builds the document to insert. The default mapper is read through a {@link MonitorDBObject}
+   * view so the driver encodes the monitor's attributes directly; custom mappers are copied into
+   * a {@link BasicDBObject} as before.
+   * @param monitor the monitor to convert
+   */
+  private DBObject toDBObject(Monitor monitor) {
+    if (mapper.getClass() == MonitorAttributeMapperImpl.class) {
+      return new MonitorDBObject(monitor, (MonitorAttributeMapperImpl) mapper);
+    }
+    return new BasicDBObject(mapper.map(monitor));
+  }
+
+  public void setSpillFile(String spillFile) {
+    this.spillFile = spillFile;
+  }
+
+  public void setSpillCapacity(int spillCapacity) {
+    this.spillCapacity = spillCapacity;
+  }
+
+  public void setSpillReplayIntervalMillis(long spillReplayIntervalMillis) {
+    this.spillReplayIntervalMillis = spillReplayIntervalMillis;
+  }
+
+  /**
+   * @param spillQueueSize the most monitors waiting to be written to the spill log
+   */
+  public void setSpillQueueSize(int spillQueueSize) {
+    this.spillQueueSize = spillQueueSize;
+  }
+
   public void setMapper(MonitorAttributeMapper mapper) {
     this.mapper = mapper;
   }
@@ -259,6 +408,31 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
     return totalRejected.get();
   }
 
+  @ManagedAttribute(description = "Get total monitors written to the spill log")
+  public long getTotalSpilled() {
+    return totalSpilled.get();
+  }
+
+  @ManagedAttribute(description = "Get total monitors dropped because the spill queue was full")
+  public long getTotalSpillDropped() {
+    return totalSpillDropped.get();
+  }
+
+  @ManagedAttribute(description = "Get total monitors replayed from the spill log")
+  public long getTotalReplayed() {
+    return (spillReplayer == null) ? 0 : spillReplayer.getTotalReplayed();
+  }
+
+  @ManagedAttribute(description = "Get the number of monitors waiting in the spill log")
+  public int getSpillSize() {
+    return (spillLog == null) ? 0 : spillLog.size();
+  }
+
+  @ManagedAttribute(description = "Get total monitors evicted from a full spill log")
+  public long getSpillEvicted() {
+    return (spillLog == null) ? 0 : spillLog.getEvicted();
+  }
+
   /**
    * Implementing an atomic increment that prevents Long overflow
    * @param atomicLong
@@ -274,10 +448,88 @@ public class MongoDBMonitorProcessor extends MonitorProcessorAdapter {
     } while (! atomicLong.compareAndSet(currentValue, newValue) );
   }
 
+  /**
+   * Inserts a single monitor in the background thread, spilling it if Mongo is unavailable
+   */
+  private class InsertTask implements Runnable {
+    private final Monitor monitor;
+
+    InsertTask(Monitor monitor) {
+      this.monitor = monitor;
+    }
+
+    public void run() {
+      try {
+        DBObject dbObject = toDBObject(monitor);
+        String ns     = namespaceProvider.getNamespaceFor(monitor);
+
+        DBCollection collection = db.getCollection(ns);
+        collection.insert(dbObject);
+
+      } catch (MongoException e) {
+        logger.debug("Mongo client threw exception while attempting to insert : " + monitor, e);
+        enqueueSpill(monitor);
+      } catch (Throwable t) {
+        boolean logged = false;
+        StackTraceElement[] stackTrace = t.getStackTrace();
+        if (stackTrace != null && stackTrace.length > 0) {
+          StackTraceElement top = stackTrace[0];
+          if (top.getClassName() != null && top.getClassName().equals("org.bson.BSONEncoder")) {
+            logger.info(String.format("Encoder exception caught: %s", monitor), t);
+            logged = true;
+          }
+        }
+        if (!logged) {
+          logger.debug("Caught throwable processing : + " + monitor, t);
+        }
+      }
+    }
+  }
+
+  /**
+   * Replays spill records into Mongo while the insert queue has room to spare
+   */
+  private class MongoSpillSink implements SpillReplayer.Sink {
+    public boolean isAvailable() {
+      return initialized && (enqueueBuffer.size() < (bufferSize / 2));
+    }
+
+    public boolean replay(byte[] record) {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+      String ns;
+      BSONObject document;
+
+      try {
+        ns = in.readUTF();
+        document = new BSONDecoder().readObject(in);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Unreadable spill record", e);
+      }
+
+      try {
+        db.getCollection(ns).insert(new BasicDBObject(document.toMap()));
+        return true;
+      } catch (MongoException e) {
+        logger.debug("Mongo client threw exception while replaying spilled monitor", e);
+        return false;
+      }
+    }
+  }
+
   public interface NamespaceProvider {
     String getNamespaceFor(Monitor monitor);
   }
 
+  /**
+   * A {@link NamespaceProvider} that manages the collections it names, and so needs the database
+   * once the processor has connected and must be stopped with the processor
+   */
+  public interface ManagedNamespaceProvider extends NamespaceProvider {
+    void startup(DB db);
+
+    void shutdown();
+  }
+
   interface MongoFactory {
     Mongo getMongo(String host, int port) throws UnknownHostException;
   }
@@ -0,0 +1,288 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.lib.processor.MongoDBMonitorProcessor.ManagedNamespaceProvider;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.MongoException;
+
+import org.apache.log4j.Logger;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Places each monitor in a collection named after the monitor and the UTC hour or day it was
+ * created in, behind a {@link #setCollectionPrefix(String) collectionPrefix}, e.g.
+ * <code>erma.MyMonitor.2011063014</code>. The first time a collection is named, a background task
+ * gives it indexes on {@link Attribute#NAME}, {@link Attribute#START_TIME} and
+ * {@link Attribute#RESULT_CODE}, so naming a collection never waits on Mongo. Collections with the
+ * prefix and a bucket suffix whose window ended more than
+ * {@link #setRetentionHours(int) retentionHours} ago are dropped whole by the same task; other
+ * collections in the database are never touched.
+ *
+ * @see MongoDBMonitorProcessor#setNamespaceProvider(MongoDBMonitorProcessor.NamespaceProvider)
+ */
+public class TimeBucketedNamespaceProvider implements ManagedNamespaceProvider {
+  private static final Logger logger = Logger.getLogger(TimeBucketedNamespaceProvider.class);
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  private static final String[] INDEXED_ATTRIBUTES = {
+    Attribute.NAME, Attribute.START_TIME, Attribute.RESULT_CODE
+  };
+
+  /**
+   * The width of a collection's time window
+   */
+  public enum BucketSize {
+    HOUR(TimeUnit.HOURS.toMillis(1), 10),
+    DAY(TimeUnit.DAYS.toMillis(1), 8);
+
+    private final long millis;
+    private final int suffixLength;
+
+    private BucketSize(long millis, int suffixLength) {
+      this.millis = millis;
+      this.suffixLength = suffixLength;
+    }
+  }
+
+  private String collectionPrefix = "erma.";
+  private BucketSize bucketSize = BucketSize.HOUR;
+  private int retentionHours = 24 * 7;
+
+  private volatile DB db;
+  private ScheduledExecutorService executor;
+  /* collections indexes have been, or are being, created for */
+  private final ConcurrentMap<String, Boolean> indexedCollections =
+      new ConcurrentHashMap<String, Boolean>();
+
+  /* the most recently used window, reused until a monitor falls outside it */
+  private volatile Bucket currentBucket;
+
+  public String getNamespaceFor(Monitor monitor) {
+    String name = monitor.hasAttribute(Attribute.NAME)
+        ? monitor.getAsString(Attribute.NAME) : "null";
+    final String ns = collectionPrefix + name + "." + bucketFor(creationTime(monitor)).suffix;
+
+    ScheduledExecutorService currentExecutor = executor;
+    if ((currentExecutor != null) && (indexedCollections.putIfAbsent(ns, Boolean.TRUE) == null)) {
+      currentExecutor.execute(new Runnable() {
+        public void run() {
+          ensureIndexes(ns);
+        }
+      });
+    }
+    return ns;
+  }
+
+  public void startup(DB db) {
+    this.db = db;
+
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "erma-mongo-buckets");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      long period = Math.min(bucketSize.millis, TimeUnit.HOURS.toMillis(1));
+      executor.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          dropExpiredCollections();
+        }
+      }, 0, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Drops every collection this provider names whose window ended before the retention period
+   * @return the number of collections dropped
+   */
+  public int dropExpiredCollections() {
+    if (db == null) {
+      return 0;
+    }
+
+    int dropped = 0;
+    long now = System.currentTimeMillis();
+    try {
+      for (String collectionName : db.getCollectionNames()) {
+        if (isExpired(collectionName, now)) {
+          db.getCollection(collectionName).drop();
+          indexedCollections.remove(collectionName);
+          dropped++;
+          logger.info("Dropped expired monitor collection " + collectionName);
+        }
+      }
+    } catch (MongoException e) {
+      logger.warn("Failed to drop expired monitor collections; will retry", e);
+    }
+    return dropped;
+  }
+
+  /**
+   * Determines whether a collection is one of this provider's buckets and has expired. Only
+   * names made of the collection prefix, a monitor name, a dot and a suffix this provider would
+   * write for the configured bucket size qualify.
+   * @param collectionName the collection's name
+   * @param now the current time in milliseconds
+   * @return true if the collection should be dropped
+   */
+  boolean isExpired(String collectionName, long now) {
+    int dot = collectionName.lastIndexOf('.');
+    if (!collectionName.startsWith(collectionPrefix) || (dot <= collectionPrefix.length())
+        || (collectionName.length() - dot - 1 != bucketSize.suffixLength)) {
+      return false;
+    }
+
+    String suffix = collectionName.substring(dot + 1);
+    for (int i = 0; i < suffix.length(); i++) {
+      if (!Character.isDigit(suffix.charAt(i))) {
+        return false;
+      }
+    }
+
+    Calendar calendar = Calendar.getInstance(UTC);
+    calendar.clear();
+    calendar.set(Integer.parseInt(suffix.substring(0, 4)),
+        Integer.parseInt(suffix.substring(4, 6)) - 1,
+        Integer.parseInt(suffix.substring(6, 8)));
+    if (bucketSize == BucketSize.HOUR) {
+      calendar.set(Calendar.HOUR_OF_DAY, Integer.parseInt(suffix.substring(8, 10)));
+    }
+
+    // digits that are not a real hour or day, such as a month of 13, were not written here
+    Bucket bucket = new Bucket(calendar.getTimeInMillis(), bucketSize);
+    if (!bucket.suffix.equals(suffix)) {
+      return false;
+    }
+    return bucket.end + TimeUnit.HOURS.toMillis(retentionHours) <= now;
+  }
+
+  private void ensureIndexes(String ns) {
+    try {
+      DBCollection collection = db.getCollection(ns);
+      for (String attribute : INDEXED_ATTRIBUTES) {
+        collection.ensureIndex(new BasicDBObject(attribute, 1));
+      }
+    } catch (MongoException e) {
+      // the next monitor written to the collection schedules another attempt
+      indexedCollections.remove(ns);
+      logger.debug("Failed to create indexes for " + ns + "; will retry", e);
+    }
+  }
+
+  private long creationTime(Monitor monitor) {
+    if (monitor.hasAttribute(Attribute.CREATED_AT)) {
+      Object createdAt = monitor.get(Attribute.CREATED_AT);
+      if (createdAt instanceof Date) {
+        return ((Date) createdAt).getTime();
+      }
+    }
+    return System.currentTimeMillis();
+  }
+
+  private Bucket bucketFor(long time) {
+    Bucket bucket = currentBucket;
+    if ((bucket != null) && (time >= bucket.start) && (time < bucket.end)) {
+      return bucket;
+    }
+
+    bucket = new Bucket(time, bucketSize);
+    if ((currentBucket == null) || (bucket.start > currentBucket.start)) {
+      currentBucket = bucket;
+    }
+    return bucket;
+  }
+
+  public String getCollectionPrefix() {
+    return collectionPrefix;
+  }
+
+  /**
+   * @param collectionPrefix the start of every collection name; must not be empty, since it is
+   *        what tells this provider's collections apart from others when expired ones are dropped
+   */
+  public void setCollectionPrefix(String collectionPrefix) {
+    if ((collectionPrefix == null) || (collectionPrefix.length() == 0)) {
+      throw new IllegalArgumentException("collectionPrefix must not be empty");
+    }
+    this.collectionPrefix = collectionPrefix;
+  }
+
+  public BucketSize getBucketSize() {
+    return bucketSize;
+  }
+
+  public void setBucketSize(BucketSize bucketSize) {
+    this.bucketSize = bucketSize;
+    this.currentBucket = null;
+  }
+
+  public int getRetentionHours() {
+    return retentionHours;
+  }
+
+  public void setRetentionHours(int retentionHours) {
+    this.retentionHours = retentionHours;
+  }
+
+  /**
+   * A time window and the collection name suffix for it
+   */
+  private static final class Bucket {
+    private final long start;
+    private final long end;
+    private final String suffix;
+
+    private Bucket(long time, BucketSize size) {
+      Calendar calendar = Calendar.getInstance(UTC);
+      calendar.setTimeInMillis(time);
+      calendar.set(Calendar.MINUTE, 0);
+      calendar.set(Calendar.SECOND, 0);
+      calendar.set(Calendar.MILLISECOND, 0);
+      if (size == BucketSize.DAY) {
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+      }
+
+      this.start = calendar.getTimeInMillis();
+      this.end = start + size.millis;
+
+      StringBuilder builder = new StringBuilder(size.suffixLength);
+      append(builder, calendar.get(Calendar.YEAR), 4);
+      append(builder, calendar.get(Calendar.MONTH) + 1, 2);
+      append(builder, calendar.get(Calendar.DAY_OF_MONTH), 2);
+      if (size == BucketSize.HOUR) {
+        append(builder, calendar.get(Calendar.HOUR_OF_DAY), 2);
+      }
+      this.suffix = builder.toString();
+    }
+
+    private static void append(StringBuilder builder, int value, int width) {
+      String digits = Integer.toString(value);
+      for (int i = digits.length(); i < width; i++) {
+        builder.append('0');
+      }
+      builder.append(digits);
+    }
+  }
+}
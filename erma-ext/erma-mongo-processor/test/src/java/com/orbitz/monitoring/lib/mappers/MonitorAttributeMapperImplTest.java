@@ -256,6 +256,7 @@ public class MonitorAttributeMapperImplTest {
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     public void testListOfMapsAttributeMapper()
     throws Exception {
 
@@ -285,14 +286,93 @@ public class MonitorAttributeMapperImplTest {
         list.add(record3);
 
         monitor.set("the_list", list);
-        try {
-            Map<String, Object> map = mapper.map(monitor);
-            fail("IllegalArgumentException was excepted");
-        } catch (IllegalArgumentException e) {
-            // swallow error
+
+        Map<String, Object> map = mapper.map(monitor);
+        List<Object> theList = (List<Object>) map.get("the_list");
+
+        assertEquals("size of list", 3, theList.size());
+        assertEquals(record1, theList.get(0));
+        assertEquals(record2, theList.get(1));
+
+        Map<String, Object> nested = (Map<String, Object>) theList.get(2);
+
+        assertEquals(record1, nested.get("record1_key"));
+        assertEquals("SomeOtherRecord2", nested.get("record2_key"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPrimitiveArrayAttributeMapper() {
+
+        EventMonitor monitor = new EventMonitor(null);
+        int[] array          = new int[] {3, 5};
+
+        monitor.set("the_array", array);
+
+        Map<String, Object> mapped = mapper.map(monitor);
+        List<Object> theList = (List<Object>) mapped.get("the_array");
+
+        assertEquals("size of list", 2, theList.size());
+        assertEquals(3, theList.get(0));
+        assertEquals(5, theList.get(1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSubclassAndInterfaceAttributeMapper() {
+
+        Map<String, ObjectAttributeMapper> mappersMap = new HashMap<String, ObjectAttributeMapper>();
+
+        mappersMap.put("com.orbitz.monitoring.lib.mappers.MonitorAttributeMapperImplTest.ComplexObject", new ComplexObjectAttributeMapper());
+        mappersMap.put("java.lang.CharSequence", identityMapper);
+
+        mapper = new MonitorAttributeMapperImpl(mappersMap);
+        EventMonitor monitor = new EventMonitor(null);
+
+        ComplexObject sub     = new ComplexSubObject();
+        StringBuilder builder = new StringBuilder("builder");
+
+        sub.setId(7);
+        sub.setName("sub");
+
+        monitor.set("sub", sub);
+        monitor.set("builder", builder);
+
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> mapped = mapper.map(monitor);
+            Map<String, Object> theMap = (Map<String, Object>) mapped.get("sub");
+
+            assertEquals("id", 7, theMap.get("id"));
+            assertEquals("name", "sub", theMap.get("name"));
+            assertSame(builder, mapped.get("builder"));
         }
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSelfReferencingAttributeMapper() {
+
+        EventMonitor monitor = new EventMonitor(null);
+        List<Object> list    = new ArrayList<Object>();
+        Map<String, Object> map = new HashMap<String, Object>();
+        List<Object> shared  = new ArrayList<Object>();
+
+        shared.add("shared");
+        list.add(map);
+        list.add(shared);
+        list.add(shared);
+        map.put("back", list);
+
+        monitor.set("the_list", list);
+
+        Map<String, Object> mapped = mapper.map(monitor);
+        List<Object> theList = (List<Object>) mapped.get("the_list");
+        Map<String, Object> theMap = (Map<String, Object>) theList.get(0);
+
+        assertEquals(MonitorAttributeMapperImpl.CYCLE, theMap.get("back"));
+        assertEquals("repeated but not a cycle", theList.get(1), theList.get(2));
+    }
+
     protected static class ComplexObject {
         private int id;
         private String name;
@@ -318,6 +398,9 @@ public class MonitorAttributeMapperImplTest {
         }
     }
 
+    protected static class ComplexSubObject extends ComplexObject {
+    }
+
     protected static class ComplexObjectAttributeMapper implements ObjectAttributeMapper {
 
         public Object map(Object obj) {
@@ -0,0 +1,65 @@
+package com.orbitz.monitoring.lib.mappers;
+
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.mongodb.BasicDBObject;
+import org.bson.BSONEncoder;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Compares the cost of turning a monitor into BSON through {@link MonitorAttributeMapperImpl} and
+ * a {@link BasicDBObject}, through a {@link MonitorDBObject} view, and through
+ * {@link MonitorBsonEncoder}. Run from the command line; it is not part of the unit test suite.
+ */
+public class MonitorBsonEncoderBenchmark {
+
+    private static final int WARMUP     = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    public static void main(String[] args) {
+        MonitorAttributeMapperImpl mapper = new MonitorAttributeMapperImpl(null);
+        MonitorBsonEncoder encoder = new MonitorBsonEncoder(mapper);
+        EventMonitor monitor = new EventMonitor("benchmarkMonitor");
+
+        monitor.set("startTime", new Date());
+        monitor.set("latency", 125L);
+        monitor.set("failed", false);
+        monitor.set("resultCode", "SUCCESS");
+        monitor.set("hosts", Arrays.asList("a.example.com", "b.example.com"));
+
+        for (int round = 0; round < 2; round++) {
+            int iterations = (round == 0) ? WARMUP : ITERATIONS;
+            long bytes = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                bytes += new BSONEncoder().encode(new BasicDBObject(mapper.map(monitor))).length;
+            }
+            report(round, "mapper + BasicDBObject", start, iterations, bytes);
+
+            bytes = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                bytes += new BSONEncoder().encode(new MonitorDBObject(monitor, mapper)).length;
+            }
+            report(round, "MonitorDBObject view", start, iterations, bytes);
+
+            bytes = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                bytes += encoder.encode(monitor);
+            }
+            report(round, "MonitorBsonEncoder", start, iterations, bytes);
+        }
+    }
+
+    private static void report(int round, String label, long start, int iterations, long bytes) {
+        if (round == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-24s %8d ns/doc  (%d bytes)",
+                label, elapsed / iterations, bytes / iterations));
+    }
+}
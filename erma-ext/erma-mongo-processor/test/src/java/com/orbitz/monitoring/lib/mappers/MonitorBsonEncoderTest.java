@@ -0,0 +1,169 @@
+package com.orbitz.monitoring.lib.mappers;
+
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.mongodb.DBObject;
+import org.bson.BSONDecoder;
+import org.bson.BSONEncoder;
+import org.bson.BSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MonitorBsonEncoderTest {
+
+    MonitorAttributeMapperImpl mapper;
+    MonitorBsonEncoder encoder;
+
+    @Before
+    public void setUp()
+    throws Exception {
+
+        mapper  = new MonitorAttributeMapperImpl(null);
+        encoder = new MonitorBsonEncoder(mapper);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEncodeMatchesMapper()
+    throws Exception {
+
+        EventMonitor monitor = newMonitor();
+
+        int length = encoder.encode(monitor);
+        BSONObject decoded = new BSONDecoder().readObject(encoder.toByteArray());
+
+        assertEquals("length", length, encoder.size());
+        assertEquals("name", "fooMonitor", decoded.get("name"));
+        assertEquals("int", 42, decoded.get("int"));
+        assertEquals("long", 4200000000L, decoded.get("long"));
+        assertEquals("double", 3.5d, decoded.get("double"));
+        assertEquals("bool", Boolean.TRUE, decoded.get("bool"));
+        assertEquals("date", monitor.get("date"), decoded.get("date"));
+        assertEquals("unicode", "caf\u00e9 \u20ac \ud83d\ude00", decoded.get("unicode"));
+
+        List<Object> list = (List<Object>) decoded.get("list");
+        assertEquals("list size", 2, list.size());
+        assertEquals("list[0]", "a", list.get(0));
+        assertEquals("nested map", 7, ((BSONObject) list.get(1)).get("seven"));
+
+        assertEquals("unmapped",
+                String.format(MonitorAttributeMapperImpl.NO_MAPPER, Object.class.getCanonicalName()),
+                decoded.get("unmapped"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEncodeSelfReference()
+    throws Exception {
+
+        EventMonitor monitor = new EventMonitor("cyclic");
+        List<Object> list = new ArrayList<Object>();
+        list.add("a");
+        list.add(list);
+        monitor.set("list", list);
+
+        encoder.encode(monitor);
+        BSONObject decoded = new BSONDecoder().readObject(encoder.toByteArray());
+
+        List<Object> decodedList = (List<Object>) decoded.get("list");
+        assertEquals("a", decodedList.get(0));
+        assertEquals(MonitorAttributeMapperImpl.CYCLE, decodedList.get(1));
+
+        // the encoder can be used again afterwards
+        list.remove(1);
+        encoder.encode(monitor);
+        decoded = new BSONDecoder().readObject(encoder.toByteArray());
+        assertEquals(1, ((List<Object>) decoded.get("list")).size());
+    }
+
+    @Test
+    public void testEncodeMatchesDBObjectView()
+    throws Exception {
+
+        EventMonitor monitor = newMonitor();
+        DBObject view = new MonitorDBObject(monitor, mapper);
+
+        BSONObject fromDriver = new BSONDecoder().readObject(new BSONEncoder().encode(view));
+
+        encoder.encode(monitor);
+        BSONObject fromEncoder = new BSONDecoder().readObject(encoder.toByteArray());
+
+        assertEquals(fromDriver.keySet(), fromEncoder.keySet());
+        assertEquals(fromDriver.get("unicode"), fromEncoder.get("unicode"));
+        assertEquals(fromDriver.get("list").toString(), fromEncoder.get("list").toString());
+    }
+
+    @Test
+    public void testBufferIsReused()
+    throws Exception {
+
+        EventMonitor first = new EventMonitor("first");
+        EventMonitor second = new EventMonitor("second");
+        StringBuilder big = new StringBuilder();
+
+        for (int i = 0; i < 2000; i++) {
+            big.append('x');
+        }
+        first.set("big", big.toString());
+
+        encoder.encode(first);
+        byte[] buffer = encoder.getBuffer();
+        encoder.encode(second);
+
+        assertSame(buffer, encoder.getBuffer());
+        assertEquals("second", new BSONDecoder().readObject(encoder.toByteArray()).get("name"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        assertEquals(encoder.size(), out.size());
+    }
+
+    @Test
+    public void testDBObjectViewOverrides()
+    throws Exception {
+
+        EventMonitor monitor = new EventMonitor("fooMonitor");
+        monitor.set("foo", "bar");
+
+        MonitorDBObject view = new MonitorDBObject(monitor, mapper);
+
+        view.put("_id", "id");
+        view.removeField("foo");
+
+        assertEquals("id", view.get("_id"));
+        assertNull(view.get("foo"));
+        assertFalse(view.containsField("foo"));
+        assertTrue(view.containsField("name"));
+        assertEquals("bar", monitor.get("foo"));
+    }
+
+    private EventMonitor newMonitor() {
+        EventMonitor monitor = new EventMonitor("fooMonitor");
+
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("seven", 7);
+
+        List<Object> list = new ArrayList<Object>();
+        list.add("a");
+        list.add(nested);
+
+        monitor.set("int", 42);
+        monitor.set("long", 4200000000L);
+        monitor.set("double", 3.5d);
+        monitor.set("bool", true);
+        monitor.set("date", new Date());
+        monitor.set("unicode", "caf\u00e9 \u20ac \ud83d\ude00");
+        monitor.set("list", list);
+        monitor.set("unmapped", new Object());
+
+        return monitor;
+    }
+}
@@ -7,11 +7,13 @@ import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.net.UnknownHostException;
 import java.util.HashMap;
@@ -51,6 +53,8 @@ import com.orbitz.monitoring.api.mappers.MonitorAttributeMapper;
 import com.orbitz.monitoring.api.monitor.EventMonitor;
 import com.orbitz.monitoring.api.monitor.TransactionMonitor;
 import com.orbitz.monitoring.lib.processor.MongoDBMonitorProcessor.NamespaceProvider;
+import com.orbitz.monitoring.lib.spill.SpillLog;
+import com.orbitz.monitoring.lib.spill.SpillReplayer;
 import java.math.BigDecimal;
 
 
@@ -480,6 +484,111 @@ public class MongoDBMonitorProcessorTest  {
 
     }
 
+    @Test
+    public void testFullQueueSpills()
+    throws Exception {
+        File spillFile = newSpillFile();
+        MongoDBMonitorProcessor processor = createSpillingProcessor(1, 16, spillFile);
+        CountDownLatch release = blockExecutor(processor);
+        try {
+            processor.process(new EventMonitor("queued"));
+            processor.process(new EventMonitor("spilled"));
+
+            assertEquals("num of rejected monitors", 1, processor.getTotalRejected());
+            awaitSpilled(processor, 1);
+            assertEquals("spill log size", 1, processor.getSpillSize());
+            assertEquals("num of dropped monitors", 0, processor.getTotalSpillDropped());
+        } finally {
+            release.countDown();
+            processor.shutdown();
+            spillFile.delete();
+        }
+    }
+
+    @Test
+    public void testFullSpillQueueDrops()
+    throws Exception {
+        File spillFile = newSpillFile();
+        MongoDBMonitorProcessor processor = createSpillingProcessor(1, 1, spillFile);
+
+        // holds the spill thread in spill(), the only caller while the insert thread is blocked
+        final CountDownLatch spilling = new CountDownLatch(1);
+        final CountDownLatch releaseSpill = new CountDownLatch(1);
+        processor.setNamespaceProvider(new NamespaceProvider() {
+            public String getNamespaceFor(Monitor monitor) {
+                spilling.countDown();
+                try {
+                    releaseSpill.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return monitor.getAsString(Monitor.NAME);
+            }
+        });
+        CountDownLatch release = blockExecutor(processor);
+        try {
+            processor.process(new EventMonitor("queued"));
+            processor.process(new EventMonitor("spilling"));
+            assertTrue(spilling.await(10, TimeUnit.SECONDS));
+            processor.process(new EventMonitor("waiting"));
+            processor.process(new EventMonitor("dropped"));
+
+            assertEquals("num of rejected monitors", 3, processor.getTotalRejected());
+            assertEquals("num of dropped monitors", 1, processor.getTotalSpillDropped());
+
+            releaseSpill.countDown();
+            awaitSpilled(processor, 2);
+            assertEquals("spill log size", 2, processor.getSpillSize());
+        } finally {
+            releaseSpill.countDown();
+            release.countDown();
+            processor.shutdown();
+            spillFile.delete();
+        }
+    }
+
+    @Test
+    public void testSpilledMonitorsReplayed()
+    throws Exception {
+        File spillFile = newSpillFile();
+        MongoDBMonitorProcessor processor = createSpillingProcessor(2, 16, spillFile);
+        CountDownLatch release = blockExecutor(processor);
+        try {
+            processor.process(new EventMonitor("first"));
+            processor.process(new EventMonitor("second"));
+            EventMonitor spilled = new EventMonitor("spilled");
+            spilled.set("foo", "fooValue");
+            processor.process(spilled);
+            awaitSpilled(processor, 1);
+
+            // let the queued inserts finish, so the sink has room to replay into
+            release.countDown();
+            awaitInsertsDone(processor);
+            verify(mockCollection, times(2)).insert(isA(DBObject.class));
+
+            SpillReplayer replayer = (SpillReplayer) getFieldValue(processor, "spillReplayer");
+            doThrow(new MongoException("still down")).doNothing()
+                .when(mockCollection).insert((DBObject) anyObject());
+            assertEquals("replayed while Mongo is down", 0, replayer.replay());
+            assertEquals("spill log size", 1, processor.getSpillSize());
+
+            assertEquals("replayed once Mongo is back", 1, replayer.replay());
+            assertEquals("spill log size", 0, processor.getSpillSize());
+            assertEquals("num of replayed monitors", 1, processor.getTotalReplayed());
+
+            ArgumentCaptor<DBObject> argument = ArgumentCaptor.forClass(DBObject.class);
+            verify(mockDB, times(2)).getCollection("spilled");
+            verify(mockCollection, times(4)).insert(argument.capture());
+            DBObject replayed = argument.getValue();
+            assertEquals("spilled", replayed.get(Monitor.NAME));
+            assertEquals("fooValue", replayed.get("foo"));
+        } finally {
+            release.countDown();
+            processor.shutdown();
+            spillFile.delete();
+        }
+    }
+
     public static class ErmaComplexObject {
         private int id;
         private String name;
@@ -554,6 +663,73 @@ public class MongoDBMonitorProcessorTest  {
         }
     }
 
+    private MongoDBMonitorProcessor createSpillingProcessor(int bufferSize, int spillQueueSize,
+            File spillFile) {
+        MongoDBMonitorProcessor processor = createProcessor(bufferSize);
+        processor.setSpillFile(spillFile.getPath());
+        processor.setSpillCapacity(SpillLog.MIN_CAPACITY * 4);
+        processor.setSpillQueueSize(spillQueueSize);
+        // replayed by the tests themselves
+        processor.setSpillReplayIntervalMillis(TimeUnit.HOURS.toMillis(1));
+        processor.startup();
+        return processor;
+    }
+
+    private File newSpillFile()
+    throws Exception {
+        File file = File.createTempFile("erma-mongo-spill", ".log");
+        file.delete();
+        return file;
+    }
+
+    /**
+     * Occupies the insert thread until the returned latch is released
+     */
+    private CountDownLatch blockExecutor(MongoDBMonitorProcessor processor)
+    throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = (ExecutorService) getFieldValue(processor, "executor");
+        executor.execute(new Runnable() {
+            public void run() {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void awaitSpilled(MongoDBMonitorProcessor processor, long spilled)
+    throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((processor.getTotalSpilled() < spilled) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertEquals("num of spilled monitors", spilled, processor.getTotalSpilled());
+    }
+
+    private void awaitInsertsDone(MongoDBMonitorProcessor processor)
+    throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((processor.getMonitorQueueSize() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        // runs after every insert queued before it
+        final CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = (ExecutorService) getFieldValue(processor, "executor");
+        executor.execute(new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
     private MongoDBMonitorProcessor createProcessor() {
         return createProcessor(1024);
     }
@@ -0,0 +1,95 @@
+package com.orbitz.monitoring.lib.processor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.lib.processor.TimeBucketedNamespaceProvider.BucketSize;
+
+/**
+ * TimeBucketedNamespaceProvider test cases
+ */
+public class TimeBucketedNamespaceProviderTest {
+
+    private TimeBucketedNamespaceProvider provider;
+    private Calendar calendar;
+
+    @Before
+    public void setUp() {
+        provider = new TimeBucketedNamespaceProvider();
+        calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(2011, Calendar.JUNE, 30, 14, 25, 7);
+    }
+
+    @Test
+    public void testHourlyNamespace() {
+        assertEquals("erma.fooMonitor.2011063014", provider.getNamespaceFor(monitorAt(calendar.getTime().getTime())));
+
+        calendar.add(Calendar.HOUR_OF_DAY, 10);
+        assertEquals("erma.fooMonitor.2011070100", provider.getNamespaceFor(monitorAt(calendar.getTime().getTime())));
+
+        calendar.add(Calendar.HOUR_OF_DAY, -1);
+        assertEquals("erma.fooMonitor.2011063023", provider.getNamespaceFor(monitorAt(calendar.getTime().getTime())));
+    }
+
+    @Test
+    public void testDailyNamespace() {
+        provider.setBucketSize(BucketSize.DAY);
+
+        assertEquals("erma.fooMonitor.20110630", provider.getNamespaceFor(monitorAt(calendar.getTime().getTime())));
+    }
+
+    @Test
+    public void testExpiry() {
+        provider.setRetentionHours(24);
+
+        // the 14:00 bucket ends at 15:00 and is retained for 24 hours after that
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.add(Calendar.HOUR_OF_DAY, 25);
+        long expiresAt = calendar.getTimeInMillis();
+
+        assertFalse(provider.isExpired("erma.fooMonitor.2011063014", expiresAt - 1));
+        assertTrue(provider.isExpired("erma.fooMonitor.2011063014", expiresAt));
+        assertTrue(provider.isExpired("erma.com.foo.Bar.2011063014", expiresAt));
+
+        assertFalse(provider.isExpired("erma.fooMonitor", expiresAt));
+        assertFalse(provider.isExpired("system.indexes", expiresAt));
+        assertFalse(provider.isExpired("erma.fooMonitor.20110630", expiresAt));
+        assertFalse(provider.isExpired("erma.fooMonitor.2011O63014", expiresAt));
+        assertFalse(provider.isExpired("erma.fooMonitor.2011133014", expiresAt));
+        assertFalse(provider.isExpired("erma.2011063014", expiresAt));
+    }
+
+    @Test
+    public void testForeignCollectionsSurvive() {
+        provider.setRetentionHours(24);
+        long later = calendar.getTimeInMillis() + 30L * 24 * 60 * 60 * 1000;
+
+        // another application's collections with a bucket-like suffix are not ours to drop
+        assertFalse(provider.isExpired("orders.2011063014", later));
+        assertFalse(provider.isExpired("ermaOrders.2011063014", later));
+        assertTrue(provider.isExpired("erma.orders.2011063014", later));
+
+        provider.setCollectionPrefix("monitors.");
+        assertEquals("monitors.fooMonitor.2011063014",
+            provider.getNamespaceFor(monitorAt(calendar.getTime().getTime())));
+        assertFalse(provider.isExpired("erma.orders.2011063014", later));
+        assertTrue(provider.isExpired("monitors.orders.2011063014", later));
+    }
+
+    private EventMonitor monitorAt(long time) {
+        EventMonitor monitor = new EventMonitor("fooMonitor");
+        monitor.set(Attribute.CREATED_AT, new java.util.Date(time));
+        return monitor;
+    }
+}
@@ -6,6 +6,9 @@ import com.orbitz.monitoring.api.MonitorProcessor;
 import com.orbitz.monitoring.api.MonitorProcessorFactory;
 import com.orbitz.monitoring.api.MonitoringEngine;
 import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.engine.LifecyclePhase;
+import com.orbitz.monitoring.api.engine.OverheadGovernor;
+import com.orbitz.monitoring.api.engine.ProcessorInstrumentation;
 import com.orbitz.monitoring.api.engine.StackBasedInheritableStrategy;
 import com.orbitz.monitoring.api.monitor.EventMonitor;
 import com.orbitz.monitoring.lib.decomposer.AttributeDecomposer;
@@ -49,6 +52,10 @@ public class BaseMonitoringEngineManager {
   
   private InheritableStrategy inheritableStrategy;
   private boolean monitoringEnabled = true;
+  private boolean instrumentationEnabled = false;
+  private boolean nanoTimingEnabled = false;
+  private OverheadGovernor overheadGovernor;
+  private long overheadEvaluationIntervalMillis = 10000;
   private ScheduledExecutorService scheduledExecutor;
   private Map<Integer, Collection<TimerTask>> timerTasks;
   
@@ -139,6 +146,139 @@ public class BaseMonitoringEngineManager {
     return monitoringEnabled;
   }
   
+  /**
+   * Gets whether the {@link MonitoringEngine} records the latency and failures of processor calls
+   * @return true if processor calls are instrumented
+   * @see MonitoringEngine#isInstrumentationEnabled()
+   */
+  @ManagedAttribute(description = "Whether processor call latency and failures are recorded")
+  public boolean getInstrumentationEnabled() {
+    return instrumentationEnabled;
+  }
+  
+  /**
+   * Sets whether the {@link MonitoringEngine} records the latency and failures of processor calls.
+   * Takes effect immediately if the engine is running, and otherwise when {@link #startup()} is
+   * called.
+   * @param instrumentationEnabled true to record processor calls
+   * @see MonitoringEngine#setInstrumentationEnabled(boolean)
+   */
+  @ManagedAttribute(description = "Whether processor call latency and failures are recorded")
+  public void setInstrumentationEnabled(final boolean instrumentationEnabled) {
+    this.instrumentationEnabled = instrumentationEnabled;
+    MonitoringEngine.getInstance().setInstrumentationEnabled(instrumentationEnabled);
+  }
+  
+  /**
+   * Gets whether transaction monitors are timed with {@link System#nanoTime()}
+   * @return true if transaction latency is measured in nanoseconds
+   * @see MonitoringEngine#isNanoTimingEnabled()
+   */
+  @ManagedAttribute(description = "Whether transactions are timed in nanoseconds")
+  public boolean getNanoTimingEnabled() {
+    return nanoTimingEnabled;
+  }
+  
+  /**
+   * Sets whether transaction monitors are timed with {@link System#nanoTime()}. Takes effect
+   * immediately if the engine is running, and otherwise when {@link #startup()} is called.
+   * @param nanoTimingEnabled true to time transactions with the monotonic clock
+   * @see MonitoringEngine#setNanoTimingEnabled(boolean)
+   */
+  @ManagedAttribute(description = "Whether transactions are timed in nanoseconds")
+  public void setNanoTimingEnabled(final boolean nanoTimingEnabled) {
+    this.nanoTimingEnabled = nanoTimingEnabled;
+    MonitoringEngine.getInstance().setNanoTimingEnabled(nanoTimingEnabled);
+  }
+  
+  /**
+   * Gets the time spent in each lifecycle phase, across all processors
+   * @return one line per phase, or an empty string if instrumentation is not enabled
+   */
+  @ManagedAttribute(description = "Gets call counts, latency and failures by lifecycle phase")
+  public String getPhaseStatisticsListing() {
+    ProcessorInstrumentation instrumentation = MonitoringEngine.getInstance().getInstrumentation();
+    if (instrumentation == null) {
+      return "";
+    }
+    StringBuilder builder = new StringBuilder();
+    LifecyclePhase[] phases = LifecyclePhase.values();
+    for (int i = 0; i < phases.length; i++) {
+      builder.append(phases[i]).append(": ").append(instrumentation.getPhaseStatistics(phases[i]))
+          .append("\n");
+    }
+    return builder.toString();
+  }
+  
+  /**
+   * Gets the time spent in each processor, by lifecycle phase
+   * @return the statistics of every processor called, or an empty string if instrumentation is not
+   *         enabled
+   * @see ProcessorInstrumentation#toString()
+   */
+  @ManagedAttribute(description = "Gets call counts, latency and failures by processor")
+  public String getProcessorStatisticsListing() {
+    ProcessorInstrumentation instrumentation = MonitoringEngine.getInstance().getInstrumentation();
+    return (instrumentation == null) ? "" : instrumentation.toString();
+  }
+  
+  /**
+   * Sets all processor call statistics back to zero
+   */
+  @ManagedOperation(description = "Resets processor call statistics")
+  public void resetProcessorStatistics() {
+    ProcessorInstrumentation instrumentation = MonitoringEngine.getInstance().getInstrumentation();
+    if (instrumentation != null) {
+      instrumentation.reset();
+    }
+  }
+  
+  /**
+   * Gets the governor that demotes costly monitors when monitoring overhead is too high
+   * @return the governor, or null if there is none
+   */
+  public OverheadGovernor getOverheadGovernor() {
+    return overheadGovernor;
+  }
+  
+  /**
+   * Sets the governor that demotes costly monitors when monitoring overhead is too high. It is
+   * installed in the {@link MonitoringEngine} and evaluated every
+   * {@link #setOverheadEvaluationIntervalMillis(long) overheadEvaluationIntervalMillis} once
+   * {@link #startup()} is called.
+   * @param overheadGovernor the governor, or null for none
+   */
+  public void setOverheadGovernor(final OverheadGovernor overheadGovernor) {
+    this.overheadGovernor = overheadGovernor;
+  }
+  
+  /**
+   * Sets how often the {@link #getOverheadGovernor() overhead governor} is evaluated
+   * @param overheadEvaluationIntervalMillis the interval, in milliseconds
+   */
+  public void setOverheadEvaluationIntervalMillis(final long overheadEvaluationIntervalMillis) {
+    this.overheadEvaluationIntervalMillis = overheadEvaluationIntervalMillis;
+  }
+  
+  /**
+   * Gets the share of CPU time spent in the {@link MonitoringEngine} at the governor's last
+   * evaluation
+   * @return the share, as a percentage, or 0 if there is no governor
+   */
+  @ManagedAttribute(description = "Percentage of CPU time spent in ERMA at the last evaluation")
+  public double getMonitoringOverheadPercent() {
+    return (overheadGovernor == null) ? 0 : overheadGovernor.getOverhead() * 100;
+  }
+  
+  /**
+   * Gets the monitor names the governor has demoted to DEBUG to shed load
+   * @return the names, oldest first
+   */
+  @ManagedAttribute(description = "Monitor names demoted to DEBUG to shed monitoring overhead")
+  public String getShedMonitorNamesListing() {
+    return (overheadGovernor == null) ? "[]" : overheadGovernor.getShedNames().toString();
+  }
+  
   /**
    * Gets the override monitor levels by calling
    * {@link MonitoringEngine#getOverrideMonitorLevelsListing()}
@@ -277,6 +417,10 @@ public class BaseMonitoringEngineManager {
    */
   public void shutdown() {
     scheduledExecutor.shutdown();
+    if (overheadGovernor != null) {
+      MonitoringEngine.getInstance().setOverheadGovernor(null);
+      overheadGovernor.restoreAll();
+    }
     EventMonitor monitor = new EventMonitor("MonitoringEngineManager.lifecycle",
       MonitoringLevel.ESSENTIAL);
     monitor.set("eventType", "shutdown");
@@ -291,10 +435,13 @@ public class BaseMonitoringEngineManager {
    */
   public void startup() {
     MonitoringEngine.getInstance().setMonitoringEnabled(monitoringEnabled);
+    MonitoringEngine.getInstance().setInstrumentationEnabled(instrumentationEnabled);
+    MonitoringEngine.getInstance().setNanoTimingEnabled(nanoTimingEnabled);
     MonitoringEngine.getInstance().setProcessorFactory(factory);
     MonitoringEngine.getInstance().setDecomposer(decomposer);
     MonitoringEngine.getInstance().setInheritableStrategy(inheritableStrategy);
     MonitoringEngine.getInstance().setStartupRunnable(startupRunnable);
+    MonitoringEngine.getInstance().setOverheadGovernor(overheadGovernor);
     if (timerTasks == null) {
       timerTasks = Collections.emptyMap();
     }
@@ -310,6 +457,19 @@ public class BaseMonitoringEngineManager {
         scheduledExecutor.scheduleAtFixedRate(task, millis, millis, TimeUnit.MILLISECONDS);
       }
     }
+    if (overheadGovernor != null) {
+      final OverheadGovernor governor = overheadGovernor;
+      scheduledExecutor.scheduleAtFixedRate(new Runnable() {
+        public void run() {
+          try {
+            governor.evaluate();
+          } catch (RuntimeException e) {
+            log.warn("failed to evaluate monitoring overhead; application is unaffected", e);
+          }
+        }
+      }, overheadEvaluationIntervalMillis, overheadEvaluationIntervalMillis,
+          TimeUnit.MILLISECONDS);
+    }
   }
   
   /**
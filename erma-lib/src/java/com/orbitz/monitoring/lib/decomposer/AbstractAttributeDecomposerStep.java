@@ -24,6 +24,14 @@ abstract class AbstractAttributeDecomposerStep implements AttributeDecomposer.St
     }
   }
   
+  /**
+   * @return true if this step decomposes objects that hold other objects; only those count
+   *         towards a depth limit
+   */
+  boolean isContainer() {
+    return true;
+  }
+  
   abstract Serializable createMutableContainer(Object o);
   
   abstract void decomposeInto(Object o, Serializable container,
@@ -5,6 +5,8 @@ import com.orbitz.monitoring.api.monitor.AttributeHolder;
 import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
 import com.orbitz.monitoring.lib.decomposer.AttributeDecomposer.Step;
 
+import com.google.common.collect.MapMaker;
+
 import java.io.Serializable;
 import java.util.Date;
 import java.util.HashMap;
@@ -12,17 +14,77 @@ import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A class that takes any Object and turns it into a Serializable implementation that can be a
- * drop-in replacement for the original Object.
+ * drop-in replacement for the original Object. An instance is thread-safe and is meant to be
+ * reused, since it remembers which step decomposes each class it has seen.
+ * <p>
+ * Objects with no more specific step are decomposed by their JavaBean properties, into a
+ * LazyDynaBean by default. With {@link #setPropertyMaps(boolean) propertyMaps} they are decomposed
+ * into compact immutable Maps instead, limited to {@link #setMaxProperties(int) maxProperties}
+ * properties each, and objects nested more than {@link #setMaxDepth(int) maxDepth} beans,
+ * collections, maps or arrays deep are decomposed to null.
  * 
  * @author Doug Barth
  */
 public class AttributeDecomposer implements Decomposer {
+  private final BaseAttributeDecomposer _decomposer = new BaseAttributeDecomposer();
+  private boolean _propertyMaps = false;
+  private int _maxDepth = 8;
+  private int _maxProperties = 64;
+
   public Serializable decompose(final Object object) {
-    return new BaseAttributeDecomposer().decompose(object,
-        new IdentityHashMap<Object, Serializable>());
+    return _decomposer.decompose(object, new IdentityHashMap<Object, Serializable>());
+  }
+  
+  public boolean isPropertyMaps() {
+    return _propertyMaps;
+  }
+  
+  /**
+   * @param propertyMaps true to decompose JavaBeans into immutable Maps rather than LazyDynaBeans,
+   *        which renderers that expect LazyDynaBeans will not format the same way
+   */
+  public void setPropertyMaps(final boolean propertyMaps) {
+    _propertyMaps = propertyMaps;
+    updateBeanDecomposer();
+  }
+  
+  public int getMaxDepth() {
+    return _maxDepth;
+  }
+  
+  /**
+   * @param maxDepth how many beans, collections, maps or arrays deep decomposition goes when
+   *        property maps are on; deeper objects become null
+   */
+  public void setMaxDepth(final int maxDepth) {
+    _maxDepth = maxDepth;
+    updateBeanDecomposer();
+  }
+  
+  public int getMaxProperties() {
+    return _maxProperties;
+  }
+  
+  /**
+   * @param maxProperties how many properties of each class, in name order, property maps keep
+   */
+  public void setMaxProperties(final int maxProperties) {
+    _maxProperties = maxProperties;
+    updateBeanDecomposer();
+  }
+  
+  private void updateBeanDecomposer() {
+    if (_propertyMaps) {
+      _decomposer.setBeanDecomposer(new PropertyMapDecomposer(_decomposer, _maxProperties));
+      _decomposer.setMaxDepth(_maxDepth);
+    } else {
+      _decomposer.setBeanDecomposer(new ReflectiveDecomposer(_decomposer));
+      _decomposer.setMaxDepth(0);
+    }
   }
   
   interface Step {
@@ -31,7 +93,17 @@ public class AttributeDecomposer implements Decomposer {
 }
 
 class BaseAttributeDecomposer implements AttributeDecomposer.Step {
-  private Map<Class<?>, Step> _classToDecomposer;
+  private volatile Map<Class<?>, Step> _classToDecomposer;
+  // the step found for each concrete class, so the hierarchy is only searched once per class;
+  // weakly keyed so classes from an undeployed application can still be unloaded
+  private final ConcurrentMap<Class<?>, Step> _resolved = new MapMaker().weakKeys().makeMap();
+  private volatile int _maxDepth = 0;
+  private final ThreadLocal<int[]> _depth = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
   
   public BaseAttributeDecomposer() {
     _classToDecomposer = new HashMap<Class<?>, Step>();
@@ -59,6 +131,25 @@ class BaseAttributeDecomposer implements AttributeDecomposer.Step {
     _classToDecomposer.put(Object.class, new ReflectiveDecomposer(this));
   }
   
+  /**
+   * Replaces the step for objects with no more specific step
+   * @param decomposer the step
+   */
+  void setBeanDecomposer(final Step decomposer) {
+    final Map<Class<?>, Step> classToDecomposer = new HashMap<Class<?>, Step>(_classToDecomposer);
+    classToDecomposer.put(Object.class, decomposer);
+    _classToDecomposer = classToDecomposer;
+    _resolved.clear();
+  }
+  
+  /**
+   * Limits how deeply containers are decomposed; objects nested deeper are decomposed to null
+   * @param maxDepth the most containers an object may be nested in, or 0 for no limit
+   */
+  void setMaxDepth(final int maxDepth) {
+    _maxDepth = maxDepth;
+  }
+  
   public Map<Class<?>, Step> getClassDecomposerMap() {
     return new HashMap<Class<?>, Step>(_classToDecomposer);
   }
@@ -69,18 +160,47 @@ class BaseAttributeDecomposer implements AttributeDecomposer.Step {
       return null;
     }
     
-    Class<?> klass = object.getClass();
+    final Class<?> objectClass = object.getClass();
+    AttributeDecomposer.Step decomposer = _resolved.get(objectClass);
+    if (decomposer == null) {
+      decomposer = resolve(objectClass);
+      _resolved.put(objectClass, decomposer);
+    }
+    final int maxDepth = _maxDepth;
+    if ((maxDepth <= 0) || !isContainer(decomposer)) {
+      return decomposer.decompose(object, alreadyDecomposed);
+    }
+    final int[] depth = _depth.get();
+    if (depth[0] >= maxDepth) {
+      return null;
+    }
+    depth[0]++;
+    try {
+      return decomposer.decompose(object, alreadyDecomposed);
+    } finally {
+      depth[0]--;
+    }
+  }
+  
+  private static boolean isContainer(final Step decomposer) {
+    return !(decomposer instanceof AbstractAttributeDecomposerStep)
+        || ((AbstractAttributeDecomposerStep)decomposer).isContainer();
+  }
+  
+  private AttributeDecomposer.Step resolve(final Class<?> objectClass) {
+    final Map<Class<?>, Step> classToDecomposer = _classToDecomposer;
+    Class<?> klass = objectClass;
     AttributeDecomposer.Step decomposer = null;
   CLASS_LOOP: 
     while (klass != null) {
-      decomposer = _classToDecomposer.get(klass);
+      decomposer = classToDecomposer.get(klass);
       
       if (decomposer != null) {
         break;
       }
       
       if (Object[].class.isAssignableFrom(klass)) {
-        decomposer = _classToDecomposer.get(Object[].class);
+        decomposer = classToDecomposer.get(Object[].class);
         if (decomposer != null) {
           break;
         }
@@ -89,7 +209,7 @@ class BaseAttributeDecomposer implements AttributeDecomposer.Step {
       final Class<?>[] interfaces = klass.getInterfaces();
       for (int i = 0; i < interfaces.length; i++) {
         final Class<?> anInterface = interfaces[i];
-        decomposer = _classToDecomposer.get(anInterface);
+        decomposer = classToDecomposer.get(anInterface);
         
         if (decomposer != null) {
           break CLASS_LOOP;
@@ -100,8 +220,8 @@ class BaseAttributeDecomposer implements AttributeDecomposer.Step {
     if (decomposer == null) {
       // Not using Preconditions for verification so that this message is only generated when needed
       throw new NullPointerException("Could not find an AttributeDecomposer.Step for "
-          + klass.getCanonicalName());
+          + objectClass.getCanonicalName());
     }
-    return decomposer.decompose(object, alreadyDecomposed);
+    return decomposer;
   }
 }
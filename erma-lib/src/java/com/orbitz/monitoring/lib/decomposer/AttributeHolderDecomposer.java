@@ -12,8 +12,6 @@ import java.util.IdentityHashMap;
 public class AttributeHolderDecomposer extends AbstractAttributeDecomposerStep {
   private final AttributeDecomposer.Step _delegate;
   
-  private Object updatedValue;
-  
   /**
    * Creates an attribute holder decomposer that uses the specified delegate to decompose the
    * holder's value
@@ -23,6 +21,12 @@ public class AttributeHolderDecomposer extends AbstractAttributeDecomposerStep {
     _delegate = delegate;
   }
   
+  @Override
+  boolean isContainer() {
+    // a holder only wraps its value, so does not add to its depth
+    return false;
+  }
+  
   @Override
   Serializable createMutableContainer(final Object object) {
     AttributeHolder holder = (AttributeHolder)object;
@@ -32,9 +36,7 @@ public class AttributeHolderDecomposer extends AbstractAttributeDecomposerStep {
   @Override
   void decomposeInto(final Object o, final Serializable container,
       final IdentityHashMap<Object, Serializable> alreadyDecomposed) {
-    AttributeHolder holder = (AttributeHolder)o;
-    
-    updatedValue = _delegate.decompose(holder.getValue(), alreadyDecomposed);
+    // No-op: the decomposed value goes into a new holder, made in decompose
   }
   
   @Override
@@ -49,7 +51,9 @@ public class AttributeHolderDecomposer extends AbstractAttributeDecomposerStep {
     } else {
       Serializable mutableContainer = createMutableContainer(object);
       alreadyDecomposed.put(object, mutableContainer);
-      decomposeInto(object, mutableContainer, alreadyDecomposed);
+      // kept local rather than in a field, as one step is shared by every thread
+      Object updatedValue = _delegate.decompose(((AttributeHolder)object).getValue(),
+          alreadyDecomposed);
       Serializable holder = new AttributeHolder(updatedValue);
       return holder;
     }
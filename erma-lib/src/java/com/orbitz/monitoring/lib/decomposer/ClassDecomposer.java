@@ -8,6 +8,11 @@ import java.util.IdentityHashMap;
  * @author Operations Architecture
  */
 class ClassDecomposer extends AbstractAttributeDecomposerStep {
+  @Override
+  boolean isContainer() {
+    return false;
+  }
+  
   @Override
   Serializable createMutableContainer(final Object o) {
     return ((Class<?>)o).getName();
@@ -10,6 +10,11 @@ import java.util.IdentityHashMap;
  * @author Doug Barth
  */
 class IdentityDecomposer extends AbstractAttributeDecomposerStep {
+  @Override
+  boolean isContainer() {
+    return false;
+  }
+
   Serializable createMutableContainer(Object o) {
     return (Serializable) o;
   }
@@ -0,0 +1,296 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import com.google.common.collect.MapMaker;
+
+import org.apache.commons.beanutils.MethodUtils;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Given an object, this class reads its JavaBean attributes and creates an immutable Map of
+ * serializable versions of them. It is a lighter alternative to {@link ReflectiveDecomposer}: the
+ * read methods of each class are looked up once, and the map holds the property names of the
+ * class, shared by every object of it, and an array of values.
+ * <p>
+ * Only the first maxProperties properties of a class, in name order, are kept; how deeply
+ * objects are nested is limited by {@link AttributeDecomposer#setMaxDepth(int)}. The maps compare
+ * and hash by content like any other Map; since decomposed graphs may contain cycles, a map reached
+ * again while it is being compared, hashed or rendered is taken to be equal, hashes to 0 and
+ * renders as "(cycle)". The read methods are cached like those of {@link ReflectiveDecomposer}, so
+ * classes from an undeployed application can still be unloaded.
+ */
+class PropertyMapDecomposer extends AbstractAttributeDecomposerStep {
+  private final AttributeDecomposer.Step _delegate;
+  private final int _maxProperties;
+  private final ConcurrentMap<Class<?>, Accessors> _accessors =
+      new MapMaker().weakKeys().softValues().makeMap();
+
+  public PropertyMapDecomposer(final AttributeDecomposer.Step delegate, final int maxProperties) {
+    _delegate = delegate;
+    _maxProperties = maxProperties;
+  }
+
+  @Override
+  Serializable createMutableContainer(final Object o) {
+    return new PropertyMap(accessorsOf(o.getClass()));
+  }
+
+  @Override
+  void decomposeInto(final Object o, final Serializable container,
+      final IdentityHashMap<Object, Serializable> alreadyDecomposed) {
+    PropertyMap decomposed = (PropertyMap)container;
+    Method[] readMethods = decomposed.accessors.readMethods;
+    // the read methods are not needed once the map is filled in
+    decomposed.accessors = null;
+    for (int i = 0; i < readMethods.length; i++) {
+      Object value;
+      try {
+        value = readMethods[i].invoke(o);
+      } catch (InvocationTargetException e) {
+        throw new RuntimeException("Unable to decompose " + o.getClass().getName() + "."
+            + decomposed.names[i], e.getCause());
+      } catch (Exception e) {
+        throw new RuntimeException("Unable to decompose " + o.getClass().getName() + "."
+            + decomposed.names[i], e);
+      }
+      decomposed.values[i] = _delegate.decompose(value, alreadyDecomposed);
+    }
+  }
+
+  private Accessors accessorsOf(final Class<?> klass) {
+    Accessors accessors = _accessors.get(klass);
+    if (accessors == null) {
+      accessors = new Accessors(klass, _maxProperties);
+      _accessors.put(klass, accessors);
+    }
+    return accessors;
+  }
+
+  /**
+   * The readable properties of a class, in name order
+   */
+  private static final class Accessors {
+    private static final Comparator<PropertyDescriptor> BY_NAME =
+        new Comparator<PropertyDescriptor>() {
+          public int compare(final PropertyDescriptor a, final PropertyDescriptor b) {
+            return a.getName().compareTo(b.getName());
+          }
+        };
+
+    private final String[] names;
+    private final Method[] readMethods;
+
+    Accessors(final Class<?> klass, final int maxProperties) {
+      PropertyDescriptor[] descriptors;
+      try {
+        descriptors = Introspector.getBeanInfo(klass).getPropertyDescriptors();
+      } catch (IntrospectionException e) {
+        throw new RuntimeException("Unable to decompose " + klass.getName(), e);
+      }
+      // the Introspector does not promise any order
+      Arrays.sort(descriptors, BY_NAME);
+      List<String> names = new ArrayList<String>();
+      List<Method> readMethods = new ArrayList<Method>();
+      for (int i = 0; (i < descriptors.length) && (names.size() < maxProperties); i++) {
+        Method readMethod = MethodUtils.getAccessibleMethod(descriptors[i].getReadMethod());
+        if (readMethod != null) {
+          names.add(descriptors[i].getName());
+          readMethods.add(readMethod);
+        }
+      }
+      this.names = names.toArray(new String[names.size()]);
+      this.readMethods = readMethods.toArray(new Method[readMethods.size()]);
+    }
+  }
+
+  /**
+   * An immutable map from property names to decomposed values. Only this step fills in the
+   * values, before the map is handed out.
+   */
+  static final class PropertyMap extends AbstractMap<String, Serializable>
+      implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // the maps each thread is rendering, comparing or hashing, so a cycle back to one of them is
+    // not followed
+    private static final ThreadLocal<IdentityHashMap<Object, Object>> RENDERING =
+        new VisitedMaps();
+    private static final ThreadLocal<IdentityHashMap<Object, Object>> COMPARING =
+        new VisitedMaps();
+    private static final ThreadLocal<IdentityHashMap<Object, Object>> HASHING =
+        new VisitedMaps();
+
+    private final String[] names;
+    private final Serializable[] values;
+    // the read methods to fill the map in with, until it has been
+    private transient Accessors accessors;
+
+    PropertyMap(final Accessors accessors) {
+      this.names = accessors.names;
+      this.values = new Serializable[names.length];
+      this.accessors = accessors;
+    }
+
+    @Override
+    public int size() {
+      return names.length;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Serializable get(final Object key) {
+      int index = indexOf(key);
+      return (index < 0) ? null : values[index];
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (o == this) {
+        return true;
+      }
+      IdentityHashMap<Object, Object> comparing = COMPARING.get();
+      if (comparing.containsKey(this)) {
+        return true;
+      }
+      comparing.put(this, this);
+      try {
+        return super.equals(o);
+      } finally {
+        comparing.remove(this);
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      IdentityHashMap<Object, Object> hashing = HASHING.get();
+      if (hashing.containsKey(this)) {
+        return 0;
+      }
+      hashing.put(this, this);
+      try {
+        return super.hashCode();
+      } finally {
+        hashing.remove(this);
+      }
+    }
+
+    @Override
+    public String toString() {
+      IdentityHashMap<Object, Object> rendering = RENDERING.get();
+      if (rendering.containsKey(this)) {
+        return "(cycle)";
+      }
+      rendering.put(this, this);
+      try {
+        StringBuilder buffer = new StringBuilder("{");
+        for (int i = 0; i < names.length; i++) {
+          if (i > 0) {
+            buffer.append(", ");
+          }
+          buffer.append(names[i]).append('=').append(values[i]);
+        }
+        return buffer.append('}').toString();
+      } finally {
+        rendering.remove(this);
+      }
+    }
+
+    private int indexOf(final Object key) {
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Serializable>> entrySet() {
+      return new AbstractSet<Map.Entry<String, Serializable>>() {
+        @Override
+        public int size() {
+          return names.length;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Serializable>> iterator() {
+          return new Iterator<Map.Entry<String, Serializable>>() {
+            private int next;
+
+            public boolean hasNext() {
+              return next < names.length;
+            }
+
+            public Map.Entry<String, Serializable> next() {
+              if (next >= names.length) {
+                throw new NoSuchElementException();
+              }
+              final int index = next++;
+              return new Map.Entry<String, Serializable>() {
+                public String getKey() {
+                  return names[index];
+                }
+
+                public Serializable getValue() {
+                  return values[index];
+                }
+
+                public Serializable setValue(final Serializable value) {
+                  throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public boolean equals(final Object o) {
+                  if (!(o instanceof Map.Entry)) {
+                    return false;
+                  }
+                  Map.Entry<?, ?> other = (Map.Entry<?, ?>)o;
+                  return names[index].equals(other.getKey()) && ((values[index] == null)
+                      ? (other.getValue() == null) : values[index].equals(other.getValue()));
+                }
+
+                @Override
+                public int hashCode() {
+                  return names[index].hashCode()
+                      ^ ((values[index] == null) ? 0 : values[index].hashCode());
+                }
+              };
+            }
+
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+      };
+    }
+  }
+
+  private static final class VisitedMaps extends ThreadLocal<IdentityHashMap<Object, Object>> {
+    @Override
+    protected IdentityHashMap<Object, Object> initialValue() {
+      return new IdentityHashMap<Object, Object>();
+    }
+  }
+}
@@ -1,23 +1,33 @@
 package com.orbitz.monitoring.lib.decomposer;
 
+import com.google.common.collect.MapMaker;
+
 import org.apache.commons.beanutils.DynaProperty;
 import org.apache.commons.beanutils.LazyDynaBean;
 import org.apache.commons.beanutils.MethodUtils;
-import org.apache.commons.beanutils.WrapDynaBean;
 import org.apache.commons.beanutils.WrapDynaClass;
 
 import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Given an object, this class reflects over its JavaBean attributes and creates a Serializable
- * representation containing serializable versions of the JavaBean attributes.
+ * representation containing serializable versions of the JavaBean attributes. The readable
+ * properties of each class are only looked up once. They are kept with weak keys and soft values,
+ * since the read methods refer back to their class, so classes from an undeployed application can
+ * still be unloaded.
  * 
  * @author Doug Barth
  */
 class ReflectiveDecomposer extends AbstractAttributeDecomposerStep {
   private final AttributeDecomposer.Step _delegate;
+  private final ConcurrentMap<Class<?>, Property[]> _properties =
+      new MapMaker().weakKeys().softValues().makeMap();
   
   public ReflectiveDecomposer(final AttributeDecomposer.Step delegate) {
     _delegate = delegate;
@@ -38,22 +48,51 @@ class ReflectiveDecomposer extends AbstractAttributeDecomposerStep {
   void decomposeInto(final Object o, final Serializable container,
       final IdentityHashMap<Object, Serializable> alreadyDecomposed) {
     LazyDynaBean decomposed = (LazyDynaBean)container;
-    WrapDynaBean bean = new WrapDynaBean(o);
-    WrapDynaClass dynaClass = (WrapDynaClass)bean.getDynaClass();
-    for (DynaProperty property : dynaClass.getDynaProperties()) {
-      String name = property.getName();
-      Method readMethod = dynaClass.getPropertyDescriptor(name).getReadMethod();
-      if (MethodUtils.getAccessibleMethod(readMethod) != null) {
-        Object beanProperty;
-        try {
-          beanProperty = bean.get(name);
-        } catch (RuntimeException e) {
-          throw new RuntimeException("Unable to decompose " + o.getClass().getName() + "." + name,
-              e);
+    for (Property property : propertiesOf(o.getClass())) {
+      Object beanProperty;
+      try {
+        beanProperty = property.readMethod.invoke(o);
+      } catch (InvocationTargetException e) {
+        throw new RuntimeException("Unable to decompose " + o.getClass().getName() + "."
+            + property.name, e.getCause());
+      } catch (Exception e) {
+        throw new RuntimeException("Unable to decompose " + o.getClass().getName() + "."
+            + property.name, e);
+      }
+      Serializable decomposedProperty = _delegate.decompose(beanProperty, alreadyDecomposed);
+      decomposed.set(property.name, decomposedProperty);
+    }
+  }
+  
+  private Property[] propertiesOf(final Class<?> klass) {
+    Property[] properties = _properties.get(klass);
+    if (properties == null) {
+      WrapDynaClass dynaClass = WrapDynaClass.createDynaClass(klass);
+      List<Property> readable = new ArrayList<Property>();
+      for (DynaProperty property : dynaClass.getDynaProperties()) {
+        String name = property.getName();
+        Method readMethod = MethodUtils.getAccessibleMethod(
+            dynaClass.getPropertyDescriptor(name).getReadMethod());
+        if (readMethod != null) {
+          readable.add(new Property(name, readMethod));
         }
-        Serializable decomposedProperty = _delegate.decompose(beanProperty, alreadyDecomposed);
-        decomposed.set(name, decomposedProperty);
       }
+      properties = readable.toArray(new Property[readable.size()]);
+      _properties.put(klass, properties);
+    }
+    return properties;
+  }
+  
+  /**
+   * A readable JavaBean property
+   */
+  private static final class Property {
+    private final String name;
+    private final Method readMethod;
+    
+    Property(final String name, final Method readMethod) {
+      this.name = name;
+      this.readMethod = readMethod;
     }
   }
 }
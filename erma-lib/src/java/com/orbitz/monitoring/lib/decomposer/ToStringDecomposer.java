@@ -8,6 +8,11 @@ import java.util.IdentityHashMap;
  * @author Doug Barth
  */
 class ToStringDecomposer extends AbstractAttributeDecomposerStep {
+  @Override
+  boolean isContainer() {
+    return false;
+  }
+  
   @Override
   Serializable createMutableContainer(final Object o) {
     return o.toString();
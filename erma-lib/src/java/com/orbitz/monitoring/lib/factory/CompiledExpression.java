@@ -0,0 +1,600 @@
+package com.orbitz.monitoring.lib.factory;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+
+import org.apache.commons.jexl.Expression;
+import org.apache.commons.jexl.ExpressionFactory;
+import org.apache.commons.jexl.JexlContext;
+import org.apache.log4j.Logger;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The applies-expression of a {@link ProcessGroup}. Expressions made only of attribute tests,
+ * such as <code>m.get('name').matches('com\.foo\..*') &amp;&amp; !(resultCode == 'OK')</code>,
+ * are compiled into a tree of conditions that reads just the attributes it names, straight from
+ * the monitor. Results of expressions that only test the name are remembered per name. Anything
+ * else, and any case the tree can't decide the way JEXL would, is evaluated by JEXL.
+ * <p>
+ * The compiled subset is: <code>m.get('key')</code> and bare attribute names, compared with a
+ * string literal by <code>==</code>, <code>!=</code>, <code>eq</code> or <code>ne</code>, or
+ * tested with <code>matches</code>, <code>startsWith</code>, <code>endsWith</code>,
+ * <code>equals</code> or <code>equalsIgnoreCase</code>; joined with <code>&amp;&amp;</code>,
+ * <code>||</code>, <code>!</code>, their word forms and parentheses.
+ */
+class CompiledExpression {
+  private static final Logger log = Logger.getLogger(CompiledExpression.class);
+
+  private static final int MAX_REMEMBERED_NAMES = 1024;
+  private static final String MONITOR_VARIABLE = "m";
+  private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList("and", "or",
+      "not", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "empty", "size", "null", "true",
+      "false", "new", "if", "else", "while", "foreach", "m"));
+
+  // results of evaluating a condition
+  private static final int FALSE = 0;
+  private static final int TRUE = 1;
+  // JEXL would have thrown, so the whole expression is false
+  private static final int ERROR = 2;
+  // only JEXL can tell
+  private static final int UNKNOWN = 3;
+
+  private static final Object ERROR_VALUE = new Object();
+  private static final Object UNKNOWN_VALUE = new Object();
+
+  private final Expression expression;
+  private final Condition condition;
+  private final ConcurrentMap<String, Boolean> resultsByName;
+
+  private CompiledExpression(final Expression expression, final Condition condition,
+      final boolean nameOnly) {
+    this.expression = expression;
+    this.condition = condition;
+    this.resultsByName = nameOnly ? new ConcurrentHashMap<String, Boolean>() : null;
+  }
+
+  /**
+   * Parses an expression, compiling it if it falls within the compiled subset
+   * @param source the JEXL expression
+   * @return the expression
+   * @throws Exception if JEXL can't parse the expression
+   */
+  static CompiledExpression compile(final String source) throws Exception {
+    final Expression expression = ExpressionFactory.createExpression(source);
+    Condition condition = null;
+    final Set<String> keys = new HashSet<String>();
+    try {
+      condition = new Parser(source, keys).parse();
+    } catch (IllegalArgumentException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Expression will be interpreted by JEXL: " + source + " (" + e.getMessage()
+            + ")");
+      }
+    }
+    final boolean nameOnly = (condition != null)
+        && keys.equals(Collections.singleton(Attribute.NAME));
+    return new CompiledExpression(expression, condition, nameOnly);
+  }
+
+  /**
+   * @return true if the expression was compiled rather than left to JEXL
+   */
+  boolean isCompiled() {
+    return condition != null;
+  }
+
+  /**
+   * @return true if results are remembered per monitor name
+   */
+  boolean isNameOnly() {
+    return resultsByName != null;
+  }
+
+  /**
+   * Evaluates the expression for a monitor
+   * @param monitor the monitor
+   * @return true if the expression evaluated to true
+   */
+  boolean matches(final Monitor monitor) {
+    if (condition == null) {
+      return interpret(monitor);
+    }
+    String name = null;
+    if ((resultsByName != null) && !monitor.hasAttribute(MONITOR_VARIABLE)) {
+      final Object value = read(monitor, Attribute.NAME, false);
+      if (value instanceof String) {
+        name = (String)value;
+        final Boolean remembered = resultsByName.get(name);
+        if (remembered != null) {
+          return remembered.booleanValue();
+        }
+      }
+    }
+    final int result = condition.evaluate(monitor);
+    if (result == UNKNOWN) {
+      return interpret(monitor);
+    }
+    final boolean matches = result == TRUE;
+    if ((name != null) && (resultsByName.size() < MAX_REMEMBERED_NAMES)) {
+      resultsByName.put(name, Boolean.valueOf(matches));
+    }
+    return matches;
+  }
+
+  /**
+   * Evaluates the expression with JEXL, whether or not it was compiled
+   * @param monitor the monitor
+   * @return true if the expression evaluated to true
+   */
+  boolean interpret(final Monitor monitor) {
+    try {
+      final Object result = expression.evaluate(new MonitorContext(monitor));
+      return (result instanceof Boolean) && ((Boolean)result).booleanValue();
+    } catch (Exception e) {
+      log.debug("Exception while applying expression: ", e);
+      return false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return expression.getExpression();
+  }
+
+  /**
+   * Reads an attribute the way the JEXL context would
+   * @param key the attribute
+   * @param viaGet true for <code>m.get(key)</code>, which throws if the attribute is missing
+   * @return the value, null, {@link #ERROR_VALUE} or {@link #UNKNOWN_VALUE}
+   */
+  private static Object read(final Monitor monitor, final String key, final boolean viaGet) {
+    if (viaGet && monitor.hasAttribute(MONITOR_VARIABLE)) {
+      // an attribute named m hides the monitor from the expression
+      return UNKNOWN_VALUE;
+    }
+    if (!monitor.hasAttribute(key)) {
+      return viaGet ? ERROR_VALUE : null;
+    }
+    try {
+      return monitor.get(key);
+    } catch (RuntimeException e) {
+      return viaGet ? ERROR_VALUE : UNKNOWN_VALUE;
+    }
+  }
+
+  // ** CONDITIONS ************************************************************
+  private abstract static class Condition {
+    abstract int evaluate(Monitor monitor);
+  }
+
+  private static class Or extends Condition {
+    private final Condition left;
+    private final Condition right;
+
+    Or(final Condition left, final Condition right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    int evaluate(final Monitor monitor) {
+      final int result = left.evaluate(monitor);
+      return (result == FALSE) ? right.evaluate(monitor) : result;
+    }
+  }
+
+  private static class And extends Condition {
+    private final Condition left;
+    private final Condition right;
+
+    And(final Condition left, final Condition right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    int evaluate(final Monitor monitor) {
+      final int result = left.evaluate(monitor);
+      return (result == TRUE) ? right.evaluate(monitor) : result;
+    }
+  }
+
+  private static class Not extends Condition {
+    private final Condition operand;
+
+    Not(final Condition operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    int evaluate(final Monitor monitor) {
+      final int result = operand.evaluate(monitor);
+      if (result == TRUE) {
+        return FALSE;
+      }
+      return (result == FALSE) ? TRUE : result;
+    }
+  }
+
+  private static class Equals extends Condition {
+    private final String key;
+    private final boolean viaGet;
+    private final String literal;
+    private final boolean negated;
+
+    Equals(final String key, final boolean viaGet, final String literal, final boolean negated) {
+      this.key = key;
+      this.viaGet = viaGet;
+      this.literal = literal;
+      this.negated = negated;
+    }
+
+    @Override
+    int evaluate(final Monitor monitor) {
+      final Object value = read(monitor, key, viaGet);
+      if (value == ERROR_VALUE) {
+        return ERROR;
+      }
+      if (value == null) {
+        return negated ? TRUE : FALSE;
+      }
+      if (!(value instanceof String)) {
+        // JEXL coerces mixed types
+        return UNKNOWN;
+      }
+      return (literal.equals(value) != negated) ? TRUE : FALSE;
+    }
+  }
+
+  private static class StringTest extends Condition {
+    private final String key;
+    private final boolean viaGet;
+    private final String method;
+    private final String argument;
+    private final Pattern pattern;
+
+    StringTest(final String key, final boolean viaGet, final String method,
+        final String argument) {
+      this.key = key;
+      this.viaGet = viaGet;
+      this.method = method;
+      this.argument = argument;
+      this.pattern = "matches".equals(method) ? Pattern.compile(argument) : null;
+    }
+
+    @Override
+    int evaluate(final Monitor monitor) {
+      final Object value = read(monitor, key, viaGet);
+      if (value == ERROR_VALUE) {
+        return ERROR;
+      }
+      if (value == null) {
+        // calling a method on null gives null, which JEXL treats as false
+        return FALSE;
+      }
+      if (!(value instanceof String)) {
+        return UNKNOWN;
+      }
+      final String string = (String)value;
+      final boolean result;
+      if (pattern != null) {
+        result = pattern.matcher(string).matches();
+      } else if ("startsWith".equals(method)) {
+        result = string.startsWith(argument);
+      } else if ("endsWith".equals(method)) {
+        result = string.endsWith(argument);
+      } else if ("equals".equals(method)) {
+        result = string.equals(argument);
+      } else {
+        result = string.equalsIgnoreCase(argument);
+      }
+      return result ? TRUE : FALSE;
+    }
+  }
+
+  // ** PARSER ****************************************************************
+  /**
+   * A recursive descent parser for the compiled subset. Throws IllegalArgumentException for
+   * anything outside it, which leaves the expression to JEXL.
+   */
+  private static class Parser {
+    private static final Set<String> METHODS = new HashSet<String>(Arrays.asList("matches",
+        "startsWith", "endsWith", "equals", "equalsIgnoreCase"));
+
+    private final List<String> tokens;
+    private final Set<String> keys;
+    private int position;
+
+    Parser(final String source, final Set<String> keys) {
+      this.tokens = tokenize(source);
+      this.keys = keys;
+    }
+
+    Condition parse() {
+      final Condition condition = parseOr();
+      if (position != tokens.size()) {
+        throw new IllegalArgumentException("unexpected " + tokens.get(position));
+      }
+      return condition;
+    }
+
+    private Condition parseOr() {
+      Condition condition = parseAnd();
+      while (accept("||") || accept("or")) {
+        condition = new Or(condition, parseAnd());
+      }
+      return condition;
+    }
+
+    private Condition parseAnd() {
+      Condition condition = parseUnary();
+      while (accept("&&") || accept("and")) {
+        condition = new And(condition, parseUnary());
+      }
+      return condition;
+    }
+
+    private Condition parseUnary() {
+      if (accept("!") || accept("not")) {
+        // JEXL binds ! tighter than ==, so only a group or a method test may follow
+        if (accept("(")) {
+          return new Not(parseGroup());
+        }
+        final Condition operand = parseStringTest(parseValue());
+        if (isComparison(peek())) {
+          throw new IllegalArgumentException("comparison after !");
+        }
+        return new Not(operand);
+      }
+      if (accept("(")) {
+        return parseGroup();
+      }
+      return parseComparison();
+    }
+
+    private Condition parseGroup() {
+      final Condition condition = parseOr();
+      expect(")");
+      return condition;
+    }
+
+    private Condition parseComparison() {
+      if (isLiteral(peek())) {
+        final String literal = literal(next());
+        final boolean negated = parseOperator();
+        final String[] value = parseValue();
+        return new Equals(value[0], value[1] != null, literal, negated);
+      }
+      final String[] value = parseValue();
+      if (isComparison(peek())) {
+        final boolean negated = parseOperator();
+        if (!isLiteral(peek())) {
+          throw new IllegalArgumentException("comparison without a literal");
+        }
+        return new Equals(value[0], value[1] != null, literal(next()), negated);
+      }
+      return parseStringTest(value);
+    }
+
+    private boolean parseOperator() {
+      final String operator = next();
+      if ("==".equals(operator) || "eq".equals(operator)) {
+        return false;
+      }
+      if ("!=".equals(operator) || "ne".equals(operator)) {
+        return true;
+      }
+      throw new IllegalArgumentException("unsupported operator " + operator);
+    }
+
+    private Condition parseStringTest(final String[] value) {
+      expect(".");
+      final String method = next();
+      if (!METHODS.contains(method)) {
+        throw new IllegalArgumentException("unsupported method " + method);
+      }
+      expect("(");
+      final String argument = next();
+      if (!isLiteral(argument)) {
+        throw new IllegalArgumentException("method argument is not a literal");
+      }
+      expect(")");
+      try {
+        return new StringTest(value[0], value[1] != null, method, literal(argument));
+      } catch (PatternSyntaxException e) {
+        throw new IllegalArgumentException("invalid pattern " + argument);
+      }
+    }
+
+    /**
+     * @return the attribute key, and a non-null second element if it is read with m.get
+     */
+    private String[] parseValue() {
+      final String token = next();
+      if (MONITOR_VARIABLE.equals(token)) {
+        expect(".");
+        expect("get");
+        expect("(");
+        final String key = next();
+        if (!isLiteral(key)) {
+          throw new IllegalArgumentException("m.get without a literal");
+        }
+        expect(")");
+        keys.add(literal(key));
+        return new String[] {literal(key), MONITOR_VARIABLE};
+      }
+      if ((token == null) || !isIdentifier(token) || RESERVED.contains(token)) {
+        throw new IllegalArgumentException("unsupported value " + token);
+      }
+      keys.add(token);
+      return new String[] {token, null};
+    }
+
+    private String peek() {
+      return (position < tokens.size()) ? tokens.get(position) : null;
+    }
+
+    private String next() {
+      final String token = peek();
+      if (token == null) {
+        throw new IllegalArgumentException("unexpected end");
+      }
+      position++;
+      return token;
+    }
+
+    private boolean accept(final String token) {
+      if (token.equals(peek())) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(final String token) {
+      if (!accept(token)) {
+        throw new IllegalArgumentException("expected " + token + " but found " + peek());
+      }
+    }
+
+    private static boolean isComparison(final String token) {
+      return "==".equals(token) || "!=".equals(token) || "eq".equals(token)
+          || "ne".equals(token);
+    }
+
+    private static boolean isLiteral(final String token) {
+      return (token != null) && (token.charAt(0) == '\'' || token.charAt(0) == '"');
+    }
+
+    private static String literal(final String token) {
+      // JEXL 1.0 takes string literals verbatim, without escapes
+      return token.substring(1, token.length() - 1);
+    }
+
+    private static boolean isIdentifier(final String token) {
+      if (!Character.isJavaIdentifierStart(token.charAt(0))) {
+        return false;
+      }
+      for (int i = 1; i < token.length(); i++) {
+        if (!Character.isJavaIdentifierPart(token.charAt(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static List<String> tokenize(final String source) {
+      final List<String> tokens = new ArrayList<String>();
+      int i = 0;
+      while (i < source.length()) {
+        final char c = source.charAt(i);
+        if (Character.isWhitespace(c)) {
+          i++;
+        } else if ((c == '\'') || (c == '"')) {
+          final int end = source.indexOf(c, i + 1);
+          if (end < 0) {
+            throw new IllegalArgumentException("unterminated literal");
+          }
+          tokens.add(source.substring(i, end + 1));
+          i = end + 1;
+        } else if (Character.isJavaIdentifierStart(c)) {
+          int end = i + 1;
+          while ((end < source.length()) && Character.isJavaIdentifierPart(source.charAt(end))) {
+            end++;
+          }
+          tokens.add(source.substring(i, end));
+          i = end;
+        } else if (source.startsWith("&&", i) || source.startsWith("||", i)
+            || source.startsWith("==", i) || source.startsWith("!=", i)) {
+          tokens.add(source.substring(i, i + 2));
+          i += 2;
+        } else if ("!().".indexOf(c) >= 0) {
+          tokens.add(String.valueOf(c));
+          i++;
+        } else {
+          throw new IllegalArgumentException("unsupported character " + c);
+        }
+      }
+      return tokens;
+    }
+  }
+
+  // ** JEXL CONTEXT **********************************************************
+  /**
+   * A JEXL context that looks attributes up on the monitor as the expression asks for them,
+   * rather than copying them all in. As before, an attribute named m hides the monitor.
+   */
+  private static class MonitorContext extends AbstractMap<Object, Object> implements JexlContext {
+    private final Monitor monitor;
+    private Map<Object, Object> assigned;
+
+    MonitorContext(final Monitor monitor) {
+      this.monitor = monitor;
+    }
+
+    public Map getVars() {
+      return this;
+    }
+
+    public void setVars(final Map vars) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object get(final Object key) {
+      if ((assigned != null) && assigned.containsKey(key)) {
+        return assigned.get(key);
+      }
+      if (key instanceof String) {
+        final String name = (String)key;
+        if (monitor.hasAttribute(name)) {
+          return monitor.get(name);
+        }
+        if (MONITOR_VARIABLE.equals(name)) {
+          return monitor;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      return ((assigned != null) && assigned.containsKey(key)) || MONITOR_VARIABLE.equals(key)
+          || ((key instanceof String) && monitor.hasAttribute((String)key));
+    }
+
+    @Override
+    public Object put(final Object key, final Object value) {
+      if (assigned == null) {
+        assigned = new HashMap<Object, Object>();
+      }
+      final Object previous = get(key);
+      assigned.put(key, value);
+      return previous;
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+      final Map<Object, Object> all = new HashMap<Object, Object>();
+      all.put(MONITOR_VARIABLE, monitor);
+      all.putAll(monitor.getAll());
+      if (assigned != null) {
+        all.putAll(assigned);
+      }
+      return all.entrySet();
+    }
+  }
+}
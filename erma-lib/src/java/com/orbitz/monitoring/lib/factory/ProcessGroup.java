@@ -13,10 +13,6 @@ import com.google.common.collect.Lists;
 import java.util.Collections;
 import java.util.List;
 
-import org.apache.commons.jexl.Expression;
-import org.apache.commons.jexl.ExpressionFactory;
-import org.apache.commons.jexl.JexlContext;
-import org.apache.commons.jexl.JexlHelper;
 import org.apache.log4j.Logger;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedOperation;
@@ -34,7 +30,7 @@ public class ProcessGroup {
   
   private MonitoringLevel _monitoringLevel = MonitoringLevel.INFO;
   private boolean _active = true;
-  private Expression _appliesExpression;
+  private volatile CompiledExpression _appliesExpression;
   private final List<MonitorProcessor> _processors;
   
   public ProcessGroup(final MonitorProcessor processor) {
@@ -94,34 +90,22 @@ public class ProcessGroup {
    */
   @VisibleForTesting
   boolean matchesExpressionFor(final Monitor monitor) {
-    boolean applies = true;
-    if (_appliesExpression != null) {
-      JexlContext context = JexlHelper.createContext();
-      context.getVars().put("m", monitor);
-      context.getVars().putAll(monitor.getAll());
-      try {
-        Object result = _appliesExpression.evaluate(context);
-        if (result != null && result instanceof Boolean) {
-          Boolean expressionResult = (Boolean)result;
-          applies = expressionResult.booleanValue();
-        } else {
-          applies = false;
-        }
-      } catch (Exception e) {
-        log.debug("Exception while applying expression: ", e);
-        applies = false;
-      }
-    }
-    
-    return applies;
+    final CompiledExpression expression = _appliesExpression;
+    return (expression == null) || expression.matches(monitor);
   }
   
+  /**
+   * Sets the JEXL expression a monitor must satisfy to be handled by this group. The monitor is
+   * available as <code>m</code> and its attributes by name. Simple attribute tests are compiled
+   * when the expression is set; see {@link CompiledExpression} for what is compiled.
+   * @param expressionString the expression, or null to handle every monitor
+   */
   public void setExpression(final String expressionString) {
-    Expression expression = null;
+    CompiledExpression expression = null;
     
     if (expressionString != null) {
       try {
-        expression = ExpressionFactory.createExpression(expressionString);
+        expression = CompiledExpression.compile(expressionString);
       } catch (Exception e) {
         log.error("Error setting expression: ", e);
       }
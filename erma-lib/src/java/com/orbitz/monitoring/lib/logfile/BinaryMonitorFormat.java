@@ -0,0 +1,59 @@
+package com.orbitz.monitoring.lib.logfile;
+
+/**
+ * Constants of the binary monitor log format written by {@link BinaryMonitorWriter} and read by
+ * {@link BinaryMonitorReader}.
+ * <p>
+ * A file is a sequence of records. Each record is a 4-byte big-endian length, a type byte, the
+ * payload and a {@link #RECORD_END} byte; the length covers everything after itself. Because every
+ * record ends in a non-zero byte, the zero-filled tail a memory-mapped file is left with after a
+ * crash can never be mistaken for part of a record.
+ * <ul>
+ * <li>{@link #SEGMENT}: {@link #MAGIC} and {@link #VERSION}. Starts a new name table; a file
+ * always begins with one, and a writer appending to a file writes another.</li>
+ * <li>{@link #NAME}: one UTF-8 string, given the next index in the current name table. Names are
+ * defined in the file just before the first monitor that uses them.</li>
+ * <li>{@link #MONITOR}: a monitor tree. A monitor is its level, a varint attribute count, each
+ * attribute as a varint name index and a typed value, then a varint child count and each child
+ * monitor. A child count of -1, zig-zag encoded, marks a monitor that is not composite.</li>
+ * </ul>
+ * Values start with one of the <code>TYPE_</code> tags. Integral values and dates are zig-zag
+ * varints, floating point values are fixed width, strings are a varint byte count and UTF-8, and
+ * collections are a varint size followed by their elements (maps alternate keys and values).
+ * Values of any other type are written as the string they convert to.
+ */
+final class BinaryMonitorFormat {
+  static final int MAGIC = 0x45524d42; // "ERMB"
+  static final byte VERSION = 1;
+
+  static final byte SEGMENT = 1;
+  static final byte NAME = 2;
+  static final byte MONITOR = 3;
+  static final byte RECORD_END = (byte)0xFE;
+
+  /** Record length prefix, type byte and end byte */
+  static final int RECORD_OVERHEAD = 6;
+
+  static final byte LEVEL_DEBUG = 1;
+  static final byte LEVEL_INFO = 2;
+  static final byte LEVEL_ESSENTIAL = 3;
+
+  static final byte TYPE_NULL = 0;
+  static final byte TYPE_STRING = 1;
+  static final byte TYPE_INT = 2;
+  static final byte TYPE_LONG = 3;
+  static final byte TYPE_DOUBLE = 4;
+  static final byte TYPE_FLOAT = 5;
+  static final byte TYPE_SHORT = 6;
+  static final byte TYPE_BYTE = 7;
+  static final byte TYPE_CHAR = 8;
+  static final byte TYPE_TRUE = 9;
+  static final byte TYPE_FALSE = 10;
+  static final byte TYPE_DATE = 11;
+  static final byte TYPE_LIST = 12;
+  static final byte TYPE_SET = 13;
+  static final byte TYPE_MAP = 14;
+
+  private BinaryMonitorFormat() {
+  }
+}
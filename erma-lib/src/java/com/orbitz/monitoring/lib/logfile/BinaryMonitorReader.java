@@ -0,0 +1,327 @@
+package com.orbitz.monitoring.lib.logfile;
+
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.LEVEL_DEBUG;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.LEVEL_ESSENTIAL;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.MAGIC;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.MONITOR;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.NAME;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.RECORD_END;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.RECORD_OVERHEAD;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.SEGMENT;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_BYTE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_CHAR;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_DATE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_DOUBLE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_FALSE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_FLOAT;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_INT;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_LIST;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_LONG;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_MAP;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_NULL;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_SET;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_SHORT;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_STRING;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_TRUE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.VERSION;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableCompositeMonitor;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableMonitor;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Iterates over the monitors in a file written by {@link BinaryMonitorWriter}. The file is mapped
+ * into memory and decoded in place, so scanning it costs no reads into intermediate buffers.
+ * Monitors come back as {@link SerializableMonitor}s, or {@link SerializableCompositeMonitor}s
+ * with their children, in the order they were written.
+ * <p>
+ * A record that is cut short, as the last record of a file being written when the process died
+ * may be, ends the iteration; records after a corrupt one cannot be found and are not read.
+ * Readers are not thread safe.
+ * <p>
+ * A reader of a file should be {@link #close() closed} when done with, so the mapping is released
+ * at once rather than when it is garbage collected; until then the file cannot be deleted on some
+ * platforms.
+ */
+public class BinaryMonitorReader implements Iterator<Monitor>, Closeable {
+  private static final Logger log = Logger.getLogger(BinaryMonitorReader.class);
+
+  private final File file;
+  private final ByteBuffer buffer;
+  private MappedByteBuffer mapping;
+  private final List<String> names = new ArrayList<String>();
+
+  private byte[] stringBytes = new byte[256];
+  private Monitor next;
+  private int monitorsRead;
+  private boolean closed;
+
+  /**
+   * Maps a file for reading
+   * @param file the file
+   * @throws IOException if the file cannot be mapped
+   */
+  public BinaryMonitorReader(File file) throws IOException {
+    this.file = file;
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      // the mapping stays valid after the channel is closed
+      this.mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      this.buffer = mapping;
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Reads monitors from a buffer holding the contents of a file
+   * @param buffer the file contents, from its position to its limit
+   */
+  public BinaryMonitorReader(ByteBuffer buffer) {
+    this.file = null;
+    this.buffer = buffer.slice();
+  }
+
+  public boolean hasNext() {
+    if ((next == null) && !closed) {
+      next = readNext();
+    }
+    return next != null;
+  }
+
+  public Monitor next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Monitor monitor = next;
+    next = null;
+    return monitor;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Releases the mapping of the file, if the reader has one. No more monitors are returned
+   * afterwards. Closing a reader more than once has no further effect.
+   */
+  public void close() {
+    closed = true;
+    next = null;
+    if (mapping != null) {
+      MappedByteBuffer mapped = mapping;
+      mapping = null;
+      RollingFileChannel.unmap(mapped);
+    }
+  }
+
+  /**
+   * @return the number of monitors returned so far
+   */
+  public int getMonitorsRead() {
+    return monitorsRead;
+  }
+
+  private Monitor readNext() {
+    while (buffer.remaining() >= RECORD_OVERHEAD) {
+      int start = buffer.position();
+      int length = buffer.getInt();
+      // a zero length is the unwritten tail of a memory-mapped file
+      if ((length < 2) || (length > buffer.remaining())) {
+        if (length != 0) {
+          log.warn("Truncated record at offset " + start + " of " + describe());
+        }
+        break;
+      }
+      int end = buffer.position() + length;
+      if (buffer.get(end - 1) != RECORD_END) {
+        log.warn("Corrupt record at offset " + start + " of " + describe());
+        break;
+      }
+
+      try {
+        byte type = buffer.get();
+        if (type == MONITOR) {
+          Monitor monitor = readMonitor();
+          buffer.position(end);
+          monitorsRead++;
+          return monitor;
+        } else if (type == NAME) {
+          names.add(readString());
+        } else if (type == SEGMENT) {
+          if ((buffer.getInt() != MAGIC) || (buffer.get() > VERSION)) {
+            log.warn("Unsupported segment at offset " + start + " of " + describe());
+            break;
+          }
+          names.clear();
+        }
+        // unknown record types are skipped, so later versions can add them
+      } catch (RuntimeException e) {
+        log.warn("Corrupt record at offset " + start + " of " + describe(), e);
+        break;
+      }
+      buffer.position(end);
+    }
+
+    buffer.position(buffer.limit());
+    return null;
+  }
+
+  private Monitor readMonitor() {
+    MonitoringLevel level = level(buffer.get());
+
+    int attributeCount = (int)readVarint();
+    Map<String, Object> attributes = new HashMap<String, Object>(attributeCount * 2);
+    for (int i = 0; i < attributeCount; i++) {
+      String name = names.get((int)readVarint());
+      attributes.put(name, readValue());
+    }
+
+    int childCount = (int)unZigZag(readVarint());
+    if (childCount < 0) {
+      return new SerializableMonitor(attributes, level);
+    }
+    List<SerializableMonitor> children = new ArrayList<SerializableMonitor>(childCount);
+    for (int i = 0; i < childCount; i++) {
+      children.add((SerializableMonitor)readMonitor());
+    }
+    return new SerializableCompositeMonitor(attributes, children, level);
+  }
+
+  private Object readValue() {
+    byte type = buffer.get();
+    switch (type) {
+      case TYPE_NULL:
+        return null;
+      case TYPE_STRING:
+        return readString();
+      case TYPE_INT:
+        return Integer.valueOf((int)unZigZag(readVarint()));
+      case TYPE_LONG:
+        return Long.valueOf(unZigZag(readVarint()));
+      case TYPE_DOUBLE:
+        return Double.valueOf(Double.longBitsToDouble(buffer.getLong()));
+      case TYPE_FLOAT:
+        return Float.valueOf(Float.intBitsToFloat(buffer.getInt()));
+      case TYPE_SHORT:
+        return Short.valueOf((short)unZigZag(readVarint()));
+      case TYPE_BYTE:
+        return Byte.valueOf(buffer.get());
+      case TYPE_CHAR:
+        return Character.valueOf((char)readVarint());
+      case TYPE_TRUE:
+        return Boolean.TRUE;
+      case TYPE_FALSE:
+        return Boolean.FALSE;
+      case TYPE_DATE:
+        return new Date(unZigZag(readVarint()));
+      case TYPE_LIST: {
+        int size = (int)readVarint();
+        List<Object> list = new ArrayList<Object>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue());
+        }
+        return list;
+      }
+      case TYPE_SET: {
+        int size = (int)readVarint();
+        Set<Object> set = new HashSet<Object>(size * 2);
+        for (int i = 0; i < size; i++) {
+          set.add(readValue());
+        }
+        return set;
+      }
+      case TYPE_MAP: {
+        int size = (int)readVarint();
+        Map<Object, Object> map = new HashMap<Object, Object>(size * 2);
+        for (int i = 0; i < size; i++) {
+          Object key = readValue();
+          map.put(key, readValue());
+        }
+        return map;
+      }
+      default:
+        throw new IllegalStateException("Unknown value type " + type);
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private String readString() {
+    int length = (int)readVarint();
+    if (length > buffer.remaining()) {
+      throw new IllegalStateException("String runs past the end of its record");
+    }
+    if (length > stringBytes.length) {
+      stringBytes = new byte[Math.max(length, stringBytes.length * 2)];
+    }
+    buffer.get(stringBytes, 0, length);
+
+    boolean ascii = true;
+    for (int i = 0; i < length && ascii; i++) {
+      ascii = stringBytes[i] >= 0;
+    }
+    if (ascii) {
+      // skips the charset decoder for the common case
+      return new String(stringBytes, 0, 0, length);
+    }
+    try {
+      return new String(stringBytes, 0, length, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e.toString());
+    }
+  }
+
+  private long readVarint() {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      value |= (long)(b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static MonitoringLevel level(byte level) {
+    switch (level) {
+      case LEVEL_DEBUG:
+        return MonitoringLevel.DEBUG;
+      case LEVEL_ESSENTIAL:
+        return MonitoringLevel.ESSENTIAL;
+      default:
+        return MonitoringLevel.INFO;
+    }
+  }
+
+  private String describe() {
+    return (file == null) ? "buffer" : file.getPath();
+  }
+}
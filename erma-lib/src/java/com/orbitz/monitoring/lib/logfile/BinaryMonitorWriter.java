@@ -0,0 +1,347 @@
+package com.orbitz.monitoring.lib.logfile;
+
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.LEVEL_DEBUG;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.LEVEL_ESSENTIAL;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.LEVEL_INFO;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.MAGIC;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.MONITOR;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.NAME;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.RECORD_END;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.SEGMENT;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_BYTE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_CHAR;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_DATE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_DOUBLE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_FALSE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_FLOAT;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_INT;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_LIST;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_LONG;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_MAP;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_NULL;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_SET;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_SHORT;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_STRING;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.TYPE_TRUE;
+import static com.orbitz.monitoring.lib.logfile.BinaryMonitorFormat.VERSION;
+
+import com.orbitz.monitoring.api.CompositeMonitor;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes monitors to a {@link RollingFileChannel} in the binary format described by
+ * {@link BinaryMonitorFormat}. Attribute names are written once per file and referred to by index
+ * afterwards, and every monitor, along with the names it introduces, is written in a single call
+ * so that it never straddles two files.
+ * <p>
+ * All methods are thread safe.
+ */
+public class BinaryMonitorWriter {
+  /** A new segment is started once a file has seen this many distinct names */
+  static final int MAX_NAMES = 64 * 1024;
+
+  private final RollingFileChannel channel;
+
+  private final Map<String, Integer> names = new HashMap<String, Integer>();
+  private final List<String> pendingNames = new ArrayList<String>();
+  private boolean segmentPending = true;
+
+  /* the monitor record, and the headers it needs followed by a copy of it */
+  private final Bytes record = new Bytes();
+  private final Bytes output = new Bytes();
+
+  /**
+   * @param channel the file to write to. Writing starts a new segment, so a non-empty file is
+   *        appended to safely.
+   */
+  public BinaryMonitorWriter(RollingFileChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Writes a monitor and its children
+   * @param monitor the monitor
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized void write(Monitor monitor) throws IOException {
+    if (names.size() >= MAX_NAMES) {
+      startSegment();
+    }
+
+    boolean written = false;
+    try {
+      Bytes bytes = encode(monitor);
+      if (!segmentPending && channel.wouldRoll(bytes.size)) {
+        // the record refers to names defined in the current file; redefine them in the next one
+        channel.roll();
+        startSegment();
+        bytes = encode(monitor);
+      }
+      channel.write(bytes.bytes, 0, bytes.size);
+      segmentPending = false;
+      written = true;
+    } finally {
+      if (!written) {
+        // names that never reached the file must be defined again next time
+        for (String name : pendingNames) {
+          names.remove(name);
+        }
+      }
+      pendingNames.clear();
+    }
+  }
+
+  /**
+   * Hands buffered records to the operating system
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized void flush() throws IOException {
+    channel.flush();
+  }
+
+  /**
+   * Closes the underlying file
+   */
+  public synchronized void close() {
+    channel.close();
+  }
+
+  public RollingFileChannel getChannel() {
+    return channel;
+  }
+
+  private void startSegment() {
+    names.clear();
+    pendingNames.clear();
+    segmentPending = true;
+  }
+
+  // encodes the monitor record, preceded by the segment header and name definitions it needs
+  private Bytes encode(Monitor monitor) throws IOException {
+    record.size = 0;
+    int start = record.beginRecord(MONITOR);
+    writeMonitor(monitor);
+    record.endRecord(start);
+
+    if (!segmentPending && pendingNames.isEmpty()) {
+      return record;
+    }
+
+    output.size = 0;
+    if (segmentPending) {
+      start = output.beginRecord(SEGMENT);
+      output.writeInt(MAGIC);
+      output.writeByte(VERSION);
+      output.endRecord(start);
+    }
+    for (String name : pendingNames) {
+      start = output.beginRecord(NAME);
+      output.writeString(name);
+      output.endRecord(start);
+    }
+    output.write(record.bytes, 0, record.size);
+    return output;
+  }
+
+  private void writeMonitor(Monitor monitor) throws IOException {
+    record.writeByte(level(monitor.getLevel()));
+
+    Map<String, Object> attributes = monitor.getAll();
+    record.writeVarint(attributes.size());
+    for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+      record.writeVarint(nameIndex(attribute.getKey()));
+      writeValue(attribute.getValue());
+    }
+
+    if (monitor instanceof CompositeMonitor) {
+      Collection<Monitor> children = ((CompositeMonitor)monitor).getChildMonitors();
+      record.writeVarint(zigZag(children.size()));
+      for (Monitor child : children) {
+        writeMonitor(child);
+      }
+    } else {
+      record.writeVarint(zigZag(-1));
+    }
+  }
+
+  private void writeValue(Object value) throws IOException {
+    if (value == null) {
+      record.writeByte(TYPE_NULL);
+    } else if (value instanceof String) {
+      record.writeByte(TYPE_STRING);
+      record.writeString((String)value);
+    } else if (value instanceof Integer) {
+      record.writeByte(TYPE_INT);
+      record.writeVarint(zigZag(((Integer)value).intValue()));
+    } else if (value instanceof Long) {
+      record.writeByte(TYPE_LONG);
+      record.writeVarint(zigZag(((Long)value).longValue()));
+    } else if (value instanceof Double) {
+      record.writeByte(TYPE_DOUBLE);
+      record.writeLong(Double.doubleToLongBits(((Double)value).doubleValue()));
+    } else if (value instanceof Float) {
+      record.writeByte(TYPE_FLOAT);
+      record.writeInt(Float.floatToIntBits(((Float)value).floatValue()));
+    } else if (value instanceof Short) {
+      record.writeByte(TYPE_SHORT);
+      record.writeVarint(zigZag(((Short)value).shortValue()));
+    } else if (value instanceof Byte) {
+      record.writeByte(TYPE_BYTE);
+      record.writeByte(((Byte)value).byteValue());
+    } else if (value instanceof Character) {
+      record.writeByte(TYPE_CHAR);
+      record.writeVarint(((Character)value).charValue());
+    } else if (value instanceof Boolean) {
+      record.writeByte(((Boolean)value).booleanValue() ? TYPE_TRUE : TYPE_FALSE);
+    } else if (value instanceof Date) {
+      record.writeByte(TYPE_DATE);
+      record.writeVarint(zigZag(((Date)value).getTime()));
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>)value;
+      record.writeByte(TYPE_MAP);
+      record.writeVarint(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    } else if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>)value;
+      record.writeByte((value instanceof Set) ? TYPE_SET : TYPE_LIST);
+      record.writeVarint(collection.size());
+      for (Iterator<?> i = collection.iterator(); i.hasNext();) {
+        writeValue(i.next());
+      }
+    } else if (value.getClass().isArray()) {
+      int length = Array.getLength(value);
+      record.writeByte(TYPE_LIST);
+      record.writeVarint(length);
+      for (int i = 0; i < length; i++) {
+        writeValue(Array.get(value, i));
+      }
+    } else {
+      record.writeByte(TYPE_STRING);
+      record.writeString(String.valueOf(value));
+    }
+  }
+
+  private int nameIndex(String name) {
+    Integer index = names.get(name);
+    if (index == null) {
+      index = Integer.valueOf(names.size());
+      names.put(name, index);
+      pendingNames.add(name);
+    }
+    return index.intValue();
+  }
+
+  private static byte level(MonitoringLevel level) {
+    if (MonitoringLevel.DEBUG.equals(level)) {
+      return LEVEL_DEBUG;
+    } else if (MonitoringLevel.ESSENTIAL.equals(level)) {
+      return LEVEL_ESSENTIAL;
+    }
+    return LEVEL_INFO;
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * A growable byte array with the primitive encodings of the format
+   */
+  private static final class Bytes {
+    private byte[] bytes = new byte[4096];
+    private int size;
+
+    private int beginRecord(byte type) {
+      int start = size;
+      ensureCapacity(size + 5);
+      size += 4;
+      bytes[size++] = type;
+      return start;
+    }
+
+    private void endRecord(int start) {
+      writeByte(RECORD_END);
+      int length = size - start - 4;
+      bytes[start] = (byte)(length >>> 24);
+      bytes[start + 1] = (byte)(length >>> 16);
+      bytes[start + 2] = (byte)(length >>> 8);
+      bytes[start + 3] = (byte)length;
+    }
+
+    private void writeString(String s) throws UnsupportedEncodingException {
+      int length = s.length();
+      boolean ascii = true;
+      for (int i = 0; i < length && ascii; i++) {
+        ascii = s.charAt(i) < 0x80;
+      }
+      if (ascii) {
+        writeVarint(length);
+        ensureCapacity(size + length);
+        for (int i = 0; i < length; i++) {
+          bytes[size++] = (byte)s.charAt(i);
+        }
+      } else {
+        byte[] encoded = s.getBytes("UTF-8");
+        writeVarint(encoded.length);
+        write(encoded, 0, encoded.length);
+      }
+    }
+
+    private void write(byte[] source, int offset, int length) {
+      ensureCapacity(size + length);
+      System.arraycopy(source, offset, bytes, size, length);
+      size += length;
+    }
+
+    private void writeByte(byte b) {
+      ensureCapacity(size + 1);
+      bytes[size++] = b;
+    }
+
+    private void writeInt(int value) {
+      ensureCapacity(size + 4);
+      bytes[size++] = (byte)(value >>> 24);
+      bytes[size++] = (byte)(value >>> 16);
+      bytes[size++] = (byte)(value >>> 8);
+      bytes[size++] = (byte)value;
+    }
+
+    private void writeLong(long value) {
+      writeInt((int)(value >>> 32));
+      writeInt((int)value);
+    }
+
+    private void writeVarint(long value) {
+      ensureCapacity(size + 10);
+      while ((value & ~0x7FL) != 0) {
+        bytes[size++] = (byte)((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte)value;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > bytes.length) {
+        byte[] newBytes = new byte[Math.max(capacity, bytes.length * 2)];
+        System.arraycopy(bytes, 0, newBytes, 0, size);
+        bytes = newBytes;
+      }
+    }
+  }
+}
@@ -0,0 +1,323 @@
+package com.orbitz.monitoring.lib.logfile;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A buffered, size-bounded log file. Once the current file would grow past
+ * {@link #getMaxFileSize() maxFileSize} it is renamed to <code>file.1</code>, older backups move
+ * up by one, the oldest beyond {@link #getMaxBackupIndex() maxBackupIndex} is deleted, and writing
+ * continues in a new file. A record is never split across two files.
+ * <p>
+ * Writes either go through a heap buffer into a {@link FileChannel}, or, in memory-mapped mode,
+ * straight into a mapping of the whole file. A mapped file is extended to
+ * <code>maxFileSize</code> while it is being written and truncated back to its content when it is
+ * rolled or closed; if the process dies first, the unused tail is zero-filled and is skipped when
+ * the file is reopened. Mappings are released as soon as their file is rolled or closed where the
+ * VM allows it, rather than when they are garbage collected.
+ * <p>
+ * All methods are thread safe.
+ */
+public class RollingFileChannel {
+  private static final Logger log = Logger.getLogger(RollingFileChannel.class);
+
+  private final File file;
+  private final long maxFileSize;
+  private final int maxBackupIndex;
+  private final boolean memoryMapped;
+
+  private final ByteBuffer buffer;
+  private RandomAccessFile randomAccessFile;
+  private FileChannel channel;
+  private MappedByteBuffer mapping;
+  private long position;
+  private long rollovers;
+
+  /**
+   * Opens the file for appending, creating it and its directory if necessary
+   * @param file the active log file
+   * @param maxFileSize the size at which the file is rolled
+   * @param maxBackupIndex the number of rolled files to keep
+   * @param memoryMapped true to write through a memory mapping instead of a buffered channel
+   * @param bufferSize the size of the write buffer; ignored when memory mapped
+   * @throws IOException if the file cannot be opened
+   */
+  public RollingFileChannel(final File file, final long maxFileSize, final int maxBackupIndex,
+      final boolean memoryMapped, final int bufferSize) throws IOException {
+    if (maxFileSize <= 0 || (memoryMapped && maxFileSize > Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("invalid maxFileSize " + maxFileSize);
+    }
+    this.file = file;
+    this.maxFileSize = maxFileSize;
+    this.maxBackupIndex = maxBackupIndex;
+    this.memoryMapped = memoryMapped;
+    this.buffer = memoryMapped ? null : ByteBuffer.allocate(bufferSize);
+
+    File parent = file.getAbsoluteFile().getParentFile();
+    if ((parent != null) && !parent.exists()) {
+      parent.mkdirs();
+    }
+    open(0);
+  }
+
+  /**
+   * Appends a record, rolling the file first if the record would not fit in it
+   * @param bytes the source array
+   * @param offset the start of the record in the array
+   * @param length the length of the record
+   * @throws IOException if the file cannot be written or rolled
+   */
+  public synchronized void write(final byte[] bytes, final int offset, final int length)
+      throws IOException {
+    if (channel == null) {
+      throw new IOException(file + " is closed");
+    }
+    if (wouldRoll(length)) {
+      roll(length);
+    }
+
+    if (memoryMapped) {
+      if (length > mapping.capacity() - position) {
+        // only a record larger than maxFileSize can get here, and only into an empty file
+        remap(length);
+      }
+      mapping.position((int)position);
+      mapping.put(bytes, offset, length);
+    } else if (length > buffer.remaining()) {
+      flushBuffer();
+      if (length > buffer.capacity()) {
+        writeFully(ByteBuffer.wrap(bytes, offset, length));
+      } else {
+        buffer.put(bytes, offset, length);
+      }
+    } else {
+      buffer.put(bytes, offset, length);
+    }
+    position += length;
+  }
+
+  /**
+   * Tells whether writing a record of the given length would roll the file first. Writers that
+   * keep per-file state, such as a dictionary, use this to reset it before encoding the record.
+   * @param length the length of the record
+   * @return true if the record would go into a new file
+   */
+  public synchronized boolean wouldRoll(final int length) {
+    return (position > 0) && (position + length > maxFileSize);
+  }
+
+  /**
+   * Rolls the file now, even if it is not full
+   * @throws IOException if the file cannot be rolled
+   */
+  public synchronized void roll() throws IOException {
+    if (channel == null) {
+      throw new IOException(file + " is closed");
+    }
+    roll(0);
+  }
+
+  /**
+   * Appends the remaining bytes of a buffer as a record
+   * @param src the record
+   * @throws IOException if the file cannot be written or rolled
+   * @see #write(byte[], int, int)
+   */
+  public synchronized void write(final ByteBuffer src) throws IOException {
+    if (src.hasArray()) {
+      write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+      src.position(src.limit());
+    } else {
+      byte[] bytes = new byte[src.remaining()];
+      src.get(bytes);
+      write(bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Hands buffered bytes to the operating system. This does not force them onto the storage
+   * device.
+   * @throws IOException if the buffered bytes cannot be written
+   */
+  public synchronized void flush() throws IOException {
+    if (!memoryMapped && (channel != null)) {
+      flushBuffer();
+    }
+  }
+
+  /**
+   * Flushes and closes the file. The channel must not be used afterwards.
+   */
+  public synchronized void close() {
+    try {
+      closeCurrent();
+    } catch (IOException e) {
+      log.warn("Failed to close " + file, e);
+    }
+  }
+
+  /**
+   * @return the number of bytes in the current file, including buffered bytes
+   */
+  public synchronized long getPosition() {
+    return position;
+  }
+
+  /**
+   * @return the number of times the file has been rolled by this instance
+   */
+  public synchronized long getRollovers() {
+    return rollovers;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getMaxFileSize() {
+    return maxFileSize;
+  }
+
+  public int getMaxBackupIndex() {
+    return maxBackupIndex;
+  }
+
+  public boolean isMemoryMapped() {
+    return memoryMapped;
+  }
+
+  private void open(final int minimumMapping) throws IOException {
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    channel = randomAccessFile.getChannel();
+    position = channel.size();
+    if (memoryMapped) {
+      position = contentLength();
+      remap(minimumMapping);
+    } else {
+      channel.position(position);
+    }
+  }
+
+  private void remap(final int minimumRecord) throws IOException {
+    long size = Math.max(maxFileSize, position + minimumRecord);
+    mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  // a mapped file that was not closed cleanly ends in zeros that were never written
+  private long contentLength() throws IOException {
+    long length = channel.size();
+    if (length == 0) {
+      return 0;
+    }
+    MappedByteBuffer existing = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    int end = (int)length;
+    while ((end > 0) && (existing.get(end - 1) == 0)) {
+      end--;
+    }
+    unmap(existing);
+    return end;
+  }
+
+  private void roll(final int nextRecord) throws IOException {
+    closeCurrent();
+
+    if (maxBackupIndex > 0) {
+      File oldest = backup(maxBackupIndex);
+      if (oldest.exists() && !oldest.delete()) {
+        log.warn("Failed to delete " + oldest);
+      }
+      for (int i = maxBackupIndex - 1; i >= 1; i--) {
+        File backup = backup(i);
+        if (backup.exists()) {
+          backup.renameTo(backup(i + 1));
+        }
+      }
+      if (!file.renameTo(backup(1))) {
+        log.warn("Failed to roll " + file + "; truncating it instead");
+        file.delete();
+      }
+    } else if (!file.delete()) {
+      log.warn("Failed to delete " + file);
+    }
+
+    rollovers++;
+    open(nextRecord);
+  }
+
+  private File backup(final int index) {
+    return new File(file.getPath() + "." + index);
+  }
+
+  private void closeCurrent() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    try {
+      if (memoryMapped) {
+        MappedByteBuffer mapped = mapping;
+        mapping = null;
+        mapped.force();
+        unmap(mapped);
+        channel.truncate(position);
+      } else {
+        flushBuffer();
+      }
+    } finally {
+      channel = null;
+      randomAccessFile.close();
+      randomAccessFile = null;
+    }
+  }
+
+  /**
+   * Releases a mapping now instead of when it is garbage collected. There is no public API for
+   * this: the mapping's cleaner is run through sun.misc.Unsafe on Java 9 and later, or through
+   * the buffer's own cleaner before that. The mapping must not be touched afterwards.
+   */
+  static void unmap(final MappedByteBuffer mapped) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner;
+      try {
+        invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      } catch (NoSuchMethodException e) {
+        Method cleanerMethod = mapped.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(mapped);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+        return;
+      }
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), mapped);
+    } catch (Exception e) {
+      // left to the garbage collector
+      log.debug("Unable to unmap a buffer", e);
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    buffer.flip();
+    try {
+      writeFully(buffer);
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  private void writeFully(final ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) {
+      channel.write(src);
+    }
+  }
+}
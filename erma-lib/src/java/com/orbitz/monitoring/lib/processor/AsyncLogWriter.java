@@ -0,0 +1,393 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.lib.logfile.RollingFileChannel;
+import com.orbitz.monitoring.lib.renderer.StreamingMonitorRenderer;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves monitor logging off the calling thread. Callers enqueue either
+ * {@link com.orbitz.monitoring.lib.renderer.MonitorSnapshot snapshots} of monitors or messages
+ * they have already rendered; a single writer thread takes them in batches, renders the snapshots
+ * and either writes them to a {@link RollingFileChannel}, rendering straight into the batch, or,
+ * when there is no file, hands them to log4j one by one.
+ */
+class AsyncLogWriter {
+  private static final Logger log = Logger.getLogger(AsyncLogWriter.class);
+
+  private static final int MAX_RETAINED_BATCH = 256 * 1024;
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final BoundedMpscQueue<Entry> queue;
+  private final int batchSize;
+  private final Logger target;
+  private final RollingFileChannel file;
+
+  private final AtomicLong enqueued = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+
+  private final Thread thread;
+  private volatile boolean running = true;
+  private volatile boolean parked;
+  // callers between checking running and queueing; the writer waits for them before it exits
+  private final AtomicInteger offering = new AtomicInteger();
+
+  // used only while holding the file's lock
+  private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final ByteBuffer encoded = ByteBuffer.allocate(16 * 1024);
+  private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  private long formattedSecond = -1;
+  private String formattedDate;
+
+  /**
+   * @param name the name of the writer thread
+   * @param queueCapacity the number of messages that may wait to be written
+   * @param batchSize the most messages taken between writes
+   * @param target the logger to write to when there is no file
+   * @param file the file to write to, or null to write to the logger
+   */
+  AsyncLogWriter(String name, int queueCapacity, int batchSize, Logger target,
+      RollingFileChannel file) {
+    this.queue = new BoundedMpscQueue<Entry>(queueCapacity);
+    this.batchSize = batchSize;
+    this.target = target;
+    this.file = file;
+    this.thread = new Thread(new Runnable() {
+      public void run() {
+        drain();
+      }
+    }, name);
+    thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Stops accepting messages, waits for the queued ones to be written and closes the file
+   * @param timeoutMillis how long to wait for the queue to drain
+   */
+  void stop(long timeoutMillis) {
+    running = false;
+    LockSupport.unpark(thread);
+    try {
+      thread.join(timeoutMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      log.warn(thread.getName() + " did not drain " + queue.size() + " monitors in time");
+    }
+  }
+
+  boolean isStopped() {
+    return !running;
+  }
+
+  /**
+   * Queues a rendered message for the writer thread
+   * @return false if the queue is full or the writer has been stopped
+   */
+  boolean offer(String message) {
+    return offer(new Entry(message, null, null, null, false, System.currentTimeMillis()));
+  }
+
+  /**
+   * Queues a monitor snapshot for the writer thread to render
+   * @param prefix written before the rendered monitor
+   * @param snapshot a snapshot of the monitor, which must not change once queued
+   * @param renderer the renderer to render it with
+   * @param includeStackTraces whether Throwable attributes render with a stack trace
+   * @return false if the queue is full or the writer has been stopped
+   */
+  boolean offer(String prefix, Monitor snapshot, StreamingMonitorRenderer renderer,
+      boolean includeStackTraces) {
+    return offer(new Entry(null, prefix, snapshot, renderer, includeStackTraces,
+        System.currentTimeMillis()));
+  }
+
+  private boolean offer(Entry entry) {
+    offering.incrementAndGet();
+    try {
+      if (!running || !queue.offer(entry)) {
+        return false;
+      }
+    } finally {
+      offering.decrementAndGet();
+    }
+    enqueued.incrementAndGet();
+    if (parked) {
+      LockSupport.unpark(thread);
+    }
+    return true;
+  }
+
+  /**
+   * Writes a rendered message on the calling thread, for use when the queue is full
+   */
+  void writeNow(String message) {
+    Entry entry = new Entry(message, null, null, null, false, System.currentTimeMillis());
+    StringBuilder buffer = new StringBuilder();
+    if (file == null) {
+      target.info(entry.message);
+      written.incrementAndGet();
+      return;
+    }
+    synchronized (file) {
+      if (appendLine(entry, buffer)) {
+        writeBatch(buffer, 1);
+      }
+    }
+  }
+
+  void recordDropped() {
+    dropped.incrementAndGet();
+  }
+
+  private void drain() {
+    StringBuilder batch = new StringBuilder(8 * 1024);
+    while (true) {
+      int count;
+      if (file == null) {
+        count = drainToLogger(batch);
+      } else {
+        synchronized (file) {
+          count = drainToFile(batch);
+        }
+      }
+
+      if (count > 0) {
+        batches.incrementAndGet();
+        if (batch.capacity() > MAX_RETAINED_BATCH) {
+          batch = new StringBuilder(8 * 1024);
+        }
+        batch.setLength(0);
+        continue;
+      }
+
+      if (!queue.isEmpty()) {
+        // a producer has claimed a slot but not filled it yet
+        Thread.yield();
+        continue;
+      }
+
+      flushFile();
+      if (!running) {
+        // a caller that saw running before stop() may still be queueing; once none are, no
+        // more can arrive
+        if ((offering.get() == 0) && queue.isEmpty()) {
+          break;
+        }
+        Thread.yield();
+        continue;
+      }
+      parked = true;
+      if (queue.isEmpty() && running) {
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+      parked = false;
+    }
+
+    if (file != null) {
+      file.close();
+    }
+  }
+
+  private int drainToLogger(StringBuilder buffer) {
+    int count = 0;
+    Entry entry;
+    while ((count < batchSize) && ((entry = queue.poll()) != null)) {
+      writeToLogger(entry, buffer);
+      count++;
+    }
+    return count;
+  }
+
+  private int drainToFile(StringBuilder batch) {
+    int count = 0;
+    int appended = 0;
+    Entry entry;
+    while ((count < batchSize) && ((entry = queue.poll()) != null)) {
+      if (appendLine(entry, batch)) {
+        appended++;
+      }
+      count++;
+    }
+    if (appended > 0) {
+      writeBatch(batch, appended);
+    }
+    return count;
+  }
+
+  private void writeToLogger(Entry entry, StringBuilder buffer) {
+    try {
+      String message = entry.message;
+      if (message == null) {
+        buffer.setLength(0);
+        appendMessage(entry, buffer);
+        message = buffer.toString();
+      }
+      target.info(message);
+      written.incrementAndGet();
+    } catch (RuntimeException e) {
+      failed.incrementAndGet();
+      log.warn("Failed to log monitor", e);
+    }
+  }
+
+  private static void appendMessage(Entry entry, StringBuilder buffer) {
+    if (entry.message != null) {
+      buffer.append(entry.message);
+    } else {
+      buffer.append(entry.prefix);
+      entry.renderer.renderMonitor(entry.snapshot, entry.includeStackTraces, buffer);
+    }
+  }
+
+  private boolean appendLine(Entry entry, StringBuilder batch) {
+    int start = batch.length();
+    try {
+      batch.append(formatDate(entry.timestamp)).append(' ');
+      appendMessage(entry, batch);
+      batch.append('\n');
+      return true;
+    } catch (RuntimeException e) {
+      batch.setLength(start);
+      failed.incrementAndGet();
+      log.warn("Failed to format monitor", e);
+      return false;
+    }
+  }
+
+  private void writeBatch(StringBuilder batch, int count) {
+    try {
+      CharBuffer chars = CharBuffer.wrap(batch);
+      encoder.reset();
+      // malformed input is replaced, so the only result other than underflow is a full buffer
+      while (encoder.encode(chars, encoded, true).isOverflow()) {
+        writeEncoded();
+      }
+      while (encoder.flush(encoded).isOverflow()) {
+        writeEncoded();
+      }
+      writeEncoded();
+      written.addAndGet(count);
+    } catch (IOException e) {
+      failed.addAndGet(count);
+      log.warn("Failed to write " + count + " monitors to " + file.getFile(), e);
+    }
+  }
+
+  private void writeEncoded() throws IOException {
+    encoded.flip();
+    try {
+      file.write(encoded);
+    } finally {
+      encoded.clear();
+    }
+  }
+
+  private void flushFile() {
+    if (file == null) {
+      return;
+    }
+    try {
+      file.flush();
+    } catch (IOException e) {
+      log.warn("Failed to flush " + file.getFile(), e);
+    }
+  }
+
+  // consecutive lines almost always share a second, so the date is formatted once per second
+  private String formatDate(long timestamp) {
+    long second = timestamp / 1000;
+    if (second != formattedSecond) {
+      formattedDate = dateFormat.format(new Date(second * 1000));
+      formattedSecond = second;
+    }
+    int millis = (int)(timestamp % 1000);
+    StringBuilder date = new StringBuilder(formattedDate.length() + 4);
+    date.append(formattedDate).append(',');
+    if (millis < 100) {
+      date.append('0');
+    }
+    if (millis < 10) {
+      date.append('0');
+    }
+    return date.append(millis).toString();
+  }
+
+  int getQueueSize() {
+    return queue.size();
+  }
+
+  int getQueueCapacity() {
+    return queue.capacity();
+  }
+
+  long getEnqueued() {
+    return enqueued.get();
+  }
+
+  long getWritten() {
+    return written.get();
+  }
+
+  long getDropped() {
+    return dropped.get();
+  }
+
+  long getFailed() {
+    return failed.get();
+  }
+
+  long getBatches() {
+    return batches.get();
+  }
+
+  long getRollovers() {
+    return (file == null) ? 0 : file.getRollovers();
+  }
+
+  /**
+   * A queued message, or a snapshot to render into one, and the time it was queued
+   */
+  private static final class Entry {
+    private final String message;
+    private final String prefix;
+    private final Monitor snapshot;
+    private final StreamingMonitorRenderer renderer;
+    private final boolean includeStackTraces;
+    private final long timestamp;
+
+    private Entry(String message, String prefix, Monitor snapshot,
+        StreamingMonitorRenderer renderer, boolean includeStackTraces, long timestamp) {
+      this.message = message;
+      this.prefix = prefix;
+      this.snapshot = snapshot;
+      this.renderer = renderer;
+      this.includeStackTraces = includeStackTraces;
+      this.timestamp = timestamp;
+    }
+  }
+}
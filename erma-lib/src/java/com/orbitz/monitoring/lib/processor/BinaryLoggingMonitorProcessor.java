@@ -0,0 +1,149 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.lib.logfile.BinaryMonitorReader;
+import com.orbitz.monitoring.lib.logfile.BinaryMonitorWriter;
+import com.orbitz.monitoring.lib.logfile.RollingFileChannel;
+
+import org.apache.log4j.Logger;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes processed monitors, with their children, to a rolling file in a compact binary format.
+ * The files can be read back with {@link BinaryMonitorReader}. Writes happen on the calling
+ * thread; wrap this processor in an {@link AsyncMonitorProcessor} to move them off it.
+ */
+@ManagedResource(description = "Writes monitors to a binary log file")
+public class BinaryLoggingMonitorProcessor extends MonitorProcessorAdapter {
+  private static final Logger log = Logger.getLogger(BinaryLoggingMonitorProcessor.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private String _name;
+  private String _logFile;
+  private long _maxFileSize = 100 * 1024 * 1024;
+  private int _maxBackupIndex = 10;
+  private boolean _memoryMapped = false;
+
+  private volatile BinaryMonitorWriter writer;
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  @Override
+  public void startup() {
+    if (_logFile == null) {
+      throw new IllegalStateException("logFile must be set");
+    }
+    try {
+      writer = new BinaryMonitorWriter(new RollingFileChannel(new File(_logFile), _maxFileSize,
+          _maxBackupIndex, _memoryMapped, BUFFER_SIZE));
+    } catch (IOException e) {
+      log.error("Failed to open " + _logFile + "; monitors will not be written", e);
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    BinaryMonitorWriter current = writer;
+    if (current != null) {
+      writer = null;
+      current.close();
+    }
+  }
+
+  @Override
+  public void process(Monitor monitor) {
+    BinaryMonitorWriter current = writer;
+    if (current == null) {
+      return;
+    }
+    try {
+      current.write(monitor);
+      written.incrementAndGet();
+    } catch (IOException e) {
+      // only the first failure is logged with its stack; the count tells the rest
+      if (failed.getAndIncrement() == 0) {
+        log.warn("Failed to write monitor to " + _logFile, e);
+      }
+    }
+  }
+
+  /**
+   * Hands buffered monitors to the operating system
+   */
+  public void flush() {
+    BinaryMonitorWriter current = writer;
+    if (current != null) {
+      try {
+        current.flush();
+      } catch (IOException e) {
+        log.warn("Failed to flush " + _logFile, e);
+      }
+    }
+  }
+
+  @ManagedAttribute(description = "The number of monitors written")
+  public long getTotalWritten() {
+    return written.get();
+  }
+
+  @ManagedAttribute(description = "The number of monitors that could not be written")
+  public long getTotalFailed() {
+    return failed.get();
+  }
+
+  @ManagedAttribute(description = "The number of times the file has been rolled")
+  public long getTotalRollovers() {
+    BinaryMonitorWriter current = writer;
+    return (current == null) ? 0 : current.getChannel().getRollovers();
+  }
+
+  @Override
+  public String getName() {
+    return _name;
+  }
+
+  public void setName(String name) {
+    _name = name;
+  }
+
+  public String getLogFile() {
+    return _logFile;
+  }
+
+  public void setLogFile(String logFile) {
+    _logFile = logFile;
+  }
+
+  public long getMaxFileSize() {
+    return _maxFileSize;
+  }
+
+  public void setMaxFileSize(long maxFileSize) {
+    _maxFileSize = maxFileSize;
+  }
+
+  public int getMaxBackupIndex() {
+    return _maxBackupIndex;
+  }
+
+  public void setMaxBackupIndex(int maxBackupIndex) {
+    _maxBackupIndex = maxBackupIndex;
+  }
+
+  public boolean isMemoryMapped() {
+    return _memoryMapped;
+  }
+
+  /**
+   * @param memoryMapped true to write through a memory mapping instead of a buffered channel
+   */
+  public void setMemoryMapped(boolean memoryMapped) {
+    _memoryMapped = memoryMapped;
+  }
+}
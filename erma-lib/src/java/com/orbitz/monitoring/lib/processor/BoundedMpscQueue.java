@@ -0,0 +1,91 @@
+package com.orbitz.monitoring.lib.processor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue for any number of producers and exactly one consumer. Producers claim a slot
+ * with a single compare-and-set and never block or take a lock, so a full queue costs the caller
+ * no more than an empty one. Only one thread may call {@link #poll()}.
+ *
+ * @param <E> the element type
+ */
+final class BoundedMpscQueue<E> {
+  private final AtomicReferenceArray<E> slots;
+  private final int capacity;
+  private final int mask;
+
+  /* the next slot a producer will claim */
+  private final AtomicLong tail = new AtomicLong();
+  /* the next slot the consumer will read; written only by the consumer */
+  private volatile long head;
+
+  /**
+   * @param capacity the minimum number of elements the queue can hold; rounded up to a power of 2
+   */
+  BoundedMpscQueue(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.capacity = size;
+    this.mask = size - 1;
+    this.slots = new AtomicReferenceArray<E>(size);
+  }
+
+  /**
+   * Adds an element if there is room
+   * @param element the element, which must not be null
+   * @return true if the element was added, false if the queue is full
+   */
+  boolean offer(E element) {
+    while (true) {
+      long claim = tail.get();
+      if (claim - head >= capacity) {
+        return false;
+      }
+      if (tail.compareAndSet(claim, claim + 1)) {
+        slots.set((int)claim & mask, element);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Removes the oldest element. Must only be called from the consumer thread.
+   * @return the oldest element, or null if the queue is empty or the producer that claimed the
+   *         next slot has not finished writing it yet
+   */
+  E poll() {
+    long current = head;
+    int index = (int)current & mask;
+    E element = slots.get(index);
+    if (element == null) {
+      return null;
+    }
+    slots.set(index, null);
+    head = current + 1;
+    return element;
+  }
+
+  /**
+   * @return true if no elements have been claimed beyond those already polled
+   */
+  boolean isEmpty() {
+    return tail.get() == head;
+  }
+
+  /**
+   * @return the approximate number of elements in the queue
+   */
+  int size() {
+    return (int)Math.max(0, tail.get() - head);
+  }
+
+  int capacity() {
+    return capacity;
+  }
+}
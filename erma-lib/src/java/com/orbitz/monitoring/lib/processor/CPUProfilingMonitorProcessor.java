@@ -10,47 +10,99 @@ import org.springframework.jmx.export.annotation.ManagedResource;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface 
- * that uses a ThreadMXBean to determine CPU time used by the current thread within the scope of a 
- * TransactionMonitor.
- * 
+ * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface
+ * that uses a ThreadMXBean to determine CPU time used by the current thread within the scope of a
+ * TransactionMonitor. Where the VM's ThreadMXBean can count the bytes each thread allocates, as
+ * HotSpot's com.sun.management.ThreadMXBean does, those are measured as well.
+ * <p>
+ * To keep the cost down, only one in every {@link #getSampleInterval() sampleInterval}
+ * transactions is measured. The CPU time and allocation of measured transactions are added up per
+ * name until {@link #drainSummaries()} is called, which
+ * {@link com.orbitz.monitoring.lib.timertask.CPUProfilingTimerTask} does to fire periodic
+ * summaries.
+ *
  * @author Matt O'Keefe
  */
 @ManagedResource(description = "This MonitorProcessor can be dis/enabled.")
 public class CPUProfilingMonitorProcessor extends MonitorProcessorAdapter {
-  
+
   private static final Logger log = Logger.getLogger(CPUProfilingMonitorProcessor.class);
-  
+
+  private static final ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
+  private static final Method getThreadAllocatedBytes = allocatedBytesMethod();
+
   private boolean enabled = false;
-  
+  private boolean allocationEnabled = false;
+
+  private final TransactionSampler sampler = new TransactionSampler();
+
+  private final PerNameSummaries<Summary> summaries = new PerNameSummaries<Summary>() {
+    @Override
+    protected Summary create() {
+      return new Summary();
+    }
+  };
+
   // ** PUBLIC METHODS ******************************************************
   @Override
   public void monitorStarted(final Monitor monitor) {
-    
-    if (enabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())) {
-      ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
+
+    if (enabled && (monitor instanceof TransactionMonitor)) {
+      if (!sampler.sample()) {
+        return;
+      }
       monitor.set("startCPUTime", tmxbean.getCurrentThreadCpuTime());
+      if (allocationEnabled) {
+        long allocatedBytes = currentThreadAllocatedBytes();
+        if (allocatedBytes >= 0) {
+          monitor.set("startAllocatedBytes", allocatedBytes);
+        }
+      }
     }
   }
-  
+
   @Override
   public void process(final Monitor monitor) {
-    if (enabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())) {
+    if (enabled && (monitor instanceof TransactionMonitor)) {
       if (monitor.hasAttribute("startCPUTime")) {
-        ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
         long endTime = tmxbean.getCurrentThreadCpuTime();
         monitor.set("endCPUTime", endTime);
         long diff = endTime - monitor.getAsLong("startCPUTime");
         double cpuTimeMillis = diff / 1000000.0;
         monitor.set("cpuTimeMillis", cpuTimeMillis);
-      } else {
+
+        long allocatedBytes = -1;
+        if (allocationEnabled && monitor.hasAttribute("startAllocatedBytes")) {
+          long endAllocatedBytes = currentThreadAllocatedBytes();
+          if (endAllocatedBytes >= 0) {
+            allocatedBytes = endAllocatedBytes - monitor.getAsLong("startAllocatedBytes");
+            monitor.set("allocatedBytes", allocatedBytes);
+          }
+        }
+        Summary summary = summaries.get(monitor.getAsString(Attribute.NAME));
+        if (summary != null) {
+          summary.add(diff, allocatedBytes);
+        }
+      } else if (sampler.getSampleInterval() == 1) {
+        // when sampling, most transactions are left unmeasured on purpose
         log.warn("No startCPUTime for Monitor named " + monitor.getAsString(Attribute.NAME));
       }
     }
   }
-  
+
+  /**
+   * Gets the totals for each name measured since the last call, and starts new totals
+   * @return the totals, keyed by monitor name
+   */
+  public Map<String, Summary> drainSummaries() {
+    return summaries.drain();
+  }
+
   /**
    * @return boolean
    */
@@ -58,19 +110,119 @@ public class CPUProfilingMonitorProcessor extends MonitorProcessorAdapter {
   public boolean isEnabled() {
     return enabled;
   }
-  
+
   /**
    * Enables or disables the {@link CPUProfilingMonitorProcessor}
    * @param enabled true if the processor should be enabled, false otherwise
    */
   @ManagedAttribute(description = "set to true to enable this feature")
   public void setEnabled(final boolean enabled) {
-    ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
     if (tmxbean.isCurrentThreadCpuTimeSupported()) {
       tmxbean.setThreadCpuTimeEnabled(enabled);
       this.enabled = enabled;
+      this.allocationEnabled = enabled && enableAllocatedBytes();
     } else {
       log.warn("Thread CPU time monitoring is not supported by this VM");
     }
   }
+
+  /**
+   * @return true if bytes allocated are being measured as well as CPU time
+   */
+  @ManagedAttribute(description = "true if allocated bytes are being measured")
+  public boolean isAllocationEnabled() {
+    return allocationEnabled;
+  }
+
+  @ManagedAttribute(description = "One in this many transactions is measured")
+  public int getSampleInterval() {
+    return sampler.getSampleInterval();
+  }
+
+  /**
+   * @param sampleInterval one in this many transactions is measured; 1 measures every one
+   */
+  @ManagedAttribute(description = "One in this many transactions is measured")
+  public void setSampleInterval(final int sampleInterval) {
+    sampler.setSampleInterval(sampleInterval);
+  }
+
+  private static long currentThreadAllocatedBytes() {
+    try {
+      return ((Long)getThreadAllocatedBytes.invoke(tmxbean,
+          Long.valueOf(Thread.currentThread().getId()))).longValue();
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  private static boolean enableAllocatedBytes() {
+    if (getThreadAllocatedBytes == null) {
+      return false;
+    }
+    try {
+      Class<?> type = getThreadAllocatedBytes.getDeclaringClass();
+      if (!((Boolean)type.getMethod("isThreadAllocatedMemorySupported").invoke(tmxbean))
+          .booleanValue()) {
+        return false;
+      }
+      type.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(tmxbean,
+          Boolean.TRUE);
+      return true;
+    } catch (Exception e) {
+      log.info("Thread allocated bytes could not be enabled: " + e);
+      return false;
+    }
+  }
+
+  // found by reflection, so the processor still loads on VMs without com.sun.management
+  private static Method allocatedBytesMethod() {
+    try {
+      Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+      if (!type.isInstance(tmxbean)) {
+        return null;
+      }
+      return type.getMethod("getThreadAllocatedBytes", long.class);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * The totals of the transactions of one name that were measured
+   */
+  public static final class Summary {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    void add(final long cpuNanos, final long allocatedBytes) {
+      count.incrementAndGet();
+      this.cpuNanos.addAndGet(cpuNanos);
+      if (allocatedBytes >= 0) {
+        this.allocatedBytes.addAndGet(allocatedBytes);
+      }
+    }
+
+    /**
+     * @return the number of transactions measured
+     */
+    public long getCount() {
+      return count.get();
+    }
+
+    /**
+     * @return the CPU time of the transactions measured, in milliseconds
+     */
+    public double getCpuTimeMillis() {
+      return cpuNanos.get() / 1000000.0;
+    }
+
+    /**
+     * @return the bytes allocated by the transactions measured, or 0 if not measured
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes.get();
+    }
+  }
 }
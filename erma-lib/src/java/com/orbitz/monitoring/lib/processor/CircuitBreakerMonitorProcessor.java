@@ -0,0 +1,404 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.engine.LifecyclePhase;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+
+import org.apache.log4j.Logger;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Protects application threads from a processor that becomes slow, such as one writing to a stuck
+ * appender or an unreachable network sink. Calls are passed to the wrapped processor while it
+ * keeps within its time budget. After {@link #getSlowCallThreshold() slowCallThreshold} calls in a
+ * row take longer than the budget, or a call has been running for that many budgets, the breaker
+ * opens and monitors are skipped, and counted, without calling the processor. Every
+ * {@link #getProbeIntervalMillis() probeIntervalMillis} one call is let through as a probe; if it
+ * finishes within budget the breaker closes again.
+ * <p>
+ * Whether a monitor is passed on is decided once, when it is created, and recorded on it in a
+ * non-serializable attribute that is removed again after {@link #process(Monitor)}. A monitor whose
+ * creation was passed to the processor is always passed on when it starts and when it is
+ * processed, even if the breaker has opened since, so stateful processors see every monitor they
+ * saw created through to the end. Monitors created before the breaker was in place are judged at
+ * each call.
+ * <p>
+ * Each change of state is fired as an {@link MonitoringLevel#ESSENTIAL} {@link EventMonitor}
+ * named {@value #STATE_CHANGE_EVENT}. The event is fired once the call that caused the change has
+ * returned, and is not passed to the wrapped processor, so a slow processor is not called again
+ * from the thread that just judged it. Exceptions thrown by the wrapped processor are passed on
+ * unchanged. A call that throws is judged only by how long it took, like one that returns, so a
+ * sink that fails slowly, such as one timing out, still opens the breaker.
+ */
+@ManagedResource(description = "Skips a processor that exceeds its time budget")
+public class CircuitBreakerMonitorProcessor implements MonitorProcessor {
+  /** The name of the events fired when the breaker changes state */
+  public static final String STATE_CHANGE_EVENT = "CircuitBreakerMonitorProcessor.stateChange";
+
+  private static final Logger log = Logger.getLogger(CircuitBreakerMonitorProcessor.class);
+
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+  /**
+   * The states of a breaker
+   */
+  public enum State {
+    /** Calls are passed to the processor */
+    CLOSED,
+    /** Calls are skipped */
+    OPEN,
+    /** One probe call has been let through; others are skipped until it finishes */
+    HALF_OPEN
+  }
+
+  private enum Admission {
+    SKIP, CALL, PROBE
+  }
+
+  private String _name;
+  private MonitorProcessor _processor;
+  private long _timeBudgetNanos = 10 * 1000 * 1000L;
+  private int _slowCallThreshold = 3;
+  private long _probeIntervalNanos = 5 * 1000 * 1000 * 1000L;
+
+  // unique per breaker, so breakers wrapping different processors keep separate decisions
+  private final String admittedKey = "_circuitBreaker" + INSTANCES.incrementAndGet() + "Admitted";
+  private final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+    @Override
+    protected Context initialValue() {
+      return new Context();
+    }
+  };
+
+  private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+  private volatile long openedAt;
+  private final AtomicInteger consecutiveSlowCalls = new AtomicInteger();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile long lastProgress;
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong slowCalls = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong trips = new AtomicLong();
+
+  /**
+   * Creates a breaker; the processor to wrap must be set before use
+   */
+  public CircuitBreakerMonitorProcessor() {
+  }
+
+  /**
+   * @param processor the processor to protect the application from
+   */
+  public CircuitBreakerMonitorProcessor(MonitorProcessor processor) {
+    _processor = processor;
+  }
+
+  public void startup() {
+    _processor.startup();
+  }
+
+  public void shutdown() {
+    _processor.shutdown();
+  }
+
+  public void monitorCreated(Monitor monitor) {
+    Context context = contexts.get();
+    if (context.firing) {
+      return;
+    }
+    try {
+      Admission admission = admit();
+      monitor.set(admittedKey, admission != Admission.SKIP).notSerializable();
+      if (admission != Admission.SKIP) {
+        call(monitor, LifecyclePhase.CREATED, admission == Admission.PROBE);
+      }
+    } finally {
+      context.firePending();
+    }
+  }
+
+  public void monitorStarted(Monitor monitor) {
+    Context context = contexts.get();
+    if (context.firing) {
+      return;
+    }
+    try {
+      callAdmitted(monitor, LifecyclePhase.STARTED);
+    } finally {
+      context.firePending();
+    }
+  }
+
+  public void process(Monitor monitor) {
+    Context context = contexts.get();
+    if (context.firing) {
+      return;
+    }
+    try {
+      callAdmitted(monitor, LifecyclePhase.PROCESS);
+    } finally {
+      if (monitor.hasAttribute(admittedKey)) {
+        monitor.unset(admittedKey);
+      }
+      context.firePending();
+    }
+  }
+
+  private void callAdmitted(Monitor monitor, LifecyclePhase phase) {
+    Object admitted = monitor.hasAttribute(admittedKey) ? monitor.get(admittedKey) : null;
+    if (Boolean.TRUE.equals(admitted)) {
+      call(monitor, phase, false);
+    } else if (Boolean.FALSE.equals(admitted)) {
+      skipped.incrementAndGet();
+    } else {
+      Admission admission = admit();
+      if (admission != Admission.SKIP) {
+        call(monitor, phase, admission == Admission.PROBE);
+      }
+    }
+  }
+
+  private Admission admit() {
+    State current = state.get();
+    if (current == State.CLOSED) {
+      if (!isStalled()) {
+        return Admission.CALL;
+      }
+      open(State.CLOSED, "a call has run for over "
+          + (_slowCallThreshold * _timeBudgetNanos / 1000000) + "ms");
+    } else if ((current == State.OPEN) && (System.nanoTime() - openedAt >= _probeIntervalNanos)
+        && transition(State.OPEN, State.HALF_OPEN, "probing")) {
+      return Admission.PROBE;
+    }
+    skipped.incrementAndGet();
+    return Admission.SKIP;
+  }
+
+  private void call(Monitor monitor, LifecyclePhase phase, boolean probe) {
+    long start = System.nanoTime();
+    if (inFlight.incrementAndGet() == 1) {
+      lastProgress = start;
+    }
+    try {
+      switch (phase) {
+        case CREATED:
+          _processor.monitorCreated(monitor);
+          break;
+        case STARTED:
+          _processor.monitorStarted(monitor);
+          break;
+        case PROCESS:
+        default:
+          _processor.process(monitor);
+      }
+    } finally {
+      long end = System.nanoTime();
+      lastProgress = end;
+      inFlight.decrementAndGet();
+      completed(end - start, probe);
+    }
+  }
+
+  private boolean isStalled() {
+    return (inFlight.get() > 0)
+        && (System.nanoTime() - lastProgress > _slowCallThreshold * _timeBudgetNanos);
+  }
+
+  private void completed(long nanos, boolean probe) {
+    calls.incrementAndGet();
+    boolean slow = nanos > _timeBudgetNanos;
+    if (slow) {
+      slowCalls.incrementAndGet();
+    }
+    if (probe) {
+      if (slow) {
+        open(State.HALF_OPEN, "the probe took " + (nanos / 1000) + "us");
+      } else {
+        consecutiveSlowCalls.set(0);
+        transition(State.HALF_OPEN, State.CLOSED, "the probe took " + (nanos / 1000) + "us");
+      }
+    } else if (!slow) {
+      if (consecutiveSlowCalls.get() != 0) {
+        consecutiveSlowCalls.set(0);
+      }
+    } else if ((consecutiveSlowCalls.incrementAndGet() >= _slowCallThreshold)
+        && (state.get() == State.CLOSED)) {
+      open(State.CLOSED, _slowCallThreshold + " calls in a row exceeded the budget; the last took "
+          + (nanos / 1000) + "us");
+    }
+  }
+
+  private void open(State from, String reason) {
+    long previousOpenedAt = openedAt;
+    openedAt = System.nanoTime();
+    if (transition(from, State.OPEN, reason)) {
+      trips.incrementAndGet();
+    } else {
+      openedAt = previousOpenedAt;
+    }
+  }
+
+  private boolean transition(State from, State to, String reason) {
+    if (!state.compareAndSet(from, to)) {
+      return false;
+    }
+    if (to == State.OPEN) {
+      log.warn("Skipping processor " + getName() + ": " + reason);
+    } else if (to == State.CLOSED) {
+      log.info("Resuming processor " + getName() + ": " + reason);
+    }
+    contexts.get().pending.add(new StateChange(from, to, reason, skipped.get()));
+    return true;
+  }
+
+  /**
+   * Closes the breaker, so calls are passed to the processor again
+   */
+  @ManagedOperation(description = "Closes the breaker so the processor is called again")
+  public void reset() {
+    consecutiveSlowCalls.set(0);
+    State current = state.get();
+    if (current != State.CLOSED) {
+      transition(current, State.CLOSED, "reset");
+    }
+    contexts.get().firePending();
+  }
+
+  @ManagedAttribute(description = "CLOSED, OPEN or HALF_OPEN")
+  public String getState() {
+    return state.get().name();
+  }
+
+  @ManagedAttribute(description = "The number of calls passed to the processor")
+  public long getTotalCalls() {
+    return calls.get();
+  }
+
+  @ManagedAttribute(description = "The number of calls that exceeded the time budget")
+  public long getTotalSlowCalls() {
+    return slowCalls.get();
+  }
+
+  @ManagedAttribute(description = "The number of calls skipped while the breaker was open")
+  public long getTotalSkipped() {
+    return skipped.get();
+  }
+
+  @ManagedAttribute(description = "The number of times the breaker has opened")
+  public long getTotalTrips() {
+    return trips.get();
+  }
+
+  /**
+   * @return the name set on this breaker, or else the name of the processor it wraps
+   */
+  public String getName() {
+    return (_name != null) ? _name : _processor.getName();
+  }
+
+  public void setName(String name) {
+    _name = name;
+  }
+
+  public MonitorProcessor getProcessor() {
+    return _processor;
+  }
+
+  public void setProcessor(MonitorProcessor processor) {
+    _processor = processor;
+  }
+
+  @ManagedAttribute(description = "The longest a call may take, in milliseconds")
+  public long getTimeBudgetMillis() {
+    return _timeBudgetNanos / 1000000;
+  }
+
+  /**
+   * @param timeBudgetMillis the longest a call may take before it counts as slow
+   */
+  @ManagedAttribute(description = "The longest a call may take, in milliseconds")
+  public void setTimeBudgetMillis(long timeBudgetMillis) {
+    _timeBudgetNanos = timeBudgetMillis * 1000000;
+  }
+
+  @ManagedAttribute(description = "The number of slow calls in a row that opens the breaker")
+  public int getSlowCallThreshold() {
+    return _slowCallThreshold;
+  }
+
+  /**
+   * @param slowCallThreshold the number of slow calls in a row that opens the breaker; a call
+   *        running for this many budgets opens it too
+   */
+  @ManagedAttribute(description = "The number of slow calls in a row that opens the breaker")
+  public void setSlowCallThreshold(int slowCallThreshold) {
+    _slowCallThreshold = Math.max(1, slowCallThreshold);
+  }
+
+  @ManagedAttribute(description = "How long the breaker stays open before probing, in ms")
+  public long getProbeIntervalMillis() {
+    return _probeIntervalNanos / 1000000;
+  }
+
+  /**
+   * @param probeIntervalMillis how long the breaker stays open before letting a probe call through
+   */
+  @ManagedAttribute(description = "How long the breaker stays open before probing, in ms")
+  public void setProbeIntervalMillis(long probeIntervalMillis) {
+    _probeIntervalNanos = probeIntervalMillis * 1000000;
+  }
+
+  private static final class StateChange {
+    private final State from;
+    private final State to;
+    private final String reason;
+    private final long skipped;
+
+    StateChange(State from, State to, String reason, long skipped) {
+      this.from = from;
+      this.to = to;
+      this.reason = reason;
+      this.skipped = skipped;
+    }
+  }
+
+  /**
+   * The state changes a thread has made but not yet fired, and whether it is firing them
+   */
+  private final class Context {
+    private final List<StateChange> pending = new ArrayList<StateChange>(2);
+    private boolean firing;
+
+    void firePending() {
+      if (pending.isEmpty() || firing) {
+        return;
+      }
+      firing = true;
+      try {
+        for (StateChange change : pending) {
+          EventMonitor event = new EventMonitor(STATE_CHANGE_EVENT, MonitoringLevel.ESSENTIAL);
+          event.set("processorName", getName());
+          event.set("previousState", change.from.name());
+          event.set("state", change.to.name());
+          event.set("reason", change.reason);
+          event.set("skipped", change.skipped);
+          event.fire();
+        }
+      } finally {
+        pending.clear();
+        firing = false;
+      }
+    }
+  }
+}
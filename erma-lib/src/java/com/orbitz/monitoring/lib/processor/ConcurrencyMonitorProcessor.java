@@ -4,83 +4,203 @@ import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.monitor.TransactionMonitor;
 
-import com.google.common.collect.Maps;
-
 import org.apache.log4j.Logger;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A {@link com.orbitz.monitoring.api.MonitorProcessor} that maintains counts of concurrently
- * executing transactions
+ * executing transactions. Each name has counters of its own, updated without locking, so
+ * transactions of different names never contend.
+ * <p>
+ * By default a name is forgotten as soon as none of its transactions are in flight. With
+ * {@link #setTrackPeaks(boolean) trackPeaks} on, the highest count of each name is also kept until
+ * {@link #drainConcurrency()} is called, and names are forgotten only then, once idle for a whole
+ * interval. {@link com.orbitz.monitoring.lib.timertask.ConcurrencyTimerTask} turns it on and
+ * drains the peaks to fire periodic gauges.
  * @author Matt O'Keefe
  */
 
 public class ConcurrencyMonitorProcessor extends MonitorProcessorAdapter {
   private static final Logger log = Logger.getLogger(ConcurrencyMonitorProcessor.class);
-  private static final Map<String, Integer> map = new HashMap<String, Integer>();
-  
+  private static final ConcurrentMap<String, Counter> map =
+      new ConcurrentHashMap<String, Counter>();
+
   private boolean isEnabled = true;
-  
+  private volatile boolean trackPeaks;
+
   @Override
   public void monitorStarted(final Monitor monitor) {
-    if (isEnabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())) {
+    if (isEnabled && (monitor instanceof TransactionMonitor)) {
       String name = monitor.getAsString(Attribute.NAME);
-      synchronized (map) {
-        Integer cnt = map.get(name);
-        if (cnt == null) {
-          map.put(name, Integer.valueOf(1));
-        } else {
-          int count = cnt.intValue();
-          map.put(name, Integer.valueOf(count + 1));
+      while (true) {
+        Counter counter = map.get(name);
+        if (counter == null) {
+          counter = new Counter();
+          Counter existing = map.putIfAbsent(name, counter);
+          if (existing != null) {
+            counter = existing;
+          }
+        }
+        if (counter.increment()) {
+          return;
         }
+        // retired while idle, by process() or drainConcurrency()
+        map.remove(name, counter);
       }
     }
   }
-  
+
   @Override
   public void process(final Monitor monitor) {
-    if (isEnabled && TransactionMonitor.class.isAssignableFrom(monitor.getClass())) {
+    if (isEnabled && (monitor instanceof TransactionMonitor)) {
       String name = monitor.getAsString(Attribute.NAME);
-      synchronized (map) {
-        Integer cnt = map.get(name);
-        if (cnt == null) {
-          log.warn("No count available for Monitor named " + name);
-        } else {
-          int count = cnt.intValue();
-          map.put(name, Integer.valueOf(count - 1));
-          monitor.set("concurrencyCount", count);
-          
-          if (count == 1) {
-            map.remove(name);
-          }
+      Counter counter = map.get(name);
+      int count = (counter == null) ? 0 : counter.decrement();
+      if (count <= 0) {
+        log.warn("No count available for Monitor named " + name);
+      } else {
+        monitor.set("concurrencyCount", count);
+        if ((count == 1) && !trackPeaks && counter.retire()) {
+          map.remove(name, counter);
         }
       }
     }
   }
-  
+
   /**
    * Gets the map of counts, in which keys are attribute names and values are counts
    * @return the new map
    */
   public Map<String, Integer> getAll() {
-    synchronized (map) {
-      return Maps.newHashMap(map);
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    for (Map.Entry<String, Counter> entry : map.entrySet()) {
+      int count = entry.getValue().count.get();
+      if (count > 0) {
+        counts.put(entry.getKey(), Integer.valueOf(count));
+      }
     }
+    return counts;
   }
-  
+
+  /**
+   * Gets the current and highest count of each name since the last call, and starts a new interval
+   * at the current counts. Names that had no transactions in flight for the whole interval are left
+   * out and forgotten.
+   * @return the counts, keyed by attribute name
+   */
+  public Map<String, Concurrency> drainConcurrency() {
+    Map<String, Concurrency> drained = new HashMap<String, Concurrency>();
+    for (Map.Entry<String, Counter> entry : map.entrySet()) {
+      Counter counter = entry.getValue();
+      int count = Math.max(counter.count.get(), 0);
+      int peak = counter.peak.getAndSet(count);
+      if (peak > 0) {
+        drained.put(entry.getKey(), new Concurrency(count, peak));
+      } else if (counter.retire()) {
+        map.remove(entry.getKey(), counter);
+      }
+    }
+    return drained;
+  }
+
   public boolean isEnabled() {
     return isEnabled;
   }
-  
+
   public void setEnabled(final boolean enabled) {
     isEnabled = enabled;
   }
-  
+
+  public boolean isTrackPeaks() {
+    return trackPeaks;
+  }
+
+  /**
+   * @param trackPeaks true to keep names until {@link #drainConcurrency()} forgets them, so their
+   *        peaks are not lost when their counts fall to zero; false to forget a name as soon as
+   *        none of its transactions are in flight
+   */
+  public void setTrackPeaks(final boolean trackPeaks) {
+    this.trackPeaks = trackPeaks;
+  }
+
   public static void clear() {
-    synchronized (map) {
-      map.clear();
+    map.clear();
+  }
+
+  /**
+   * The counts of one name drained at the end of an interval
+   */
+  public static final class Concurrency {
+    private final int count;
+    private final int peak;
+
+    Concurrency(final int count, final int peak) {
+      this.count = count;
+      this.peak = peak;
+    }
+
+    /**
+     * @return the number in flight when the interval ended
+     */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * @return the most in flight at once during the interval
+     */
+    public int getPeak() {
+      return peak;
+    }
+  }
+
+  /**
+   * The in-flight count of one name, and its peak. A count of -1 marks a counter removed from the
+   * map, which a starting transaction must replace rather than use.
+   */
+  private static final class Counter {
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+
+    boolean increment() {
+      int current;
+      do {
+        current = count.get();
+        if (current < 0) {
+          return false;
+        }
+      } while (!count.compareAndSet(current, current + 1));
+
+      int next = current + 1;
+      int highest;
+      do {
+        highest = peak.get();
+      } while ((next > highest) && !peak.compareAndSet(highest, next));
+      return true;
+    }
+
+    /**
+     * @return the count before decrementing, or 0 if there was nothing to decrement
+     */
+    int decrement() {
+      int current;
+      do {
+        current = count.get();
+        if (current <= 0) {
+          return 0;
+        }
+      } while (!count.compareAndSet(current, current - 1));
+      return current;
+    }
+
+    boolean retire() {
+      return count.compareAndSet(0, -1);
     }
   }
 }
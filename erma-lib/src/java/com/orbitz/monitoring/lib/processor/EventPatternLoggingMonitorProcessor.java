@@ -55,4 +55,15 @@ public class EventPatternLoggingMonitorProcessor extends MonitorProcessorAdapter
   public void setMonitorsToSkip(Set monitorsToSkip) {
     renderer.setMonitorsToSkip(monitorsToSkip);
   }
+
+  public boolean isCollapseByFingerprint() {
+    return renderer.isCollapseByFingerprint();
+  }
+
+  /**
+   * @see EventPatternMonitorRenderer#setCollapseByFingerprint(boolean)
+   */
+  public void setCollapseByFingerprint(boolean collapseByFingerprint) {
+    renderer.setCollapseByFingerprint(collapseByFingerprint);
+  }
 }
@@ -7,12 +7,29 @@ import com.orbitz.monitoring.api.monitor.TransactionMonitor;
 
 import org.apache.log4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface 
- * that checks to see if latency > a given threshold and no child monitors are contained within a 
+ * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface
+ * that checks to see if latency > a given threshold and no child monitors are contained within a
  * given TransactionMonitor.
+ * <p>
+ * The time covered by child TransactionMonitors is found by merging their intervals, so children
+ * that overlap, such as work done in parallel, are counted once and a gap is only found where no
+ * child was running. The time left uncovered is added up per parent name until
+ * {@link #drainCoverage()} is called, which
+ * {@link com.orbitz.monitoring.lib.timertask.MonitoringCoverageTimerTask} does to fire periodic
+ * summaries. By default that is all; a {@link GapHandler}, such as the
+ * {@link EventFiringGapHandler}, can be given to also act on each gap longer than the threshold.
+ * <p>
+ * Each TransactionMonitor is normally checked when it is processed. If only top level monitors
+ * reach this processor, {@link #setRecursive(boolean) recursive} checks the children over the
+ * threshold as well.
  *
  * @author Matt O'Keefe
  */
@@ -20,19 +37,36 @@ import java.util.Date;
 public class LatencyMonitoringCoverageMonitorProcessor
     extends MonitorProcessorAdapter {
 
-  private static final Logger log = 
+  private static final Logger log =
       Logger.getLogger(LatencyMonitoringCoverageMonitorProcessor.class);
 
   private static final long DEFAULT_THRESHOLD = 5000;
 
+  private static final int MAX_DEPTH = 32;
+
   private long threshold;
-  
+
   private GapHandler gapHandler;
-  
+
+  private boolean recursive = false;
+
+  private final PerNameSummaries<Coverage> coverageByName = new PerNameSummaries<Coverage>() {
+    @Override
+    protected Coverage create() {
+      return new Coverage();
+    }
+  };
+
+  /**
+   * Creates a processor that only keeps summaries
+   */
   public LatencyMonitoringCoverageMonitorProcessor() {
-    this(new EventFiringGapHandler());
+    this(null);
   }
-  
+
+  /**
+   * @param gapHandler called for each gap longer than the threshold, or null for none
+   */
   public LatencyMonitoringCoverageMonitorProcessor(GapHandler gapHandler) {
     this(gapHandler, DEFAULT_THRESHOLD);
   }
@@ -49,7 +83,8 @@ public class LatencyMonitoringCoverageMonitorProcessor
         TransactionMonitor parent = (TransactionMonitor) monitor;
         long latency = parent.getAsLong(Attribute.LATENCY);
         if (latency > threshold) {
-          processChildMonitors(parent, latency);
+          processChildMonitors(parent, millis(parent.get(Attribute.START_TIME)),
+              millis(parent.get(Attribute.END_TIME)), 0);
         }
       }
     } catch (Exception e) {
@@ -57,41 +92,80 @@ public class LatencyMonitoringCoverageMonitorProcessor
     }
   }
 
-  private void processChildMonitors(TransactionMonitor parent, long latency) {
-    TransactionMonitor leftChild = null;
-    TransactionMonitor rightChild = null;
+  private void processChildMonitors(TransactionMonitor parent, long start, long end, int depth) {
+    List<Span> children = new ArrayList<Span>();
     for (Monitor child : parent.getChildMonitors()) {
       if (child instanceof TransactionMonitor) {
-        leftChild = rightChild;
-        rightChild = (TransactionMonitor) child;
-        checkForGap(parent, leftChild, rightChild);
+        Object childStart = child.get(Attribute.START_TIME);
+        Object childEnd = child.get(Attribute.END_TIME);
+        if ((childStart != null) && (childEnd != null)) {
+          children.add(new Span((TransactionMonitor) child, millis(childStart), millis(childEnd)));
+        }
       }
     }
-    leftChild = rightChild;
-    rightChild = null;
-    checkForGap(parent, leftChild, rightChild);
-  }
+    Collections.sort(children);
 
-  private void checkForGap(TransactionMonitor parent, TransactionMonitor leftChild, 
-      TransactionMonitor rightChild) {
-    Date leftEnd;
-    if (leftChild == null) {
-      leftEnd = (Date) parent.get(Attribute.START_TIME);
-    } else {
-      leftEnd = (Date) leftChild.get(Attribute.END_TIME);
+    // walk the children by start time; covered is the end of the time covered so far
+    long covered = start;
+    TransactionMonitor leftChild = null;
+    long uncovered = 0;
+    long maxGap = 0;
+    for (Span child : children) {
+      if (child.start > covered) {
+        long gap = child.start - covered;
+        uncovered += gap;
+        maxGap = Math.max(maxGap, gap);
+        checkForGap(parent, leftChild, child.monitor, gap);
+      }
+      if (child.end > covered) {
+        covered = child.end;
+        leftChild = child.monitor;
+      }
+    }
+    if (end > covered) {
+      long gap = end - covered;
+      uncovered += gap;
+      maxGap = Math.max(maxGap, gap);
+      checkForGap(parent, leftChild, null, gap);
     }
-    Date rightStart;
-    if (rightChild == null) {
-      rightStart = (Date) parent.get(Attribute.END_TIME);
-    } else {
-      rightStart = (Date) rightChild.get(Attribute.START_TIME);
+    Coverage coverage = parent.hasAttribute(Attribute.NAME)
+        ? coverageByName.get(parent.getAsString(Attribute.NAME)) : null;
+    if (coverage != null) {
+      coverage.add(end - start, uncovered, maxGap);
     }
-    long latency = rightStart.getTime() - leftEnd.getTime();
-    if (latency > threshold) {
+
+    if (recursive && (depth < MAX_DEPTH)) {
+      for (Span child : children) {
+        if (child.end - child.start > threshold) {
+          processChildMonitors(child.monitor, child.start, child.end, depth + 1);
+        }
+      }
+    }
+  }
+
+  private void checkForGap(TransactionMonitor parent, TransactionMonitor leftChild,
+      TransactionMonitor rightChild, long latency) {
+    if ((latency > threshold) && (gapHandler != null)) {
       gapHandler.handleGap(parent, leftChild, rightChild, latency);
     }
   }
 
+  // start and end times are Dates, or milliseconds from monitors that were serialized as numbers
+  private static long millis(Object time) {
+    if (time instanceof Date) {
+      return ((Date) time).getTime();
+    }
+    return ((Number) time).longValue();
+  }
+
+  /**
+   * Gets the coverage of each parent name checked since the last call, and starts counting afresh
+   * @return the coverage, keyed by monitor name
+   */
+  public Map<String, Coverage> drainCoverage() {
+    return coverageByName.drain();
+  }
+
   public long getThreshold() {
     return threshold;
   }
@@ -99,16 +173,28 @@ public class LatencyMonitoringCoverageMonitorProcessor
   public void setThreshold(long threshold) {
     this.threshold = threshold;
   }
-  
+
+  public boolean isRecursive() {
+    return recursive;
+  }
+
+  /**
+   * @param recursive true to also check the children of each monitor whose latency is over the
+   *        threshold; only useful when those children are not processed here themselves
+   */
+  public void setRecursive(boolean recursive) {
+    this.recursive = recursive;
+  }
+
   protected GapHandler getGapHandler() {
     return gapHandler;
   }
 
   public static interface GapHandler {
-    public Monitor handleGap(TransactionMonitor parent, 
+    public Monitor handleGap(TransactionMonitor parent,
         TransactionMonitor leftChild, TransactionMonitor rightChild, long latencyGap);
   }
-  
+
   public static class EventFiringGapHandler implements GapHandler {
 
     @Override
@@ -121,8 +207,72 @@ public class LatencyMonitoringCoverageMonitorProcessor
       eventMonitor.set("rightChild", rightChild == null ? null : rightChild.get(Attribute.NAME));
       eventMonitor.set(Attribute.LATENCY, latencyGap);
       eventMonitor.fire();
-      
+
       return eventMonitor;
     }
   }
+
+  /**
+   * The coverage of the monitors of one name that were checked, in milliseconds
+   */
+  public static final class Coverage {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong latency = new AtomicLong();
+    private final AtomicLong uncovered = new AtomicLong();
+    private final AtomicLong maxGap = new AtomicLong();
+
+    void add(long latency, long uncovered, long gap) {
+      count.incrementAndGet();
+      this.latency.addAndGet(latency);
+      this.uncovered.addAndGet(uncovered);
+      long max;
+      do {
+        max = maxGap.get();
+      } while ((gap > max) && !maxGap.compareAndSet(max, gap));
+    }
+
+    /**
+     * @return the number of monitors checked
+     */
+    public long getCount() {
+      return count.get();
+    }
+
+    /**
+     * @return the total latency of the monitors checked
+     */
+    public long getLatency() {
+      return latency.get();
+    }
+
+    /**
+     * @return the total time in which none of their children were running
+     */
+    public long getUncovered() {
+      return uncovered.get();
+    }
+
+    /**
+     * @return the longest single gap
+     */
+    public long getMaxGap() {
+      return maxGap.get();
+    }
+  }
+
+  private static final class Span implements Comparable<Span> {
+    private final TransactionMonitor monitor;
+    private final long start;
+    private final long end;
+
+    Span(TransactionMonitor monitor, long start, long end) {
+      this.monitor = monitor;
+      this.start = start;
+      this.end = end;
+    }
+
+    public int compareTo(Span other) {
+      return (start < other.start) ? -1 : ((start == other.start) ? 0 : 1);
+    }
+  }
 }
@@ -1,27 +1,56 @@
 package com.orbitz.monitoring.lib.processor;
 
+import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
 
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * LocationAnnotatingMonitorProcessor adds an attribute named "stackTraceElement"
  * to the given Monitor.  The attribute's value is equal to StackTraceElement.toString()
  * for the first element that appears to identify the location of the ERMA API call.
- * We use the first element whose class name starts with "com.orbitz" but not
- * "com.orbitz.monitoring".
+ * We use the first element whose class name starts with one of the
+ * {@link #setIncludedPackages(List) included packages}, "com.orbitz" by default, but not one of
+ * the {@link #setExcludedPackages(List) excluded packages}, "com.orbitz.monitoring" by default.
+ * <p>
+ * Walking the stack is costly, so once the monitors of a name have been created from the same
+ * location {@link #setConfirmations(int) confirmations} times in a row, that location is reused
+ * for the name. One in every {@link #setVerifyInterval(int) verifyInterval} reuses walks the stack
+ * anyway; if that finds another location, the name is walked every time from then on. A name
+ * that starts being created from a new location may therefore be given its old location until the
+ * next check.
  *
  * @author Matt O'Keefe
  */
 public class LocationAnnotatingMonitorProcessor extends MonitorProcessorAdapter {
 
+  private static final int MAX_CACHED_NAMES = 1000;
+
+  private volatile String[] includedPackages = {"com.orbitz"};
+  private volatile String[] excludedPackages = {"com.orbitz.monitoring"};
+  private int confirmations = 3;
+  private int verifyInterval = 100;
+
+  private final ConcurrentMap<String, CallSite> callSites =
+      new ConcurrentHashMap<String, CallSite>();
+
   public void monitorCreated(Monitor monitor) {
-        
-    StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-    String attributeValue = null;
-    for (StackTraceElement stackTraceElement : stackTrace) {
-      String className = stackTraceElement.getClassName();
-      if (className.startsWith("com.orbitz") && !className.startsWith("com.orbitz.monitoring")) {
-        attributeValue = stackTraceElement.toString();
-        break;
+    String name = monitor.getAsString(Attribute.NAME);
+    CallSite callSite = (name == null) ? null : callSites.get(name);
+
+    String attributeValue;
+    if ((callSite != null) && callSite.isConfirmed(confirmations)
+        && !callSite.isDueForCheck(verifyInterval)) {
+      attributeValue = callSite.location;
+    } else {
+      attributeValue = findLocation();
+      if (callSite != null) {
+        callSite.seen(attributeValue);
+      } else if ((name != null) && (callSites.size() < MAX_CACHED_NAMES)) {
+        callSites.putIfAbsent(name, new CallSite(attributeValue));
       }
     }
     if (attributeValue != null) {
@@ -29,4 +58,101 @@ public class LocationAnnotatingMonitorProcessor extends MonitorProcessorAdapter
     }
   }
 
+  private String findLocation() {
+    String[] included = includedPackages;
+    String[] excluded = excludedPackages;
+    for (StackTraceElement stackTraceElement : Thread.currentThread().getStackTrace()) {
+      String className = stackTraceElement.getClassName();
+      if (startsWithAny(className, included) && !startsWithAny(className, excluded)) {
+        return stackTraceElement.toString();
+      }
+    }
+    return null;
+  }
+
+  private static boolean startsWithAny(String className, String[] prefixes) {
+    for (int i = 0; i < prefixes.length; i++) {
+      if (className.startsWith(prefixes[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param includedPackages the package or class name prefixes that identify application code
+   */
+  public void setIncludedPackages(List<String> includedPackages) {
+    this.includedPackages = includedPackages.toArray(new String[includedPackages.size()]);
+    callSites.clear();
+  }
+
+  /**
+   * @param excludedPackages prefixes of included code that should be skipped, such as wrappers
+   *        around the ERMA API
+   */
+  public void setExcludedPackages(List<String> excludedPackages) {
+    this.excludedPackages = excludedPackages.toArray(new String[excludedPackages.size()]);
+    callSites.clear();
+  }
+
+  public int getConfirmations() {
+    return confirmations;
+  }
+
+  /**
+   * @param confirmations how many times in a row a name must be created from the same location
+   *        before the location is reused without walking the stack
+   */
+  public void setConfirmations(int confirmations) {
+    this.confirmations = confirmations;
+  }
+
+  public int getVerifyInterval() {
+    return verifyInterval;
+  }
+
+  /**
+   * @param verifyInterval one in this many reuses of a confirmed location walks the stack to check
+   *        it is still right
+   */
+  public void setVerifyInterval(int verifyInterval) {
+    if (verifyInterval < 1) {
+      throw new IllegalArgumentException("verifyInterval must be at least 1");
+    }
+    this.verifyInterval = verifyInterval;
+  }
+
+  /**
+   * Where the monitors of one name have been created from
+   */
+  private static final class CallSite {
+    private final String location;
+    private final AtomicInteger seen = new AtomicInteger(1);
+    private final AtomicInteger reused = new AtomicInteger();
+    private volatile boolean varies;
+
+    CallSite(String location) {
+      this.location = location;
+    }
+
+    boolean isConfirmed(int confirmations) {
+      return !varies && (seen.get() >= confirmations);
+    }
+
+    boolean isDueForCheck(int verifyInterval) {
+      return reused.incrementAndGet() % verifyInterval == 0;
+    }
+
+    void seen(String other) {
+      if (varies) {
+        return;
+      }
+      if ((location == null) ? (other == null) : location.equals(other)) {
+        seen.incrementAndGet();
+      } else {
+        varies = true;
+      }
+    }
+  }
 }
@@ -1,19 +1,50 @@
 package com.orbitz.monitoring.lib.processor;
 
 import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.lib.logfile.RollingFileChannel;
 import com.orbitz.monitoring.lib.renderer.MonitorRenderer;
+import com.orbitz.monitoring.lib.renderer.MonitorSnapshot;
 import com.orbitz.monitoring.lib.renderer.SimpleMonitorRenderer;
+import com.orbitz.monitoring.lib.renderer.StreamingMonitorRenderer;
 
 import org.apache.log4j.Logger;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface 
  * that logs Monitor callback events to Log4j.
+ * <p>
+ * In {@link #setAsynchronous(boolean) asynchronous} mode the calling thread only takes a
+ * {@link MonitorSnapshot} of the monitor's attributes, class name and children, so the message
+ * shows the monitor as it was when it was logged, and enqueues it; a writer thread takes queued
+ * snapshots in batches, renders them and writes them either to log4j or, if a
+ * {@link #setLogFile(String) log file} is set, straight to a rolling file, so neither rendering,
+ * appender locks nor file writes are on the caller's path. Renderers that do not implement
+ * {@link StreamingMonitorRenderer} may not understand snapshots, so with those the caller renders
+ * the message and only enqueues it. When the queue is full the
+ * {@link #setOverflowPolicy(String) overflow policy} decides what happens to the monitor.
  *
  * @author Doug Barth
  */
-
+@ManagedResource(description = "Logs monitors, optionally from a background writer thread")
 public class LoggingMonitorProcessor extends MonitorProcessorAdapter {
+  private static final int MAX_RETAINED_BUFFER = 16 * 1024;
+  private static final int FILE_BUFFER_SIZE = 64 * 1024;
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+  /**
+   * What to do with a monitor when the asynchronous queue is full
+   */
+  public enum OverflowPolicy {
+    /** Drop the monitor and count it */
+    DISCARD,
+    /** Render and write the monitor on the calling thread */
+    CALLER_RUNS
+  }
 
   private Logger log;
 
@@ -23,9 +54,25 @@ public class LoggingMonitorProcessor extends MonitorProcessorAdapter {
   private boolean _includeStackTrace = false;
 
   private MonitorRenderer monitorRenderer;
+  private final ThreadLocal<StringBuilder> renderBuffer = new ThreadLocal<StringBuilder>() {
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder(512);
+    }
+  };
 
   private String _name;
 
+  private boolean _asynchronous = false;
+  private int _queueCapacity = 8192;
+  private int _batchSize = 256;
+  private String _logFile;
+  private long _maxFileSize = 10 * 1024 * 1024;
+  private int _maxBackupIndex = 5;
+  private boolean _memoryMapped = false;
+  private OverflowPolicy _overflowPolicy = OverflowPolicy.DISCARD;
+  private volatile AsyncLogWriter asyncWriter;
+
   public LoggingMonitorProcessor() {
     monitorRenderer = new SimpleMonitorRenderer();
   }
@@ -55,21 +102,103 @@ public class LoggingMonitorProcessor extends MonitorProcessorAdapter {
     return _logProcess;
   }
 
+  public boolean isAsynchronous() {
+    return _asynchronous;
+  }
+
+  public int getBatchSize() {
+    return _batchSize;
+  }
+
+  public String getLogFile() {
+    return _logFile;
+  }
+
+  public long getMaxFileSize() {
+    return _maxFileSize;
+  }
+
+  public int getMaxBackupIndex() {
+    return _maxBackupIndex;
+  }
+
+  public boolean isMemoryMapped() {
+    return _memoryMapped;
+  }
+
+  /**
+   * @return the name of the {@link OverflowPolicy}
+   */
+  @ManagedAttribute(description = "What happens to a monitor when the queue is full: "
+      + "DISCARD or CALLER_RUNS")
+  public String getOverflowPolicy() {
+    return _overflowPolicy.name();
+  }
+
+  @ManagedAttribute(description = "The number of monitors waiting to be written")
+  public int getQueueSize() {
+    AsyncLogWriter writer = asyncWriter;
+    return (writer == null) ? 0 : writer.getQueueSize();
+  }
+
+  @ManagedAttribute(description = "The number of monitors that may wait to be written")
+  public int getQueueCapacity() {
+    AsyncLogWriter writer = asyncWriter;
+    return (writer == null) ? _queueCapacity : writer.getQueueCapacity();
+  }
+
+  @ManagedAttribute(description = "The number of monitors queued since startup")
+  public long getTotalEnqueued() {
+    AsyncLogWriter writer = asyncWriter;
+    return (writer == null) ? 0 : writer.getEnqueued();
+  }
+
+  @ManagedAttribute(description = "The number of monitors written by the writer thread or, "
+      + "under CALLER_RUNS, by callers that found the queue full")
+  public long getTotalWritten() {
+    AsyncLogWriter writer = asyncWriter;
+    return (writer == null) ? 0 : writer.getWritten();
+  }
+
+  @ManagedAttribute(description = "The number of monitors dropped because the queue was full")
+  public long getTotalDropped() {
+    AsyncLogWriter writer = asyncWriter;
+    return (writer == null) ? 0 : writer.getDropped();
+  }
+
+  @ManagedAttribute(description = "The number of monitors that failed to render or write")
+  public long getTotalFailed() {
+    AsyncLogWriter writer = asyncWriter;
+    return (writer == null) ? 0 : writer.getFailed();
+  }
+
+  @ManagedAttribute(description = "The number of batches written")
+  public long getTotalBatches() {
+    AsyncLogWriter writer = asyncWriter;
+    return (writer == null) ? 0 : writer.getBatches();
+  }
+
+  @ManagedAttribute(description = "The number of times the log file has been rolled")
+  public long getTotalRollovers() {
+    AsyncLogWriter writer = asyncWriter;
+    return (writer == null) ? 0 : writer.getRollovers();
+  }
+
   public void monitorCreated(Monitor monitor) {
-    if (isLogMonitorCreated()) {
-      log.info("monitorCreated: " + renderMonitor(monitor));
+    if (isLogMonitorCreated() && log.isInfoEnabled()) {
+      logMonitor("monitorCreated: ", monitor);
     }
   }
 
   public void monitorStarted(Monitor monitor) {
-    if (isLogMonitorStarted()) {
-      log.info("monitorStarted: " + renderMonitor(monitor));
+    if (isLogMonitorStarted() && log.isInfoEnabled()) {
+      logMonitor("monitorStarted: ", monitor);
     }
   }
 
   public void process(Monitor monitor) {
-    if (isLogProcess()) {
-      log.info("process: " + renderMonitor(monitor));
+    if (isLogProcess() && log.isInfoEnabled()) {
+      logMonitor("process: ", monitor);
     }
   }
 
@@ -97,17 +226,144 @@ public class LoggingMonitorProcessor extends MonitorProcessorAdapter {
     this.monitorRenderer = monitorRenderer;
   }
 
+  /**
+   * Takes effect on the next {@link #startup()}
+   * @param asynchronous true to log from a background writer thread
+   */
+  public void setAsynchronous(boolean asynchronous) {
+    _asynchronous = asynchronous;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    _queueCapacity = queueCapacity;
+  }
+
+  public void setBatchSize(int batchSize) {
+    _batchSize = batchSize;
+  }
+
+  /**
+   * Sets a file for the writer thread to write to instead of log4j. Only used in asynchronous
+   * mode; each line is the time the monitor was queued followed by the message.
+   * @param logFile the path of the file
+   */
+  public void setLogFile(String logFile) {
+    _logFile = logFile;
+  }
+
+  public void setMaxFileSize(long maxFileSize) {
+    _maxFileSize = maxFileSize;
+  }
+
+  public void setMaxBackupIndex(int maxBackupIndex) {
+    _maxBackupIndex = maxBackupIndex;
+  }
+
+  /**
+   * @param memoryMapped true to write the log file through a memory mapping
+   */
+  public void setMemoryMapped(boolean memoryMapped) {
+    _memoryMapped = memoryMapped;
+  }
+
+  /**
+   * @param overflowPolicy the name of an {@link OverflowPolicy}
+   */
+  @ManagedAttribute(description = "Sets what happens to a monitor when the queue is full: "
+      + "DISCARD or CALLER_RUNS")
+  public void setOverflowPolicy(String overflowPolicy) {
+    _overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+  }
+
   public void shutdown() {
-    // No-op
+    AsyncLogWriter writer = asyncWriter;
+    if (writer != null) {
+      // the stopped writer is kept so its counters can still be read
+      writer.stop(SHUTDOWN_TIMEOUT_MILLIS);
+    }
   }
 
   // ** PUBLIC METHODS ******************************************************
   public void startup() {
     log = Logger.getLogger(getClass());
+
+    if (_asynchronous && (asyncWriter == null || asyncWriter.isStopped())) {
+      RollingFileChannel file = null;
+      if (_logFile != null) {
+        try {
+          file = new RollingFileChannel(new File(_logFile), _maxFileSize, _maxBackupIndex,
+              _memoryMapped, FILE_BUFFER_SIZE);
+        } catch (IOException e) {
+          log.error("Failed to open " + _logFile + "; logging to log4j instead", e);
+        }
+      }
+      String threadName = "erma-logging-" + ((_name == null) ? "writer" : _name);
+      AsyncLogWriter writer = new AsyncLogWriter(threadName, _queueCapacity, _batchSize, log,
+          file);
+      writer.start();
+      asyncWriter = writer;
+    }
   }
 
   // ** PRIVATE METHODS *****************************************************
-  private String renderMonitor(Monitor monitor) {
-    return monitorRenderer.renderMonitor(monitor, _includeStackTrace);
+  private void logMonitor(String prefix, Monitor monitor) {
+    AsyncLogWriter writer = asyncWriter;
+    if (writer == null || writer.isStopped()) {
+      log.info(renderMonitor(prefix, monitor));
+      return;
+    }
+
+    MonitorRenderer renderer = monitorRenderer;
+    String message = null;
+    boolean queued;
+    if (renderer instanceof StreamingMonitorRenderer) {
+      queued = writer.offer(prefix, MonitorSnapshot.of(monitor),
+          (StreamingMonitorRenderer) renderer, _includeStackTrace);
+    } else {
+      message = renderMonitor(prefix, monitor);
+      queued = writer.offer(message);
+    }
+    if (queued) {
+      return;
+    }
+    if (writer.isStopped()) {
+      // stopped since the check above
+      log.info((message == null) ? renderMonitor(prefix, monitor) : message);
+    } else if (_overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+      writer.writeNow((message == null) ? renderMonitor(prefix, monitor) : message);
+    } else {
+      writer.recordDropped();
+    }
+  }
+
+  private void appendMonitor(String prefix, Monitor monitor, StringBuilder buffer) {
+    buffer.append(prefix);
+    if (monitorRenderer instanceof StreamingMonitorRenderer) {
+      ((StreamingMonitorRenderer) monitorRenderer).renderMonitor(monitor, _includeStackTrace,
+          buffer);
+    } else {
+      buffer.append(monitorRenderer.renderMonitor(monitor, _includeStackTrace));
+    }
+  }
+
+  /**
+   * Renders a log message. Renderers that implement {@link StreamingMonitorRenderer} write into a
+   * per-thread buffer after the prefix, so the only String created is the message itself.
+   */
+  private String renderMonitor(String prefix, Monitor monitor) {
+    if (!(monitorRenderer instanceof StreamingMonitorRenderer)) {
+      return prefix + monitorRenderer.renderMonitor(monitor, _includeStackTrace);
+    }
+
+    StringBuilder buffer = renderBuffer.get();
+    buffer.setLength(0);
+    appendMonitor(prefix, monitor, buffer);
+    String message = buffer.toString();
+
+    if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+      // don't pin the memory of one unusually large monitor to the thread
+      renderBuffer.remove();
+    }
+    return message;
   }
 }
@@ -0,0 +1,62 @@
+package com.orbitz.monitoring.lib.processor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Summaries kept per monitor name until they are drained by a timer task. To bound memory when
+ * names are generated, no more than {@link #MAX_NAMES} names are summarized between drains;
+ * monitors of further names are not counted.
+ *
+ * @param <T> the type of summary, which must be safe to update from several threads
+ */
+abstract class PerNameSummaries<T> {
+  static final int MAX_NAMES = 1000;
+
+  private final ConcurrentMap<String, T> byName = new ConcurrentHashMap<String, T>();
+
+  /**
+   * @return a new, empty summary
+   */
+  protected abstract T create();
+
+  /**
+   * Gets the summary of a name, starting one if there is room
+   * @param name the monitor name, which may be null
+   * @return the summary, or null if the name is null or there are already too many names
+   */
+  T get(String name) {
+    if (name == null) {
+      return null;
+    }
+    T summary = byName.get(name);
+    if (summary == null) {
+      if (byName.size() >= MAX_NAMES) {
+        return null;
+      }
+      summary = create();
+      T existing = byName.putIfAbsent(name, summary);
+      if (existing != null) {
+        summary = existing;
+      }
+    }
+    return summary;
+  }
+
+  /**
+   * Removes the summaries gathered so far, so counting starts afresh
+   * @return the summaries, keyed by monitor name
+   */
+  Map<String, T> drain() {
+    Map<String, T> drained = new HashMap<String, T>();
+    for (String name : byName.keySet()) {
+      T summary = byName.remove(name);
+      if (summary != null) {
+        drained.put(name, summary);
+      }
+    }
+    return drained;
+  }
+}
@@ -4,13 +4,25 @@ import com.orbitz.monitoring.api.Monitor;
 
 import org.apache.log4j.Logger;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * MonitorSampler that accepts a defined percentage of all monitors
+ * MonitorSampler that accepts a defined percentage of all monitors. Monitors are counted without
+ * locking, and each one is accepted if doing so keeps the share accepted so far at or below the
+ * target, so a 50% sampler accepts every other monitor.
+ * <p>
+ * Names can be given rates of their own, each with its own count. When a
+ * {@link #setTraceAttribute(String) trace attribute} is set, monitors carrying it are instead
+ * accepted by a hash of its value, so every node with the same rate keeps or drops all monitors
+ * of a request together.
  *
  * @author Greg Opaczewski
  */
@@ -19,49 +31,47 @@ public class PercentageMonitorSampler implements MonitorSampler {
 
   private static final Logger logger = Logger.getLogger(PercentageMonitorSampler.class.getName());
 
-  private float sampleRate;
-
-  private Lock sampleRateLock = new ReentrantLock();
-  private int populationCount;
-  private int sampledCount;
+  private volatile Rate rate;
+  private volatile Map<String, Rate> nameRates = Collections.emptyMap();
+  private volatile String traceAttribute;
 
   public PercentageMonitorSampler(float samplePercentage) {
     setSamplePercentageInternal(samplePercentage);
   }
 
   /**
-   * Accepts the given monitor if that current sample percentage is less than the target sample 
+   * Accepts the given monitor if that current sample percentage is less than the target sample
    * rate.
    *
    * @param monitor monitor instance
    * @return true if the monitor should be accepted in the sample
    */
   public boolean accept(Monitor monitor) {
-    sampleRateLock.lock();
-    boolean shouldAccept;
-    float actualRate;
-
-    try {
-      if (populationCount == Integer.MAX_VALUE) {
-        populationCount = 0;
-        sampledCount = 0;
+    Rate rate = this.rate;
+    Map<String, Rate> nameRates = this.nameRates;
+    if (!nameRates.isEmpty() && monitor.hasAttribute(Monitor.NAME)) {
+      Rate nameRate = nameRates.get(monitor.getAsString(Monitor.NAME));
+      if (nameRate != null) {
+        rate = nameRate;
       }
+    }
 
-      populationCount++;
-
-      actualRate = (sampledCount / ((float)populationCount));
-      shouldAccept = (actualRate < sampleRate);
-      if (shouldAccept) {
-        sampledCount++;
-      }
-    } finally {
-      sampleRateLock.unlock();
+    boolean shouldAccept;
+    String traceAttribute = this.traceAttribute;
+    Object traceId = null;
+    if ((traceAttribute != null) && monitor.hasAttribute(traceAttribute)) {
+      traceId = monitor.get(traceAttribute);
+    }
+    if (traceId != null) {
+      shouldAccept = rate.accept(traceId.toString());
+    } else {
+      shouldAccept = rate.accept();
     }
 
     if (logger.isDebugEnabled()) {
-      logger.debug((shouldAccept ? "ACCEPTED" : "REJECTED") + " monitor \"" 
-          + monitor.get(Monitor.NAME) + "\" due to actual sample rate of " + actualRate 
-          + " and target " + this.sampleRate);
+      logger.debug((shouldAccept ? "ACCEPTED" : "REJECTED") + " monitor \""
+          + monitor.get(Monitor.NAME) + "\" at target " + rate.rate
+          + ((traceId != null) ? " for trace " + traceId : ""));
     }
 
     return shouldAccept;
@@ -78,31 +88,132 @@ public class PercentageMonitorSampler implements MonitorSampler {
   public void setSamplePercentage(float samplePercentage) {
     float previousRate = getSamplePercentage();
     setSamplePercentageInternal(samplePercentage);
-    logger.info("Sampling percentage successfully changed from " + previousRate + " => " 
+    logger.info("Sampling percentage successfully changed from " + previousRate + " => "
         + samplePercentage);
   }
 
   @ManagedAttribute(description = "Get the sampling rate as a percentage.")
   public float getSamplePercentage() {
-    return this.sampleRate * 100.0f;
+    return this.rate.rate * 100.0f;
   }
 
-  private void setSamplePercentageInternal(float samplePercentage) {
-    validateSamplePercentage(samplePercentage);
-
-    sampleRateLock.lock();
-    try {
-      this.sampleRate = samplePercentage / 100.0f;
-      this.populationCount = 0;
-      this.sampledCount = 0;
-    } finally {
-      sampleRateLock.unlock();
+  /**
+   * Gives a monitor name a sampling rate of its own, replacing any it had
+   * @param name the monitor name
+   * @param samplePercentage sample rate as percentage
+   */
+  @ManagedOperation(description = "Set the sampling rate, as a percentage, for one monitor name")
+  @ManagedOperationParameters({
+      @ManagedOperationParameter(name = "name", description = "the monitor name"),
+      @ManagedOperationParameter(name = "samplePercentage", description = "0 to 100")})
+  public synchronized void setNamePercentage(String name, float samplePercentage) {
+    Map<String, Rate> rates = new HashMap<String, Rate>(nameRates);
+    rates.put(name, new Rate(samplePercentage));
+    nameRates = rates;
+  }
+
+  /**
+   * Makes a monitor name use the overall sampling rate again
+   * @param name the monitor name
+   */
+  @ManagedOperation(description = "Make a monitor name use the overall sampling rate again")
+  @ManagedOperationParameters({
+      @ManagedOperationParameter(name = "name", description = "the monitor name")})
+  public synchronized void removeNamePercentage(String name) {
+    if (nameRates.containsKey(name)) {
+      Map<String, Rate> rates = new HashMap<String, Rate>(nameRates);
+      rates.remove(name);
+      nameRates = rates;
+    }
+  }
+
+  /**
+   * @return the sampling percentage of each name that has its own
+   */
+  public Map<String, Float> getNamePercentages() {
+    Map<String, Float> percentages = new HashMap<String, Float>();
+    for (Map.Entry<String, Rate> entry : nameRates.entrySet()) {
+      percentages.put(entry.getKey(), entry.getValue().rate * 100.0f);
+    }
+    return percentages;
+  }
+
+  /**
+   * Replaces the names that have sampling rates of their own
+   * @param namePercentages sample rate as percentage, by monitor name
+   */
+  public synchronized void setNamePercentages(Map<String, Float> namePercentages) {
+    Map<String, Rate> rates = new HashMap<String, Rate>();
+    for (Map.Entry<String, Float> entry : namePercentages.entrySet()) {
+      rates.put(entry.getKey(), new Rate(entry.getValue().floatValue()));
     }
+    nameRates = rates;
+  }
+
+  @ManagedAttribute(description = "The attribute whose value decides sampling, if any")
+  public String getTraceAttribute() {
+    return traceAttribute;
+  }
+
+  /**
+   * Samples monitors carrying an attribute, such as a request ID, by a hash of its value rather
+   * than by count. For a request to be kept or dropped as a whole, every node and every name in
+   * it should have the same rate.
+   * @param traceAttribute the attribute, or null to sample every monitor by count
+   */
+  @ManagedAttribute(description = "The attribute whose value decides sampling, if any")
+  public void setTraceAttribute(String traceAttribute) {
+    this.traceAttribute = traceAttribute;
+  }
+
+  private void setSamplePercentageInternal(float samplePercentage) {
+    this.rate = new Rate(samplePercentage);
   }
 
-  private void validateSamplePercentage(float samplePercentage) {
-    if ((samplePercentage < 0.0f) || (samplePercentage > 100.0f)) {
-      throw new IllegalArgumentException("samplePercentage must be between 0 and 100");
+  /**
+   * A target rate and the count of monitors sampled at it
+   */
+  private static final class Rate {
+    private static final long PARTS = 1000000;
+
+    private final float rate;
+    // the rate in parts per million, so the count is exact integer arithmetic
+    private final long parts;
+    private final AtomicLong population = new AtomicLong();
+
+    Rate(float samplePercentage) {
+      if ((samplePercentage < 0.0f) || (samplePercentage > 100.0f)) {
+        throw new IllegalArgumentException("samplePercentage must be between 0 and 100");
+      }
+      this.rate = samplePercentage / 100.0f;
+      this.parts = Math.round(samplePercentage * (PARTS / 100));
+    }
+
+    /**
+     * Accepts the nth monitor if the number accepted out of n, the ceiling of n * rate, goes up.
+     * The pattern repeats every million monitors, so only n modulo a million matters.
+     */
+    boolean accept() {
+      long n = (population.incrementAndGet() - 1) % PARTS + 1;
+      return ceilParts(n * parts) > ceilParts((n - 1) * parts);
+    }
+
+    private static long ceilParts(long value) {
+      return (value + PARTS - 1) / PARTS;
+    }
+
+    /**
+     * Accepts a trace if its hash, spread over [0, 1), falls below the rate. String.hashCode is
+     * the same on every JVM, so every node decides the same way.
+     */
+    boolean accept(String traceId) {
+      long hash = traceId.hashCode();
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 33;
+      hash *= 0xc4ceb9fe1a85ec53L;
+      hash ^= hash >>> 33;
+      return (hash >>> 11) * 0x1.0p-53 < rate;
     }
   }
 }
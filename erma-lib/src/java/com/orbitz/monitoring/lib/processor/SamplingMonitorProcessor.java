@@ -0,0 +1,76 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+
+/**
+ * Passes to a processor only the completed monitors a {@link MonitorSampler} accepts, so a
+ * processor that takes no sampler of its own can still be sampled. Creation and start calls are
+ * passed on unsampled, since monitors only carry their outcome once they are processed.
+ */
+public class SamplingMonitorProcessor implements MonitorProcessor {
+  private String _name;
+  private MonitorProcessor _processor;
+  private MonitorSampler _sampler;
+
+  /**
+   * Creates a sampling processor; the processor and sampler must be set before use
+   */
+  public SamplingMonitorProcessor() {
+  }
+
+  /**
+   * @param processor the processor to pass accepted monitors to
+   * @param sampler decides which monitors are processed
+   */
+  public SamplingMonitorProcessor(MonitorProcessor processor, MonitorSampler sampler) {
+    _processor = processor;
+    _sampler = sampler;
+  }
+
+  public void startup() {
+    _processor.startup();
+  }
+
+  public void shutdown() {
+    _processor.shutdown();
+  }
+
+  public void monitorCreated(Monitor monitor) {
+    _processor.monitorCreated(monitor);
+  }
+
+  public void monitorStarted(Monitor monitor) {
+    _processor.monitorStarted(monitor);
+  }
+
+  public void process(Monitor monitor) {
+    if (_sampler.accept(monitor)) {
+      _processor.process(monitor);
+    }
+  }
+
+  public String getName() {
+    return (_name != null) ? _name : _processor.getName();
+  }
+
+  public void setName(String name) {
+    _name = name;
+  }
+
+  public MonitorProcessor getProcessor() {
+    return _processor;
+  }
+
+  public void setProcessor(MonitorProcessor processor) {
+    _processor = processor;
+  }
+
+  public MonitorSampler getSampler() {
+    return _sampler;
+  }
+
+  public void setSampler(MonitorSampler sampler) {
+    _sampler = sampler;
+  }
+}
@@ -0,0 +1,338 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+
+import org.apache.log4j.Logger;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MonitorSampler that keeps the monitors worth looking at and a bounded share of the rest. A
+ * monitor is accepted, in order of preference, if:
+ * <ol>
+ * <li>it {@link Attribute#FAILED failed}</li>
+ * <li>its {@link Attribute#LATENCY latency} is above the
+ * {@link #getLatencyPercentile() latencyPercentile} of its name over the previous interval</li>
+ * <li>its name has not yet had {@link #getReservoirSize() reservoirSize} monitors accepted this
+ * interval</li>
+ * <li>fewer than {@link #getBudgetPerSecond() budgetPerSecond} other monitors have been accepted
+ * this second</li>
+ * </ol>
+ * Since each monitor is decided as it is processed, a name's reservoir is not filled by
+ * replacement but spread evenly over the number of monitors the name had in the previous interval,
+ * so busy names are represented across the whole interval rather than by their first few monitors.
+ * A latency threshold is only used once a name has had {@link #getMinOutlierSamples()
+ * minOutlierSamples} monitors in an interval.
+ */
+@ManagedResource(description = "Keeps failures and slow monitors, and samples the rest")
+public class TailBiasedMonitorSampler implements MonitorSampler {
+  private static final Logger logger = Logger.getLogger(TailBiasedMonitorSampler.class);
+
+  private long intervalMillis = 10000;
+  private int reservoirSize = 10;
+  private double latencyPercentile = 99;
+  private int minOutlierSamples = 100;
+  private int budgetPerSecond = 100;
+  private int maxNames = 1000;
+
+  private final ConcurrentMap<String, NameStats> statsByName =
+      new ConcurrentHashMap<String, NameStats>();
+
+  private volatile long budgetSecond = -1;
+  private final AtomicInteger budgetUsed = new AtomicInteger();
+
+  private final AtomicLong failuresAccepted = new AtomicLong();
+  private final AtomicLong outliersAccepted = new AtomicLong();
+  private final AtomicLong reservoirAccepted = new AtomicLong();
+  private final AtomicLong budgetAccepted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  public boolean accept(Monitor monitor) {
+    if (monitor.getAsBoolean(Attribute.FAILED, false)) {
+      failuresAccepted.incrementAndGet();
+      return true;
+    }
+
+    long now = currentTimeMillis();
+    // getAsString throws for a missing attribute
+    NameStats stats = monitor.hasAttribute(Attribute.NAME)
+        ? statsFor(monitor.getAsString(Attribute.NAME)) : null;
+    if (stats != null) {
+      stats.roll(now / intervalMillis);
+      double latency = monitor.getAsDouble(Attribute.LATENCY, -1);
+      if (latency >= 0) {
+        long micros = (long)(latency * 1000);
+        if (micros >= stats.threshold) {
+          stats.record(micros);
+          outliersAccepted.incrementAndGet();
+          return true;
+        }
+        stats.record(micros);
+      }
+      if (stats.takeReservoirSlot(reservoirSize)) {
+        reservoirAccepted.incrementAndGet();
+        return true;
+      }
+    }
+
+    if (takeBudget(now / 1000)) {
+      budgetAccepted.incrementAndGet();
+      return true;
+    }
+    rejected.incrementAndGet();
+    return false;
+  }
+
+  private NameStats statsFor(String name) {
+    NameStats stats = statsByName.get(name);
+    if (stats == null) {
+      if (statsByName.size() >= maxNames) {
+        return null;
+      }
+      stats = new NameStats();
+      NameStats existing = statsByName.putIfAbsent(name, stats);
+      if (existing != null) {
+        stats = existing;
+      }
+    }
+    return stats;
+  }
+
+  private boolean takeBudget(long second) {
+    if (budgetSecond != second) {
+      synchronized (budgetUsed) {
+        if (budgetSecond != second) {
+          budgetUsed.set(0);
+          budgetSecond = second;
+        }
+      }
+    }
+    return budgetUsed.incrementAndGet() <= budgetPerSecond;
+  }
+
+  /**
+   * Hook for tests
+   * @return the current time in milliseconds
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Gets the latency at or above which monitors of a name are kept as outliers
+   * @param name the monitor name
+   * @return the threshold in milliseconds, or -1 if the name has none yet
+   */
+  public double getLatencyThreshold(String name) {
+    NameStats stats = statsByName.get(name);
+    if ((stats == null) || (stats.threshold == Long.MAX_VALUE)) {
+      return -1;
+    }
+    return stats.threshold / 1000.0;
+  }
+
+  @ManagedOperation(description = "Forget the latencies and volumes seen for every name")
+  public void reset() {
+    statsByName.clear();
+    logger.info("Sampling statistics reset");
+  }
+
+  @ManagedAttribute(description = "The number of names being tracked")
+  public int getTrackedNames() {
+    return statsByName.size();
+  }
+
+  @ManagedAttribute(description = "Failed monitors accepted")
+  public long getFailuresAccepted() {
+    return failuresAccepted.get();
+  }
+
+  @ManagedAttribute(description = "Monitors accepted for exceeding their latency threshold")
+  public long getOutliersAccepted() {
+    return outliersAccepted.get();
+  }
+
+  @ManagedAttribute(description = "Monitors accepted into their name's reservoir")
+  public long getReservoirAccepted() {
+    return reservoirAccepted.get();
+  }
+
+  @ManagedAttribute(description = "Monitors accepted within the per second budget")
+  public long getBudgetAccepted() {
+    return budgetAccepted.get();
+  }
+
+  @ManagedAttribute(description = "Monitors rejected")
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  @ManagedAttribute(description = "The length of a sampling interval in milliseconds")
+  public long getIntervalMillis() {
+    return intervalMillis;
+  }
+
+  @ManagedAttribute(description = "The length of a sampling interval in milliseconds")
+  public void setIntervalMillis(long intervalMillis) {
+    if (intervalMillis <= 0) {
+      throw new IllegalArgumentException("intervalMillis must be positive");
+    }
+    this.intervalMillis = intervalMillis;
+  }
+
+  @ManagedAttribute(description = "Monitors kept per name per interval")
+  public int getReservoirSize() {
+    return reservoirSize;
+  }
+
+  @ManagedAttribute(description = "Monitors kept per name per interval")
+  public void setReservoirSize(int reservoirSize) {
+    this.reservoirSize = reservoirSize;
+  }
+
+  @ManagedAttribute(description = "The latency percentile, per name, above which all are kept")
+  public double getLatencyPercentile() {
+    return latencyPercentile;
+  }
+
+  /**
+   * @param latencyPercentile from 0 to 100; latencies above this percentile of the previous
+   *        interval are always kept
+   */
+  @ManagedAttribute(description = "The latency percentile, per name, above which all are kept")
+  public void setLatencyPercentile(double latencyPercentile) {
+    if ((latencyPercentile < 0) || (latencyPercentile > 100)) {
+      throw new IllegalArgumentException("latencyPercentile must be between 0 and 100");
+    }
+    this.latencyPercentile = latencyPercentile;
+  }
+
+  @ManagedAttribute(description = "Monitors a name needs in an interval to get a threshold")
+  public int getMinOutlierSamples() {
+    return minOutlierSamples;
+  }
+
+  @ManagedAttribute(description = "Monitors a name needs in an interval to get a threshold")
+  public void setMinOutlierSamples(int minOutlierSamples) {
+    this.minOutlierSamples = minOutlierSamples;
+  }
+
+  @ManagedAttribute(description = "Other monitors kept per second across all names")
+  public int getBudgetPerSecond() {
+    return budgetPerSecond;
+  }
+
+  @ManagedAttribute(description = "Other monitors kept per second across all names")
+  public void setBudgetPerSecond(int budgetPerSecond) {
+    this.budgetPerSecond = budgetPerSecond;
+  }
+
+  @ManagedAttribute(description = "The most names tracked; others only share the budget")
+  public int getMaxNames() {
+    return maxNames;
+  }
+
+  @ManagedAttribute(description = "The most names tracked; others only share the budget")
+  public void setMaxNames(int maxNames) {
+    this.maxNames = maxNames;
+  }
+
+  /**
+   * The latencies and volume of one name. Latencies, in microseconds, are counted in buckets four
+   * to each power of two, and the threshold is the top of the bucket holding the percentile, so
+   * it is at most a quarter above the true percentile.
+   */
+  private final class NameStats {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLong latencies = new AtomicLong();
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicInteger kept = new AtomicInteger();
+    private volatile long epoch = -1;
+    private volatile long previousCount;
+    private volatile long threshold = Long.MAX_VALUE;
+
+    void roll(long currentEpoch) {
+      if (epoch == currentEpoch) {
+        return;
+      }
+      synchronized (this) {
+        if (epoch == currentEpoch) {
+          return;
+        }
+        long total = latencies.getAndSet(0);
+        threshold = (total >= minOutlierSamples) ? percentile(total) : Long.MAX_VALUE;
+        for (int i = 0; i < BUCKETS; i++) {
+          histogram.set(i, 0);
+        }
+        // an interval with no monitors at all says nothing about the next one
+        previousCount = (epoch == currentEpoch - 1) ? count.getAndSet(0) : 0;
+        count.set(0);
+        kept.set(0);
+        epoch = currentEpoch;
+      }
+    }
+
+    void record(long micros) {
+      histogram.incrementAndGet(bucket(micros));
+      latencies.incrementAndGet();
+    }
+
+    /**
+     * Accepts the nth monitor of the interval when the share of the reservoir due by n goes up,
+     * assuming the interval sees as many monitors as the last one
+     */
+    boolean takeReservoirSlot(int size) {
+      long n = count.incrementAndGet();
+      long expected = previousCount;
+      if ((expected > size) && ((n * size) / expected == ((n - 1) * size) / expected)) {
+        return false;
+      }
+      if (kept.incrementAndGet() > size) {
+        kept.decrementAndGet();
+        return false;
+      }
+      return true;
+    }
+
+    private long percentile(long total) {
+      long rank = (long)Math.ceil(total * latencyPercentile / 100);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += histogram.get(i);
+        if ((seen >= rank) && (seen > 0)) {
+          // above the whole bucket, so a name whose latencies barely vary keeps none as outliers
+          return (i + 1 < BUCKETS) ? lowerBound(i + 1) : Long.MAX_VALUE;
+        }
+      }
+      return Long.MAX_VALUE;
+    }
+
+    private int bucket(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int)value;
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+      return (shift + 1) * SUB_BUCKETS + (int)((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private long lowerBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      int shift = bucket / SUB_BUCKETS - 1;
+      return ((long)(SUB_BUCKETS + bucket % SUB_BUCKETS)) << shift;
+    }
+  }
+}
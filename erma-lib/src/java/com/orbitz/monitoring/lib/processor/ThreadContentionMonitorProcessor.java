@@ -1,5 +1,6 @@
 package com.orbitz.monitoring.lib.processor;
 
+import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.monitor.TransactionMonitor;
 
@@ -10,13 +11,21 @@ import org.springframework.jmx.export.annotation.ManagedResource;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
- * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface 
- * that reports synchronization statistics for the current thread within the scope of a 
+ * This is an implementation of the {@link com.orbitz.monitoring.api.MonitorProcessor} interface
+ * that reports synchronization statistics for the current thread within the scope of a
  * TransactionMonitor.
  * <br/>
- * Metrics are derived from java.lang.management.ThreadInfo.
+ * Metrics are derived from java.lang.management.ThreadInfo. Since getting a ThreadInfo is not
+ * cheap, only one in every {@link #getSampleInterval() sampleInterval} transactions is measured.
+ * The blocked and waited times of measured transactions are counted per name in histograms until
+ * {@link #drainContention()} is called, which
+ * {@link com.orbitz.monitoring.lib.timertask.ThreadContentionTimerTask} does to fire periodic
+ * summaries.
  *
  * @author Matt O'Keefe
  *
@@ -29,14 +38,27 @@ public class ThreadContentionMonitorProcessor
 
   private static final Logger log = Logger.getLogger(ThreadContentionMonitorProcessor.class);
 
+  private static final ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
+
   private boolean enabled = false;
 
+  private final TransactionSampler sampler = new TransactionSampler();
+
+  private final PerNameSummaries<Contention> contentionByName =
+      new PerNameSummaries<Contention>() {
+        @Override
+        protected Contention create() {
+          return new Contention();
+        }
+      };
+
   // ** PUBLIC METHODS ******************************************************
   public void monitorStarted(Monitor monitor) {
     if (enabled && monitor instanceof  TransactionMonitor) {
-      ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
-      long id = Thread.currentThread().getId();
-      ThreadInfo threadInfo = tmxbean.getThreadInfo(id);
+      if (!sampler.sample()) {
+        return;
+      }
+      ThreadInfo threadInfo = tmxbean.getThreadInfo(Thread.currentThread().getId());
       monitor.set("startBlockedCount", threadInfo.getBlockedCount());
       monitor.set("startBlockedTime", threadInfo.getBlockedTime());
       monitor.set("startWaitedCount", threadInfo.getWaitedCount());
@@ -46,22 +68,36 @@ public class ThreadContentionMonitorProcessor
 
   public void process(Monitor monitor) {
     if (enabled && monitor instanceof  TransactionMonitor) {
-      if (monitor.hasAttribute("startBlockedCount") 
-          && monitor.hasAttribute("startBlockedCount") 
-          && monitor.hasAttribute("startBlockedCount") 
-          && monitor.hasAttribute("startBlockedCount")) {
+      if (monitor.hasAttribute("startBlockedCount")
+          && monitor.hasAttribute("startBlockedTime")
+          && monitor.hasAttribute("startWaitedCount")
+          && monitor.hasAttribute("startWaitedTime")) {
         TransactionMonitor tMon = (TransactionMonitor) monitor;
-        ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();      
-        long id = Thread.currentThread().getId();
-        ThreadInfo thInfo = tmxbean.getThreadInfo(id);
-        tMon.set("blockedCount", thInfo.getBlockedCount() - tMon.getAsLong("startBlockedCount"));
-        tMon.set("blockedTime",  thInfo.getBlockedTime()  - tMon.getAsLong("startBlockedTime"));
-        tMon.set("waitedCount",  thInfo.getWaitedCount()  - tMon.getAsLong("startWaitedCount"));
-        tMon.set("waitedTime",   thInfo.getWaitedTime()   - tMon.getAsLong("startWaitedTime"));
+        ThreadInfo thInfo = tmxbean.getThreadInfo(Thread.currentThread().getId());
+        long blockedCount = thInfo.getBlockedCount() - tMon.getAsLong("startBlockedCount");
+        long blockedTime = thInfo.getBlockedTime() - tMon.getAsLong("startBlockedTime");
+        long waitedCount = thInfo.getWaitedCount() - tMon.getAsLong("startWaitedCount");
+        long waitedTime = thInfo.getWaitedTime() - tMon.getAsLong("startWaitedTime");
+        tMon.set("blockedCount", blockedCount);
+        tMon.set("blockedTime",  blockedTime);
+        tMon.set("waitedCount",  waitedCount);
+        tMon.set("waitedTime",   waitedTime);
+        Contention contention = contentionByName.get(tMon.getAsString(Attribute.NAME));
+        if (contention != null) {
+          contention.add(blockedCount, blockedTime, waitedCount, waitedTime);
+        }
       }
     }
   }
 
+  /**
+   * Gets the contention of each name measured since the last call, and starts counting afresh
+   * @return the contention, keyed by monitor name
+   */
+  public Map<String, Contention> drainContention() {
+    return contentionByName.drain();
+  }
+
   /**
    * @return boolean
    */
@@ -75,7 +111,6 @@ public class ThreadContentionMonitorProcessor
    */
   @ManagedAttribute(description = "set to true to enable this MonitorProcessor")
   public void setEnabled(boolean enabled) {
-    ThreadMXBean tmxbean = ManagementFactory.getThreadMXBean();
     if (tmxbean.isThreadContentionMonitoringSupported()) {
       tmxbean.setThreadContentionMonitoringEnabled(enabled);
       this.enabled = enabled;
@@ -83,4 +118,140 @@ public class ThreadContentionMonitorProcessor
       log.warn("Thread contention monitoring is not supported by this VM");
     }
   }
+
+  @ManagedAttribute(description = "One in this many transactions is measured")
+  public int getSampleInterval() {
+    return sampler.getSampleInterval();
+  }
+
+  /**
+   * @param sampleInterval one in this many transactions is measured; 1 measures every one
+   */
+  @ManagedAttribute(description = "One in this many transactions is measured")
+  public void setSampleInterval(int sampleInterval) {
+    sampler.setSampleInterval(sampleInterval);
+  }
+
+  /**
+   * The contention of the transactions of one name that were measured. Blocked and waited times
+   * are counted in buckets by powers of two: bucket 0 holds 0ms, and bucket i holds times from
+   * 2<sup>i-1</sup> to 2<sup>i</sup> - 1 ms, with the last bucket holding everything longer.
+   */
+  public static final class Contention {
+    /** The number of histogram buckets */
+    public static final int BUCKETS = 32;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong blockedTime = new AtomicLong();
+    private final AtomicLong waitedCount = new AtomicLong();
+    private final AtomicLong waitedTime = new AtomicLong();
+    private final AtomicLongArray blockedTimes = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray waitedTimes = new AtomicLongArray(BUCKETS);
+
+    void add(long blockedCount, long blockedTime, long waitedCount, long waitedTime) {
+      count.incrementAndGet();
+      this.blockedCount.addAndGet(blockedCount);
+      this.waitedCount.addAndGet(waitedCount);
+      // times are -1 if contention monitoring was switched off during the transaction
+      if (blockedTime >= 0) {
+        this.blockedTime.addAndGet(blockedTime);
+        blockedTimes.incrementAndGet(bucket(blockedTime));
+      }
+      if (waitedTime >= 0) {
+        this.waitedTime.addAndGet(waitedTime);
+        waitedTimes.incrementAndGet(bucket(waitedTime));
+      }
+    }
+
+    private static int bucket(long millis) {
+      return Math.min(64 - Long.numberOfLeadingZeros(millis), BUCKETS - 1);
+    }
+
+    /**
+     * @return the number of transactions measured
+     */
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getBlockedCount() {
+      return blockedCount.get();
+    }
+
+    /**
+     * @return the total time the transactions measured were blocked, in milliseconds
+     */
+    public long getBlockedTime() {
+      return blockedTime.get();
+    }
+
+    public long getWaitedCount() {
+      return waitedCount.get();
+    }
+
+    /**
+     * @return the total time the transactions measured waited, in milliseconds
+     */
+    public long getWaitedTime() {
+      return waitedTime.get();
+    }
+
+    /**
+     * @return the number of transactions in each bucket of blocked time
+     */
+    public long[] getBlockedTimeHistogram() {
+      return toArray(blockedTimes);
+    }
+
+    /**
+     * @return the number of transactions in each bucket of waited time
+     */
+    public long[] getWaitedTimeHistogram() {
+      return toArray(waitedTimes);
+    }
+
+    /**
+     * Gets an upper bound on a percentile of blocked time
+     * @param percentile from 0 to 100
+     * @return the top of the bucket holding the percentile, in milliseconds
+     */
+    public long getBlockedTimePercentile(double percentile) {
+      return percentile(blockedTimes, percentile);
+    }
+
+    /**
+     * Gets an upper bound on a percentile of waited time
+     * @param percentile from 0 to 100
+     * @return the top of the bucket holding the percentile, in milliseconds
+     */
+    public long getWaitedTimePercentile(double percentile) {
+      return percentile(waitedTimes, percentile);
+    }
+
+    private static long[] toArray(AtomicLongArray buckets) {
+      long[] values = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        values[i] = buckets.get(i);
+      }
+      return values;
+    }
+
+    private static long percentile(AtomicLongArray buckets, double percentile) {
+      long[] values = toArray(buckets);
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        total += values[i];
+      }
+      long rank = Math.max(1, (long)Math.ceil(total * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += values[i];
+        if (seen >= rank) {
+          return (i == BUCKETS - 1) ? Long.MAX_VALUE : (1L << i) - 1;
+        }
+      }
+      return 0;
+    }
+  }
 }
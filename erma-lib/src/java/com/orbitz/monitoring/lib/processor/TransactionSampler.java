@@ -0,0 +1,34 @@
+package com.orbitz.monitoring.lib.processor;
+
+/**
+ * Picks one in every {@link #getSampleInterval() sampleInterval} transactions for processors that
+ * are too costly to run on all of them.
+ */
+final class TransactionSampler {
+  private volatile int sampleInterval = 1;
+
+  // a plain field: lost increments only move the next sample by a transaction or two
+  private int transactions;
+
+  /**
+   * @return true if the current transaction should be measured
+   */
+  boolean sample() {
+    int interval = sampleInterval;
+    return (interval == 1) || (++transactions % interval == 0);
+  }
+
+  int getSampleInterval() {
+    return sampleInterval;
+  }
+
+  /**
+   * @param sampleInterval one in this many transactions is measured; 1 measures every one
+   */
+  void setSampleInterval(int sampleInterval) {
+    if (sampleInterval < 1) {
+      throw new IllegalArgumentException("sampleInterval must be at least 1");
+    }
+    this.sampleInterval = sampleInterval;
+  }
+}
@@ -19,12 +19,13 @@ public class XmlLoggingMonitorProcessor extends MonitorProcessorAdapter {
   protected Logger log = Logger.getLogger(XmlLoggingMonitorProcessor.class);
 
   private List allowedAttributes = new ArrayList();
+  private XmlMonitorRenderer renderer = new XmlMonitorRenderer(allowedAttributes);
 
   // ** PUBLIC METHODS ******************************************************
   public void process(Monitor monitor) {
-    XmlMonitorRenderer renderer = null;
-
-    renderer = new XmlMonitorRenderer(allowedAttributes);
+    if (!log.isInfoEnabled()) {
+      return;
+    }
 
     String logString = renderer.renderMonitor(monitor);
     log.info(logString);
@@ -32,5 +33,6 @@ public class XmlLoggingMonitorProcessor extends MonitorProcessorAdapter {
 
   public void setAllowedAttributes(List allowedAttributes) {
     this.allowedAttributes = allowedAttributes;
+    this.renderer = new XmlMonitorRenderer(allowedAttributes);
   }
 }
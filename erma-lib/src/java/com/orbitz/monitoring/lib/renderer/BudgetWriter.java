@@ -0,0 +1,73 @@
+package com.orbitz.monitoring.lib.renderer;
+
+import java.io.Writer;
+
+/**
+ * A {@link Writer} that appends to a {@link StringBuilder} until a character budget is spent.
+ * Once a write would go over the budget nothing more is stored, but every character written is
+ * still counted, so the caller can tell how far over the budget the output went.
+ */
+class BudgetWriter extends Writer {
+  private final StringBuilder buffer;
+  private final int budget;
+  private int count;
+  private boolean exceeded;
+
+  BudgetWriter(StringBuilder buffer, int budget) {
+    this.buffer = buffer;
+    this.budget = budget;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) {
+    count += len;
+    if (!exceeded) {
+      if (count <= budget) {
+        buffer.append(cbuf, off, len);
+      } else {
+        exceeded = true;
+      }
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) {
+    count += len;
+    if (!exceeded) {
+      if (count <= budget) {
+        buffer.append(str, off, off + len);
+      } else {
+        exceeded = true;
+      }
+    }
+  }
+
+  @Override
+  public void write(int c) {
+    write(new char[] {(char) c}, 0, 1);
+  }
+
+  /**
+   * @return true once more characters have been written than the budget allows
+   */
+  boolean isExceeded() {
+    return exceeded;
+  }
+
+  /**
+   * @return the number of characters written, whether or not they were stored
+   */
+  int getCount() {
+    return count;
+  }
+
+  @Override
+  public void flush() {
+    // nothing buffered
+  }
+
+  @Override
+  public void close() {
+    // nothing to release
+  }
+}
@@ -7,6 +7,7 @@ import com.orbitz.monitoring.api.Monitor;
 import org.apache.commons.beanutils.LazyDynaBean;
 import org.apache.log4j.Logger;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -28,10 +29,22 @@ public class EventPatternMonitorRenderer {
 
   private Set monitorsToSkip;
   private List allowedAttributes;
+  private boolean collapseByFingerprint;
+
+  /* monitorsToSkip compiled into a single matcher, rebuilt whenever the set changes */
+  private volatile SubstringMatcher skipMatcher;
+
+  /* fingerprinting would bypass a subclass's own rendering */
+  private final boolean fingerprintable;
 
   public EventPatternMonitorRenderer() {
-    monitorsToSkip = new HashSet();
+    monitorsToSkip = new SkipSet();
     allowedAttributes = new ArrayList();
+    skipMatcher = new SubstringMatcher(monitorsToSkip);
+    fingerprintable = !overrides(getClass(), "renderMonitorToBuffer", Monitor.class,
+        StringBuffer.class, int.class)
+        && !overrides(getClass(), "addChildToBuffer", StringBuffer.class, StringBuffer.class,
+            int.class);
   }
 
   public EventPatternMonitorRenderer(final List allowedAttributes) {
@@ -55,6 +68,25 @@ public class EventPatternMonitorRenderer {
     this.allowedAttributes = allowedAttributes;
   }
 
+  public boolean isCollapseByFingerprint() {
+    return collapseByFingerprint;
+  }
+
+  /**
+   * When enabled, each child subtree is reduced to its rendered lines and a rolling hash of them
+   * before any output is built, and runs of identical siblings are collapsed by comparing
+   * hashes instead of rendering every sibling and comparing the text. The output is the same
+   * either way; this mode avoids the repeated rendering that makes large trees of identical
+   * calls expensive. It is ignored by subclasses that override
+   * {@link #renderMonitorToBuffer(Monitor, StringBuffer, int)} or
+   * {@link #addChildToBuffer(StringBuffer, StringBuffer, int)}, as it does not call them.
+   *
+   * @param collapseByFingerprint true to collapse repeats by fingerprint
+   */
+  public void setCollapseByFingerprint(boolean collapseByFingerprint) {
+    this.collapseByFingerprint = collapseByFingerprint;
+  }
+
   /**
    * Renders a Monitor recursively based on vmid, name and failed attrs.
    *
@@ -64,29 +96,20 @@ public class EventPatternMonitorRenderer {
   public String renderMonitor(Monitor monitor) {
     StringBuffer renderBuffer = new StringBuffer();
 
-    renderMonitorToBuffer(monitor, renderBuffer, 0);
+    if (collapseByFingerprint && fingerprintable) {
+      Node root = fingerprint(monitor, new StringBuffer());
+      renderNode(root, 1, renderBuffer, 0);
+    } else {
+      renderMonitorToBuffer(monitor, renderBuffer, 0);
+    }
 
     return renderBuffer.toString();
   }
 
   protected void renderMonitorToBuffer(Monitor monitor, StringBuffer buffer, int indentLevel) {
     buffer.append('\n').append(indentString(indentLevel));
+    appendAttributes(monitor, buffer);
 
-    Iterator it = allowedAttributes.iterator();
-    while (it.hasNext()) {
-      String attributeName = (String) it.next();
-      if (attributeName.equals(Attribute.FAILURE_THROWABLE)) {
-        assignFailureThrowable(monitor, buffer);
-      } else if (monitor.hasAttribute(attributeName)) {
-        Object attributeValue = monitor.get(attributeName);
-        buffer.append(attributeValue).append(delimeter);
-      }
-    }
-
-    if (buffer.lastIndexOf(String.valueOf(delimeter)) == buffer.length() - 1) {
-      buffer.deleteCharAt(buffer.length() - 1); //the last delimeter
-    }
-    
     if (monitor instanceof CompositeMonitor) {
       CompositeMonitor compositeMonitor = (CompositeMonitor) monitor;
       Collection childMonitors = compositeMonitor.getChildMonitors();
@@ -116,6 +139,61 @@ public class EventPatternMonitorRenderer {
     }
   }
 
+  // reduces a monitor and its renderable descendants to lines, collapsing runs of repeats
+  private Node fingerprint(Monitor monitor, StringBuffer scratch) {
+    scratch.setLength(0);
+    appendAttributes(monitor, scratch);
+    Node node = new Node(scratch.toString());
+
+    if (monitor instanceof CompositeMonitor) {
+      Collection childMonitors = ((CompositeMonitor) monitor).getChildMonitors();
+      Node last = null;
+      for (Iterator i = childMonitors.iterator(); i.hasNext();) {
+        final Monitor childMonitor = (Monitor) i.next();
+        if (shouldRender(childMonitor)) {
+          Node child = fingerprint(childMonitor, scratch);
+          if (last != null && last.sameAs(child)) {
+            node.counts[node.size - 1]++;
+          } else {
+            node.add(child);
+            last = child;
+          }
+        }
+      }
+    }
+    node.seal();
+    return node;
+  }
+
+  private void renderNode(Node node, int count, StringBuffer buffer, int indentLevel) {
+    buffer.append('\n').append(indentString(indentLevel)).append(node.line);
+    if (count > 1) {
+      buffer.append(delimeter).append(count).append(" occurences");
+    }
+    for (int i = 0; i < node.size; i++) {
+      renderNode(node.children[i], node.counts[i], buffer, indentLevel + 1);
+    }
+  }
+
+  // appends the allowed attributes of a single monitor, without the trailing delimeter
+  private void appendAttributes(Monitor monitor, StringBuffer buffer) {
+    Iterator it = allowedAttributes.iterator();
+    while (it.hasNext()) {
+      String attributeName = (String) it.next();
+      if (attributeName.equals(Attribute.FAILURE_THROWABLE)) {
+        assignFailureThrowable(monitor, buffer);
+      } else if (monitor.hasAttribute(attributeName)) {
+        Object attributeValue = monitor.get(attributeName);
+        buffer.append(attributeValue).append(delimeter);
+      }
+    }
+
+    int last = buffer.length() - 1;
+    if (last >= 0 && buffer.charAt(last) == delimeter) {
+      buffer.deleteCharAt(last); //the last delimeter
+    }
+  }
+
   private void assignFailureThrowable(Monitor monitor, StringBuffer buffer) {
     if (! monitor.hasAttribute(Attribute.FAILURE_THROWABLE)) {
       return;
@@ -194,18 +272,23 @@ public class EventPatternMonitorRenderer {
 
   // returns true if a monitor should be rendered, otherwise false
   protected boolean shouldRender(Monitor monitor) {
-    boolean render = true;
-    if (monitor.hasAttribute(Attribute.NAME)) {
-      String name = monitor.getAsString(Attribute.NAME);
-      Iterator it = monitorsToSkip.iterator();
-      while (render && it.hasNext()) {
-        String sName = (String) it.next();
-        if (name.indexOf(sName) > -1) {
-          render = false;
-        }
+    if (monitorsToSkip.isEmpty() || !monitor.hasAttribute(Attribute.NAME)) {
+      return true;
+    }
+    String name = monitor.getAsString(Attribute.NAME);
+    return !skipMatcher.matches(name);
+  }
+
+  private static boolean overrides(Class klass, String name, Class... parameterTypes) {
+    for (Class c = klass; c != EventPatternMonitorRenderer.class; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod(name, parameterTypes);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // not declared here
       }
     }
-    return render;
+    return false;
   }
 
   // used to prevent the stack trace from entering an infinite loop
@@ -264,4 +347,114 @@ public class EventPatternMonitorRenderer {
     return sb.toString();
   }
 
+  /**
+   * The names to skip. The set is exposed through getMonitorsToSkip(), so it recompiles the
+   * matcher whenever it is changed rather than when a monitor is rendered.
+   */
+  private final class SkipSet extends AbstractSet {
+    private final Set names = new HashSet();
+
+    public boolean add(Object name) {
+      boolean added = names.add(name);
+      if (added) {
+        compile();
+      }
+      return added;
+    }
+
+    public boolean addAll(Collection c) {
+      boolean added = names.addAll(c);
+      if (added) {
+        compile();
+      }
+      return added;
+    }
+
+    public Iterator iterator() {
+      final Iterator iterator = names.iterator();
+      return new Iterator() {
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        public Object next() {
+          return iterator.next();
+        }
+
+        public void remove() {
+          iterator.remove();
+          compile();
+        }
+      };
+    }
+
+    public int size() {
+      return names.size();
+    }
+
+    private void compile() {
+      skipMatcher = new SubstringMatcher(names);
+    }
+  }
+
+  /**
+   * The rendered line of one monitor and its children, with runs of identical children already
+   * collapsed into a count. The hash covers the line and every child run, so two nodes with
+   * different hashes never render the same; equal hashes are confirmed by comparing the nodes.
+   */
+  private static final class Node {
+    private static final long PRIME = 1099511628211L;
+
+    private final String line;
+    private Node[] children;
+    private int[] counts;
+    private int size;
+    private long hash;
+
+    private Node(String line) {
+      this.line = line;
+    }
+
+    private void add(Node child) {
+      if (children == null) {
+        children = new Node[4];
+        counts = new int[4];
+      } else if (size == children.length) {
+        Node[] newChildren = new Node[size * 2];
+        int[] newCounts = new int[size * 2];
+        System.arraycopy(children, 0, newChildren, 0, size);
+        System.arraycopy(counts, 0, newCounts, 0, size);
+        children = newChildren;
+        counts = newCounts;
+      }
+      children[size] = child;
+      counts[size] = 1;
+      size++;
+    }
+
+    // computes the hash once the children are final
+    private void seal() {
+      long h = -3750763034362895579L;
+      for (int i = 0; i < line.length(); i++) {
+        h = (h ^ line.charAt(i)) * PRIME;
+      }
+      for (int i = 0; i < size; i++) {
+        h = (h ^ children[i].hash) * PRIME;
+        h = (h ^ counts[i]) * PRIME;
+      }
+      hash = h;
+    }
+
+    private boolean sameAs(Node other) {
+      if (hash != other.hash || size != other.size || !line.equals(other.line)) {
+        return false;
+      }
+      for (int i = 0; i < size; i++) {
+        if (counts[i] != other.counts[i] || !children[i].sameAs(other.children[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
 }
@@ -0,0 +1,323 @@
+package com.orbitz.monitoring.lib.renderer;
+
+import com.orbitz.monitoring.api.AttributeUndefinedException;
+import com.orbitz.monitoring.api.CompositeMonitor;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.AttributeHolder;
+import com.orbitz.monitoring.api.monitor.AttributeMap;
+import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableMonitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only copy of a monitor, taken so that it can be rendered later on another thread. It
+ * keeps the attributes as they were when it was taken, the class name of the monitor and, for a
+ * {@link CompositeMonitor}, snapshots of its children. Attribute values are shared with the
+ * monitor, not copied.
+ * <p>
+ * A snapshot is not the monitor's class, so renderers that print the class name should get it
+ * from {@link #classNameOf(Monitor)}. Inheritable attributes and the monitoring level are not
+ * kept, and every method that would change the snapshot throws
+ * {@link UnsupportedOperationException}.
+ */
+public class MonitorSnapshot implements Monitor {
+  private final String className;
+  private final Map<String, Object> attributes;
+  // built on the first typed read, so the coercion rules are those of AttributeMap
+  private AttributeMap typed;
+
+  MonitorSnapshot(final String className, final Map<String, Object> attributes) {
+    this.className = className;
+    this.attributes = attributes;
+  }
+
+  /**
+   * Takes a snapshot of a monitor and its children
+   * @param monitor the monitor
+   * @return the snapshot, which is a {@link CompositeMonitor} if the monitor is
+   */
+  public static MonitorSnapshot of(final Monitor monitor) {
+    Map<String, Object> attributes = new HashMap<String, Object>(monitor.<Object>getAll());
+    if (!(monitor instanceof CompositeMonitor)) {
+      return new MonitorSnapshot(classNameOf(monitor), attributes);
+    }
+    Collection<Monitor> children = ((CompositeMonitor) monitor).getChildMonitors();
+    List<Monitor> childSnapshots = new ArrayList<Monitor>(children.size());
+    for (Monitor child : children) {
+      childSnapshots.add(of(child));
+    }
+    return new Composite(classNameOf(monitor), attributes, childSnapshots);
+  }
+
+  /**
+   * Gets the class name to render for a monitor
+   * @param monitor a monitor or a snapshot of one
+   * @return the name of the class of the monitor the snapshot was taken of, or of the monitor
+   */
+  public static String classNameOf(final Monitor monitor) {
+    if (monitor instanceof MonitorSnapshot) {
+      return ((MonitorSnapshot) monitor).className;
+    }
+    return monitor.getClass().getName();
+  }
+
+  public Object get(final String key) {
+    if (!attributes.containsKey(key)) {
+      throw new AttributeUndefinedException(key);
+    }
+    return attributes.get(key);
+  }
+
+  public String getAsString(final String key) {
+    Object value = get(key);
+    return (value == null) ? null : value.toString();
+  }
+
+  public boolean hasAttribute(final String key) {
+    return attributes.containsKey(key);
+  }
+
+  @SuppressWarnings("unchecked")
+  public <V> Map<String, V> getAll() {
+    return (Map<String, V>) Collections.unmodifiableMap(attributes);
+  }
+
+  /**
+   * @return {@link MonitoringLevel#INFO}, as the level is not kept
+   */
+  public MonitoringLevel getLevel() {
+    return MonitoringLevel.INFO;
+  }
+
+  public boolean getAsBoolean(final String key) {
+    return typed().getAsBoolean(key);
+  }
+
+  public short getAsShort(final String key) {
+    return typed().getAsShort(key);
+  }
+
+  public byte getAsByte(final String key) {
+    return typed().getAsByte(key);
+  }
+
+  public int getAsInt(final String key) {
+    return typed().getAsInt(key);
+  }
+
+  public long getAsLong(final String key) {
+    return typed().getAsLong(key);
+  }
+
+  public float getAsFloat(final String key) {
+    return typed().getAsFloat(key);
+  }
+
+  public double getAsDouble(final String key) {
+    return typed().getAsDouble(key);
+  }
+
+  public char getAsChar(final String key) {
+    return typed().getAsChar(key);
+  }
+
+  public <K, V> Map<K, V> getAsMap(final String key) {
+    return typed().getAsMap(key);
+  }
+
+  public <T> List<T> getAsList(final String key) {
+    return typed().getAsList(key);
+  }
+
+  public <T> Set<T> getAsSet(final String key) {
+    return typed().getAsSet(key);
+  }
+
+  public boolean getAsBoolean(final String key, final boolean defaultValue) {
+    return typed().getAsBoolean(key, defaultValue);
+  }
+
+  public short getAsShort(final String key, final short defaultValue) {
+    return typed().getAsShort(key, defaultValue);
+  }
+
+  public byte getAsByte(final String key, final byte defaultValue) {
+    return typed().getAsByte(key, defaultValue);
+  }
+
+  public int getAsInt(final String key, final int defaultValue) {
+    return typed().getAsInt(key, defaultValue);
+  }
+
+  public long getAsLong(final String key, final long defaultValue) {
+    return typed().getAsLong(key, defaultValue);
+  }
+
+  public float getAsFloat(final String key, final float defaultValue) {
+    return typed().getAsFloat(key, defaultValue);
+  }
+
+  public double getAsDouble(final String key, final double defaultValue) {
+    return typed().getAsDouble(key, defaultValue);
+  }
+
+  public char getAsChar(final String key, final char defaultValue) {
+    return typed().getAsChar(key, defaultValue);
+  }
+
+  public <V> Map<String, V> getAllSerializable() {
+    throw new UnsupportedOperationException("Snapshots only keep attributes for rendering");
+  }
+
+  public SerializableMonitor getSerializableMomento() {
+    throw new UnsupportedOperationException("Snapshots only keep attributes for rendering");
+  }
+
+  public AttributeHolder set(final String key, final short value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final int value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final long value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final float value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final double value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final char value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final byte value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final boolean value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final Date value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final String value) {
+    throw readOnly();
+  }
+
+  public AttributeHolder set(final String key, final Object value) {
+    throw readOnly();
+  }
+
+  public void setAll(final Map<String, Object> attributes) {
+    throw readOnly();
+  }
+
+  public void setAllAttributeHolders(final Map<String, Object> attributeHolders) {
+    throw readOnly();
+  }
+
+  public void unset(final String key) {
+    throw readOnly();
+  }
+
+  @Override
+  public String toString() {
+    return "[" + className + " snapshot attributes=" + attributes + "]";
+  }
+
+  private synchronized AttributeMap typed() {
+    if (typed == null) {
+      typed = new AttributeMap(attributes);
+    }
+    return typed;
+  }
+
+  static UnsupportedOperationException readOnly() {
+    return new UnsupportedOperationException("Monitor snapshots are read-only");
+  }
+
+  /**
+   * A snapshot of a {@link CompositeMonitor}
+   */
+  static final class Composite extends MonitorSnapshot implements CompositeMonitor {
+    private final List<Monitor> children;
+
+    Composite(final String className, final Map<String, Object> attributes,
+        final List<Monitor> children) {
+      super(className, attributes);
+      this.children = Collections.unmodifiableList(children);
+    }
+
+    public Collection<Monitor> getChildMonitors() {
+      return children;
+    }
+
+    public void addChildMonitor(final Monitor monitor) {
+      throw readOnly();
+    }
+
+    /**
+     * @return an empty map, as inheritable attributes are not kept
+     */
+    public Map<String, Object> getInheritableAttributes() {
+      return Collections.emptyMap();
+    }
+
+    /**
+     * @return an empty map, as inheritable attributes are not kept
+     */
+    public Map<String, CompositeAttributeHolder> getInheritableAttributeHolders() {
+      return Collections.emptyMap();
+    }
+
+    public CompositeAttributeHolder setInheritable(final String key, final Object value) {
+      throw readOnly();
+    }
+
+    public CompositeAttributeHolder setInheritable(final String key, final byte value) {
+      throw readOnly();
+    }
+
+    public CompositeAttributeHolder setInheritable(final String key, final int value) {
+      throw readOnly();
+    }
+
+    public CompositeAttributeHolder setInheritable(final String key, final long value) {
+      throw readOnly();
+    }
+
+    public CompositeAttributeHolder setInheritable(final String key, final float value) {
+      throw readOnly();
+    }
+
+    public CompositeAttributeHolder setInheritable(final String key, final double value) {
+      throw readOnly();
+    }
+
+    public CompositeAttributeHolder setInheritable(final String key, final char value) {
+      throw readOnly();
+    }
+
+    public CompositeAttributeHolder setInheritable(final String key, final boolean value) {
+      throw readOnly();
+    }
+  }
+}
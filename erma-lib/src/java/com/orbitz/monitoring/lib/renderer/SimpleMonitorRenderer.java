@@ -7,9 +7,8 @@ import org.apache.commons.lang.builder.ToStringStyle;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * A simple renderer that renders a monitor with each attribute on a separate line.
@@ -31,7 +30,7 @@ import java.util.TreeMap;
  * 
  * </p>
  */
-public class SimpleMonitorRenderer implements MonitorRenderer {
+public class SimpleMonitorRenderer implements MonitorRenderer, StreamingMonitorRenderer {
   private ToStringStyle toStringStyle = ToStringStyle.SIMPLE_STYLE;
 
   public ToStringStyle getToStringStyle() {
@@ -55,18 +54,29 @@ public class SimpleMonitorRenderer implements MonitorRenderer {
    * @return a String representation of the monitor.
    */
   public String renderMonitor(Monitor monitor, boolean includeStackTraces) {
+    StringBuilder buf = new StringBuilder();
+    renderMonitor(monitor, includeStackTraces, buf);
+    return buf.toString();
+  }
 
+  /**
+   * Appends a Monitor in a multiple-line format to a buffer.
+   * @param monitor monitor to render
+   * @param includeStackTraces true if every Throwable attribute value should render with a stack 
+   *     trace
+   * @param buf the buffer to append to
+   */
+  public void renderMonitor(Monitor monitor, boolean includeStackTraces, StringBuilder buf) {
     if (monitor == null) {
-      return "null";
+      buf.append("null");
+      return;
     }
 
-    StringBuffer buf = new StringBuffer(monitor.getClass().getName());
+    buf.append(MonitorSnapshot.classNameOf(monitor));
 
     Map attributeMap = monitor.getAll();
 
-    buf.append(renderMonitor(attributeMap, includeStackTraces));
-
-    return buf.toString();
+    renderAttributes(attributeMap, includeStackTraces, buf);
   }
 
   public void setToStringStyle(ToStringStyle toStringStyle) {
@@ -78,39 +88,45 @@ public class SimpleMonitorRenderer implements MonitorRenderer {
   }
 
   /**
-   * Renders an attribute map in xml format, will not contain the monitor's classname
+   * Renders an attribute map in multiple-line format, will not contain the monitor's classname
    * @param attributeMap
    * @param includeStackTraces true if every Throwable attribute value should render with a stack 
    *     trace
-   * @return a string representation of the attribute map in multiple-line format
+   * @param buf the buffer to append to
    */
-  private String renderMonitor(Map attributeMap, boolean includeStackTraces) {
+  private void renderAttributes(Map attributeMap, boolean includeStackTraces, StringBuilder buf) {
     if (attributeMap == null) {
-      return "null";
+      buf.append("null");
+      return;
     }
 
-    StringBuffer buf = new StringBuffer();
+    Object[] keys = attributeMap.keySet().toArray();
+    Arrays.sort(keys);
 
-    Map allAttributes = new TreeMap(attributeMap);
-    for (Iterator i = allAttributes.entrySet().iterator(); i.hasNext();) {
-      Map.Entry e = (Map.Entry) i.next();
-      buf.append("\n\t-> ").append(e.getKey()).append(" = ");
+    for (int i = 0; i < keys.length; i++) {
+      buf.append("\n\t-> ").append(keys[i]).append(" = ");
 
-      Object v = e.getValue();
+      Object v = attributeMap.get(keys[i]);
       if (shouldHandleStackTraces(includeStackTraces, v)) {
         StringWriter sw = new StringWriter();
         PrintWriter pw = new PrintWriter(sw);
         ((Throwable) v).printStackTrace(pw);
         buf.append(sw.toString());
+      } else if (rendersAsToString(v)) {
+        // SIMPLE_STYLE renders these exactly as toString() does, so skip the builder
+        buf.append(v);
       } else {
         buf.append(createToStringBuilder(v).append(v));
       }
     }
+  }
 
-    return buf.toString();
+  private boolean rendersAsToString(Object v) {
+    return (toStringStyle == ToStringStyle.SIMPLE_STYLE) && (v != null)
+        && !v.getClass().isArray();
   }
 
   private boolean shouldHandleStackTraces(boolean includeStackTraces, Object v) {
-    return includeStackTraces && Throwable.class.isAssignableFrom(v.getClass());
+    return includeStackTraces && (v instanceof Throwable);
   }
 }
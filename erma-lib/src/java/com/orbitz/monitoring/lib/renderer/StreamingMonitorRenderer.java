@@ -0,0 +1,23 @@
+package com.orbitz.monitoring.lib.renderer;
+
+import com.orbitz.monitoring.api.Monitor;
+
+/**
+ * Renders a {@link Monitor} by appending to a caller-supplied buffer. Callers that render many
+ * monitors can keep one buffer and reuse it, rather than receiving a new String per monitor.
+ * <p>
+ * Implementations may be given a {@link MonitorSnapshot} in place of the monitor, to be rendered
+ * on another thread, and should get the class name to render from
+ * {@link MonitorSnapshot#classNameOf(Monitor)}.
+ */
+public interface StreamingMonitorRenderer {
+  /**
+   * Appends a rendering of a Monitor to a buffer.
+   *
+   * @param monitor monitor to render
+   * @param includeStackTraces true if every Throwable attribute value should render with a stack 
+   *     trace
+   * @param buffer the buffer to append to; existing content is left in place
+   */
+  public void renderMonitor(Monitor monitor, boolean includeStackTraces, StringBuilder buffer);
+}
@@ -0,0 +1,51 @@
+package com.orbitz.monitoring.lib.renderer;
+
+import java.io.Writer;
+
+/**
+ * A {@link Writer} that appends to a {@link StringBuilder} without synchronization, for
+ * renderers that drive a Writer-based API into a caller-supplied buffer.
+ */
+class StringBuilderWriter extends Writer {
+  private final StringBuilder buffer;
+
+  StringBuilderWriter(StringBuilder buffer) {
+    this.buffer = buffer;
+  }
+
+  @Override
+  public void write(int c) {
+    buffer.append((char) c);
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) {
+    buffer.append(cbuf, off, len);
+  }
+
+  @Override
+  public void write(String str) {
+    buffer.append(str);
+  }
+
+  @Override
+  public void write(String str, int off, int len) {
+    buffer.append(str, off, off + len);
+  }
+
+  @Override
+  public Writer append(CharSequence csq) {
+    buffer.append(csq);
+    return this;
+  }
+
+  @Override
+  public void flush() {
+    // nothing buffered
+  }
+
+  @Override
+  public void close() {
+    // nothing to release
+  }
+}
@@ -0,0 +1,161 @@
+package com.orbitz.monitoring.lib.renderer;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Tells whether a string contains any of a fixed set of substrings. The substrings are compiled
+ * into an Aho-Corasick automaton, so a check makes a single pass over the string no matter how
+ * many substrings there are. A matcher is immutable once built and may be shared between threads.
+ */
+final class SubstringMatcher {
+  private final State root;
+  private final boolean matchesEverything;
+  private final boolean matchesNothing;
+
+  /**
+   * @param substrings the substrings to look for; null entries are ignored
+   */
+  SubstringMatcher(Collection substrings) {
+    root = new State();
+    boolean empty = false;
+    boolean any = false;
+    for (Iterator i = substrings.iterator(); i.hasNext();) {
+      Object substring = i.next();
+      if (substring == null) {
+        continue;
+      }
+      String s = substring.toString();
+      if (s.length() == 0) {
+        // every string contains the empty string
+        empty = true;
+      }
+      any = true;
+      State state = root;
+      for (int j = 0; j < s.length(); j++) {
+        state = state.getOrCreate(s.charAt(j));
+      }
+      state.terminal = true;
+    }
+    matchesEverything = empty;
+    matchesNothing = !any;
+    if (any) {
+      linkFailures();
+    }
+  }
+
+  /**
+   * @param s the string to search
+   * @return true if the string contains at least one of the substrings
+   */
+  boolean matches(String s) {
+    if (matchesEverything) {
+      return true;
+    }
+    if (matchesNothing) {
+      return false;
+    }
+    State state = root;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      State next = state.get(c);
+      while (next == null && state != root) {
+        state = state.failure;
+        next = state.get(c);
+      }
+      state = (next == null) ? root : next;
+      if (state.terminal) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // breadth-first, so a state's failure link is always resolved before its children need it
+  private void linkFailures() {
+    LinkedList queue = new LinkedList();
+    root.failure = root;
+    for (int i = 0; i < root.size; i++) {
+      State child = root.next[i];
+      child.failure = root;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      State state = (State) queue.removeFirst();
+      for (int i = 0; i < state.size; i++) {
+        char c = state.keys[i];
+        State child = state.next[i];
+        State fallback = state.failure;
+        State target = fallback.get(c);
+        while (target == null && fallback != root) {
+          fallback = fallback.failure;
+          target = fallback.get(c);
+        }
+        child.failure = (target == null || target == child) ? root : target;
+        // a state also matches if any suffix of the path to it is a substring
+        child.terminal |= child.failure.terminal;
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * A node of the automaton. Transitions are kept in parallel arrays sorted by character, which
+   * is smaller and faster than a map for the handful of transitions a typical state has.
+   */
+  private static final class State {
+    private char[] keys = new char[0];
+    private State[] next = new State[0];
+    private int size;
+    private State failure;
+    private boolean terminal;
+
+    private State get(char c) {
+      int index = indexOf(c);
+      return (index >= 0) ? next[index] : null;
+    }
+
+    private State getOrCreate(char c) {
+      int index = indexOf(c);
+      if (index >= 0) {
+        return next[index];
+      }
+      int insertAt = -(index + 1);
+      if (size == keys.length) {
+        int capacity = Math.max(2, size * 2);
+        char[] newKeys = new char[capacity];
+        State[] newNext = new State[capacity];
+        System.arraycopy(keys, 0, newKeys, 0, size);
+        System.arraycopy(next, 0, newNext, 0, size);
+        keys = newKeys;
+        next = newNext;
+      }
+      System.arraycopy(keys, insertAt, keys, insertAt + 1, size - insertAt);
+      System.arraycopy(next, insertAt, next, insertAt + 1, size - insertAt);
+      State state = new State();
+      keys[insertAt] = c;
+      next[insertAt] = state;
+      size++;
+      return state;
+    }
+
+    // binary search over the populated part of keys, returning -(insertion point + 1) if absent
+    private int indexOf(char c) {
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        char key = keys[mid];
+        if (key < c) {
+          low = mid + 1;
+        } else if (key > c) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(low + 1);
+    }
+  }
+}
@@ -10,7 +10,8 @@ import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
 import org.apache.commons.beanutils.DynaBean;
 import org.apache.log4j.Logger;
 
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -20,7 +21,7 @@ import java.util.List;
  *
  * @author Operations Architecture 
  */
-public class XmlMonitorRenderer {
+public class XmlMonitorRenderer implements StreamingMonitorRenderer {
 
   private static final Logger logger = Logger.getLogger(XmlMonitorRenderer.class);
 
@@ -60,33 +61,74 @@ public class XmlMonitorRenderer {
    * @return a String of XML
    */
   public String renderMonitor(Monitor monitor) {
+    StringBuilder buffer = new StringBuilder();
+    renderMonitor(monitor, false, buffer);
+    return buffer.toString();
+  }
+
+  /**
+   * Appends a Monitor, with attributes filtered to specified set, to a buffer as XML. Attribute
+   * values are rendered as Strings, so stack traces are never included.
+   * <p>
+   * If {@link #setMaxCharacters(int) maxCharacters} is set, rendering stops descending into child
+   * monitors as soon as the budget is spent, and the terse form is appended instead. The length
+   * reported in the terse form is the length rendered up to that point.
+   *
+   * @param monitor ERMA monitor
+   * @param includeStackTraces ignored
+   * @param buffer the buffer to append to
+   */
+  public void renderMonitor(Monitor monitor, boolean includeStackTraces, StringBuilder buffer) {
 
     if (monitor == null) {
-      return "<null/>";
+      buffer.append("<null/>");
+      return;
     }
 
-    HierarchicalStreamWriter xmlWriter;
-    StringWriter stringWriter = new StringWriter();
-
-    if (prettyPrint) {
-      xmlWriter = new PrettyPrintWriter(stringWriter, INDENT_STRING);
-    } else {
-      xmlWriter = new CompactWriter(stringWriter);
+    if (maxCharacters == -1) {
+      writeMonitor(createXmlWriter(new StringBuilderWriter(buffer)), monitor);
+      return;
     }
 
-    writeMonitor(xmlWriter, monitor);
+    int start = buffer.length();
+    BudgetWriter budgetWriter = new BudgetWriter(buffer, maxCharacters);
+    writeMonitor(createXmlWriter(budgetWriter), monitor, budgetWriter);
 
-    if ((maxCharacters != -1) && (stringWriter.getBuffer().length() > maxCharacters)) {
-      // clear the buffer and reuse the streams
-      StringBuffer sb = stringWriter.getBuffer();
-      int length = sb.length();
-      sb.delete(0, length);
-      // required inorder to avoid the state maintained by the previous rendering
-      xmlWriter = new PrettyPrintWriter(stringWriter, INDENT_STRING);
-      writeMonitorTerse(xmlWriter, monitor, length);
+    if (budgetWriter.isExceeded()) {
+      buffer.setLength(start);
+      HierarchicalStreamWriter terseWriter =
+          new PrettyPrintWriter(new StringBuilderWriter(buffer), INDENT_STRING);
+      writeMonitorTerse(terseWriter, monitor, budgetWriter.getCount());
     }
+  }
 
-    return stringWriter.toString();
+  /**
+   * Writes a Monitor, with attributes filtered to specified set, to a Writer as XML. Without a
+   * {@link #setMaxCharacters(int) maxCharacters} budget the XML is streamed straight to the
+   * Writer; with one, at most maxCharacters are held before writing.
+   *
+   * @param monitor ERMA monitor
+   * @param out the destination
+   * @throws IOException if the destination fails
+   */
+  public void renderMonitor(Monitor monitor, Writer out) throws IOException {
+    if ((monitor != null) && (maxCharacters == -1)) {
+      HierarchicalStreamWriter xmlWriter = createXmlWriter(out);
+      writeMonitor(xmlWriter, monitor);
+      xmlWriter.flush();
+      return;
+    }
+
+    StringBuilder buffer = new StringBuilder();
+    renderMonitor(monitor, false, buffer);
+
+    char[] chunk = new char[Math.min(buffer.length(), 4096)];
+    for (int offset = 0; offset < buffer.length(); offset += chunk.length) {
+      int length = Math.min(chunk.length, buffer.length() - offset);
+      buffer.getChars(offset, offset + length, chunk, 0);
+      out.write(chunk, 0, length);
+    }
+    out.flush();
   }
 
   public void setMaxCharacters(int maxCharacters) {
@@ -102,7 +144,7 @@ public class XmlMonitorRenderer {
   }
 
   protected void writeMonitorTerse(HierarchicalStreamWriter writer, Monitor monitor, int length) {
-    String monitorClassName = monitor.getClass().getName();
+    String monitorClassName = MonitorSnapshot.classNameOf(monitor);
     int classIdx = monitorClassName.lastIndexOf('.');
     if (classIdx >= 0) {
       monitorClassName = monitorClassName.substring(classIdx + 1);
@@ -122,7 +164,20 @@ public class XmlMonitorRenderer {
   // private methods ********************************************************
 
   protected void writeMonitor(HierarchicalStreamWriter writer, Monitor monitor) {
-    String monitorClassName = monitor.getClass().getName();
+    writeMonitor(writer, monitor, null);
+  }
+
+  private HierarchicalStreamWriter createXmlWriter(Writer writer) {
+    if (prettyPrint) {
+      return new PrettyPrintWriter(writer, INDENT_STRING);
+    } else {
+      return new CompactWriter(writer);
+    }
+  }
+
+  private void writeMonitor(HierarchicalStreamWriter writer, Monitor monitor,
+      BudgetWriter budgetWriter) {
+    String monitorClassName = MonitorSnapshot.classNameOf(monitor);
     int classIdx = monitorClassName.lastIndexOf('.');
     if (classIdx >= 0) {
       monitorClassName = monitorClassName.substring(classIdx + 1);
@@ -132,13 +187,20 @@ public class XmlMonitorRenderer {
     appendMonitorDataAsAttributes(writer, monitor);
 
     // recursively add all child monitors to dom tree
-    if (CompositeMonitor.class.isAssignableFrom(monitor.getClass())) {
+    if (monitor instanceof CompositeMonitor) {
       CompositeMonitor cm = (CompositeMonitor) monitor;
       Collection childMonitors = cm.getChildMonitors();
       Iterator childIterator = childMonitors.iterator();
       while (childIterator.hasNext()) {
+        if (budgetWriter != null) {
+          // push what xstream has buffered through so the budget reflects it
+          writer.flush();
+          if (budgetWriter.isExceeded()) {
+            break;
+          }
+        }
         Monitor childMonitor = (Monitor) childIterator.next();
-        writeMonitor(writer, childMonitor);
+        writeMonitor(writer, childMonitor, budgetWriter);
       }
     }
 
@@ -0,0 +1,316 @@
+package com.orbitz.monitoring.lib.spill;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A bounded, append-only log of opaque records kept in a memory-mapped file. Processors write
+ * records they could not deliver into the log, and a {@link SpillReplayer} drains them back out
+ * once the sink recovers.
+ * <p>
+ * The file is a fixed-size ring: when an append does not fit, the oldest records are evicted
+ * until it does. The read and write positions are kept in a header at the start of the file, so
+ * records survive a restart of the process. Records are length-prefixed; a negative length marks
+ * the point where the writer wrapped back to the start of the data region.
+ * <p>
+ * All methods are thread safe.
+ */
+public class SpillLog {
+  private static final Logger log = Logger.getLogger(SpillLog.class);
+
+  private static final int MAGIC = 0x45524d53; // "ERMS"
+  private static final int WRAP_MARKER = -1;
+
+  private static final int MAGIC_OFFSET = 0;
+  private static final int CAPACITY_OFFSET = 4;
+  private static final int HEAD_OFFSET = 8;
+  private static final int TAIL_OFFSET = 12;
+  private static final int COUNT_OFFSET = 16;
+  private static final int SEQUENCE_OFFSET = 20;
+  private static final int EVICTED_OFFSET = 28;
+  private static final int DATA_START = 40;
+
+  /** The smallest file that can hold a header and a useful amount of data */
+  public static final int MIN_CAPACITY = 4096;
+
+  private final File file;
+  private final int capacity;
+  private final RandomAccessFile randomAccessFile;
+  private final MappedByteBuffer buffer;
+
+  private int head;
+  private int tail;
+  private int count;
+  private long headSequence;
+  private long evicted;
+  private long rejected;
+
+  /**
+   * Opens the spill log at the given path, creating it if necessary. An existing file written
+   * with the same capacity is recovered; anything else is discarded and the log starts empty.
+   * @param file the backing file
+   * @param capacity the size of the file in bytes, including the header
+   * @throws IOException if the file cannot be created or mapped
+   */
+  public SpillLog(final File file, final int capacity) throws IOException {
+    if (capacity < MIN_CAPACITY) {
+      throw new IllegalArgumentException("capacity must be at least " + MIN_CAPACITY);
+    }
+    this.file = file;
+    this.capacity = capacity;
+
+    File parent = file.getAbsoluteFile().getParentFile();
+    if ((parent != null) && !parent.exists()) {
+      parent.mkdirs();
+    }
+
+    boolean existing = file.exists() && (file.length() == capacity);
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    randomAccessFile.setLength(capacity);
+    buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+    if (existing && recover()) {
+      if (log.isInfoEnabled()) {
+        log.info("Recovered " + count + " spilled records from " + file);
+      }
+    } else {
+      reset();
+    }
+  }
+
+  /**
+   * Appends a record, evicting the oldest records if there is not enough room
+   * @param record the record to append
+   * @return true if the record was stored, false if it can never fit in this log
+   */
+  public synchronized boolean append(final byte[] record) {
+    return append(record, 0, record.length);
+  }
+
+  /**
+   * Appends part of a byte array as a record, evicting the oldest records if there is not enough
+   * room
+   * @param bytes the source array
+   * @param offset the start of the record in the array
+   * @param length the length of the record
+   * @return true if the record was stored, false if it can never fit in this log
+   */
+  public synchronized boolean append(final byte[] bytes, final int offset, final int length) {
+    int required = 4 + length;
+    if (required > capacity - DATA_START) {
+      rejected++;
+      return false;
+    }
+
+    while (true) {
+      if (count == 0) {
+        head = DATA_START;
+        tail = DATA_START;
+      }
+      if ((count == 0) || (tail > head)) {
+        if (required <= capacity - tail) {
+          break;
+        }
+        // not enough room before the end of the file; wrap to the start of the data region
+        if (capacity - tail >= 4) {
+          buffer.putInt(tail, WRAP_MARKER);
+        }
+        tail = DATA_START;
+      } else {
+        if (required <= head - tail) {
+          break;
+        }
+        evictHead();
+      }
+    }
+
+    buffer.putInt(tail, length);
+    buffer.position(tail + 4);
+    buffer.put(bytes, offset, length);
+    tail += required;
+    count++;
+    writeHeader();
+    return true;
+  }
+
+  /**
+   * Gets the oldest record without removing it
+   * @return the oldest record, or null if the log is empty
+   */
+  public synchronized Record peek() {
+    if (count == 0) {
+      return null;
+    }
+    skipWrapMarker();
+    int length = buffer.getInt(head);
+    byte[] data = new byte[length];
+    buffer.position(head + 4);
+    buffer.get(data);
+    return new Record(headSequence, data);
+  }
+
+  /**
+   * Removes a record previously returned by {@link #peek()}. If the record has since been
+   * evicted to make room for newer ones, nothing is removed.
+   * @param record the record to remove
+   * @return true if the record was removed
+   */
+  public synchronized boolean remove(final Record record) {
+    if ((count == 0) || (record.getSequence() != headSequence)) {
+      return false;
+    }
+    advanceHead();
+    writeHeader();
+    return true;
+  }
+
+  /**
+   * Forces changes to the backing file onto the storage device
+   */
+  public synchronized void flush() {
+    buffer.force();
+  }
+
+  /**
+   * Flushes and closes the backing file. The log must not be used afterwards.
+   */
+  public synchronized void close() {
+    flush();
+    try {
+      randomAccessFile.close();
+    } catch (IOException e) {
+      log.warn("Failed to close spill log " + file, e);
+    }
+  }
+
+  /**
+   * @return the number of records currently held
+   */
+  public synchronized int size() {
+    return count;
+  }
+
+  /**
+   * @return the number of bytes currently used by records
+   */
+  public synchronized int getUsedBytes() {
+    if (count == 0) {
+      return 0;
+    }
+    return (tail > head) ? (tail - head) : (capacity - head) + (tail - DATA_START);
+  }
+
+  /**
+   * @return the number of records evicted to make room for newer ones since the file was created
+   */
+  public synchronized long getEvicted() {
+    return evicted;
+  }
+
+  /**
+   * @return the number of records rejected by this instance because they were larger than the log
+   */
+  public synchronized long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * @return the size of the backing file in bytes
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the backing file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  private void evictHead() {
+    advanceHead();
+    evicted++;
+  }
+
+  private void advanceHead() {
+    skipWrapMarker();
+    head += 4 + buffer.getInt(head);
+    count--;
+    headSequence++;
+    if (count == 0) {
+      head = DATA_START;
+      tail = DATA_START;
+    }
+  }
+
+  private void skipWrapMarker() {
+    if ((capacity - head < 4) || (buffer.getInt(head) == WRAP_MARKER)) {
+      head = DATA_START;
+    }
+  }
+
+  private boolean recover() {
+    if ((buffer.getInt(MAGIC_OFFSET) != MAGIC) || (buffer.getInt(CAPACITY_OFFSET) != capacity)) {
+      return false;
+    }
+    head = buffer.getInt(HEAD_OFFSET);
+    tail = buffer.getInt(TAIL_OFFSET);
+    count = buffer.getInt(COUNT_OFFSET);
+    headSequence = buffer.getLong(SEQUENCE_OFFSET);
+    evicted = buffer.getLong(EVICTED_OFFSET);
+
+    boolean valid = (head >= DATA_START) && (head <= capacity)
+        && (tail >= DATA_START) && (tail <= capacity) && (count >= 0);
+    if (!valid) {
+      log.warn("Discarding corrupt spill log " + file);
+    }
+    return valid;
+  }
+
+  private void reset() {
+    head = DATA_START;
+    tail = DATA_START;
+    count = 0;
+    headSequence = 0;
+    evicted = 0;
+    buffer.putInt(MAGIC_OFFSET, MAGIC);
+    buffer.putInt(CAPACITY_OFFSET, capacity);
+    writeHeader();
+  }
+
+  private void writeHeader() {
+    buffer.putInt(HEAD_OFFSET, head);
+    buffer.putInt(TAIL_OFFSET, tail);
+    buffer.putInt(COUNT_OFFSET, count);
+    buffer.putLong(SEQUENCE_OFFSET, headSequence);
+    buffer.putLong(EVICTED_OFFSET, evicted);
+  }
+
+  /**
+   * A record read from the log, tagged with its position in the sequence of records ever
+   * appended so that it can be removed safely after it has been delivered.
+   */
+  public static final class Record {
+    private final long sequence;
+    private final byte[] data;
+
+    Record(final long sequence, final byte[] data) {
+      this.sequence = sequence;
+      this.data = data;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public byte[] getData() {
+      return data;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.orbitz.monitoring.lib.spill;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically drains a {@link SpillLog} into a {@link Sink} on a background thread. Records are
+ * replayed oldest first and removed only once the sink has accepted them; the first refusal ends
+ * the pass, and the next pass starts over with the same record.
+ */
+public class SpillReplayer {
+  private static final Logger log = Logger.getLogger(SpillReplayer.class);
+
+  private final SpillLog spillLog;
+  private final Sink sink;
+
+  private long intervalMillis = 5000;
+  private int maxRecordsPerPass = 1000;
+
+  private final AtomicLong totalReplayed = new AtomicLong();
+  private final AtomicLong totalDiscarded = new AtomicLong();
+
+  private ScheduledExecutorService executor;
+
+  /**
+   * @param spillLog the log to drain
+   * @param sink the destination for replayed records
+   */
+  public SpillReplayer(final SpillLog spillLog, final Sink sink) {
+    this.spillLog = spillLog;
+    this.sink = sink;
+  }
+
+  /**
+   * Starts replaying on a daemon thread
+   */
+  public synchronized void startup() {
+    if (executor != null) {
+      return;
+    }
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(runnable, "erma-spill-replayer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          replay();
+        } catch (Throwable t) {
+          log.warn("Spill replay failed; will retry", t);
+        }
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the background thread and flushes the log
+   */
+  public synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    spillLog.flush();
+  }
+
+  /**
+   * Replays up to {@link #getMaxRecordsPerPass()} records, stopping early if the sink refuses one
+   * @return the number of records the sink accepted
+   */
+  public int replay() {
+    int replayed = 0;
+    if (!sink.isAvailable()) {
+      return replayed;
+    }
+
+    while (replayed < maxRecordsPerPass) {
+      SpillLog.Record record = spillLog.peek();
+      if (record == null) {
+        break;
+      }
+
+      boolean accepted;
+      try {
+        accepted = sink.replay(record.getData());
+      } catch (RuntimeException e) {
+        // a record the sink can never accept must not block the rest of the log
+        log.warn("Discarding spilled record the sink failed to replay", e);
+        spillLog.remove(record);
+        totalDiscarded.incrementAndGet();
+        continue;
+      }
+      if (!accepted) {
+        break;
+      }
+      spillLog.remove(record);
+      replayed++;
+    }
+
+    if (replayed > 0) {
+      totalReplayed.addAndGet(replayed);
+      spillLog.flush();
+    }
+    return replayed;
+  }
+
+  public long getTotalReplayed() {
+    return totalReplayed.get();
+  }
+
+  public long getTotalDiscarded() {
+    return totalDiscarded.get();
+  }
+
+  public long getIntervalMillis() {
+    return intervalMillis;
+  }
+
+  /**
+   * Sets the delay between replay passes. Takes effect on the next {@link #startup()}.
+   * @param intervalMillis the delay in milliseconds
+   */
+  public void setIntervalMillis(final long intervalMillis) {
+    this.intervalMillis = intervalMillis;
+  }
+
+  public int getMaxRecordsPerPass() {
+    return maxRecordsPerPass;
+  }
+
+  public void setMaxRecordsPerPass(final int maxRecordsPerPass) {
+    this.maxRecordsPerPass = maxRecordsPerPass;
+  }
+
+  /**
+   * The destination spilled records are replayed into
+   */
+  public interface Sink {
+    /**
+     * Checked before each pass so a sink that is known to be down or backed up can skip it
+     * @return true if records should be replayed now
+     */
+    boolean isAvailable();
+
+    /**
+     * Delivers one spilled record
+     * @param record the record, as it was appended to the log
+     * @return true if the record was delivered, false if the sink is unavailable and the
+     *         record should be retried later
+     * @throws RuntimeException if the record itself is bad; it is then discarded
+     */
+    boolean replay(byte[] record);
+  }
+}
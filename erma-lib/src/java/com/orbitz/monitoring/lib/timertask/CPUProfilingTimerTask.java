@@ -0,0 +1,40 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.lib.processor.CPUProfilingMonitorProcessor;
+
+import java.util.Map;
+
+/**
+ * CPUProfilingTimerTask fires an EventMonitor named CPUProfileStats for each transaction name a
+ * {@link CPUProfilingMonitorProcessor} measured since the last run. The name is in the "type"
+ * attribute, the number of transactions measured in "count", and their total CPU time and bytes
+ * allocated in "cpuTimeMillis" and "allocatedBytes". When the processor samples, "sampleInterval"
+ * gives the factor by which to scale these up to every transaction.
+ */
+public class CPUProfilingTimerTask
+    extends SummaryEmittingTimerTask<CPUProfilingMonitorProcessor.Summary> {
+
+  private final CPUProfilingMonitorProcessor processor;
+
+  public CPUProfilingTimerTask(final CPUProfilingMonitorProcessor processor) {
+    super("CPUProfileStats");
+    this.processor = processor;
+  }
+
+  @Override
+  protected Map<String, CPUProfilingMonitorProcessor.Summary> drainSummaries() {
+    return processor.drainSummaries();
+  }
+
+  @Override
+  protected void setAttributes(final EventMonitor monitor,
+      final CPUProfilingMonitorProcessor.Summary summary) {
+    monitor.set("count", summary.getCount());
+    monitor.set("cpuTimeMillis", summary.getCpuTimeMillis());
+    if (processor.isAllocationEnabled()) {
+      monitor.set("allocatedBytes", summary.getAllocatedBytes());
+    }
+    monitor.set("sampleInterval", processor.getSampleInterval());
+  }
+}
@@ -0,0 +1,36 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.lib.processor.ConcurrencyMonitorProcessor;
+
+import java.util.Map;
+
+/**
+ * ConcurrencyTimerTask fires an EventMonitor named ConcurrencyStats for each transaction name a
+ * {@link ConcurrencyMonitorProcessor} saw in flight since the last run. The name is in the
+ * "type" attribute, the number in flight now in "count", and the most in flight at once during
+ * the interval in "peak". Creating the task turns on peak tracking in the processor.
+ */
+public class ConcurrencyTimerTask
+    extends SummaryEmittingTimerTask<ConcurrencyMonitorProcessor.Concurrency> {
+
+  private final ConcurrencyMonitorProcessor processor;
+
+  public ConcurrencyTimerTask(final ConcurrencyMonitorProcessor processor) {
+    super("ConcurrencyStats");
+    this.processor = processor;
+    processor.setTrackPeaks(true);
+  }
+
+  @Override
+  protected Map<String, ConcurrencyMonitorProcessor.Concurrency> drainSummaries() {
+    return processor.drainConcurrency();
+  }
+
+  @Override
+  protected void setAttributes(final EventMonitor monitor,
+      final ConcurrencyMonitorProcessor.Concurrency concurrency) {
+    monitor.set("count", concurrency.getCount());
+    monitor.set("peak", concurrency.getPeak());
+  }
+}
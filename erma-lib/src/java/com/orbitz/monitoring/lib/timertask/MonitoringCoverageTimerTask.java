@@ -0,0 +1,38 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.lib.processor.LatencyMonitoringCoverageMonitorProcessor;
+
+import java.util.Map;
+
+/**
+ * MonitoringCoverageTimerTask fires an EventMonitor named MonitoringCoverageStats for each
+ * monitor name a {@link LatencyMonitoringCoverageMonitorProcessor} checked since the last run.
+ * The name is in the "type" attribute and the number of monitors checked in "count". Their total
+ * latency, the part of it no child monitor covered and the longest single gap, all in
+ * milliseconds, are in "latency", "uncoveredTime" and "maxGap".
+ */
+public class MonitoringCoverageTimerTask
+    extends SummaryEmittingTimerTask<LatencyMonitoringCoverageMonitorProcessor.Coverage> {
+
+  private final LatencyMonitoringCoverageMonitorProcessor processor;
+
+  public MonitoringCoverageTimerTask(final LatencyMonitoringCoverageMonitorProcessor processor) {
+    super("MonitoringCoverageStats");
+    this.processor = processor;
+  }
+
+  @Override
+  protected Map<String, LatencyMonitoringCoverageMonitorProcessor.Coverage> drainSummaries() {
+    return processor.drainCoverage();
+  }
+
+  @Override
+  protected void setAttributes(final EventMonitor monitor,
+      final LatencyMonitoringCoverageMonitorProcessor.Coverage coverage) {
+    monitor.set("count", coverage.getCount());
+    monitor.set("latency", coverage.getLatency());
+    monitor.set("uncoveredTime", coverage.getUncovered());
+    monitor.set("maxGap", coverage.getMaxGap());
+  }
+}
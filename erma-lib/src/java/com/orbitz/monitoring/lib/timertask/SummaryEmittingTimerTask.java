@@ -0,0 +1,59 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fires an ESSENTIAL EventMonitor for each monitor name a processor summarized since the last
+ * run, with the name in the "type" attribute. Subclasses drain the processor and set the
+ * attributes of each summary.
+ *
+ * @param <T> the type of summary
+ */
+public abstract class SummaryEmittingTimerTask<T> extends MonitorEmittingTimerTask {
+
+  private final String monitorName;
+
+  /**
+   * @param monitorName the name of the EventMonitors fired
+   */
+  protected SummaryEmittingTimerTask(final String monitorName) {
+    super();
+    this.monitorName = monitorName;
+  }
+
+  /**
+   * Takes the summaries gathered since the last call
+   * @return the summaries, keyed by monitor name
+   */
+  protected abstract Map<String, T> drainSummaries();
+
+  /**
+   * Sets the attributes of one summary
+   * @param monitor the monitor to fire
+   * @param summary the summary
+   */
+  protected abstract void setAttributes(EventMonitor monitor, T summary);
+
+  /**
+   * Fires a summary for each name seen during the interval.
+   */
+  public Collection<Monitor> emitMonitors() {
+    Map<String, T> summaries = drainSummaries();
+    List<Monitor> monitors = new ArrayList<Monitor>(summaries.size());
+    for (Map.Entry<String, T> entry : summaries.entrySet()) {
+      EventMonitor monitor = new EventMonitor(monitorName, MonitoringLevel.ESSENTIAL);
+      monitor.set("type", entry.getKey());
+      setAttributes(monitor, entry.getValue());
+      monitor.fire();
+      monitors.add(monitor);
+    }
+    return monitors;
+  }
+}
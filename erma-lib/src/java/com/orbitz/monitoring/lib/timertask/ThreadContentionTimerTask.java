@@ -0,0 +1,44 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.lib.processor.ThreadContentionMonitorProcessor;
+
+import java.util.Map;
+
+/**
+ * ThreadContentionTimerTask fires an EventMonitor named ThreadContentionStats for each transaction
+ * name a {@link ThreadContentionMonitorProcessor} measured since the last run. The name is in the
+ * "type" attribute and the number of transactions measured in "count". The totals are in
+ * "blockedCount", "blockedTime", "waitedCount" and "waitedTime", and upper bounds on the median
+ * and 99th percentile times in "blockedTimeP50", "blockedTimeP99", "waitedTimeP50" and
+ * "waitedTimeP99". Times are in milliseconds.
+ */
+public class ThreadContentionTimerTask
+    extends SummaryEmittingTimerTask<ThreadContentionMonitorProcessor.Contention> {
+
+  private final ThreadContentionMonitorProcessor processor;
+
+  public ThreadContentionTimerTask(final ThreadContentionMonitorProcessor processor) {
+    super("ThreadContentionStats");
+    this.processor = processor;
+  }
+
+  @Override
+  protected Map<String, ThreadContentionMonitorProcessor.Contention> drainSummaries() {
+    return processor.drainContention();
+  }
+
+  @Override
+  protected void setAttributes(final EventMonitor monitor,
+      final ThreadContentionMonitorProcessor.Contention contention) {
+    monitor.set("count", contention.getCount());
+    monitor.set("blockedCount", contention.getBlockedCount());
+    monitor.set("blockedTime", contention.getBlockedTime());
+    monitor.set("blockedTimeP50", contention.getBlockedTimePercentile(50));
+    monitor.set("blockedTimeP99", contention.getBlockedTimePercentile(99));
+    monitor.set("waitedCount", contention.getWaitedCount());
+    monitor.set("waitedTime", contention.getWaitedTime());
+    monitor.set("waitedTimeP50", contention.getWaitedTimePercentile(50));
+    monitor.set("waitedTimeP99", contention.getWaitedTimePercentile(99));
+  }
+}
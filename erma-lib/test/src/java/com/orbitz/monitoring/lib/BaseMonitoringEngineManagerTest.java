@@ -83,4 +83,22 @@ public class BaseMonitoringEngineManagerTest extends TestCase {
       fail("RuntimeException should have been thrown");
     }
   }
+
+  /**
+   * @see BaseMonitoringEngineManager#setInstrumentationEnabled(boolean)
+   */
+  public void testInstrumentation() {
+    assertEquals("", manager.getProcessorStatisticsListing());
+    manager.setInstrumentationEnabled(true);
+    try {
+      new EventMonitor("instrumented").fire();
+      assertTrue(manager.getPhaseStatisticsListing().startsWith("CREATED: count=1"));
+      assertTrue(manager.getPhaseStatisticsListing().indexOf("PROCESS: count=1") >= 0);
+      manager.resetProcessorStatistics();
+      assertTrue(manager.getPhaseStatisticsListing().indexOf("PROCESS: count=0") >= 0);
+    } finally {
+      manager.setInstrumentationEnabled(false);
+    }
+    assertEquals("", manager.getPhaseStatisticsListing());
+  }
 }
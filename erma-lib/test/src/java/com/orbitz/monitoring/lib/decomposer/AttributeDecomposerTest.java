@@ -10,6 +10,7 @@ import com.orbitz.monitoring.api.monitor.CompositeAttributeHolder;
 import com.orbitz.monitoring.api.monitor.EventMonitor;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -214,6 +215,42 @@ public class AttributeDecomposerTest {
     assertEquals(buffer.toString(), decomposed);
   }
   
+  /**
+   * Tests that one decomposer can be shared by threads decomposing the same classes
+   * @throws Exception in case of failure
+   */
+  @Test
+  public void testConcurrentReuse() throws Exception {
+    final List<Throwable> failures = new ArrayList<Throwable>();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 500; j++) {
+              Map<String, Object> map = new HashMap<String, Object>();
+              map.put("oc", new OC<String>("foo" + j));
+              map.put("list", new ArrayList<Object>(Sets.newHashSet("a", Integer.valueOf(j))));
+              Map<?, ?> decomposed = (Map<?, ?>)_decomposer.decompose(map);
+              assertEquals("foo" + j, ((DynaBean)decomposed.get("oc")).get("object"));
+              assertEquals(2, ((List<?>)decomposed.get("list")).size());
+            }
+          } catch (Throwable t) {
+            synchronized (failures) {
+              failures.add(t);
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Collections.emptyList(), failures);
+  }
+  
   /**
    * This class is public so that {@link MethodUtils}, which is used by ReflectiveDecomposer, can
    * see it
@@ -0,0 +1,192 @@
+package com.orbitz.monitoring.lib.decomposer;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link PropertyMapDecomposer} through {@link AttributeDecomposer}
+ */
+public class PropertyMapDecomposerTest {
+  private AttributeDecomposer _decomposer;
+  
+  /**
+   * Prepares for each test
+   */
+  @Before
+  public void setUp() {
+    _decomposer = new AttributeDecomposer();
+    _decomposer.setPropertyMaps(true);
+  }
+  
+  /**
+   * @see AttributeDecomposer#decompose(Object)
+   */
+  @Test
+  public void testDecompose() {
+    Map<?, ?> decomposed = (Map<?, ?>)_decomposer.decompose(new Bean("a", null));
+    assertEquals("a", decomposed.get("name"));
+    assertNull(decomposed.get("next"));
+    assertEquals(Bean.class.getName(), decomposed.get("class"));
+    assertEquals(3, decomposed.size());
+    try {
+      ((Map<Object, Object>)decomposed).put("name", "b");
+      fail("property maps should be immutable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+  
+  /**
+   * @see AttributeDecomposer#setMaxDepth(int)
+   */
+  @Test
+  public void testMaxDepth() {
+    _decomposer.setMaxDepth(2);
+    Bean bean = new Bean("a", new Bean("b", new Bean("c", null)));
+    Map<?, ?> decomposed = (Map<?, ?>)_decomposer.decompose(bean);
+    Map<?, ?> next = (Map<?, ?>)decomposed.get("next");
+    assertEquals("b", next.get("name"));
+    assertTrue(next.containsKey("next"));
+    assertNull(next.get("next"));
+  }
+  
+  /**
+   * Tests that collections count towards the depth as well as beans
+   */
+  @Test
+  public void testMaxDepthCountsCollections() {
+    _decomposer.setMaxDepth(2);
+    List<?> decomposed = (List<?>)_decomposer.decompose(
+        Arrays.asList(Arrays.asList(Arrays.asList("x"))));
+    List<?> inner = (List<?>)decomposed.get(0);
+    assertEquals(1, inner.size());
+    assertNull(inner.get(0));
+    
+    Map<?, ?> bean = (Map<?, ?>)((List<?>)_decomposer.decompose(
+        Arrays.asList(new Bean("a", new Bean("b", null))))).get(0);
+    assertEquals("a", bean.get("name"));
+    assertNull(bean.get("next"));
+  }
+  
+  /**
+   * @see AttributeDecomposer#setMaxProperties(int)
+   */
+  @Test
+  public void testMaxProperties() {
+    _decomposer.setMaxProperties(2);
+    Map<?, ?> decomposed = (Map<?, ?>)_decomposer.decompose(new Bean("a", null));
+    assertEquals(2, decomposed.size());
+    assertTrue(decomposed.containsKey("class"));
+    assertTrue(decomposed.containsKey("name"));
+  }
+  
+  /**
+   * Tests that a cycle decomposes to the same map and survives serialization
+   * @throws Exception in case of failure
+   */
+  @Test
+  public void testCycleSerializes() throws Exception {
+    Bean bean = new Bean("a", null);
+    bean.setNext(bean);
+    Map<?, ?> decomposed = (Map<?, ?>)_decomposer.decompose(bean);
+    assertSame(decomposed, decomposed.get("next"));
+    
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(decomposed);
+    out.close();
+    Map<?, ?> copy = (Map<?, ?>)new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertEquals("a", copy.get("name"));
+    assertSame(copy, copy.get("next"));
+    assertEquals(decomposed, copy);
+    assertEquals(copy, decomposed);
+    assertEquals(decomposed.hashCode(), copy.hashCode());
+  }
+  
+  /**
+   * Tests that property maps and other maps with the same entries are equal either way round
+   */
+  @Test
+  public void testEqualsOtherMaps() {
+    Map<?, ?> decomposed = (Map<?, ?>)_decomposer.decompose(new Bean("a", null));
+    Map<String, Object> other = new HashMap<String, Object>();
+    other.put("class", Bean.class.getName());
+    other.put("name", "a");
+    other.put("next", null);
+    assertEquals(other, decomposed);
+    assertEquals(decomposed, other);
+    assertEquals(other.hashCode(), decomposed.hashCode());
+    
+    other.put("name", "b");
+    assertFalse(decomposed.equals(other));
+    assertFalse(other.equals(decomposed));
+  }
+  
+  /**
+   * Tests that a cycle through two beans can be hashed, compared and rendered
+   */
+  @Test
+  public void testTwoBeanCycle() {
+    Bean a = new Bean("a", null);
+    Bean b = new Bean("b", a);
+    a.setNext(b);
+    Map<?, ?> decomposed = (Map<?, ?>)_decomposer.decompose(a);
+    Map<?, ?> next = (Map<?, ?>)decomposed.get("next");
+    assertSame(decomposed, next.get("next"));
+    
+    assertEquals(decomposed.hashCode(), _decomposer.decompose(a).hashCode());
+    assertEquals(decomposed, _decomposer.decompose(a));
+    assertFalse(decomposed.equals(next));
+    assertEquals("{class=" + Bean.class.getName() + ", name=a, next={class="
+        + Bean.class.getName() + ", name=b, next=(cycle)}}", decomposed.toString());
+    assertEquals("[" + decomposed + "]", Arrays.asList(decomposed).toString());
+  }
+  
+  /**
+   * Tests that switching back gives LazyDynaBeans again
+   */
+  @Test
+  public void testSwitchBack() {
+    _decomposer.setPropertyMaps(false);
+    Serializable decomposed = _decomposer.decompose(new Bean("a", null));
+    assertTrue(decomposed instanceof org.apache.commons.beanutils.LazyDynaBean);
+  }
+  
+  /**
+   * This class is public so that the read methods are accessible
+   */
+  public static class Bean {
+    private final String name;
+    private Bean next;
+    
+    Bean(final String name, final Bean next) {
+      this.name = name;
+      this.next = next;
+    }
+    
+    public String getName() {
+      return name;
+    }
+    
+    public Bean getNext() {
+      return next;
+    }
+    
+    public void setNext(final Bean next) {
+      this.next = next;
+    }
+  }
+}
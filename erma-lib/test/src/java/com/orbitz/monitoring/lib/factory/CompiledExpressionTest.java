@@ -0,0 +1,114 @@
+package com.orbitz.monitoring.lib.factory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+
+/**
+ * Tests {@link CompiledExpression}
+ */
+public class CompiledExpressionTest {
+  private static final String[] COMPILED = {
+      "m.get('name').matches('foo.*')",
+      "m.get(\"name\") == \"foo\"",
+      "'foo' == name",
+      "name eq 'foo' and not (name ne 'foo')",
+      "m.get('user') == 'bob' || m.get('name').startsWith('b')",
+      "m.get('name').startsWith('b') || m.get('user') == 'bob'",
+      "!(m.get('user') == 'bob')",
+      "!user.matches('b.*') && name.endsWith('o')",
+      "user != 'bob'",
+      "count == '5'",
+      "m.get('count').matches('5')",
+      "name.equalsIgnoreCase('FOO') && (user.equals('bob') || user == 'alice')"};
+  
+  private static final String[] INTERPRETED = {
+      "m.bar", "m.name", "name", "!name == 'foo'", "size(name) > 2", "name == null",
+      "name.length() == 3", "m.get('name') == m.get('user')"};
+  
+  @Test
+  public void testCompiledAgreesWithJexl() throws Exception {
+    Monitor[] monitors = {monitor("foo", null, null), monitor("bar", "bob", null),
+        monitor("baz", "alice", null), monitor("FOO", "bob", Integer.valueOf(5)),
+        monitor("foo", "carol", "5")};
+    for (String source : COMPILED) {
+      CompiledExpression expression = CompiledExpression.compile(source);
+      assertTrue(source, expression.isCompiled());
+      for (Monitor monitor : monitors) {
+        assertEquals(source + " for " + monitor, expression.interpret(monitor),
+            expression.matches(monitor));
+      }
+    }
+    for (String source : INTERPRETED) {
+      CompiledExpression expression;
+      try {
+        expression = CompiledExpression.compile(source);
+      } catch (Exception e) {
+        continue;
+      }
+      assertFalse(source, expression.isCompiled());
+      for (Monitor monitor : monitors) {
+        assertEquals(source, expression.interpret(monitor), expression.matches(monitor));
+      }
+    }
+  }
+  
+  @Test
+  public void testAttributeNamedM() throws Exception {
+    CompiledExpression expression = CompiledExpression.compile("m.get('name') == 'foo'");
+    EventMonitor monitor = monitor("foo", null, null);
+    monitor.set("m", "hidden");
+    assertFalse(expression.matches(monitor));
+  }
+  
+  @Test
+  public void testResultsRememberedByName() throws Exception {
+    CompiledExpression expression = CompiledExpression.compile(
+        "m.get('name').matches('foo.*') || name == 'bar'");
+    assertTrue(expression.isNameOnly());
+    assertFalse(CompiledExpression.compile("name == 'foo' && user == 'bob'").isNameOnly());
+    
+    CountingMonitor first = new CountingMonitor("foo.bar");
+    assertTrue(expression.matches(first));
+    assertEquals(2, first.gets);
+    
+    CountingMonitor second = new CountingMonitor("foo.bar");
+    assertTrue(expression.matches(second));
+    assertEquals(1, second.gets);
+    
+    CountingMonitor other = new CountingMonitor("baz");
+    assertFalse(expression.matches(other));
+    assertFalse(expression.matches(other));
+    assertEquals(4, other.gets);
+  }
+  
+  private static EventMonitor monitor(String name, String user, Object count) {
+    EventMonitor monitor = new EventMonitor(name);
+    if (user != null) {
+      monitor.set("user", user);
+    }
+    if (count != null) {
+      monitor.set("count", count);
+    }
+    return monitor;
+  }
+  
+  private static class CountingMonitor extends EventMonitor {
+    private int gets;
+    
+    CountingMonitor(String name) {
+      super(name);
+    }
+    
+    @Override
+    public Object get(String key) {
+      gets++;
+      return super.get(key);
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package com.orbitz.monitoring.lib.logfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.orbitz.monitoring.api.CompositeMonitor;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.AbstractCompositeMonitor;
+import com.orbitz.monitoring.api.monitor.AbstractMonitor;
+
+/**
+ * Tests {@link BinaryMonitorWriter} and {@link BinaryMonitorReader}
+ */
+public class BinaryMonitorWriterTest {
+  private File _dir;
+  private File _file;
+
+  /**
+   * Prepares for each test
+   * @throws Exception if the temporary directory cannot be created
+   */
+  @Before
+  public void setUp() throws Exception {
+    _dir = File.createTempFile("erma-binary", "");
+    _dir.delete();
+    _dir.mkdirs();
+    _file = new File(_dir, "monitors.bin");
+  }
+
+  /**
+   * Cleans up after each test
+   */
+  @After
+  public void tearDown() {
+    File[] files = _dir.listFiles();
+    for (int i = 0; i < files.length; i++) {
+      files[i].delete();
+    }
+    _dir.delete();
+  }
+
+  /**
+   * Typed attributes and the child tree survive a round trip
+   * @throws Exception if the file cannot be written or read
+   */
+  @Test
+  public void testRoundTrip() throws Exception {
+    roundTrip(true);
+  }
+
+  /**
+   * The round trip works the same through a buffered channel
+   * @throws Exception if the file cannot be written or read
+   */
+  @Test
+  public void testRoundTripBuffered() throws Exception {
+    roundTrip(false);
+  }
+
+  private void roundTrip(boolean memoryMapped) throws Exception {
+    CompositeMonitor parent = new AbstractCompositeMonitor("parent", MonitoringLevel.ESSENTIAL) {};
+    parent.set("int", 42);
+    parent.set("long", -5000000000L);
+    parent.set("double", 1.5d);
+    parent.set("float", 2.5f);
+    parent.set("short", (short)-7);
+    parent.set("byte", (byte)3);
+    parent.set("char", '\u00e9');
+    parent.set("boolean", true);
+    parent.set("date", new Date(1309443907000L));
+    parent.set("unicode", "caf\u00e9");
+    parent.set("list", Arrays.asList("a", Integer.valueOf(1)));
+    parent.set("set", new HashSet<String>(Collections.singleton("s")));
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("key", Long.valueOf(9));
+    parent.set("map", map);
+    parent.set("array", new int[] {1, 2});
+    parent.set("other", new StringBuilder("built"));
+
+    Monitor child = new AbstractMonitor("child", MonitoringLevel.DEBUG) {};
+    parent.addChildMonitor(child);
+    parent.addChildMonitor(new AbstractCompositeMonitor("emptyComposite",
+        MonitoringLevel.DEBUG) {});
+
+    BinaryMonitorWriter writer = open(1024 * 1024, memoryMapped);
+    writer.write(parent);
+    writer.close();
+
+    BinaryMonitorReader reader = new BinaryMonitorReader(_file);
+    Monitor read = reader.next();
+    assertFalse(reader.hasNext());
+
+    Map<String, Object> expected = new HashMap<String, Object>(parent.getAll());
+    expected.put("array", Arrays.asList(Integer.valueOf(1), Integer.valueOf(2)));
+    expected.put("other", "built");
+    assertEquals(expected, new HashMap<String, Object>(read.getAll()));
+    assertEquals(MonitoringLevel.ESSENTIAL, read.getLevel());
+
+    List<Monitor> children = (List<Monitor>)((CompositeMonitor)read).getChildMonitors();
+    assertEquals(2, children.size());
+    assertEquals("child", children.get(0).getAsString(Monitor.NAME));
+    assertEquals(MonitoringLevel.DEBUG, children.get(0).getLevel());
+    assertFalse(children.get(0) instanceof CompositeMonitor);
+    assertTrue(children.get(1) instanceof CompositeMonitor);
+    assertTrue(((CompositeMonitor)children.get(1)).getChildMonitors().isEmpty());
+    assertEquals(MonitoringLevel.DEBUG, children.get(1).getLevel());
+  }
+
+  /**
+   * Every rolled file carries its own name table, and appending to a file starts a new one
+   * @throws Exception if the files cannot be written or read
+   */
+  @Test
+  public void testEachFileIsReadable() throws Exception {
+    BinaryMonitorWriter writer = open(200);
+    for (int i = 0; i < 20; i++) {
+      writer.write(monitor(i));
+    }
+    writer.close();
+    writer = open(200);
+    writer.write(monitor(20));
+    writer.close();
+
+    int backups = 0;
+    while (new File(_file.getPath() + "." + (backups + 1)).exists()) {
+      backups++;
+    }
+    assertTrue(backups > 1);
+    int next = -1;
+    for (int i = backups; i >= 0; i--) {
+      File file = (i == 0) ? _file : new File(_file.getPath() + "." + i);
+      BinaryMonitorReader reader = new BinaryMonitorReader(file);
+      try {
+        while (reader.hasNext()) {
+          Monitor monitor = reader.next();
+          int index = monitor.getAsInt("index");
+          if (next >= 0) {
+            assertEquals(next, index);
+          }
+          assertEquals("monitor" + index, monitor.getAsString(Monitor.NAME));
+          next = index + 1;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    assertEquals(21, next);
+  }
+
+  /**
+   * The zero-filled tail of a memory-mapped file that was never truncated ends the iteration
+   * @throws Exception if the file cannot be written or read
+   */
+  @Test
+  public void testUnwrittenTail() throws Exception {
+    BinaryMonitorWriter writer = open(1024);
+    writer.write(monitor(0));
+    writer.close();
+
+    RandomAccessFile file = new RandomAccessFile(_file, "rw");
+    file.setLength(file.length() + 100);
+    file.close();
+
+    BinaryMonitorReader reader = new BinaryMonitorReader(_file);
+    assertEquals(0, reader.next().getAsInt("index"));
+    assertFalse(reader.hasNext());
+  }
+
+  /**
+   * A closed reader returns no more monitors and leaves the file free to be deleted
+   * @throws Exception if the file cannot be written or read
+   */
+  @Test
+  public void testClose() throws Exception {
+    BinaryMonitorWriter writer = open(1024);
+    writer.write(monitor(0));
+    writer.write(monitor(1));
+    writer.close();
+
+    BinaryMonitorReader reader = new BinaryMonitorReader(_file);
+    assertEquals(0, reader.next().getAsInt("index"));
+    reader.close();
+    assertFalse(reader.hasNext());
+    reader.close();
+    assertTrue(_file.delete());
+  }
+
+  private BinaryMonitorWriter open(long maxFileSize) throws Exception {
+    return open(maxFileSize, true);
+  }
+
+  private BinaryMonitorWriter open(long maxFileSize, boolean memoryMapped) throws Exception {
+    return new BinaryMonitorWriter(new RollingFileChannel(_file, maxFileSize, 50, memoryMapped,
+        memoryMapped ? 0 : 8192));
+  }
+
+  private Monitor monitor(int index) {
+    Monitor monitor = new AbstractMonitor("monitor" + index) {};
+    monitor.set("index", index);
+    monitor.set("attribute" + (index % 3), "value");
+    return monitor;
+  }
+}
@@ -0,0 +1,149 @@
+package com.orbitz.monitoring.lib.logfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link RollingFileChannel}
+ */
+public class RollingFileChannelTest {
+  private File _dir;
+  private File _file;
+
+  /**
+   * Prepares for each test
+   * @throws Exception if the temporary directory cannot be created
+   */
+  @Before
+  public void setUp() throws Exception {
+    _dir = File.createTempFile("erma-rolling", "");
+    _dir.delete();
+    _dir.mkdirs();
+    _file = new File(_dir, "monitors.log");
+  }
+
+  /**
+   * Cleans up after each test
+   */
+  @After
+  public void tearDown() {
+    File[] files = _dir.listFiles();
+    for (int i = 0; i < files.length; i++) {
+      files[i].delete();
+    }
+    _dir.delete();
+  }
+
+  /**
+   * Buffered writes reach the file and records are not split when the file rolls
+   * @throws Exception if the file cannot be written
+   */
+  @Test
+  public void testRollsBufferedFile() throws Exception {
+    writeRecords(new RollingFileChannel(_file, 100, 2, false, 16));
+    assertRolled();
+  }
+
+  /**
+   * Mapped writes reach the file, and rolled files are truncated to their content
+   * @throws Exception if the file cannot be written
+   */
+  @Test
+  public void testRollsMappedFile() throws Exception {
+    writeRecords(new RollingFileChannel(_file, 100, 2, true, 0));
+    assertRolled();
+  }
+
+  /**
+   * Rolling and closing a mapped file release its mapping instead of leaving it to the garbage
+   * collector. Only checked where the mappings of the process can be listed.
+   * @throws Exception if the file cannot be written
+   */
+  @Test
+  public void testReleasesMappings() throws Exception {
+    File maps = new File("/proc/self/maps");
+    Assume.assumeTrue(maps.canRead());
+    writeRecords(new RollingFileChannel(_file, 100, 2, true, 0));
+    BufferedReader reader = new BufferedReader(new FileReader(maps));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        assertFalse(line, line.contains(_dir.getName()));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reopening a file appends to it
+   * @throws Exception if the file cannot be written
+   */
+  @Test
+  public void testAppendsOnReopen() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      RollingFileChannel channel = new RollingFileChannel(_file, 1000, 1, true, 0);
+      channel.write(bytes('a' + i, 10), 0, 10);
+      channel.close();
+    }
+    assertEquals("aaaaaaaaaabbbbbbbbbb", read(_file));
+  }
+
+  // writes 10 records of 30 bytes, so each file holds 3 and the last one holds 1
+  private void writeRecords(RollingFileChannel channel) throws IOException {
+    for (int i = 0; i < 10; i++) {
+      channel.write(bytes('0' + i, 30), 0, 30);
+    }
+    assertEquals(3, channel.getRollovers());
+    assertEquals(30, channel.getPosition());
+    channel.close();
+  }
+
+  private void assertRolled() throws IOException {
+    assertEquals(repeat('9', 30), read(_file));
+    assertEquals(repeat('6', 30) + repeat('7', 30) + repeat('8', 30),
+        read(new File(_file.getPath() + ".1")));
+    assertEquals(repeat('3', 30) + repeat('4', 30) + repeat('5', 30),
+        read(new File(_file.getPath() + ".2")));
+    assertFalse(new File(_file.getPath() + ".3").exists());
+    assertTrue(_file.length() == 30);
+  }
+
+  private byte[] bytes(int value, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte)value;
+    }
+    return bytes;
+  }
+
+  private String repeat(char c, int length) {
+    return new String(bytes(c, length), 0);
+  }
+
+  private String read(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      byte[] bytes = new byte[(int)file.length()];
+      int read = 0;
+      while (read < bytes.length) {
+        read += in.read(bytes, read, bytes.length - read);
+      }
+      return new String(bytes, "US-ASCII");
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Map;
+
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.spi.LoggingEvent;
@@ -132,6 +134,57 @@ public class CPUProfilingMonitorProcessorTest {
       assertTrue("CPU time apparently not measured", (cpuTimeMillis > 1));
   }
 
+  @Test
+  public void testAllocatedBytes() {
+      Monitor m = new TransactionMonitor("T1");
+      cpuProfilingMonitorProcessor.setEnabled(true);
+      if (!cpuProfilingMonitorProcessor.isAllocationEnabled()) {
+          return;
+      }
+      cpuProfilingMonitorProcessor.monitorStarted(m);
+
+      byte[][] garbage = new byte[64][];
+      for (int i = 0; i < garbage.length; i++) {
+          garbage[i] = new byte[16384];
+      }
+
+      cpuProfilingMonitorProcessor.process(m);
+
+      assertTrue(garbage.length * 16384 <= m.getAsLong("allocatedBytes"));
+  }
+
+  @Test
+  public void testSampling() {
+      TestAppender appender = new TestAppender();
+      Logger logger = Logger.getLogger(CPUProfilingMonitorProcessor.class.getName());
+      logger.addAppender(appender);
+      cpuProfilingMonitorProcessor.setEnabled(true);
+      cpuProfilingMonitorProcessor.setSampleInterval(4);
+
+      int measured = 0;
+      for (int i = 0; i < 16; i++) {
+          Monitor m = new TransactionMonitor(i % 2 == 0 ? "T1" : "T2");
+          cpuProfilingMonitorProcessor.monitorStarted(m);
+          cpuProfilingMonitorProcessor.process(m);
+          if (m.hasAttribute("cpuTimeMillis")) {
+              measured++;
+          }
+      }
+      logger.removeAppender(appender);
+
+      assertEquals(4, measured);
+      assertTrue(appender.getEvents().isEmpty());
+
+      Map<String, CPUProfilingMonitorProcessor.Summary> summaries =
+              cpuProfilingMonitorProcessor.drainSummaries();
+      long count = 0;
+      for (CPUProfilingMonitorProcessor.Summary summary : summaries.values()) {
+          count += summary.getCount();
+      }
+      assertEquals(4, count);
+      assertTrue(cpuProfilingMonitorProcessor.drainSummaries().isEmpty());
+  }
+
   private void consumeCPU() {
     long start = System.currentTimeMillis();
     while (System.currentTimeMillis() < start + 500) {
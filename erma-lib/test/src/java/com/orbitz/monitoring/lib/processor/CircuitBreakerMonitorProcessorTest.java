@@ -0,0 +1,260 @@
+package com.orbitz.monitoring.lib.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.MonitoringEngine;
+import com.orbitz.monitoring.api.MonitoringLevel;
+import com.orbitz.monitoring.api.monitor.AbstractMonitor;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.test.MockDecomposer;
+import com.orbitz.monitoring.test.MockMonitorProcessor;
+import com.orbitz.monitoring.test.MockMonitorProcessorFactory;
+
+/**
+ * Tests {@link CircuitBreakerMonitorProcessor}
+ */
+public class CircuitBreakerMonitorProcessorTest extends TestCase {
+    private MockMonitorProcessor delegate;
+    private CircuitBreakerMonitorProcessor breaker;
+    private List<Monitor> events;
+    private MonitorProcessor recorder;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        events = new ArrayList<Monitor>();
+        recorder = new MonitorProcessorAdapter() {
+            @Override
+            public void process(Monitor monitor) {
+                if (CircuitBreakerMonitorProcessor.STATE_CHANGE_EVENT.equals(
+                        monitor.getAsString(Monitor.NAME))) {
+                    events.add(monitor);
+                }
+            }
+        };
+        MonitoringEngine engine = MonitoringEngine.getInstance();
+        engine.setProcessorFactory(new MockMonitorProcessorFactory(recorder));
+        engine.setDecomposer(new MockDecomposer());
+        engine.restart();
+        engine.setMonitoringEnabled(true);
+
+        delegate = new MockMonitorProcessor();
+        delegate.setName("delegate");
+        breaker = new CircuitBreakerMonitorProcessor(delegate);
+        breaker.setTimeBudgetMillis(5);
+        breaker.setSlowCallThreshold(2);
+        breaker.setProbeIntervalMillis(50);
+    }
+
+    protected void tearDown() throws Exception {
+        MonitoringEngine.getInstance().shutdown();
+        super.tearDown();
+    }
+
+    public void testTripsAndRecovers() throws Exception {
+        assertEquals("delegate", breaker.getName());
+        delegate.setProcessDelay(20);
+        breaker.process(monitor(1));
+        assertEquals("CLOSED", breaker.getState());
+        breaker.process(monitor(2));
+        assertEquals("OPEN", breaker.getState());
+        assertEquals(1, breaker.getTotalTrips());
+
+        breaker.process(monitor(3));
+        assertEquals(1, breaker.getTotalSkipped());
+        assertEquals(2, delegate.extractProcessObjects().length);
+
+        // a slow probe keeps the breaker open
+        Thread.sleep(60);
+        breaker.process(monitor(4));
+        assertEquals("OPEN", breaker.getState());
+        assertEquals(2, breaker.getTotalTrips());
+
+        delegate.setProcessDelay(0);
+        Thread.sleep(60);
+        breaker.process(monitor(5));
+        assertEquals("CLOSED", breaker.getState());
+        breaker.process(monitor(6));
+        assertEquals(3, delegate.extractProcessObjects().length);
+
+        String[] expected = {"CLOSED", "OPEN", "OPEN", "HALF_OPEN", "HALF_OPEN", "OPEN",
+            "OPEN", "HALF_OPEN", "HALF_OPEN", "CLOSED"};
+        assertEquals(expected.length / 2, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            Monitor event = events.get(i);
+            assertEquals(MonitoringLevel.ESSENTIAL, event.getLevel());
+            assertEquals("delegate", event.getAsString("processorName"));
+            assertEquals(expected[i * 2], event.getAsString("previousState"));
+            assertEquals(expected[i * 2 + 1], event.getAsString("state"));
+        }
+    }
+
+    public void testFastCallsResetTheCount() {
+        delegate.setProcessDelay(20);
+        breaker.process(monitor(1));
+        delegate.setProcessDelay(0);
+        breaker.process(monitor(2));
+        delegate.setProcessDelay(20);
+        breaker.process(monitor(3));
+        assertEquals("CLOSED", breaker.getState());
+        assertEquals(2, breaker.getTotalSlowCalls());
+        assertEquals(3, breaker.getTotalCalls());
+    }
+
+    public void testStalledCallOpensBreaker() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        breaker.setProcessor(new MonitorProcessorAdapter() {
+            @Override
+            public void process(Monitor monitor) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+        Thread stuck = new Thread() {
+            @Override
+            public void run() {
+                breaker.process(monitor(1));
+            }
+        };
+        stuck.start();
+        try {
+            assertTrue(entered.await(1, TimeUnit.SECONDS));
+            Thread.sleep(20);
+            breaker.process(monitor(2));
+            assertEquals("OPEN", breaker.getState());
+            assertEquals(1, breaker.getTotalSkipped());
+        } finally {
+            release.countDown();
+            stuck.join();
+        }
+
+        breaker.reset();
+        assertEquals("CLOSED", breaker.getState());
+    }
+
+    public void testExceptionsPassThrough() {
+        delegate.setThrowThrowableDuringProcessing(true);
+        try {
+            breaker.process(monitor(1));
+            fail("Expected the processor's error");
+        } catch (Error e) {
+            // expected
+        }
+        assertEquals("CLOSED", breaker.getState());
+        assertEquals(1, breaker.getTotalCalls());
+    }
+
+    public void testSlowFailuresCount() {
+        breaker.setProcessor(new MonitorProcessorAdapter() {
+            @Override
+            public void process(Monitor monitor) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                throw new IllegalStateException("timed out");
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            try {
+                breaker.process(monitor(i));
+                fail("Expected the processor's exception");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        assertEquals("OPEN", breaker.getState());
+        assertEquals(2, breaker.getTotalSlowCalls());
+    }
+
+    public void testDecisionIsKeptPerMonitor() {
+        delegate.setProcessDelay(20);
+        Monitor admitted = monitor(1);
+        breaker.monitorCreated(admitted);
+        breaker.monitorCreated(monitor(2));
+        assertEquals("OPEN", breaker.getState());
+        Monitor refused = monitor(3);
+        breaker.monitorCreated(refused);
+        assertEquals(1, breaker.getTotalSkipped());
+
+        // started before the breaker opened, so it is seen through to the end
+        delegate.setProcessDelay(0);
+        breaker.monitorStarted(admitted);
+        breaker.process(admitted);
+        assertEquals(1, delegate.extractMonitorStartedObjects().length);
+        assertEquals(1, delegate.extractProcessObjects().length);
+        assertNoMarker(admitted);
+
+        // refused when created, so it stays refused after the breaker closes
+        breaker.reset();
+        breaker.monitorStarted(refused);
+        breaker.process(refused);
+        assertEquals(0, delegate.extractMonitorStartedObjects().length);
+        assertEquals(0, delegate.extractProcessObjects().length);
+        assertEquals(3, breaker.getTotalSkipped());
+        assertNoMarker(refused);
+    }
+
+    public void testStateChangesAreFiredAfterTheCallWithoutTheProcessor() throws Exception {
+        final List<String> seen = new ArrayList<String>();
+        final int[] delay = {20};
+        breaker.setProcessor(new MonitorProcessorAdapter() {
+            @Override
+            public void monitorCreated(Monitor monitor) {
+                seen.add(monitor.getAsString(Monitor.NAME));
+                sleep(delay[0]);
+            }
+
+            @Override
+            public void process(Monitor monitor) {
+                seen.add(monitor.getAsString(Monitor.NAME));
+                sleep(delay[0]);
+            }
+        });
+        MonitoringEngine.getInstance().setProcessorFactory(
+                new MockMonitorProcessorFactory(new MonitorProcessor[] {recorder, breaker}));
+
+        new EventMonitor("slow").fire();
+        assertEquals("OPEN", breaker.getState());
+        assertEquals(1, events.size());
+
+        delay[0] = 0;
+        Thread.sleep(60);
+        new EventMonitor("probe").fire();
+        assertEquals("CLOSED", breaker.getState());
+        assertEquals(3, events.size());
+        assertEquals("CLOSED", events.get(2).getAsString("state"));
+        assertFalse(seen.contains(CircuitBreakerMonitorProcessor.STATE_CHANGE_EVENT));
+        assertEquals(4, seen.size());
+    }
+
+    private static void assertNoMarker(Monitor monitor) {
+        for (Object key : monitor.getAll().keySet()) {
+            assertFalse(key.toString(), key.toString().startsWith("_circuitBreaker"));
+        }
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
+    private static Monitor monitor(int index) {
+        return new AbstractMonitor("m" + index) {};
+    }
+}
@@ -163,4 +163,76 @@ public class ConcurrencyMonitorProcessorTest extends TestCase {
         assertEquals(Level.WARN, loggingEvent.getLevel());
         assertEquals("No count available for Monitor named T1", loggingEvent.getMessage());
     }
+    
+    public void testIdleNamesForgotten() {
+        Monitor m = new TransactionMonitor("T1");
+        concurrencyMonitorProcessor.monitorStarted(m);
+        concurrencyMonitorProcessor.process(m);
+
+        // without peak tracking nothing is left for a drain to report
+        assertTrue(concurrencyMonitorProcessor.drainConcurrency().isEmpty());
+    }
+    
+    public void testPeaks() {
+        concurrencyMonitorProcessor.setTrackPeaks(true);
+        Monitor m1 = new TransactionMonitor("T1");
+        Monitor m2 = new TransactionMonitor("T1");
+        Monitor m3 = new TransactionMonitor("T2");
+        concurrencyMonitorProcessor.monitorStarted(m1);
+        concurrencyMonitorProcessor.monitorStarted(m2);
+        concurrencyMonitorProcessor.monitorStarted(m3);
+        concurrencyMonitorProcessor.process(m1);
+        concurrencyMonitorProcessor.process(m3);
+
+        Map<String, ConcurrencyMonitorProcessor.Concurrency> peaks =
+                concurrencyMonitorProcessor.drainConcurrency();
+        assertEquals(2, peaks.size());
+        assertEquals(2, peaks.get("T1").getPeak());
+        assertEquals(1, peaks.get("T1").getCount());
+        assertEquals(1, peaks.get("T2").getPeak());
+        assertEquals(0, peaks.get("T2").getCount());
+
+        // the next interval starts at the current counts
+        peaks = concurrencyMonitorProcessor.drainConcurrency();
+        assertEquals(1, peaks.size());
+        assertEquals(1, peaks.get("T1").getPeak());
+
+        // a name restarted after being forgotten is counted afresh
+        concurrencyMonitorProcessor.process(m2);
+        concurrencyMonitorProcessor.drainConcurrency();
+        assertTrue(concurrencyMonitorProcessor.drainConcurrency().isEmpty());
+        concurrencyMonitorProcessor.monitorStarted(m2);
+        assertEquals(1, concurrencyMonitorProcessor.getAll().get("T1").intValue());
+    }
+    
+    public void testConcurrentCounts() throws Exception {
+        runConcurrently();
+        concurrencyMonitorProcessor.setTrackPeaks(true);
+        runConcurrently();
+    }
+
+    private void runConcurrently() throws Exception {
+        final int threads = 8;
+        final int iterations = 10000;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < iterations; j++) {
+                        Monitor m = new TransactionMonitor("T" + (j % 2));
+                        concurrencyMonitorProcessor.monitorStarted(m);
+                        concurrencyMonitorProcessor.process(m);
+                        if (j % 1000 == 0) {
+                            concurrencyMonitorProcessor.drainConcurrency();
+                        }
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            workers[i].join();
+        }
+        assertTrue(concurrencyMonitorProcessor.getAll().isEmpty());
+    }
 }
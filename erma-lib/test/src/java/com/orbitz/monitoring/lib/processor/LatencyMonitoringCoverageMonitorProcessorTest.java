@@ -15,7 +15,6 @@ import com.orbitz.monitoring.api.Attribute;
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.monitor.AbstractMonitor;
 import com.orbitz.monitoring.api.monitor.TransactionMonitor;
-import com.orbitz.monitoring.lib.processor.LatencyMonitoringCoverageMonitorProcessor.EventFiringGapHandler;
 import com.orbitz.monitoring.lib.processor.LatencyMonitoringCoverageMonitorProcessor.GapHandler;
 
 /**
@@ -39,7 +38,7 @@ public class LatencyMonitoringCoverageMonitorProcessorTest extends TestCase {
     
     public void testDefaults() {
         LatencyMonitoringCoverageMonitorProcessor processor = new LatencyMonitoringCoverageMonitorProcessor();
-        assertTrue(processor.getGapHandler() instanceof EventFiringGapHandler);
+        assertNull(processor.getGapHandler());
     }
     
     public void testNotTransaction() {
@@ -187,6 +186,80 @@ public class LatencyMonitoringCoverageMonitorProcessorTest extends TestCase {
         Mockito.verify(handler).handleGap(parent, child2, null, latency - 2);
     }
 
+    public void testOverlappingChildren() {
+        Date parentStart = new Date();
+        Date parentEnd = new Date(parentStart.getTime() + latency);
+        Date child1Start = parentStart;
+        Date child1End = new Date(parentEnd.getTime() - 3);
+        Date child2Start = new Date(parentStart.getTime() + 1);
+        Date child2End = new Date(parentStart.getTime() + 2);
+        Date child3Start = new Date(parentEnd.getTime() - 1);
+        Date child3End = parentEnd;
+
+        TransactionMonitor parent = createParent(parentStart, parentEnd);
+        addChild(parent, child1Start, child1End);
+        addChild(parent, child2Start, child2End);
+        addChild(parent, child3Start, child3End);
+        parent.set(Attribute.LATENCY, latency);
+
+        processor.process(parent);
+
+        Mockito.verifyZeroInteractions(handler);
+        LatencyMonitoringCoverageMonitorProcessor.Coverage coverage =
+                processor.drainCoverage().get("Parent");
+        assertEquals(1, coverage.getCount());
+        assertEquals(latency, coverage.getLatency());
+        assertEquals(2, coverage.getUncovered());
+        assertEquals(2, coverage.getMaxGap());
+        assertTrue(processor.drainCoverage().isEmpty());
+    }
+
+    public void testChildrenOutOfOrder() {
+        Date parentStart = new Date();
+        Date parentEnd = new Date(parentStart.getTime() + latency);
+        Date child1Start = new Date(parentEnd.getTime() - 1);
+        Date child1End = parentEnd;
+        Date child2Start = parentStart;
+        Date child2End = new Date(parentStart.getTime() + 1);
+
+        TransactionMonitor parent = createParent(parentStart, parentEnd);
+        TransactionMonitor child1 = addChild(parent, child1Start, child1End);
+        TransactionMonitor child2 = addChild(parent, child2Start, child2End);
+        parent.set(Attribute.LATENCY, latency);
+
+        processor.process(parent);
+
+        Mockito.verify(handler).handleGap(parent, child2, child1, latency - 2);
+    }
+
+    public void testRecursive() {
+        Date parentStart = new Date();
+        Date parentEnd = new Date(parentStart.getTime() + latency);
+        TransactionMonitor parent = createParent(parentStart, parentEnd);
+        TransactionMonitor child = addChild(parent, parentStart, parentEnd);
+        parent.set(Attribute.LATENCY, latency);
+
+        processor.process(parent);
+        Mockito.verifyZeroInteractions(handler);
+
+        processor.setRecursive(true);
+        processor.process(parent);
+        Mockito.verify(handler).handleGap(child, null, null, latency);
+        assertEquals(2, processor.drainCoverage().size());
+    }
+
+    public void testSummariesWithoutHandler() {
+        processor = new LatencyMonitoringCoverageMonitorProcessor();
+        Date parentStart = new Date();
+        Date parentEnd = new Date(parentStart.getTime() + latency);
+        TransactionMonitor parent = createParent(parentStart, parentEnd);
+        parent.set(Attribute.LATENCY, latency);
+
+        processor.process(parent);
+
+        assertEquals(latency, processor.drainCoverage().get("Parent").getUncovered());
+    }
+
     private TransactionMonitor createParent(Date parentStart, Date parentEnd) {
         Map<String, Object> parentAttrs = new HashMap<String, Object>();
         parentAttrs.put(Attribute.START_TIME, parentStart);
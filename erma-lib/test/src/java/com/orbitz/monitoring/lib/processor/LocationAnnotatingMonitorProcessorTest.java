@@ -0,0 +1,97 @@
+package com.orbitz.monitoring.lib.processor;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+
+/**
+ * Unit tests for the LocationAnnotatingMonitorProcessor.
+ */
+public class LocationAnnotatingMonitorProcessorTest extends TestCase {
+    private LocationAnnotatingMonitorProcessor processor;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        processor = new LocationAnnotatingMonitorProcessor();
+        processor.setIncludedPackages(Collections.singletonList(getClass().getName()));
+        processor.setExcludedPackages(Collections.<String>emptyList());
+    }
+
+    public void testDefaultPackagesSkipMonitoringCode() {
+        processor = new LocationAnnotatingMonitorProcessor();
+        Monitor monitor = new EventMonitor("test");
+        processor.monitorCreated(monitor);
+        assertFalse(monitor.hasAttribute("stackTraceElement"));
+    }
+
+    public void testLocation() {
+        Monitor monitor = new EventMonitor("test");
+        processor.monitorCreated(monitor);
+        String location = monitor.getAsString("stackTraceElement");
+        assertTrue(location, location.startsWith(getClass().getName() + ".testLocation("));
+    }
+
+    public void testLocationCachedPerName() {
+        String[] locations = new String[5];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = createFromHere("cached");
+        }
+        for (int i = 1; i < locations.length; i++) {
+            assertEquals(locations[0], locations[i]);
+        }
+    }
+
+    public void testNewLocationFoundByCheck() {
+        processor.setVerifyInterval(4);
+        String cached = null;
+        for (int i = 0; i < 3; i++) {
+            cached = createFromHere("moved");
+        }
+
+        // a confirmed name is only walked on every fourth reuse
+        String[] locations = new String[4];
+        for (int i = 0; i < locations.length; i++) {
+            Monitor monitor = new EventMonitor("moved");
+            processor.monitorCreated(monitor);
+            locations[i] = monitor.getAsString("stackTraceElement");
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(cached, locations[i]);
+        }
+        assertFalse(cached.equals(locations[3]));
+
+        // after a mismatch the name is walked every time
+        assertEquals(cached, createFromHere("moved"));
+        Monitor monitor = new EventMonitor("moved");
+        processor.monitorCreated(monitor);
+        String location = monitor.getAsString("stackTraceElement");
+        assertFalse(cached.equals(location));
+        assertFalse(locations[3].equals(location));
+    }
+
+    public void testNameWithManyLocationsAlwaysWalked() {
+        String first = createFromHere("varies");
+        Monitor monitor = new EventMonitor("varies");
+        processor.monitorCreated(monitor);
+        String second = monitor.getAsString("stackTraceElement");
+        assertFalse(first.equals(second));
+
+        for (int i = 0; i < 5; i++) {
+            createFromHere("varies");
+        }
+        monitor = new EventMonitor("varies");
+        processor.monitorCreated(monitor);
+        String third = monitor.getAsString("stackTraceElement");
+        assertFalse(first.equals(third));
+        assertFalse(second.equals(third));
+    }
+
+    private String createFromHere(String name) {
+        Monitor monitor = new EventMonitor(name);
+        processor.monitorCreated(monitor);
+        return monitor.getAsString("stackTraceElement");
+    }
+}
@@ -1,5 +1,11 @@
 package com.orbitz.monitoring.lib.processor;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestCase;
 
 import org.apache.log4j.Level;
@@ -8,7 +14,9 @@ import org.apache.log4j.spi.LoggingEvent;
 
 import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.monitor.AbstractMonitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
 import com.orbitz.monitoring.lib.renderer.MonitorRenderer;
+import com.orbitz.monitoring.lib.renderer.SimpleMonitorRenderer;
 
 /**
  * Unit tests for the LoggingMonitorProcessor.
@@ -115,4 +123,186 @@ public class LoggingMonitorProcessorTest extends TestCase {
         assertEquals(Level.INFO, loggingEvent.getLevel());
         assertEquals("process: false", loggingEvent.getMessage());
     }
+    
+    public void testProcessSkippedWhenInfoDisabled() {
+        Monitor m = new AbstractMonitor(){};
+        processor.setLogProcess(true);
+        processor.setMonitorRenderer(new MonitorRenderer() {
+            public String renderMonitor(Monitor monitor) {
+                fail("Nothing should be rendered when INFO is disabled.");
+                return null;
+            }
+
+            public String renderMonitor(Monitor monitor, boolean includeStackTraces) {
+                fail("Nothing should be rendered when INFO is disabled.");
+                return null;
+            }
+        });
+        Logger.getLogger(LoggingMonitorProcessor.class.getName()).setLevel(Level.WARN);
+        
+        processor.process(m);
+        
+        assertTrue(appender.getEvents().isEmpty());
+    }
+    
+    public void testProcessWithStreamingRenderer() {
+        Monitor m = new AbstractMonitor("streamed"){};
+        processor.setLogProcess(true);
+        
+        processor.process(m);
+        processor.process(m);
+        
+        assertEquals(2, appender.getEvents().size());
+        String expected = "process: " + new SimpleMonitorRenderer().renderMonitor(m, false);
+        assertEquals(expected, appender.getEvents().get(0).getMessage());
+        assertEquals(expected, appender.getEvents().get(1).getMessage());
+    }
+    
+    public void testAsynchronousProcess() {
+        Monitor m = new AbstractMonitor("queued"){};
+        processor.setAsynchronous(true);
+        processor.startup();
+        
+        processor.process(m);
+        processor.process(m);
+        processor.shutdown();
+        
+        assertEquals(2, appender.getEvents().size());
+        String expected = "process: " + new SimpleMonitorRenderer().renderMonitor(m, false);
+        assertEquals(expected, appender.getEvents().get(0).getMessage());
+        assertFalse(Thread.currentThread().getName().equals(appender.getEvents().get(0).getThreadName()));
+        assertEquals(2, processor.getTotalEnqueued());
+        assertEquals(2, processor.getTotalWritten());
+    }
+    
+    public void testAsynchronousCreatedIsSnapshot() {
+        Monitor m = new AbstractMonitor("snapshot"){};
+        processor.setAsynchronous(true);
+        processor.setLogMonitorCreated(true);
+        processor.startup();
+        
+        String expected = "monitorCreated: " + new SimpleMonitorRenderer().renderMonitor(m, false);
+        processor.monitorCreated(m);
+        m.set("late", "value");
+        processor.shutdown();
+        
+        assertEquals(1, appender.getEvents().size());
+        assertEquals(expected, appender.getEvents().get(0).getMessage());
+    }
+    
+    public void testAsynchronousProcessIsSnapshot() {
+        Monitor m = new AbstractMonitor("snapshot"){};
+        processor.setAsynchronous(true);
+        processor.startup();
+        
+        String expected = "process: " + new SimpleMonitorRenderer().renderMonitor(m, false);
+        processor.process(m);
+        m.set("late", "value");
+        processor.shutdown();
+        
+        assertEquals(1, appender.getEvents().size());
+        assertEquals(expected, appender.getEvents().get(0).getMessage());
+    }
+    
+    public void testAsynchronousRendersOnWriterThread() {
+        final Thread[] renderedOn = new Thread[1];
+        processor.setMonitorRenderer(new SimpleMonitorRenderer() {
+            public void renderMonitor(Monitor monitor, boolean includeStackTraces,
+                    StringBuilder buf) {
+                renderedOn[0] = Thread.currentThread();
+                super.renderMonitor(monitor, includeStackTraces, buf);
+            }
+        });
+        TransactionMonitor m = new TransactionMonitor("parent");
+        m.addChildMonitor(new TransactionMonitor("child"));
+        m.succeeded();
+        processor.setAsynchronous(true);
+        processor.startup();
+        
+        String expected = "process: " + new SimpleMonitorRenderer().renderMonitor(m, false);
+        processor.process(m);
+        m.set("late", "value");
+        processor.shutdown();
+        
+        assertNotNull(renderedOn[0]);
+        assertNotSame(Thread.currentThread(), renderedOn[0]);
+        assertEquals(1, appender.getEvents().size());
+        assertEquals(expected, appender.getEvents().get(0).getMessage());
+    }
+    
+    public void testAsynchronousOverflowDiscards() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        TestAppender blocking = new TestAppender() {
+            public void append(LoggingEvent event) {
+                writing.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Logger logger = Logger.getLogger(LoggingMonitorProcessor.class.getName());
+        logger.addAppender(blocking);
+        try {
+            processor.setAsynchronous(true);
+            processor.setQueueCapacity(1);
+            processor.startup();
+            
+            Monitor m = new AbstractMonitor("overflow"){};
+            processor.process(m);
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+            processor.process(m);
+            processor.process(m);
+            
+            assertEquals(1, processor.getTotalDropped());
+            release.countDown();
+            processor.shutdown();
+            
+            assertEquals(2, appender.getEvents().size());
+            assertEquals(2, processor.getTotalWritten());
+        } finally {
+            logger.removeAppender(blocking);
+        }
+    }
+    
+    public void testOverflowPolicyByName() {
+        assertEquals("DISCARD", processor.getOverflowPolicy());
+        processor.setOverflowPolicy("caller_runs");
+        assertEquals("CALLER_RUNS", processor.getOverflowPolicy());
+        try {
+            processor.setOverflowPolicy("block");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+    public void testAsynchronousLogFile() throws Exception {
+        File file = File.createTempFile("erma-logging", ".log");
+        try {
+            Monitor m = new AbstractMonitor("toFile"){};
+            processor.setAsynchronous(true);
+            processor.setLogFile(file.getPath());
+            processor.startup();
+            
+            processor.process(m);
+            processor.shutdown();
+            
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            StringBuilder content = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line).append('\n');
+            }
+            reader.close();
+            String expected = "process: " + new SimpleMonitorRenderer().renderMonitor(m, false);
+            assertTrue(content.toString(), content.toString().matches(
+                    "\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d,\\d{3} \\Q" + expected + "\\E\n"));
+            assertTrue(appender.getEvents().isEmpty());
+        } finally {
+            file.delete();
+        }
+    }
 }
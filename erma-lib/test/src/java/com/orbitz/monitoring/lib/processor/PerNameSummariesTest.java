@@ -0,0 +1,56 @@
+package com.orbitz.monitoring.lib.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link PerNameSummaries}
+ */
+public class PerNameSummariesTest {
+  private final PerNameSummaries<AtomicLong> summaries = new PerNameSummaries<AtomicLong>() {
+    @Override
+    protected AtomicLong create() {
+      return new AtomicLong();
+    }
+  };
+
+  /**
+   * Each name has one summary until it is drained
+   */
+  @Test
+  public void testDrain() {
+    summaries.get("a").incrementAndGet();
+    summaries.get("a").incrementAndGet();
+    summaries.get("b").incrementAndGet();
+    assertSame(summaries.get("a"), summaries.get("a"));
+
+    Map<String, AtomicLong> drained = summaries.drain();
+    assertEquals(2, drained.size());
+    assertEquals(2, drained.get("a").get());
+    assertEquals(1, drained.get("b").get());
+    assertTrue(summaries.drain().isEmpty());
+  }
+
+  /**
+   * Null names and names past the limit are not summarized
+   */
+  @Test
+  public void testBounded() {
+    assertNull(summaries.get(null));
+    for (int i = 0; i < PerNameSummaries.MAX_NAMES; i++) {
+      summaries.get("name" + i);
+    }
+    assertNull(summaries.get("oneTooMany"));
+    assertEquals(0, summaries.get("name0").get());
+
+    summaries.drain();
+    assertEquals(0, summaries.get("oneTooMany").get());
+  }
+}
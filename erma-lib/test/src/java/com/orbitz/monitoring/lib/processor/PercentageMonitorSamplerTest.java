@@ -4,6 +4,9 @@ import com.orbitz.monitoring.api.Monitor;
 import com.orbitz.monitoring.api.monitor.EventMonitor;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static junit.framework.Assert.*;
 
 /**
@@ -72,4 +75,85 @@ public class PercentageMonitorSamplerTest {
             // expected
         }
     }
+
+    @Test
+    public void testConcurrentCountIsExact() throws Exception {
+        final Monitor monitor = new EventMonitor("test");
+        final MonitorSampler sampler = new PercentageMonitorSampler(25.0f);
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        if (sampler.accept(monitor)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(20000, accepted.get());
+    }
+
+    @Test
+    public void testNamePercentages() {
+        PercentageMonitorSampler sampler = new PercentageMonitorSampler(100.0f);
+        sampler.setNamePercentages(Collections.singletonMap("half", Float.valueOf(50.0f)));
+        sampler.setNamePercentage("none", 0.0f);
+        assertEquals(50.0f, sampler.getNamePercentages().get("half").floatValue());
+
+        Monitor half = new EventMonitor("half");
+        Monitor none = new EventMonitor("none");
+        Monitor other = new EventMonitor("other");
+        for (int i = 0; i < 10; i++) {
+            assertEquals((i % 2 == 0), sampler.accept(half));
+            assertFalse(sampler.accept(none));
+            assertTrue(sampler.accept(other));
+        }
+
+        sampler.removeNamePercentage("none");
+        assertTrue(sampler.accept(none));
+    }
+
+    @Test
+    public void testTraceConsistentSampling() {
+        PercentageMonitorSampler node1 = new PercentageMonitorSampler(10.0f);
+        PercentageMonitorSampler node2 = new PercentageMonitorSampler(10.0f);
+        node1.setTraceAttribute("requestId");
+        node2.setTraceAttribute("requestId");
+
+        int accepted = 0;
+        for (int i = 0; i < 10000; i++) {
+            String requestId = "request-" + i;
+            boolean decision = node1.accept(monitor("a", requestId));
+            assertEquals(decision, node1.accept(monitor("b", requestId)));
+            assertEquals(decision, node2.accept(monitor("c", requestId)));
+            if (decision) {
+                accepted++;
+            }
+        }
+        assertTrue("accepted " + accepted, accepted > 850 && accepted < 1150);
+
+        // monitors without the attribute are sampled by count
+        Monitor untraced = new EventMonitor("untraced");
+        int untracedAccepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (node1.accept(untraced)) {
+                untracedAccepted++;
+            }
+        }
+        assertEquals(10, untracedAccepted);
+    }
+
+    private static Monitor monitor(String name, String requestId) {
+        Monitor monitor = new EventMonitor(name);
+        monitor.set("requestId", requestId);
+        return monitor;
+    }
 }
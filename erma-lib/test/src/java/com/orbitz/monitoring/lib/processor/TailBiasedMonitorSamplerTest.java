@@ -0,0 +1,147 @@
+package com.orbitz.monitoring.lib.processor;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.monitor.AbstractMonitor;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.test.MockMonitorProcessor;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Test cases for TailBiasedMonitorSampler and SamplingMonitorProcessor
+ */
+public class TailBiasedMonitorSamplerTest {
+
+    private FakeClockSampler sampler;
+
+    @Before
+    public void setUp() {
+        sampler = new FakeClockSampler();
+        sampler.setIntervalMillis(1000);
+        sampler.setReservoirSize(5);
+        sampler.setBudgetPerSecond(0);
+        sampler.setMinOutlierSamples(100);
+        sampler.setLatencyPercentile(90);
+    }
+
+    @Test
+    public void testFailuresAlwaysAccepted() {
+        for (int i = 0; i < 20; i++) {
+            sampler.accept(monitor("fast", 1));
+        }
+        Monitor failure = monitor("fast", 1);
+        failure.set(Attribute.FAILED, true);
+        assertTrue(sampler.accept(failure));
+        assertEquals(1, sampler.getFailuresAccepted());
+    }
+
+    @Test
+    public void testReservoirPerNamePerInterval() {
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampler.accept(monitor("a", 1))) {
+                accepted++;
+            }
+        }
+        assertEquals(5, accepted);
+        assertTrue(sampler.accept(monitor("b", 1)));
+
+        // the next interval spreads the reservoir over the volume of the last
+        sampler.now += 1000;
+        StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            pattern.append(sampler.accept(monitor("a", 1)) ? 'x' : '.');
+        }
+        assertEquals(5, pattern.toString().replace(".", "").length());
+        assertEquals('x', pattern.charAt(19));
+        assertEquals('x', pattern.charAt(99));
+        assertEquals(11, sampler.getReservoirAccepted());
+    }
+
+    @Test
+    public void testOutliersAccepted() {
+        for (int i = 1; i <= 100; i++) {
+            sampler.accept(monitor("slow", i));
+        }
+        assertEquals(-1.0, sampler.getLatencyThreshold("slow"));
+
+        sampler.now += 1000;
+        sampler.setReservoirSize(0);
+        assertFalse(sampler.accept(monitor("slow", 90)));
+        double threshold = sampler.getLatencyThreshold("slow");
+        assertTrue(threshold > 90 && threshold <= 120);
+        assertTrue(sampler.accept(monitor("slow", 120)));
+        assertTrue(sampler.accept(monitor("slow", 5000)));
+        assertEquals(2, sampler.getOutliersAccepted());
+    }
+
+    @Test
+    public void testBudgetPerSecond() {
+        sampler.setReservoirSize(0);
+        sampler.setBudgetPerSecond(3);
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (sampler.accept(monitor("n" + i, 1))) {
+                accepted++;
+            }
+        }
+        assertEquals(3, accepted);
+        sampler.now += 1000;
+        assertTrue(sampler.accept(monitor("n0", 1)));
+        assertEquals(4, sampler.getBudgetAccepted());
+        assertEquals(7, sampler.getRejected());
+    }
+
+    @Test
+    public void testMaxNames() {
+        sampler.setMaxNames(1);
+        assertTrue(sampler.accept(monitor("first", 1)));
+        assertFalse(sampler.accept(monitor("second", 1)));
+        assertEquals(1, sampler.getTrackedNames());
+    }
+
+    @Test
+    public void testNamelessMonitorsShareTheBudget() {
+        sampler.setBudgetPerSecond(1);
+        Monitor nameless = new AbstractMonitor() {};
+        nameless.set(Attribute.LATENCY, 1);
+        assertTrue(sampler.accept(nameless));
+        assertFalse(sampler.accept(nameless));
+        assertEquals(1, sampler.getBudgetAccepted());
+        assertEquals(0, sampler.getTrackedNames());
+    }
+
+    @Test
+    public void testSamplingProcessor() {
+        MockMonitorProcessor delegate = new MockMonitorProcessor("delegate");
+        sampler.setReservoirSize(1);
+        SamplingMonitorProcessor processor = new SamplingMonitorProcessor(delegate, sampler);
+        assertEquals("delegate", processor.getName());
+
+        for (int i = 0; i < 3; i++) {
+            Monitor monitor = monitor("wrapped", 1);
+            processor.monitorCreated(monitor);
+            processor.process(monitor);
+        }
+        assertEquals(3, delegate.extractMonitorCreatedObjects().length);
+        assertEquals(1, delegate.extractProcessObjects().length);
+    }
+
+    private static Monitor monitor(String name, double latency) {
+        Monitor monitor = new EventMonitor(name);
+        monitor.set(Attribute.LATENCY, latency);
+        return monitor;
+    }
+
+    private static class FakeClockSampler extends TailBiasedMonitorSampler {
+        private long now = 100000;
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+}
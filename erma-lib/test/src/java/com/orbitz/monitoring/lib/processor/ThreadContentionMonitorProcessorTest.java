@@ -92,4 +92,50 @@ public class ThreadContentionMonitorProcessorTest extends TestCase {
         assertEquals(1, monitor.getAsInt("blockedCount"));
         assertEquals(1, monitor.getAsLong("blockedTime"));
     }
+
+    public void testProcessWithPartialStartHasNoImpact() {
+        TransactionMonitor monitor = new TransactionMonitor("foo");
+        monitor.set("startBlockedCount", 0L);
+        Map<String, Object> attrStart = new HashMap<String, Object>(monitor.getAll());
+        _processor.process(monitor);
+        assertEquals(attrStart.size(), monitor.getAll().size());
+    }
+
+    public void testSampling() {
+        _processor.setSampleInterval(3);
+        int measured = 0;
+        for (int i = 0; i < 9; i++) {
+            TransactionMonitor monitor = new TransactionMonitor("foo");
+            _processor.monitorStarted(monitor);
+            _processor.process(monitor);
+            if (monitor.hasAttribute("waitedTime")) {
+                measured++;
+            }
+        }
+        assertEquals(3, measured);
+    }
+
+    public void testHistograms() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            TransactionMonitor monitor = new TransactionMonitor("foo");
+            _processor.monitorStarted(monitor);
+            Object lock = new Object();
+            synchronized (lock) {
+                lock.wait(20);
+            }
+            _processor.process(monitor);
+        }
+
+        Map<String, ThreadContentionMonitorProcessor.Contention> drained =
+                _processor.drainContention();
+        ThreadContentionMonitorProcessor.Contention contention = drained.get("foo");
+        assertEquals(2, contention.getCount());
+        assertEquals(2, contention.getWaitedCount());
+        assertTrue(contention.getWaitedTime() >= 30);
+        long[] histogram = contention.getWaitedTimeHistogram();
+        assertEquals(2, histogram[5] + histogram[6]);
+        assertTrue(contention.getWaitedTimePercentile(99) >= 31);
+        assertEquals(0, contention.getBlockedTimePercentile(99));
+        assertTrue(_processor.drainContention().isEmpty());
+    }
 }
@@ -6,7 +6,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -170,4 +169,109 @@ public class EventPatternMonitorRendererTest {
         assertEquals("Monitor containing child Monitors not rendered as expected", expected, actual);
     }
 
+    @Test
+    public void fingerprintRenderingMatchesTextRendering() {
+        CompositeMonitor parent = new AbstractCompositeMonitor("parent"){};
+        parent.set(Monitor.VMID, _testVMID);
+        for (int i = 0; i < 3; i++) {
+            parent.addChildMonitor(daoCall("dao", "query"));
+        }
+        parent.addChildMonitor(daoCall("dao", "update"));
+        parent.addChildMonitor(daoCall("dao", "query"));
+        parent.addChildMonitor(daoCall("dao", "query"));
+        Monitor failed = new AbstractMonitor("dao") {};
+        failed.set(Monitor.VMID, _testVMID);
+        failed.set("failureThrowable", new IllegalStateException());
+        parent.addChildMonitor(failed);
+
+        String expected = renderer.renderMonitor(parent);
+        renderer.setCollapseByFingerprint(true);
+        String actual = renderer.renderMonitor(parent);
+
+        assertEquals("Fingerprint rendering differs from text rendering", expected, actual);
+        assertEquals('\n'+_testVMID+"|parent"+
+                "\n  "+_testVMID+"|dao|3 occurences"+
+                "\n    "+_testVMID+"|query"+
+                "\n  "+_testVMID+"|dao"+
+                "\n    "+_testVMID+"|update"+
+                "\n  "+_testVMID+"|dao|2 occurences"+
+                "\n    "+_testVMID+"|query"+
+                "\n  "+_testVMID+"|dao|java.lang.IllegalStateException", actual);
+    }
+
+    @Test
+    public void fingerprintRenderingSkipsMonitors() {
+        CompositeMonitor parent = new AbstractCompositeMonitor("parent"){};
+        parent.set(Monitor.VMID, _testVMID);
+        parent.addChildMonitor(daoCall("dao", "query"));
+        parent.addChildMonitor(daoCall("skipMe", "query"));
+        parent.addChildMonitor(daoCall("dao", "query"));
+
+        renderer.setMonitorsToSkip(Collections.singleton("skip"));
+        renderer.setCollapseByFingerprint(true);
+
+        String expected = '\n'+_testVMID+"|parent"+
+                "\n  "+_testVMID+"|dao|2 occurences"+
+                "\n    "+_testVMID+"|query";
+        assertEquals(expected, renderer.renderMonitor(parent));
+    }
+
+    @Test
+    public void monitorsToSkipChangedThroughGetter() {
+        CompositeMonitor parent = new AbstractCompositeMonitor("parent"){};
+        parent.set(Monitor.VMID, _testVMID);
+        Monitor child = new AbstractMonitor("child") {};
+        child.set(Monitor.VMID, _testVMID);
+        parent.addChildMonitor(child);
+
+        renderer.setMonitorsToSkip(Collections.singleton("other"));
+        assertEquals('\n'+_testVMID+"|parent\n  "+_testVMID+"|child", renderer.renderMonitor(parent));
+
+        renderer.getMonitorsToSkip().add("hil");
+        assertEquals('\n'+_testVMID+"|parent", renderer.renderMonitor(parent));
+    }
+
+    @Test
+    public void fingerprintRenderingKeepsSubclassRendering() {
+        renderer = new EventPatternMonitorRenderer(DEFAULT_ATTRIBUTES) {
+            protected void addChildToBuffer(StringBuffer buffer, StringBuffer child, int count) {
+                buffer.append(" [").append(count).append(']').append(child);
+            }
+        };
+        CompositeMonitor parent = new AbstractCompositeMonitor("parent"){};
+        parent.set(Monitor.VMID, _testVMID);
+        parent.addChildMonitor(daoCall("dao", "query"));
+        parent.addChildMonitor(daoCall("dao", "query"));
+
+        String expected = renderer.renderMonitor(parent);
+        renderer.setCollapseByFingerprint(true);
+
+        assertEquals(expected, renderer.renderMonitor(parent));
+        assertEquals('\n'+_testVMID+"|parent [2]\n  "+_testVMID+"|dao [1]\n    "+_testVMID+"|query",
+                expected);
+    }
+
+    @Test
+    public void monitorsToSkipRemovedThroughGetter() {
+        CompositeMonitor parent = new AbstractCompositeMonitor("parent"){};
+        parent.set(Monitor.VMID, _testVMID);
+        Monitor child = new AbstractMonitor("child") {};
+        child.set(Monitor.VMID, _testVMID);
+        parent.addChildMonitor(child);
+
+        renderer.setMonitorsToSkip(Collections.singleton("hil"));
+        assertEquals('\n'+_testVMID+"|parent", renderer.renderMonitor(parent));
+
+        renderer.getMonitorsToSkip().clear();
+        assertEquals('\n'+_testVMID+"|parent\n  "+_testVMID+"|child", renderer.renderMonitor(parent));
+    }
+
+    private CompositeMonitor daoCall(String name, String statement) {
+        CompositeMonitor call = new AbstractCompositeMonitor(name){};
+        call.set(Monitor.VMID, _testVMID);
+        Monitor child = new AbstractMonitor(statement) {};
+        child.set(Monitor.VMID, _testVMID);
+        call.addChildMonitor(child);
+        return call;
+    }
 }
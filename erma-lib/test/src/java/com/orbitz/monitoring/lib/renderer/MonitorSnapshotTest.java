@@ -0,0 +1,64 @@
+package com.orbitz.monitoring.lib.renderer;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.orbitz.monitoring.api.CompositeMonitor;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+
+/**
+ * Unit tests for {@link MonitorSnapshot}.
+ */
+public class MonitorSnapshotTest extends TestCase {
+    
+    public void testRendersLikeMonitor() {
+        TransactionMonitor parent = new TransactionMonitor("parent");
+        parent.set("count", 3);
+        parent.set("nothing", (Object) null);
+        TransactionMonitor child = new TransactionMonitor("child");
+        child.addChildMonitor(new EventMonitor("grandchild"));
+        parent.addChildMonitor(child);
+        
+        MonitorSnapshot snapshot = MonitorSnapshot.of(parent);
+        
+        SimpleMonitorRenderer simple = new SimpleMonitorRenderer();
+        assertEquals(simple.renderMonitor(parent), simple.renderMonitor(snapshot));
+        XmlMonitorRenderer xml = new XmlMonitorRenderer(Arrays.asList("name", "count"));
+        assertEquals(xml.renderMonitor(parent), xml.renderMonitor(snapshot));
+        assertEquals(TransactionMonitor.class.getName(), MonitorSnapshot.classNameOf(snapshot));
+    }
+    
+    public void testIsCopy() {
+        TransactionMonitor parent = new TransactionMonitor("parent");
+        MonitorSnapshot snapshot = MonitorSnapshot.of(parent);
+        parent.set("late", "value");
+        parent.addChildMonitor(new EventMonitor("late"));
+        
+        assertFalse(snapshot.hasAttribute("late"));
+        assertTrue(((CompositeMonitor) snapshot).getChildMonitors().isEmpty());
+        assertEquals("parent", snapshot.getAsString(Monitor.NAME));
+    }
+    
+    public void testTypedGetters() {
+        EventMonitor event = new EventMonitor("event");
+        event.set("count", "12");
+        MonitorSnapshot snapshot = MonitorSnapshot.of(event);
+        
+        assertFalse(snapshot instanceof CompositeMonitor);
+        assertEquals(12, snapshot.getAsInt("count"));
+        assertEquals(7L, snapshot.getAsLong("missing", 7L));
+    }
+    
+    public void testReadOnly() {
+        MonitorSnapshot snapshot = MonitorSnapshot.of(new EventMonitor("event"));
+        try {
+            snapshot.set("key", "value");
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.orbitz.monitoring.lib.renderer;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.lang.builder.ToStringStyle;
+
+import com.orbitz.monitoring.api.monitor.EventMonitor;
+
+/**
+ * Unit test for SimpleMonitorRenderer.
+ */
+public class SimpleMonitorRendererTest extends TestCase {
+
+    private SimpleMonitorRenderer renderer = new SimpleMonitorRenderer();
+
+    public void testRenderSortsAttributes() {
+        EventMonitor monitor = new EventMonitor("event");
+        monitor.set("zeta", 5);
+        monitor.set("alpha", "a");
+        monitor.set("array", new int[] {1, 2});
+
+        String rendered = renderer.renderMonitor(monitor);
+
+        assertTrue(rendered, rendered.startsWith("com.orbitz.monitoring.api.monitor.EventMonitor"));
+        assertTrue(rendered, rendered.contains("\n\t-> alpha = a\n\t-> array = {1,2}\n"));
+        assertTrue(rendered, rendered.endsWith("\n\t-> zeta = 5"));
+    }
+
+    public void testRenderNullMonitor() {
+        assertEquals("null", renderer.renderMonitor(null));
+    }
+
+    public void testStreamingRenderAppends() {
+        EventMonitor monitor = new EventMonitor("event");
+        monitor.set("foo", "bar");
+        StringBuilder buffer = new StringBuilder("prefix: ");
+
+        renderer.renderMonitor(monitor, false, buffer);
+
+        assertEquals("prefix: " + renderer.renderMonitor(monitor), buffer.toString());
+    }
+
+    public void testCustomStyle() {
+        EventMonitor monitor = new EventMonitor("event");
+        monitor.set("foo", "bar");
+        renderer.setToStringStyle(ToStringStyle.SHORT_PREFIX_STYLE);
+
+        String rendered = renderer.renderMonitor(monitor);
+
+        assertTrue(rendered, rendered.contains("\n\t-> foo = String[bar]"));
+    }
+}
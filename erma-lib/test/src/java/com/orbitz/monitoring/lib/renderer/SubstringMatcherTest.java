@@ -0,0 +1,46 @@
+package com.orbitz.monitoring.lib.renderer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link SubstringMatcher}
+ */
+public class SubstringMatcherTest {
+
+    @Test
+    public void matchesAnySubstring() {
+        SubstringMatcher matcher = new SubstringMatcher(Arrays.asList("he", "she", "his", "hers"));
+
+        assertTrue(matcher.matches("ushers"));
+        assertTrue(matcher.matches("this"));
+        assertTrue(matcher.matches("he"));
+        assertFalse(matcher.matches("hi"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void matchesAfterPartialMatchFails() {
+        SubstringMatcher matcher = new SubstringMatcher(Arrays.asList("abcd", "bce"));
+
+        assertTrue(matcher.matches("xabce"));
+        assertFalse(matcher.matches("abcx"));
+    }
+
+    @Test
+    public void emptySubstringMatchesEverything() {
+        assertTrue(new SubstringMatcher(Arrays.asList("x", "")).matches("abc"));
+        assertTrue(new SubstringMatcher(Collections.singleton("")).matches(""));
+    }
+
+    @Test
+    public void noSubstringsMatchNothing() {
+        assertFalse(new SubstringMatcher(Collections.emptySet()).matches("abc"));
+        assertFalse(new SubstringMatcher(Collections.singleton(null)).matches("abc"));
+    }
+}
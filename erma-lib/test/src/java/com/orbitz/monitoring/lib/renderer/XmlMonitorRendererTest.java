@@ -210,6 +210,39 @@ public class XmlMonitorRendererTest extends TestCase {
         assertEquals("<TransactionMonitor name=\"name\" crap=\"&lt;&gt;&amp;&quot;\"/>",
                 renderer.renderMonitor(monitor));
     }
+    
+    public void testMaxCharactersStopsDescending() {
+        final List attributeList = new ArrayList();
+        attributeList.add("name");
+        final XmlMonitorRenderer renderer = new XmlMonitorRenderer(attributeList);
+        renderer.setMaxCharacters(128);
+        
+        final TransactionMonitor monitor = new TransactionMonitor("parent");
+        for (int i = 0; i < 1000; i++) {
+            monitor.addChildMonitor(new EventMonitor("child" + i));
+        }
+        
+        final String xml = renderer.renderMonitor(monitor);
+        final int reported = Integer.parseInt(xml.replaceAll("(?s).*length is (\\d+),.*", "$1"));
+        assertTrue(xml, xml.startsWith("<TransactionMonitor name=\"parent\">\n"));
+        assertTrue("Rendering should stop near the budget: " + reported,
+                reported > 128 && reported < 256);
+    }
+    
+    public void testRenderToWriter() throws Exception {
+        final TransactionMonitor monitor = new TransactionMonitor("parent");
+        monitor.addChildMonitor(new EventMonitor("child"));
+        
+        final java.io.StringWriter writer = new java.io.StringWriter();
+        defaultRenderer.renderMonitor(monitor, writer);
+        assertEquals(defaultRenderer.renderMonitor(monitor), writer.toString());
+        
+        defaultRenderer.setMaxCharacters(16);
+        final java.io.StringWriter boundedWriter = new java.io.StringWriter();
+        defaultRenderer.renderMonitor(monitor, boundedWriter);
+        assertEquals(defaultRenderer.renderMonitor(monitor), boundedWriter.toString());
+        assertTrue(boundedWriter.toString().contains("max length is 16"));
+    }
 }
 
 class MyTransactionMonitor extends TransactionMonitor {
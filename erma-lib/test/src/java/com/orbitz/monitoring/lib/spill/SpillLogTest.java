@@ -0,0 +1,172 @@
+package com.orbitz.monitoring.lib.spill;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link SpillLog} and {@link SpillReplayer}
+ */
+public class SpillLogTest {
+  private File _file;
+  private SpillLog _log;
+
+  /**
+   * Prepares for each test
+   * @throws Exception if the temporary file cannot be created
+   */
+  @Before
+  public void setUp() throws Exception {
+    _file = File.createTempFile("erma-spill", ".log");
+    _file.delete();
+    _log = new SpillLog(_file, SpillLog.MIN_CAPACITY);
+  }
+
+  /**
+   * Cleans up after each test
+   */
+  @After
+  public void tearDown() {
+    _log.close();
+    _file.delete();
+  }
+
+  /**
+   * Records come back oldest first and are only removed when asked
+   */
+  @Test
+  public void testAppendPeekRemove() {
+    assertNull(_log.peek());
+    assertTrue(_log.append(bytes(1, 10)));
+    assertTrue(_log.append(bytes(2, 20)));
+    assertEquals(2, _log.size());
+
+    SpillLog.Record first = _log.peek();
+    assertArrayEquals(bytes(1, 10), first.getData());
+    assertArrayEquals(bytes(1, 10), _log.peek().getData());
+
+    assertTrue(_log.remove(first));
+    assertFalse(_log.remove(first));
+    assertArrayEquals(bytes(2, 20), _log.peek().getData());
+  }
+
+  /**
+   * A full log evicts the oldest records and keeps the newest, across wrap-arounds
+   */
+  @Test
+  public void testOldestFirstEviction() {
+    for (int i = 0; i < 100; i++) {
+      assertTrue(_log.append(bytes(i, 300)));
+    }
+
+    assertTrue(_log.getEvicted() > 0);
+    assertEquals(100, _log.size() + _log.getEvicted());
+    assertTrue(_log.getUsedBytes() <= _log.getCapacity());
+
+    int expected = 100 - _log.size();
+    SpillLog.Record record;
+    while ((record = _log.peek()) != null) {
+      assertArrayEquals(bytes(expected++, 300), record.getData());
+      _log.remove(record);
+    }
+    assertEquals(100, expected);
+  }
+
+  /**
+   * A record evicted after being peeked is not removed in place of its successor
+   */
+  @Test
+  public void testRemoveAfterEviction() {
+    _log.append(bytes(0, 1000));
+    SpillLog.Record stale = _log.peek();
+    for (int i = 1; i < 10; i++) {
+      _log.append(bytes(i, 1000));
+    }
+
+    int size = _log.size();
+    assertFalse(_log.remove(stale));
+    assertEquals(size, _log.size());
+  }
+
+  /**
+   * Records larger than the log are rejected
+   */
+  @Test
+  public void testOversizedRecord() {
+    assertFalse(_log.append(new byte[SpillLog.MIN_CAPACITY]));
+    assertEquals(1, _log.getRejected());
+    assertEquals(0, _log.size());
+  }
+
+  /**
+   * Records survive closing and reopening the file
+   * @throws Exception if the file cannot be reopened
+   */
+  @Test
+  public void testRecovery() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      _log.append(bytes(i, 300));
+    }
+    _log.remove(_log.peek());
+    int size = _log.size();
+    byte[] head = _log.peek().getData();
+    _log.close();
+
+    _log = new SpillLog(_file, SpillLog.MIN_CAPACITY);
+    assertEquals(size, _log.size());
+    assertArrayEquals(head, _log.peek().getData());
+  }
+
+  /**
+   * The replayer drains in order and stops at the first refusal
+   */
+  @Test
+  public void testReplayer() {
+    for (int i = 0; i < 5; i++) {
+      _log.append(bytes(i, 10));
+    }
+    final List<byte[]> delivered = new ArrayList<byte[]>();
+    final int[] calls = {0};
+    SpillReplayer replayer = new SpillReplayer(_log, new SpillReplayer.Sink() {
+      public boolean isAvailable() {
+        return true;
+      }
+
+      public boolean replay(final byte[] record) {
+        calls[0]++;
+        if ((calls[0] == 1) || (calls[0] == 5)) {
+          return false;
+        }
+        delivered.add(record);
+        return true;
+      }
+    });
+
+    assertEquals(0, replayer.replay());
+    assertEquals(3, replayer.replay());
+    assertEquals(2, replayer.replay());
+    assertEquals(5, replayer.getTotalReplayed());
+    assertEquals(0, _log.size());
+    for (int i = 0; i < 5; i++) {
+      assertArrayEquals(bytes(i, 10), delivered.get(i));
+    }
+  }
+
+  private byte[] bytes(final int value, final int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte)value;
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,37 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import java.util.Collection;
+
+import junit.framework.TestCase;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.lib.processor.CPUProfilingMonitorProcessor;
+
+/**
+ * Unit tests for the CPUProfilingTimerTask.
+ */
+public class CPUProfilingTimerTaskTest extends TestCase {
+
+    private CPUProfilingMonitorProcessor processor = new CPUProfilingMonitorProcessor();
+    private CPUProfilingTimerTask task = new CPUProfilingTimerTask(processor);
+
+    public void testSummaries() {
+        processor.setEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            Monitor m = new TransactionMonitor("T1");
+            processor.monitorStarted(m);
+            processor.process(m);
+        }
+
+        Collection<Monitor> monitors = task.emitMonitors();
+        assertEquals(1, monitors.size());
+        Monitor monitor = monitors.iterator().next();
+        assertEquals("CPUProfileStats", monitor.get(Monitor.NAME));
+        assertEquals("T1", monitor.get("type"));
+        assertEquals(3, monitor.getAsLong("count"));
+        assertTrue(monitor.hasAttribute("cpuTimeMillis"));
+        assertEquals(1, monitor.getAsInt("sampleInterval"));
+        assertTrue(task.emitMonitors().isEmpty());
+    }
+}
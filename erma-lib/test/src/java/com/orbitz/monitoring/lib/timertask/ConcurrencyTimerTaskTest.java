@@ -0,0 +1,44 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import java.util.Collection;
+
+import junit.framework.TestCase;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.lib.processor.ConcurrencyMonitorProcessor;
+
+/**
+ * Unit tests for the ConcurrencyTimerTask.
+ */
+public class ConcurrencyTimerTaskTest extends TestCase {
+
+    private ConcurrencyMonitorProcessor processor = new ConcurrencyMonitorProcessor();
+    private ConcurrencyTimerTask task = new ConcurrencyTimerTask(processor);
+
+    public void tearDown() {
+        ConcurrencyMonitorProcessor.clear();
+    }
+
+    public void testGauges() {
+        Monitor m1 = new TransactionMonitor("T1");
+        Monitor m2 = new TransactionMonitor("T1");
+        processor.monitorStarted(m1);
+        processor.monitorStarted(m2);
+        processor.process(m1);
+
+        Collection<Monitor> monitors = task.emitMonitors();
+        assertEquals(1, monitors.size());
+        Monitor monitor = monitors.iterator().next();
+        assertEquals("ConcurrencyStats", monitor.get(Monitor.NAME));
+        assertEquals("T1", monitor.get("type"));
+        assertEquals(1, monitor.getAsInt("count"));
+        assertEquals(2, monitor.getAsInt("peak"));
+
+        processor.process(m2);
+        monitor = task.emitMonitors().iterator().next();
+        assertEquals(0, monitor.getAsInt("count"));
+        assertEquals(1, monitor.getAsInt("peak"));
+        assertTrue(task.emitMonitors().isEmpty());
+    }
+}
@@ -0,0 +1,41 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import java.util.Collection;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import com.orbitz.monitoring.api.Attribute;
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.lib.processor.LatencyMonitoringCoverageMonitorProcessor;
+
+/**
+ * Unit tests for the MonitoringCoverageTimerTask.
+ */
+public class MonitoringCoverageTimerTaskTest extends TestCase {
+
+    private LatencyMonitoringCoverageMonitorProcessor processor =
+            new LatencyMonitoringCoverageMonitorProcessor(null, 10);
+    private MonitoringCoverageTimerTask task = new MonitoringCoverageTimerTask(processor);
+
+    public void testSummaries() {
+        TransactionMonitor monitor = new TransactionMonitor("T1");
+        // the start time is set, and locked, by the monitor itself
+        Date start = (Date) monitor.get(Attribute.START_TIME);
+        monitor.set(Attribute.END_TIME, new Date(start.getTime() + 20));
+        monitor.set(Attribute.LATENCY, 20);
+        processor.process(monitor);
+
+        Collection<Monitor> monitors = task.emitMonitors();
+        assertEquals(1, monitors.size());
+        Monitor summary = monitors.iterator().next();
+        assertEquals("MonitoringCoverageStats", summary.get(Monitor.NAME));
+        assertEquals("T1", summary.get("type"));
+        assertEquals(1, summary.getAsLong("count"));
+        assertEquals(20, summary.getAsLong("latency"));
+        assertEquals(20, summary.getAsLong("uncoveredTime"));
+        assertEquals(20, summary.getAsLong("maxGap"));
+        assertTrue(task.emitMonitors().isEmpty());
+    }
+}
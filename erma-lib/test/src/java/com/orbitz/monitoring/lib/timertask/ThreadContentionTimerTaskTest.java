@@ -0,0 +1,37 @@
+package com.orbitz.monitoring.lib.timertask;
+
+import java.util.Collection;
+
+import junit.framework.TestCase;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.monitor.TransactionMonitor;
+import com.orbitz.monitoring.lib.processor.ThreadContentionMonitorProcessor;
+
+/**
+ * Unit tests for the ThreadContentionTimerTask.
+ */
+public class ThreadContentionTimerTaskTest extends TestCase {
+
+    private ThreadContentionMonitorProcessor processor = new ThreadContentionMonitorProcessor();
+    private ThreadContentionTimerTask task = new ThreadContentionTimerTask(processor);
+
+    public void testSummaries() {
+        processor.setEnabled(true);
+        for (int i = 0; i < 3; i++) {
+            Monitor m = new TransactionMonitor("T1");
+            processor.monitorStarted(m);
+            processor.process(m);
+        }
+
+        Collection<Monitor> monitors = task.emitMonitors();
+        assertEquals(1, monitors.size());
+        Monitor monitor = monitors.iterator().next();
+        assertEquals("ThreadContentionStats", monitor.get(Monitor.NAME));
+        assertEquals("T1", monitor.get("type"));
+        assertEquals(3, monitor.getAsLong("count"));
+        assertEquals(0, monitor.getAsLong("blockedTimeP99"));
+        assertTrue(monitor.hasAttribute("waitedTimeP50"));
+        assertTrue(task.emitMonitors().isEmpty());
+    }
+}
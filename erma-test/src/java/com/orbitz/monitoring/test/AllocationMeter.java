@@ -0,0 +1,84 @@
+package com.orbitz.monitoring.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Reads the number of bytes the current thread has allocated, on JVMs whose thread bean offers
+ * <code>com.sun.management.ThreadMXBean.getThreadAllocatedBytes</code>. The bean is looked up
+ * reflectively so this compiles and runs, without allocation figures, everywhere else.
+ */
+class AllocationMeter {
+  private static final int CALIBRATION_READS = 100;
+
+  private final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+  private final Method method;
+  private final Object[] arguments;
+  private final long overhead;
+
+  AllocationMeter() {
+    Method method = null;
+    try {
+      Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+      if (type.isInstance(bean)
+          && ((Boolean)type.getMethod("isThreadAllocatedMemorySupported").invoke(bean))) {
+        type.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(bean, true);
+        method = type.getMethod("getThreadAllocatedBytes", long.class);
+      }
+    } catch (Exception e) {
+      method = null;
+    }
+    this.method = method;
+    // boxed once, so reading does not allocate an argument of its own
+    this.arguments = new Object[] {Long.valueOf(Thread.currentThread().getId())};
+    this.overhead = calibrate();
+  }
+
+  /**
+   * @return true if allocation can be measured
+   */
+  boolean isSupported() {
+    return method != null;
+  }
+
+  /**
+   * @return the bytes allocated by the thread that created this meter, or -1 if that cannot be
+   *         measured
+   */
+  long read() {
+    if (method == null) {
+      return -1;
+    }
+    try {
+      return ((Long)method.invoke(bean, arguments)).longValue();
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @param before a reading taken before the work
+   * @param after a reading taken after it
+   * @return the bytes allocated by the work, less what taking the readings allocates
+   */
+  long allocatedBetween(long before, long after) {
+    if ((before < 0) || (after < 0)) {
+      return -1;
+    }
+    return Math.max(0, after - before - overhead);
+  }
+
+  private long calibrate() {
+    if (method == null) {
+      return 0;
+    }
+    long least = Long.MAX_VALUE;
+    for (int i = 0; i < CALIBRATION_READS; i++) {
+      long before = read();
+      long after = read();
+      least = Math.min(least, after - before);
+    }
+    return Math.max(0, least);
+  }
+}
@@ -0,0 +1,286 @@
+package com.orbitz.monitoring.test;
+
+import com.orbitz.monitoring.api.Monitor;
+import com.orbitz.monitoring.api.MonitorProcessor;
+import com.orbitz.monitoring.api.MonitorProcessorFactory;
+import com.orbitz.monitoring.api.monitor.serializable.SerializableMonitor;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays captured monitors through the processors of a {@link MonitorProcessorFactory} and
+ * reports throughput, latency percentiles and the time and allocation of each processor.
+ * <p>
+ * Captures are Java serialization streams of {@link SerializableMonitor}s, as written by
+ * {@link #writeMonitors(Iterable, OutputStream)}; any other source of monitors can be replayed
+ * by passing them to {@link #replay(List)} directly. Monitors are handed to
+ * {@link MonitorProcessor#process(Monitor)} on the calling thread, one after another, either as
+ * fast as possible or paced to a target rate. When paced, each monitor's latency is measured
+ * from the time it was due, so a slow processor shows up in the latency of the monitors queued
+ * behind it rather than only in its own.
+ * <p>
+ * The factory's lifecycle is left to the caller. Processors see the captured monitors
+ * themselves, so attributes they set carry over into later iterations.
+ */
+public class MonitorReplayer {
+  private static final int RESET_INTERVAL = 1000;
+  private static final long SPIN_NANOS = 50 * 1000;
+
+  private final MonitorProcessorFactory factory;
+  private double targetRate;
+  private int warmupIterations;
+  private int iterations = 1;
+
+  /**
+   * @param factory supplies the processors for each monitor
+   */
+  public MonitorReplayer(MonitorProcessorFactory factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * Replays monitors through the factory's processors
+   * @param monitors the monitors, in the order to replay them
+   * @return the results, not counting warmup iterations
+   */
+  public ReplayReport replay(List<? extends Monitor> monitors) {
+    AllocationMeter meter = new AllocationMeter();
+    for (int i = 0; i < warmupIterations; i++) {
+      for (Monitor monitor : monitors) {
+        MonitorProcessor[] processors = factory.getProcessorsForMonitor(monitor);
+        for (int j = 0; j < processors.length; j++) {
+          try {
+            processors[j].process(monitor);
+          } catch (Throwable t) {
+            // failures are only counted in recorded iterations
+          }
+        }
+      }
+    }
+
+    Map<MonitorProcessor, ReplayReport.ProcessorStats> stats =
+        new IdentityHashMap<MonitorProcessor, ReplayReport.ProcessorStats>();
+    List<ReplayReport.ProcessorStats> ordered = new ArrayList<ReplayReport.ProcessorStats>();
+    LatencyHistogram latency = new LatencyHistogram();
+    long interval = (targetRate > 0) ? (long)(1e9 / targetRate) : 0;
+    long count = 0;
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      for (Monitor monitor : monitors) {
+        long due = (interval > 0) ? start + count * interval : System.nanoTime();
+        if (interval > 0) {
+          waitUntil(due);
+        }
+
+        MonitorProcessor[] processors = factory.getProcessorsForMonitor(monitor);
+        for (int j = 0; j < processors.length; j++) {
+          MonitorProcessor processor = processors[j];
+          ReplayReport.ProcessorStats processorStats = stats.get(processor);
+          if (processorStats == null) {
+            processorStats = new ReplayReport.ProcessorStats(nameOf(processor));
+            stats.put(processor, processorStats);
+            ordered.add(processorStats);
+          }
+
+          boolean failed = false;
+          long allocatedBefore = meter.read();
+          long processStart = System.nanoTime();
+          try {
+            processor.process(monitor);
+          } catch (Throwable t) {
+            failed = true;
+          }
+          long processEnd = System.nanoTime();
+          long allocated = meter.allocatedBetween(allocatedBefore, meter.read());
+          processorStats.record(processEnd - processStart, allocated, failed);
+        }
+        latency.record(System.nanoTime() - due);
+        count++;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+
+    return new ReplayReport(count, elapsed, targetRate, latency, ordered);
+  }
+
+  /**
+   * @return the rate to offer monitors at, per second, or 0 to replay them as fast as possible
+   */
+  public double getTargetRate() {
+    return targetRate;
+  }
+
+  public void setTargetRate(double targetRate) {
+    this.targetRate = targetRate;
+  }
+
+  /**
+   * @return the number of unrecorded, unpaced passes made over the monitors before the recorded
+   *         ones, to let the JIT compile the processors
+   */
+  public int getWarmupIterations() {
+    return warmupIterations;
+  }
+
+  public void setWarmupIterations(int warmupIterations) {
+    this.warmupIterations = warmupIterations;
+  }
+
+  /**
+   * @return the number of recorded passes made over the monitors
+   */
+  public int getIterations() {
+    return iterations;
+  }
+
+  public void setIterations(int iterations) {
+    this.iterations = iterations;
+  }
+
+  /**
+   * Reads every monitor from a capture
+   * @param in a stream of serialized monitors; collections of monitors are flattened. The stream
+   *        is not closed.
+   * @return the monitors
+   * @throws IOException if the stream cannot be read or holds something other than monitors
+   */
+  public static List<Monitor> readMonitors(InputStream in) throws IOException {
+    List<Monitor> monitors = new ArrayList<Monitor>();
+    ObjectInputStream objects = new ObjectInputStream(in);
+    while (true) {
+      Object object;
+      try {
+        object = objects.readObject();
+      } catch (EOFException e) {
+        break;
+      } catch (ClassNotFoundException e) {
+        IOException exception = new IOException("Capture holds an unknown class");
+        exception.initCause(e);
+        throw exception;
+      }
+      add(monitors, object);
+    }
+    return monitors;
+  }
+
+  /**
+   * Reads every monitor from a capture file
+   * @param file the file
+   * @return the monitors
+   * @throws IOException if the file cannot be read or holds something other than monitors
+   */
+  public static List<Monitor> readMonitors(File file) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      return readMonitors(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes monitors as a capture that {@link #readMonitors(InputStream)} can read
+   * @param monitors the monitors; those that are not already serializable are written as their
+   *        serializable momentos
+   * @param out the stream to write to. It is flushed, not closed.
+   * @throws IOException if the stream cannot be written
+   */
+  public static void writeMonitors(Iterable<? extends Monitor> monitors, OutputStream out)
+      throws IOException {
+    ObjectOutputStream objects = new ObjectOutputStream(out);
+    int written = 0;
+    for (Monitor monitor : monitors) {
+      objects.writeObject((monitor instanceof SerializableMonitor) ? monitor
+          : monitor.getSerializableMomento());
+      // stops the stream holding on to every monitor written
+      if (++written % RESET_INTERVAL == 0) {
+        objects.reset();
+      }
+    }
+    objects.flush();
+  }
+
+  /**
+   * Replays a capture file through new instances of the given processor classes and prints the
+   * report.
+   * <p>
+   * Usage: <code>MonitorReplayer &lt;capture file&gt; &lt;monitors per second, or 0&gt;
+   * &lt;processor class&gt;...</code>
+   * @param args the arguments
+   * @throws Exception if the capture cannot be read or a processor cannot be created
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.err.println("Usage: " + MonitorReplayer.class.getName()
+          + " <capture file> <monitors per second, or 0> <processor class>...");
+      System.exit(1);
+    }
+    List<Monitor> monitors = readMonitors(new File(args[0]));
+    MonitorProcessor[] processors = new MonitorProcessor[args.length - 2];
+    for (int i = 0; i < processors.length; i++) {
+      processors[i] = (MonitorProcessor)Class.forName(args[i + 2]).newInstance();
+    }
+
+    MockMonitorProcessorFactory factory = new MockMonitorProcessorFactory(processors);
+    for (int i = 0; i < processors.length; i++) {
+      processors[i].startup();
+    }
+    factory.startup();
+    try {
+      MonitorReplayer replayer = new MonitorReplayer(factory);
+      replayer.setTargetRate(Double.parseDouble(args[1]));
+      replayer.setWarmupIterations(1);
+      System.out.print(replayer.replay(monitors));
+    } finally {
+      factory.shutdown();
+      for (int i = 0; i < processors.length; i++) {
+        processors[i].shutdown();
+      }
+    }
+  }
+
+  private static void add(List<Monitor> monitors, Object object) throws IOException {
+    if (object instanceof Monitor) {
+      monitors.add((Monitor)object);
+    } else if (object instanceof Collection) {
+      for (Object element : (Collection<?>)object) {
+        add(monitors, element);
+      }
+    } else {
+      throw new IOException("Capture holds a " + ((object == null) ? "null"
+          : object.getClass().getName()) + " where a monitor was expected");
+    }
+  }
+
+  private static String nameOf(MonitorProcessor processor) {
+    String name = processor.getName();
+    return (name == null) ? processor.getClass().getName() : name;
+  }
+
+  private static void waitUntil(long due) {
+    long remaining;
+    while ((remaining = due - System.nanoTime()) > 0) {
+      // parking is too coarse for the last few microseconds
+      if (remaining > SPIN_NANOS) {
+        LockSupport.parkNanos(remaining - SPIN_NANOS);
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+}
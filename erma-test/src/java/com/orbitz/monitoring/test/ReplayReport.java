@@ -0,0 +1,191 @@
+package com.orbitz.monitoring.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a {@link MonitorReplayer} run: overall throughput, the latency of each monitor
+ * from the time it was due to be processed, and the time and allocation of every processor.
+ * All durations are in nanoseconds.
+ */
+public class ReplayReport {
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private final long monitors;
+  private final long elapsedNanos;
+  private final double targetRate;
+  private final LatencyHistogram latency;
+  private final List<ProcessorStats> processors;
+
+  ReplayReport(long monitors, long elapsedNanos, double targetRate, LatencyHistogram latency,
+      List<ProcessorStats> processors) {
+    this.monitors = monitors;
+    this.elapsedNanos = elapsedNanos;
+    this.targetRate = targetRate;
+    this.latency = latency;
+    this.processors = Collections.unmodifiableList(new ArrayList<ProcessorStats>(processors));
+  }
+
+  /**
+   * @return the number of monitors replayed, not counting warmup
+   */
+  public long getMonitors() {
+    return monitors;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * @return the rate monitors were offered at, per second, or 0 if they were replayed as fast as
+   *         possible
+   */
+  public double getTargetRate() {
+    return targetRate;
+  }
+
+  /**
+   * @return the rate monitors were processed at, per second
+   */
+  public double getThroughput() {
+    return perSecond(monitors, elapsedNanos);
+  }
+
+  /**
+   * The time from when each monitor was due until all of its processors finished. When replaying
+   * at a target rate this includes time spent waiting behind earlier, slower monitors.
+   * @return the latency of each monitor
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * @return the statistics of each processor, in the order they were first called
+   */
+  public List<ProcessorStats> getProcessors() {
+    return processors;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format("%d monitors in %.1f ms: %.0f/s", monitors, elapsedNanos / 1e6,
+        getThroughput()));
+    if (targetRate > 0) {
+      builder.append(String.format(" (target %.0f/s)", targetRate));
+    }
+    builder.append("\n");
+    builder.append(String.format("%-40s %10s %8s %12s", "", "calls", "errors", "max calls/s"));
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      builder.append(String.format(" %10s", "p" + format(PERCENTILES[i])));
+    }
+    builder.append(String.format(" %10s %12s\n", "max", "bytes/call"));
+    appendRow(builder, "monitor latency", latency.getCount(), 0, Double.NaN, latency, -1);
+    for (ProcessorStats stats : processors) {
+      appendRow(builder, stats.getName(), stats.getCalls(), stats.getErrors(),
+          stats.getThroughput(), stats.getLatency(), stats.getAllocatedBytesPerCall());
+    }
+    return builder.toString();
+  }
+
+  private static void appendRow(StringBuilder builder, String name, long calls, long errors,
+      double throughput, LatencyHistogram histogram, double bytesPerCall) {
+    builder.append(String.format("%-40s %10d %8d %12s", name, calls, errors,
+        Double.isNaN(throughput) ? "" : String.format("%.0f", throughput)));
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      builder.append(String.format(" %10s", micros(histogram.getPercentile(PERCENTILES[i]))));
+    }
+    builder.append(String.format(" %10s %12s\n", micros(histogram.getMax()),
+        (bytesPerCall < 0) ? "" : String.format("%.1f", bytesPerCall)));
+  }
+
+  private static String micros(long nanos) {
+    return String.format("%.1fus", nanos / 1e3);
+  }
+
+  private static String format(double percentile) {
+    return (percentile == Math.rint(percentile)) ? String.valueOf((long)percentile)
+        : String.valueOf(percentile);
+  }
+
+  private static double perSecond(long count, long nanos) {
+    return (nanos == 0) ? 0 : count * 1e9 / nanos;
+  }
+
+  /**
+   * The time and allocation spent in one processor
+   */
+  public static class ProcessorStats {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long errors;
+    private long allocatedBytes;
+    private boolean allocationMeasured = true;
+
+    ProcessorStats(String name) {
+      this.name = name;
+    }
+
+    void record(long nanos, long allocated, boolean failed) {
+      latency.record(nanos);
+      if (failed) {
+        errors++;
+      }
+      if (allocated < 0) {
+        allocationMeasured = false;
+      } else {
+        allocatedBytes += allocated;
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCalls() {
+      return latency.getCount();
+    }
+
+    /**
+     * @return the number of calls that threw
+     */
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * @return the time each call took
+     */
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+
+    /**
+     * @return the calls per second this processor could sustain on its own, from the time it
+     *         spent processing
+     */
+    public double getThroughput() {
+      return perSecond(latency.getCount(), latency.getTotal());
+    }
+
+    /**
+     * @return the bytes allocated by all calls, or -1 if allocation could not be measured
+     */
+    public long getAllocatedBytes() {
+      return allocationMeasured ? allocatedBytes : -1;
+    }
+
+    /**
+     * @return the mean bytes allocated by a call, or -1 if allocation could not be measured
+     */
+    public double getAllocatedBytesPerCall() {
+      if (!allocationMeasured) {
+        return -1;
+      }
+      return (latency.getCount() == 0) ? 0 : (double)allocatedBytes / latency.getCount();
+    }
+  }
+}